@@ -0,0 +1,90 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks jar. It behaves exactly like the JMH command
+ * line, except that results are written by default in
+ * <code>jmh-result.json</code> so that runs can be compared between two
+ * versions of the plug-in.
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public final class BenchmarkRunner {
+
+	/**
+	 * Default file in which the results are written
+	 */
+	public static final String DEFAULT_RESULT = "jmh-result.json";
+
+	private BenchmarkRunner() {
+	}
+
+	public static void main(final String[] args) throws RunnerException,
+			IOException {
+		CommandLineOptions commandLine;
+		try {
+			commandLine = new CommandLineOptions(args);
+		} catch (final CommandLineOptionException e) {
+			System.err.println("Error parsing command line: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+		if (commandLine.shouldHelp()) {
+			commandLine.showHelp();
+			return;
+		}
+		final OptionsBuilder builder = new OptionsBuilder();
+		if (!commandLine.getResultFormat().hasValue())
+			builder.resultFormat(ResultFormatType.JSON);
+		if (!commandLine.getResult().hasValue())
+			builder.result(DEFAULT_RESULT);
+		final Options options = builder.parent(commandLine).build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.aneveux.eproxy.api.NonProxyHostMatcher;
+
+/**
+ * Compares the lookup of a host in the list of hosts to bypass using
+ * {@link NonProxyHostMatcher} against the linear scan of the list, which is
+ * what happens on each request when the list is matched entry by entry.
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BypassMatchingBenchmark {
+
+	/**
+	 * Number of entries in the list of hosts to bypass
+	 */
+	@Param({ "10", "1000", "100000" })
+	public int size;
+
+	private String[] entries;
+
+	private NonProxyHostMatcher matcher;
+
+	private String[] hosts;
+
+	private int next;
+
+	@Setup
+	public void setUp() {
+		entries = HostLists.generate(size);
+		matcher = NonProxyHostMatcher.compile(entries);
+		hosts = HostLists.lookups(entries, 1024);
+	}
+
+	private String nextHost() {
+		final String host = hosts[next];
+		next = (next + 1) & (hosts.length - 1);
+		return host;
+	}
+
+	@Benchmark
+	public NonProxyHostMatcher compile() {
+		return NonProxyHostMatcher.compile(entries);
+	}
+
+	@Benchmark
+	public boolean matcher() {
+		return matcher.matches(nextHost());
+	}
+
+	@Benchmark
+	public boolean linearScan() {
+		final String host = nextHost();
+		for (final String entry : entries)
+			if (entry.startsWith("*")) {
+				if (host.endsWith(entry.substring(1)))
+					return true;
+			} else if (entry.endsWith("*")) {
+				if (host.startsWith(entry.substring(0, entry.length() - 1)))
+					return true;
+			} else if (entry.equalsIgnoreCase(host))
+				return true;
+		return false;
+	}
+}
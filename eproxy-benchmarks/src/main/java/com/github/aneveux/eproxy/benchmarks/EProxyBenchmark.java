@@ -0,0 +1,98 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.aneveux.eproxy.api.EProxyBuilder;
+import com.github.aneveux.eproxy.data.EProxy;
+
+/**
+ * Measures the creation of {@link EProxy} instances: parsing of the hosts to
+ * bypass as they're typed in the wizard, and {@link EProxyBuilder#build()}.
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EProxyBenchmark {
+
+	/**
+	 * Number of hosts in the list to parse
+	 */
+	@Param({ "10", "1000", "100000" })
+	public int size;
+
+	private String nonProxyHosts;
+
+	@Setup
+	public void setUp() {
+		nonProxyHosts = HostLists.join(HostLists.generate(size), ",");
+	}
+
+	@Benchmark
+	public EProxy parseNonProxyHosts() {
+		return new EProxy().setNonProxyHosts(nonProxyHosts);
+	}
+
+	@Benchmark
+	public EProxy build() {
+		return new EProxyBuilder().withReference("benchmark")
+				.withHost("proxy.example.com").withPort(3128)
+				.withAuthenticationRequired(true).withUser("user")
+				.withPassword("password").withDefaultNonProxyHost()
+				.withNonProxyHost("*.example.com")
+				.withNonProxyRange("10.0.0.0/8").build();
+	}
+}
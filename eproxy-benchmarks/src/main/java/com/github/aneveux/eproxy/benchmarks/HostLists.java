@@ -0,0 +1,113 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Generates realistic lists of hosts to bypass, mixing exact host names,
+ * domain wildcards and address prefixes.
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+final class HostLists {
+
+	/**
+	 * Seed used so that all the runs work on the same data
+	 */
+	private static final long SEED = 0x5EED;
+
+	private HostLists() {
+	}
+
+	/**
+	 * Generates a list of <code>size</code> hosts to bypass
+	 */
+	static String[] generate(final int size) {
+		final Random random = new Random(SEED);
+		final String[] entries = new String[size];
+		for (int i = 0; i < size; i++) {
+			switch (i % 4) {
+			case 0:
+				entries[i] = "host" + i + ".intranet" + random.nextInt(100)
+						+ ".corp";
+				break;
+			case 1:
+				entries[i] = "*.domain" + i + ".example.com";
+				break;
+			case 2:
+				entries[i] = "192.168." + random.nextInt(256) + "."
+						+ random.nextInt(256);
+				break;
+			default:
+				entries[i] = "build" + i + ".*";
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Generates <code>count</code> hosts to look up, one out of two being
+	 * bypassed by the given entries. <code>count</code> must be a power of
+	 * two.
+	 */
+	static String[] lookups(final String[] entries, final int count) {
+		final Random random = new Random(SEED);
+		final String[] hosts = new String[count];
+		for (int i = 0; i < count; i++)
+			if ((i & 1) == 0) {
+				final String entry = entries[random.nextInt(entries.length)];
+				hosts[i] = entry.replace("*", "www");
+			} else
+				hosts[i] = "unknown" + i + ".example.org";
+		return hosts;
+	}
+
+	/**
+	 * Joins the entries using the given separator
+	 */
+	static String join(final String[] entries, final String separator) {
+		final StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < entries.length; i++) {
+			if (i > 0)
+				builder.append(separator);
+			builder.append(entries[i]);
+		}
+		return builder.toString();
+	}
+}
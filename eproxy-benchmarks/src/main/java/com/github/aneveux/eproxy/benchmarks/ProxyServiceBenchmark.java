@@ -0,0 +1,129 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.net.proxy.IProxyData;
+import org.eclipse.core.net.proxy.IProxyService;
+import org.eclipse.core.runtime.CoreException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.aneveux.eproxy.api.EProxyBuilder;
+import com.github.aneveux.eproxy.api.InMemoryProxyService;
+import com.github.aneveux.eproxy.api.ProxyHelper;
+import com.github.aneveux.eproxy.api.ProxyState;
+import com.github.aneveux.eproxy.api.ProxyTransaction;
+import com.github.aneveux.eproxy.data.EProxy;
+
+/**
+ * Measures the round trip between eProxy and the {@link IProxyService}:
+ * reading the current configuration and applying a proxy. This is the code
+ * path behind {@link ProxyHelper#defineProxy(EProxy)} and
+ * {@link ProxyHelper#clearProxy()}, which can't be called directly as they
+ * rely on the plug-in activator.
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProxyServiceBenchmark {
+
+	private IProxyService service;
+
+	private EProxy first;
+
+	private EProxy second;
+
+	private boolean toggle;
+
+	@Setup
+	public void setUp() throws CoreException {
+		service = InMemoryProxyService.create();
+		first = new EProxyBuilder().withReference("first")
+				.withHost("proxy1.example.com").withPort(3128)
+				.withDefaultNonProxyHost().build();
+		second = new EProxyBuilder().withReference("second")
+				.withHost("proxy2.example.com").withPort(8080)
+				.withAuthenticationRequired(true).withUser("user")
+				.withPassword("password").withDefaultNonProxyHost()
+				.withNonProxyHost("*.example.com").build();
+		new ProxyTransaction(service).define(first).commit();
+	}
+
+	@Benchmark
+	public ProxyState capture() {
+		return ProxyState.capture(service);
+	}
+
+	@Benchmark
+	public IProxyData readHttpProxy() {
+		return service.getProxyData(IProxyData.HTTP_PROXY_TYPE);
+	}
+
+	@Benchmark
+	public ProxyTransaction.Result defineSameProxy() throws CoreException {
+		return new ProxyTransaction(service).define(first).commit();
+	}
+
+	@Benchmark
+	public ProxyTransaction.Result defineOtherProxy() throws CoreException {
+		toggle = !toggle;
+		return new ProxyTransaction(service).define(
+				toggle ? second : first).commit();
+	}
+
+	@Benchmark
+	public ProxyTransaction.Result defineAndClear() throws CoreException {
+		new ProxyTransaction(service).define(second).commit();
+		return new ProxyTransaction(service).clear().commit();
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.net.proxy.IProxyService;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Tests of the {@link Activator}, especially of the cost of getting the
+ * {@link IProxyService} it tracks compared to querying the OSGi registry on
+ * each call, as eProxy did before tracking it
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class ActivatorTest {
+
+	/**
+	 * Amount of lookups measured for each way of getting the service
+	 */
+	private static final int LOOKUPS = 100000;
+
+	private BundleContext context;
+
+	@Before
+	public void setUp() {
+		context = Activator.getDefault().getBundle().getBundleContext();
+	}
+
+	/**
+	 * Gets the service from the registry, as eProxy did on each call before
+	 * tracking it. The service is released here, so that the use count stays
+	 * the same whatever the amount of lookups.
+	 */
+	private IProxyService lookup() {
+		final ServiceReference<?> reference = context
+				.getServiceReference(IProxyService.class.getName());
+		final IProxyService service = (IProxyService) context
+				.getService(reference);
+		context.ungetService(reference);
+		return service;
+	}
+
+	/**
+	 * @return the time needed to look the service up in the registry
+	 *         {@link #LOOKUPS} times, in nanoseconds
+	 */
+	private long measureLookups() {
+		int found = 0;
+		final long start = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; i++)
+			if (lookup() != null)
+				found++;
+		final long elapsed = System.nanoTime() - start;
+		assertEquals(LOOKUPS, found);
+		return elapsed;
+	}
+
+	/**
+	 * @return the time needed to get the tracked service {@link #LOOKUPS}
+	 *         times, in nanoseconds
+	 */
+	private static long measureTracked() {
+		final Activator activator = Activator.getDefault();
+		int found = 0;
+		final long start = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; i++)
+			if (activator.getProxyService() != null)
+				found++;
+		final long elapsed = System.nanoTime() - start;
+		assertEquals(LOOKUPS, found);
+		return elapsed;
+	}
+
+	@Test
+	public void trackedServiceIsTheRegisteredOne() {
+		assertNotNull(Activator.getDefault().getProxyService());
+		assertSame(lookup(), Activator.getDefault().getProxyService());
+	}
+
+	@Test
+	public void trackedServiceIsCheaperThanARegistryLookup() {
+		// Both ways are run once before being measured, so that they're
+		// compiled alike
+		measureLookups();
+		measureTracked();
+		final long lookups = measureLookups();
+		final long tracked = measureTracked();
+		System.out.println("IProxyService lookups: registry "
+				+ TimeUnit.NANOSECONDS.toMicros(lookups) + "us, tracker "
+				+ TimeUnit.NANOSECONDS.toMicros(tracked) + "us for "
+				+ LOOKUPS + " calls");
+		assertTrue(tracked < lookups);
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.github.aneveux.eproxy.api.CircuitBreaker.State;
+
+/**
+ * Tests of the {@link CircuitBreaker} state machine, the time is provided by
+ * the tests
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class CircuitBreakerTest {
+
+	private final CircuitBreaker breaker = new CircuitBreaker(2, 3, 1000);
+
+	@Test
+	public void opensAfterConsecutiveFailures() {
+		breaker.onFailure(0);
+		assertEquals(State.CLOSED, breaker.getState(0));
+		breaker.onFailure(10);
+		assertEquals(State.OPEN, breaker.getState(10));
+		assertFalse(breaker.shouldCheck(10));
+	}
+
+	@Test
+	public void successResetsTheFailures() {
+		breaker.onFailure(0);
+		breaker.onSuccess(10);
+		breaker.onFailure(20);
+		assertEquals(State.CLOSED, breaker.getState(20));
+	}
+
+	@Test
+	public void halfOpensAfterTheOpenDuration() {
+		open(0);
+		assertEquals(State.OPEN, breaker.getState(999));
+		assertEquals(State.HALF_OPEN, breaker.getState(1000));
+		assertTrue(breaker.shouldCheck(1000));
+	}
+
+	@Test
+	public void closesAfterConsecutiveSuccesses() {
+		open(0);
+		breaker.onSuccess(1000);
+		breaker.onSuccess(1010);
+		assertEquals(State.HALF_OPEN, breaker.getState(1010));
+		breaker.onSuccess(1020);
+		assertEquals(State.CLOSED, breaker.getState(1020));
+		// A single failure doesn't open a closed breaker again
+		breaker.onFailure(1030);
+		assertEquals(State.CLOSED, breaker.getState(1030));
+	}
+
+	@Test
+	public void failureWhileHalfOpenOpensAgain() {
+		open(0);
+		breaker.onSuccess(1000);
+		breaker.onSuccess(1010);
+		breaker.onFailure(1020);
+		assertEquals(State.OPEN, breaker.getState(1020));
+		// The open duration starts again, as well as the successes
+		assertEquals(State.OPEN, breaker.getState(2019));
+		breaker.onSuccess(2020);
+		breaker.onSuccess(2030);
+		assertEquals(State.HALF_OPEN, breaker.getState(2030));
+	}
+
+	@Test
+	public void outcomesWhileOpenAreIgnored() {
+		open(0);
+		breaker.onSuccess(10);
+		breaker.onSuccess(20);
+		breaker.onSuccess(30);
+		assertEquals(State.OPEN, breaker.getState(30));
+		breaker.onFailure(500);
+		assertEquals(State.HALF_OPEN, breaker.getState(1000));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidThresholdsAreRefused() {
+		new CircuitBreaker(0, 1, 0);
+	}
+
+	private void open(final long now) {
+		breaker.onFailure(now);
+		breaker.onFailure(now);
+		assertEquals(State.OPEN, breaker.getState(now));
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+
+import org.eclipse.core.net.proxy.IProxyData;
+import org.eclipse.core.net.proxy.IProxyService;
+
+/**
+ * In-memory {@link IProxyService} used to test and to benchmark the eProxy API
+ * outside of an OSGi runtime. It's implemented using dynamic proxies so that it doesn't
+ * depend on the exact set of methods of the <code>org.eclipse.core.net</code>
+ * version on the classpath: only the methods used by eProxy are supported.
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public final class InMemoryProxyService implements InvocationHandler {
+
+	private static final String[] TYPES = { IProxyData.HTTP_PROXY_TYPE,
+			IProxyData.HTTPS_PROXY_TYPE, IProxyData.SOCKS_PROXY_TYPE };
+
+	private final ProxyData[] data = new ProxyData[TYPES.length];
+
+	private String[] nonProxiedHosts = { "localhost", "127.0.0.1" };
+
+	private boolean proxiesEnabled;
+
+	private boolean systemProxiesEnabled = true;
+
+	private InMemoryProxyService() {
+		for (int i = 0; i < TYPES.length; i++)
+			data[i] = new ProxyData(TYPES[i]);
+	}
+
+	/**
+	 * Creates a new in-memory service
+	 */
+	public static IProxyService create() {
+		return (IProxyService) Proxy.newProxyInstance(
+				IProxyService.class.getClassLoader(),
+				new Class<?>[] { IProxyService.class },
+				new InMemoryProxyService());
+	}
+
+	public Object invoke(final Object proxy, final Method method,
+			final Object[] args) throws Throwable {
+		final String name = method.getName();
+		if ("getProxyData".equals(name)) {
+			if (args == null || args.length == 0) {
+				final IProxyData[] copy = new IProxyData[data.length];
+				for (int i = 0; i < copy.length; i++)
+					copy[i] = data[i].copy();
+				return copy;
+			}
+			for (final ProxyData d : data)
+				if (d.type.equals(args[0]))
+					return d.copy();
+			return null;
+		} else if ("setProxyData".equals(name)) {
+			final IProxyData[] update = (IProxyData[]) args[0];
+			for (final IProxyData d : update)
+				for (int i = 0; i < data.length; i++)
+					if (data[i].type.equals(d.getType()))
+						data[i] = ProxyData.of(d);
+			return null;
+		} else if ("getNonProxiedHosts".equals(name))
+			return nonProxiedHosts.clone();
+		else if ("setNonProxiedHosts".equals(name)) {
+			nonProxiedHosts = ((String[]) args[0]).clone();
+			return null;
+		} else if ("isProxiesEnabled".equals(name))
+			return proxiesEnabled;
+		else if ("setProxiesEnabled".equals(name)) {
+			proxiesEnabled = (Boolean) args[0];
+			return null;
+		} else if ("isSystemProxiesEnabled".equals(name))
+			return systemProxiesEnabled;
+		else if ("setSystemProxiesEnabled".equals(name)) {
+			systemProxiesEnabled = (Boolean) args[0];
+			return null;
+		} else if ("hasSystemProxies".equals(name))
+			return false;
+		else if ("select".equals(name))
+			return select((URI) args[0]);
+		else if ("addProxyChangeListener".equals(name)
+				|| "removeProxyChangeListener".equals(name))
+			return null;
+		else if ("hashCode".equals(name))
+			return System.identityHashCode(proxy);
+		else if ("equals".equals(name))
+			return proxy == args[0];
+		else if ("toString".equals(name))
+			return "InMemoryProxyService";
+		throw new UnsupportedOperationException(name);
+	}
+
+	private IProxyData[] select(final URI uri) {
+		if (!proxiesEnabled)
+			return new IProxyData[0];
+		for (final String host : nonProxiedHosts)
+			if (host.equalsIgnoreCase(uri.getHost()))
+				return new IProxyData[0];
+		for (final ProxyData d : data)
+			if (d.type.equalsIgnoreCase(uri.getScheme()) && d.host != null)
+				return new IProxyData[] { d.copy() };
+		return new IProxyData[0];
+	}
+
+	/**
+	 * State of one proxy entry, exposed as {@link IProxyData} through a
+	 * dynamic proxy as well
+	 */
+	private static final class ProxyData implements InvocationHandler {
+
+		final String type;
+
+		String host;
+
+		int port = -1;
+
+		String user;
+
+		String password;
+
+		ProxyData(final String type) {
+			this.type = type;
+		}
+
+		static ProxyData of(final IProxyData d) {
+			final ProxyData data = new ProxyData(d.getType());
+			data.host = d.getHost();
+			data.port = d.getPort();
+			data.user = d.getUserId();
+			data.password = d.getPassword();
+			return data;
+		}
+
+		IProxyData copy() {
+			final ProxyData copy = new ProxyData(type);
+			copy.host = host;
+			copy.port = port;
+			copy.user = user;
+			copy.password = password;
+			return (IProxyData) Proxy.newProxyInstance(
+					IProxyData.class.getClassLoader(),
+					new Class<?>[] { IProxyData.class }, copy);
+		}
+
+		public Object invoke(final Object proxy, final Method method,
+				final Object[] args) throws Throwable {
+			final String name = method.getName();
+			if ("getType".equals(name))
+				return type;
+			else if ("getHost".equals(name))
+				return host;
+			else if ("setHost".equals(name))
+				host = (String) args[0];
+			else if ("getPort".equals(name))
+				return port;
+			else if ("setPort".equals(name))
+				port = (Integer) args[0];
+			else if ("getUserId".equals(name))
+				return user;
+			else if ("setUserid".equals(name))
+				user = (String) args[0];
+			else if ("getPassword".equals(name))
+				return password;
+			else if ("setPassword".equals(name))
+				password = (String) args[0];
+			else if ("isRequiresAuthentication".equals(name))
+				return user != null;
+			else if ("disable".equals(name)) {
+				host = null;
+				port = -1;
+				user = null;
+				password = null;
+			} else if ("getSource".equals(name))
+				return "Manual";
+			else if ("hashCode".equals(name))
+				return System.identityHashCode(proxy);
+			else if ("equals".equals(name))
+				return proxy == args[0];
+			else if ("toString".equals(name))
+				return type + "://" + host + ":" + port;
+			else
+				throw new UnsupportedOperationException(name);
+			return null;
+		}
+	}
+}
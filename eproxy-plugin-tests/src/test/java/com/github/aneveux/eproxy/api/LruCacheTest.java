@@ -0,0 +1,120 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link LruCache}, especially of its stripes
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class LruCacheTest {
+
+	@Test
+	public void leastRecentlyUsedEntryOfAStripeIsEvicted() {
+		final LruCache<String, String> cache = new LruCache<String, String>(2,
+				1);
+		cache.put("a", "1");
+		cache.put("b", "2");
+		cache.get("a");
+		cache.put("c", "3");
+		assertEquals("1", cache.get("a"));
+		assertNull(cache.get("b"));
+		assertEquals("3", cache.get("c"));
+	}
+
+	@Test
+	public void stripesNeverHoldMoreThanTheCapacity() {
+		final LruCache<Integer, Integer> cache = new LruCache<Integer, Integer>(
+				100);
+		for (int i = 0; i < 1000; i++)
+			cache.put(Integer.valueOf(i), Integer.valueOf(i));
+		assertTrue(cache.size() <= 100);
+		assertEquals(cache.size(), cache.snapshot().size());
+	}
+
+	@Test
+	public void capacityIsSharedOutBetweenTheStripes() {
+		// Consecutive integers land in consecutive stripes, so each stripe
+		// gets as many keys as it can hold
+		final LruCache<Integer, Integer> cache = new LruCache<Integer, Integer>(
+				20, 4);
+		for (int i = 0; i < 20; i++)
+			cache.put(Integer.valueOf(i), Integer.valueOf(i));
+		assertEquals(20, cache.size());
+	}
+
+	@Test
+	public void concurrentLookupsCountEveryHitAndMiss()
+			throws InterruptedException {
+		final LruCache<Integer, Integer> cache = new LruCache<Integer, Integer>(
+				64);
+		final List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++)
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 10000; i++) {
+						final Integer key = Integer.valueOf(i % 128);
+						if (cache.get(key) == null)
+							cache.put(key, key);
+					}
+				}
+			});
+		for (final Thread thread : threads)
+			thread.start();
+		for (final Thread thread : threads)
+			thread.join();
+		assertEquals(8 * 10000, cache.getHits() + cache.getMisses());
+		assertTrue(cache.size() <= 64);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void stripesMustBeAPowerOfTwo() {
+		new LruCache<String, String>(10, 3);
+	}
+
+}
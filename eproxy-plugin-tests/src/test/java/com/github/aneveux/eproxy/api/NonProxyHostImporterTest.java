@@ -0,0 +1,98 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests of the compaction of the {@link NonProxyHostImporter}
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class NonProxyHostImporterTest {
+
+	@Test
+	public void hostsCoveredByWildcardsAreDropped() {
+		assertArrayEquals(new String[] { "*.corp", "10.1.*", "corp" },
+				NonProxyHostImporter.compact(new String[] { "a.b.corp",
+						"*.corp", "*.b.corp", "10.1.*", "10.1.2.3", "corp" }));
+	}
+
+	@Test
+	public void rangesCoveredByBroaderRangesAreDropped() {
+		assertArrayEquals(new String[] { "10.0.0.0/8", "fd00::/8" },
+				NonProxyHostImporter.compact(new String[] { "10.1.0.0/16",
+						"10.0.0.0/8", "fd00::/8", "fd00:1::/32" }));
+	}
+
+	@Test
+	public void addressesCoveredByRangesAreKept() {
+		final String[] hosts = { "10.0.0.0/8", "10.1.2.3", "fd00::/8",
+				"fd00::1", "[fd00::2]" };
+		assertArrayEquals(hosts, NonProxyHostImporter.compact(hosts));
+	}
+
+	@Test
+	public void importedAddressesStayNextToTheirRange() throws IOException {
+		final File file = File.createTempFile("eproxy", ".txt");
+		try {
+			final OutputStream output = new FileOutputStream(file);
+			try {
+				output.write("a.corp\n10.1.2.3\n10.2.0.0/16\n".getBytes("UTF-8"));
+			} finally {
+				output.close();
+			}
+			final NonProxyHostImporter importer = new NonProxyHostImporter(
+					new String[] { "*.corp", "10.0.0.0/8" }).read(file);
+			assertArrayEquals(new String[] { "*.corp", "10.0.0.0/8",
+					"10.1.2.3" }, importer.getHosts());
+			assertEquals(2, importer.getRedundant());
+		} finally {
+			file.delete();
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link NonProxyHostParser}
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class NonProxyHostParserTest {
+
+	@Test
+	public void entriesAreSplitTrimmedLowerCasedAndDistinct() {
+		final NonProxyHostParser parser = NonProxyHostParser
+				.parse(" Host.Corp ,*.lan;10.0.0.0/8|host.corp\nlocalhost\n");
+		assertArrayEquals(new String[] { "host.corp", "*.lan", "10.0.0.0/8",
+				"localhost" }, parser.getHosts());
+		assertEquals(1, parser.getDuplicates());
+		assertEquals(0, parser.getProblemCount());
+	}
+
+	@Test
+	public void entriesEclipseAcceptsAreKeptWithWarnings() {
+		final NonProxyHostParser parser = NonProxyHostParser
+				.parse("<local>,[::1],169.254/16,host.corp");
+		assertArrayEquals(new String[] { "<local>", "[::1]", "169.254/16",
+				"host.corp" }, parser.getHosts());
+		assertEquals(3, parser.getProblemCount());
+		assertEquals(0, parser.getErrorCount());
+		for (final NonProxyHostParser.Problem problem : parser.getProblems())
+			assertTrue(problem.isWarning());
+	}
+
+	@Test
+	public void unusableEntriesAreDropped() {
+		final NonProxyHostParser parser = NonProxyHostParser
+				.parse("host corp,ok.corp,bad\u0001host");
+		assertArrayEquals(new String[] { "ok.corp" }, parser.getHosts());
+		assertEquals(2, parser.getErrorCount());
+		final NonProxyHostParser.Problem problem = parser.getProblems().get(0);
+		assertFalse(problem.isWarning());
+		assertEquals("host corp", problem.getEntry());
+		assertEquals(0, problem.getOffset());
+	}
+
+}
@@ -0,0 +1,207 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import javax.script.ScriptException;
+
+import org.eclipse.core.net.proxy.IProxyData;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link PacProxyResolver}, mostly of its functions which don't
+ * need a script engine
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class PacProxyResolverTest {
+
+	private final PacProxyResolver.Functions functions = new PacProxyResolver.Functions();
+
+	/**
+	 * Friday 2024-03-15 at 14:30:15 in Paris, 13:30:15 GMT
+	 */
+	private static Calendar now() {
+		final Calendar now = Calendar.getInstance(TimeZone
+				.getTimeZone("Europe/Paris"));
+		now.clear();
+		now.set(2024, Calendar.MARCH, 15, 14, 30, 15);
+		return now;
+	}
+
+	private static boolean dateRange(final String... arguments) {
+		return PacProxyResolver.Functions.dateRange(arguments, now());
+	}
+
+	private static boolean timeRange(final String... arguments) {
+		return PacProxyResolver.Functions.timeRange(arguments, now());
+	}
+
+	@Test
+	public void shExpMatchIsCaseSensitive() {
+		assertTrue(functions.shExpMatch("www.example.com", "*.example.com"));
+		assertFalse(functions.shExpMatch("www.Example.com", "*.example.com"));
+		assertFalse(functions.shExpMatch("www.example.com", "*.EXAMPLE.com"));
+	}
+
+	@Test
+	public void shExpMatchSupportsWildcards() {
+		assertTrue(functions.shExpMatch("host1.lan", "host?.lan"));
+		assertFalse(functions.shExpMatch("host12.lan", "host?.lan"));
+		assertTrue(functions.shExpMatch("anything", "*"));
+		assertFalse(functions.shExpMatch("example.org", "*.example.org"));
+	}
+
+	@Test
+	public void firstProxyOfHttpDirective() {
+		final String result = "PROXY proxy.lan:3128; DIRECT";
+		assertEquals("proxy.lan:3128", PacProxyResolver.firstProxy(result));
+		assertEquals(IProxyData.HTTP_PROXY_TYPE,
+				PacProxyResolver.firstProxyType(result));
+	}
+
+	@Test
+	public void socksDirectivesAreSocksProxies() {
+		final String result = "SOCKS5 socks.lan:1080; PROXY proxy.lan:3128";
+		assertEquals("socks.lan:1080", PacProxyResolver.firstProxy(result));
+		assertEquals(IProxyData.SOCKS_PROXY_TYPE,
+				PacProxyResolver.firstProxyType(result));
+	}
+
+	@Test
+	public void directMeansNoProxy() {
+		assertNull(PacProxyResolver.firstProxy("DIRECT; PROXY proxy.lan:3128"));
+		assertNull(PacProxyResolver.firstProxyType("DIRECT"));
+	}
+
+	@Test
+	public void unknownDirectivesAreSkipped() {
+		final String result = "QUIC quic.lan:443; HTTPS secure.lan:443";
+		assertEquals("secure.lan:443", PacProxyResolver.firstProxy(result));
+		assertEquals(IProxyData.HTTP_PROXY_TYPE,
+				PacProxyResolver.firstProxyType(result));
+	}
+
+	@Test
+	public void dateRangeOfSingleValues() {
+		assertTrue(dateRange("15"));
+		assertFalse(dateRange("16"));
+		assertTrue(dateRange("MAR"));
+		assertFalse(dateRange("APR"));
+		assertTrue(dateRange("2024"));
+		assertFalse(dateRange("2023"));
+	}
+
+	@Test
+	public void dateRangeOfPairs() {
+		assertTrue(dateRange("1", "15"));
+		assertFalse(dateRange("16", "31"));
+		assertTrue(dateRange("JAN", "MAR"));
+		assertTrue(dateRange("NOV", "MAR"));
+		assertFalse(dateRange("APR", "OCT"));
+		assertTrue(dateRange("2020", "2030"));
+		assertTrue(dateRange("1", "FEB", "1", "APR"));
+		assertFalse(dateRange("16", "MAR", "1", "APR"));
+		assertTrue(dateRange("DEC", "2023", "MAR", "2024"));
+		assertFalse(dateRange("APR", "2024", "MAR", "2025"));
+		assertTrue(dateRange("15", "MAR", "2024", "15", "MAR", "2024"));
+		assertFalse(dateRange("16", "MAR", "2024", "14", "MAR", "2024"));
+	}
+
+	@Test
+	public void dateRangeInGmt() {
+		final Calendar morning = now();
+		morning.set(Calendar.HOUR_OF_DAY, 0);
+		assertTrue(PacProxyResolver.Functions.dateRange(new String[] { "15" },
+				morning));
+		assertFalse(PacProxyResolver.Functions.dateRange(new String[] { "15",
+				"GMT" }, morning));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void dateRangeRefusesMismatchedBounds() {
+		dateRange("1", "MAR");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void dateRangeRefusesUnknownMonths() {
+		dateRange("MARCH");
+	}
+
+	@Test
+	public void timeRangeOfHoursMinutesAndSeconds() {
+		assertTrue(timeRange("14"));
+		assertTrue(timeRange("9", "17"));
+		assertFalse(timeRange("15", "17"));
+		assertTrue(timeRange("22", "15"));
+		assertTrue(timeRange("14", "30", "14", "45"));
+		assertFalse(timeRange("14", "0", "14", "30"));
+		assertTrue(timeRange("14", "30", "15", "14", "30", "16"));
+		assertFalse(timeRange("14", "30", "16", "14", "30", "20"));
+		assertTrue(timeRange("13", "GMT"));
+		assertFalse(timeRange("14", "GMT"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void timeRangeRefusesInvalidMinutes() {
+		timeRange("14", "60", "15", "0");
+	}
+
+	@Test(expected = ScriptException.class)
+	public void scriptsCantReachJavaClasses() throws ScriptException {
+		final PacProxyResolver resolver = new PacProxyResolver();
+		resolver.setScript("function FindProxyForURL(url, host) { return 'PROXY ' + java.lang.System.getProperty('user.name') + ':80'; }");
+		resolver.findProxyForURL(URI.create("http://example.com/"));
+	}
+
+	@Test(expected = ScriptException.class)
+	public void scriptsCantUseReflection() throws ScriptException {
+		final PacProxyResolver resolver = new PacProxyResolver();
+		resolver.setScript("function FindProxyForURL(url, host) { return 'PROXY ' + eproxyPac.getClass().forName('java.lang.System').getMethod('getProperty', ''.getClass()).invoke(null, 'user.name') + ':80'; }");
+		resolver.findProxyForURL(URI.create("http://example.com/"));
+	}
+
+}
@@ -0,0 +1,201 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.aneveux.eproxy.data.EProxy;
+
+/**
+ * Tests of the {@link ProxyProber}, using local {@link ServerSocket}s as
+ * proxies
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class ProxyProberTest {
+
+	/**
+	 * Long enough to tell a probe waiting for its timeout apart from a probe
+	 * ending as soon as all the candidates are resolved
+	 */
+	private static final long TIMEOUT = 5000;
+
+	private ServerSocket listening;
+
+	/**
+	 * A port nobody listens to
+	 */
+	private int closedPort;
+
+	@Before
+	public void setUp() throws IOException {
+		listening = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		final ServerSocket closed = new ServerSocket(0, 50,
+				InetAddress.getByName("127.0.0.1"));
+		closedPort = closed.getLocalPort();
+		closed.close();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		listening.close();
+	}
+
+	private static EProxy proxy(final int port) {
+		return new EProxy().setHost("127.0.0.1").setPort(port);
+	}
+
+	@Test
+	public void reachableProxyHasALatency() throws IOException {
+		final List<ProxyProber.Result> results = new ProxyProber(TIMEOUT)
+				.probe(Arrays.asList(proxy(listening.getLocalPort())));
+		assertEquals(1, results.size());
+		assertTrue(results.get(0).isReachable());
+		assertTrue(results.get(0).getLatency() >= 0);
+		assertNull(results.get(0).getError());
+	}
+
+	@Test
+	public void refusedConnectionKeepsItsError() throws IOException {
+		final List<ProxyProber.Result> results = new ProxyProber(TIMEOUT)
+				.probe(Arrays.asList(proxy(closedPort)));
+		assertFalse(results.get(0).isReachable());
+		assertEquals(-1, results.get(0).getLatency());
+		assertNotNull(results.get(0).getError());
+		assertFalse("Timed out".equals(results.get(0).getError()));
+	}
+
+	@Test
+	public void probeEndsOnceAllCandidatesAreResolved() throws IOException {
+		final long start = System.currentTimeMillis();
+		new ProxyProber(TIMEOUT).probe(Arrays.asList(proxy(closedPort),
+				proxy(listening.getLocalPort())));
+		assertTrue(System.currentTimeMillis() - start < TIMEOUT / 2);
+	}
+
+	@Test
+	public void reachableProxiesAreRankedFirst() throws IOException {
+		final EProxy unreachable = proxy(closedPort);
+		final EProxy reachable = proxy(listening.getLocalPort());
+		final List<ProxyProber.Result> results = new ProxyProber(TIMEOUT)
+				.probe(Arrays.asList(unreachable, reachable));
+		assertEquals(reachable, results.get(0).getProxy());
+		assertEquals(unreachable, results.get(1).getProxy());
+	}
+
+	@Test
+	public void invalidPortIsReportedWithoutConnecting() throws IOException {
+		final List<ProxyProber.Result> results = new ProxyProber(TIMEOUT)
+				.probe(Arrays.asList(proxy(-1)));
+		assertFalse(results.get(0).isReachable());
+		assertNotNull(results.get(0).getError());
+	}
+
+	/**
+	 * Resolves any host to the loopback address after a delay
+	 */
+	private static ProxyProber.Resolver slowResolver(final long delay) {
+		return new ProxyProber.Resolver() {
+			@Override
+			public InetAddress resolve(final String host)
+					throws UnknownHostException {
+				try {
+					Thread.sleep(delay);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return InetAddress.getByName("127.0.0.1");
+			}
+		};
+	}
+
+	@Test
+	public void slowResolutionCountsAgainstTheTimeout() throws IOException {
+		final long start = System.currentTimeMillis();
+		final List<ProxyProber.Result> results = new ProxyProber(200,
+				slowResolver(TIMEOUT)).probe(Arrays.asList(proxy(listening
+				.getLocalPort())));
+		assertTrue(System.currentTimeMillis() - start < TIMEOUT / 2);
+		assertFalse(results.get(0).isReachable());
+		assertEquals("Timed out", results.get(0).getError());
+	}
+
+	@Test
+	public void hostsAreResolvedInParallel() throws IOException {
+		final long start = System.currentTimeMillis();
+		final List<ProxyProber.Result> results = new ProxyProber(TIMEOUT,
+				slowResolver(500)).probe(Arrays.asList(
+				proxy(listening.getLocalPort()),
+				proxy(listening.getLocalPort()),
+				proxy(listening.getLocalPort()),
+				proxy(listening.getLocalPort())));
+		assertTrue(System.currentTimeMillis() - start < 1500);
+		for (final ProxyProber.Result result : results)
+			assertTrue(result.isReachable());
+	}
+
+	@Test
+	public void unknownHostIsReported() throws IOException {
+		final List<ProxyProber.Result> results = new ProxyProber(TIMEOUT,
+				new ProxyProber.Resolver() {
+					@Override
+					public InetAddress resolve(final String host)
+							throws UnknownHostException {
+						throw new UnknownHostException(host);
+					}
+				}).probe(Arrays.asList(proxy(listening.getLocalPort())));
+		assertFalse(results.get(0).isReachable());
+		assertEquals("Unknown host", results.get(0).getError());
+	}
+
+}
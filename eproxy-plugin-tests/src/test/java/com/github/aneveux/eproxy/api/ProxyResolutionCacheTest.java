@@ -0,0 +1,152 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+
+import org.eclipse.core.net.proxy.IProxyData;
+import org.eclipse.core.net.proxy.IProxyService;
+import org.eclipse.core.runtime.CoreException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link ProxyResolutionCache}, especially of the configuration
+ * changing while a result is computed
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class ProxyResolutionCacheTest {
+
+	private IProxyService memory;
+
+	private ProxyResolutionCache cache;
+
+	/**
+	 * True to change the configuration the next time the nonProxyHosts are
+	 * read, as another thread would
+	 */
+	private boolean changeWhileReading;
+
+	@Before
+	public void setUp() throws CoreException {
+		memory = InMemoryProxyService.create();
+		memory.setNonProxiedHosts(new String[] { "old.lan" });
+		final IProxyData http = memory
+				.getProxyData(IProxyData.HTTP_PROXY_TYPE);
+		http.setHost("proxy.lan");
+		http.setPort(3128);
+		memory.setProxyData(new IProxyData[] { http });
+		memory.setProxiesEnabled(true);
+		final IProxyService racing = (IProxyService) Proxy.newProxyInstance(
+				IProxyService.class.getClassLoader(),
+				new Class<?>[] { IProxyService.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(final Object proxy,
+							final Method method, final Object[] args)
+							throws Throwable {
+						try {
+							final Object result = method.invoke(memory, args);
+							if (changeWhileReading
+									&& "getNonProxiedHosts".equals(method
+											.getName())) {
+								changeWhileReading = false;
+								memory.setNonProxiedHosts(new String[] { "new.lan" });
+								cache.proxyInfoChanged(null);
+							}
+							return result;
+						} catch (final InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				});
+		cache = new ProxyResolutionCache(racing);
+	}
+
+	@Test
+	public void resultsAreCached() {
+		final URI uri = URI.create("http://www.example.com/");
+		assertNotNull(cache.resolve(uri));
+		assertNotNull(cache.resolve(uri));
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void bypassedHostsAreDirect() {
+		assertNull(cache.resolve(URI.create("http://old.lan/")));
+	}
+
+	@Test
+	public void matcherCompiledBeforeAChangeIsDropped() {
+		changeWhileReading = true;
+		assertTrue(cache.shouldBypass("old.lan"));
+		assertFalse(cache.shouldBypass("old.lan"));
+		assertTrue(cache.shouldBypass("new.lan"));
+	}
+
+	@Test
+	public void resultComputedBeforeAChangeIsDropped() {
+		changeWhileReading = true;
+		final URI uri = URI.create("http://old.lan/");
+		assertNull(cache.resolve(uri));
+		final IProxyData data = cache.resolve(uri);
+		assertNotNull(data);
+		assertEquals("proxy.lan", data.getHost());
+	}
+
+	@Test
+	public void missingProxyServiceMeansDirectConnections() {
+		final ProxyResolutionCache withoutService = new ProxyResolutionCache(
+				null);
+		assertNull(withoutService.resolve(URI.create("http://example.com/")));
+		assertFalse(withoutService.shouldBypass("example.com"));
+	}
+
+}
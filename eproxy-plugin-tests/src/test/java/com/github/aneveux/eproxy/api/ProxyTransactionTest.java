@@ -0,0 +1,110 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.eclipse.core.net.proxy.IProxyData;
+import org.eclipse.core.net.proxy.IProxyService;
+import org.eclipse.core.runtime.CoreException;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.aneveux.eproxy.data.EProxy;
+
+/**
+ * Tests of the {@link ProxyTransaction}, especially of the credentials written
+ * when Eclipse goes through the {@link RelayProxy}
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class ProxyTransactionTest {
+
+	private IProxyService memory;
+
+	@Before
+	public void setUp() {
+		memory = InMemoryProxyService.create();
+	}
+
+	/**
+	 * The relay in front of an upstream proxy, HTTPS and SOCKS going to other
+	 * proxies
+	 */
+	private static EProxy relayed(final boolean authenticationRequired) {
+		return new EProxy().setHost(RelayProxy.LOCAL_HOST).setPort(8123)
+				.setHttpsHost("secure.corp").setHttpsPort(3129)
+				.setSocksHost("socks.corp").setSocksPort(1080)
+				.setAuthenticationRequired(authenticationRequired)
+				.setUser(authenticationRequired ? "john" : null)
+				.setPassword(authenticationRequired ? "secret" : null);
+	}
+
+	@Test
+	public void relayCredentialsOnlyGoToTheRelay() throws CoreException {
+		new ProxyTransaction(memory).defineRelayed(relayed(false),
+				RelayProxy.USER, "token").commit();
+		final IProxyData http = memory
+				.getProxyData(IProxyData.HTTP_PROXY_TYPE);
+		assertEquals(RelayProxy.USER, http.getUserId());
+		assertEquals("token", http.getPassword());
+		assertNull(memory.getProxyData(IProxyData.HTTPS_PROXY_TYPE)
+				.getUserId());
+		assertNull(memory.getProxyData(IProxyData.SOCKS_PROXY_TYPE)
+				.getPassword());
+	}
+
+	@Test
+	public void otherProxiesKeepTheUpstreamCredentials() throws CoreException {
+		new ProxyTransaction(memory).defineRelayed(relayed(true),
+				RelayProxy.USER, "token").commit();
+		assertEquals(RelayProxy.USER,
+				memory.getProxyData(IProxyData.HTTP_PROXY_TYPE)
+						.getUserId());
+		final IProxyData https = memory
+				.getProxyData(IProxyData.HTTPS_PROXY_TYPE);
+		assertEquals("secure.corp", https.getHost());
+		assertEquals("john", https.getUserId());
+		assertEquals("secret", https.getPassword());
+		assertEquals("john",
+				memory.getProxyData(IProxyData.SOCKS_PROXY_TYPE)
+						.getUserId());
+	}
+
+}
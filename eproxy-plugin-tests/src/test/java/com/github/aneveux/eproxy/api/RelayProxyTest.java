@@ -0,0 +1,393 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.aneveux.eproxy.data.EProxy;
+
+/**
+ * End-to-end tests of the {@link RelayProxy}, relaying to a stand-in
+ * upstream proxy listening on a local {@link ServerSocket}
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class RelayProxyTest {
+
+	private static final int TIMEOUT = 5000;
+
+	private static final String OK = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok";
+
+	/**
+	 * What the stand-in upstream proxy does with each connection
+	 */
+	private interface Script {
+		void serve(Socket socket, int index) throws IOException;
+	}
+
+	private ServerSocket upstream;
+
+	private RelayProxy relay;
+
+	private int port;
+
+	/**
+	 * Heads of the requests received by the stand-in upstream proxy
+	 */
+	private final List<String> received = Collections
+			.synchronizedList(new ArrayList<String>());
+
+	/**
+	 * Answers all the requests of a connection, which is kept alive
+	 */
+	private final Script keepAlive = new Script() {
+		@Override
+		public void serve(final Socket socket, final int index)
+				throws IOException {
+			String head;
+			while ((head = readHead(socket.getInputStream())) != null) {
+				received.add(head);
+				socket.getOutputStream().write(OK.getBytes("US-ASCII"));
+			}
+		}
+	};
+
+	/**
+	 * Answers the first request of the first connection, then closes it
+	 * while the second request is on its way, as a proxy closing an idle
+	 * connection would. The next connections are kept alive.
+	 */
+	private final Script closingIdle = new Script() {
+		@Override
+		public void serve(final Socket socket, final int index)
+				throws IOException {
+			if (index > 0) {
+				keepAlive.serve(socket, index);
+				return;
+			}
+			received.add(readHead(socket.getInputStream()));
+			socket.getOutputStream().write(OK.getBytes("US-ASCII"));
+			readHead(socket.getInputStream());
+		}
+	};
+
+	@Before
+	public void setUp() throws IOException {
+		upstream = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		relay = new RelayProxy();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		relay.stop();
+		upstream.close();
+	}
+
+	/**
+	 * Starts the stand-in upstream proxy, then the relay
+	 */
+	private void start(final Script script) throws IOException {
+		final Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (int index = 0;; index++) {
+						final Socket socket = upstream.accept();
+						final int current = index;
+						final Thread thread = new Thread(new Runnable() {
+							@Override
+							public void run() {
+								try {
+									socket.setSoTimeout(TIMEOUT);
+									script.serve(socket, current);
+								} catch (final IOException e) {
+									// The test fails on the client side
+								} finally {
+									close(socket);
+								}
+							}
+						});
+						thread.setDaemon(true);
+						thread.start();
+					}
+				} catch (final IOException e) {
+					// The stand-in upstream proxy is closed
+				}
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+		port = relay.start(new EProxy().setHost("127.0.0.1")
+				.setPort(upstream.getLocalPort())
+				.setAuthenticationRequired(true).setUser("user")
+				.setPassword("secret").setRelayEnabled(true));
+	}
+
+	private Socket connect() throws IOException {
+		final Socket socket = new Socket(RelayProxy.LOCAL_HOST, port);
+		socket.setSoTimeout(TIMEOUT);
+		return socket;
+	}
+
+	private String credentials() {
+		return "Proxy-Authorization: Basic "
+				+ UpstreamPool.Endpoint.base64(RelayProxy.USER + ":"
+						+ relay.getToken()) + "\r\n";
+	}
+
+	private String get(final String credentials) {
+		return "GET http://www.example.com/ HTTP/1.1\r\nHost: www.example.com\r\n"
+				+ credentials + "\r\n";
+	}
+
+	/**
+	 * Sends the request, and reads the response whose length is known
+	 */
+	private static String exchange(final Socket socket, final String request)
+			throws IOException {
+		final OutputStream out = socket.getOutputStream();
+		out.write(request.getBytes("US-ASCII"));
+		out.flush();
+		return readResponse(socket.getInputStream());
+	}
+
+	private static String readResponse(final InputStream in)
+			throws IOException {
+		final String head = readHead(in);
+		if (head == null)
+			return null;
+		int length = 0;
+		for (final String line : head.split("\r\n"))
+			if (line.toLowerCase().startsWith("content-length:"))
+				length = Integer.parseInt(line.substring(15).trim());
+		final byte[] body = new byte[length];
+		for (int read = 0; read < length;) {
+			final int n = in.read(body, read, length - read);
+			if (n < 0)
+				throw new IOException("Truncated body");
+			read += n;
+		}
+		return head + new String(body, "US-ASCII");
+	}
+
+	/**
+	 * @return the head, with its final empty line, or null if the connection
+	 *         is closed before it starts
+	 */
+	private static String readHead(final InputStream in) throws IOException {
+		final ByteArrayOutputStream head = new ByteArrayOutputStream();
+		int matched = 0;
+		while (matched < 4) {
+			final int b = in.read();
+			if (b < 0) {
+				if (head.size() == 0)
+					return null;
+				throw new IOException("Truncated head");
+			}
+			head.write(b);
+			matched = b == "\r\n\r\n".charAt(matched) ? matched + 1
+					: b == '\r' ? 1 : 0;
+		}
+		return head.toString("US-ASCII");
+	}
+
+	private static void close(final Socket socket) {
+		try {
+			socket.close();
+		} catch (final IOException e) {
+			// Nothing to do
+		}
+	}
+
+	@Test
+	public void relaysWithTheUpstreamCredentials() throws IOException {
+		start(keepAlive);
+		final Socket client = connect();
+		try {
+			final String response = exchange(client, get(credentials()));
+			assertTrue(response, response.startsWith("HTTP/1.1 200"));
+			assertTrue(response, response.endsWith("ok"));
+		} finally {
+			close(client);
+		}
+		assertEquals(1, received.size());
+		final String head = received.get(0);
+		assertTrue(head, head.contains("Proxy-Authorization: Basic "
+				+ UpstreamPool.Endpoint.base64("user:secret")));
+		assertFalse(head, head.contains(UpstreamPool.Endpoint
+				.base64(RelayProxy.USER + ":" + relay.getToken())));
+	}
+
+	@Test
+	public void refusesRequestsWithoutTheCredentials() throws IOException {
+		start(keepAlive);
+		final Socket client = connect();
+		try {
+			final String response = exchange(client, get(""));
+			assertTrue(response, response.startsWith("HTTP/1.1 407"));
+			assertTrue(response, response.contains("Proxy-Authenticate"));
+		} finally {
+			close(client);
+		}
+		assertTrue(received.isEmpty());
+	}
+
+	@Test
+	public void acceptsTheUpstreamCredentials() throws IOException {
+		start(keepAlive);
+		final Socket client = connect();
+		try {
+			final String response = exchange(client,
+					get("Proxy-Authorization: Basic "
+							+ UpstreamPool.Endpoint.base64("user:secret")
+							+ "\r\n"));
+			assertTrue(response, response.startsWith("HTTP/1.1 200"));
+		} finally {
+			close(client);
+		}
+	}
+
+	@Test
+	public void retriesAClosedIdleConnection() throws IOException {
+		start(closingIdle);
+		final Socket client = connect();
+		try {
+			for (int i = 0; i < 2; i++) {
+				final String response = exchange(client, get(credentials()));
+				assertTrue(response, response.startsWith("HTTP/1.1 200"));
+			}
+		} finally {
+			close(client);
+		}
+		assertEquals(2, received.size());
+		assertEquals(2, relay.getOpenedConnections());
+	}
+
+	@Test
+	public void doesNotRetryRequestsWithABody() throws IOException {
+		start(closingIdle);
+		final Socket client = connect();
+		try {
+			assertTrue(exchange(client, get(credentials())).startsWith(
+					"HTTP/1.1 200"));
+			final String response = exchange(client,
+					"POST http://www.example.com/ HTTP/1.1\r\nHost: www.example.com\r\n"
+							+ credentials()
+							+ "Content-Length: 2\r\n\r\nhi");
+			assertTrue(response, response.startsWith("HTTP/1.1 502"));
+		} finally {
+			close(client);
+		}
+		assertEquals(1, received.size());
+	}
+
+	@Test
+	public void forwardsTheBodyWithoutInterimResponse() throws IOException,
+			InterruptedException {
+		start(new Script() {
+			@Override
+			public void serve(final Socket socket, final int index)
+					throws IOException {
+				// Never sends 100 Continue, and waits for the body
+				final InputStream in = socket.getInputStream();
+				final String head = readHead(in);
+				final byte[] body = new byte[2];
+				for (int read = 0; read < body.length;) {
+					final int n = in.read(body, read, body.length - read);
+					if (n < 0)
+						throw new IOException("Truncated body");
+					read += n;
+				}
+				received.add(head + new String(body, "US-ASCII"));
+				socket.getOutputStream().write(OK.getBytes("US-ASCII"));
+			}
+		});
+		final Socket client = connect();
+		try {
+			final OutputStream out = client.getOutputStream();
+			out.write(("POST http://www.example.com/ HTTP/1.1\r\nHost: www.example.com\r\n"
+					+ credentials() + "Content-Length: 2\r\nExpect: 100-continue\r\n\r\n")
+					.getBytes("US-ASCII"));
+			out.flush();
+			// As a client giving up waiting for the interim response
+			Thread.sleep(200);
+			out.write("hi".getBytes("US-ASCII"));
+			out.flush();
+			final String response = readResponse(client.getInputStream());
+			assertTrue(response, response.startsWith("HTTP/1.1 200"));
+		} finally {
+			close(client);
+		}
+		assertEquals(1, received.size());
+		assertTrue(received.get(0).endsWith("\r\n\r\nhi"));
+	}
+
+	@Test
+	public void reusesTheUpstreamConnection() throws IOException {
+		start(keepAlive);
+		final Socket client = connect();
+		try {
+			for (int i = 0; i < 2; i++) {
+				final String response = exchange(client, get(credentials()));
+				assertTrue(response, response.startsWith("HTTP/1.1 200"));
+			}
+		} finally {
+			close(client);
+		}
+		assertEquals(2, received.size());
+		assertEquals(1, relay.getOpenedConnections());
+		assertEquals(1, relay.getReusedConnections());
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link ResponseCache}: freshness, revalidation and eviction of
+ * the least recently used responses
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class ResponseCacheTest {
+
+	private File directory;
+
+	private ResponseCache cache;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("eproxy", "cache");
+		directory.delete();
+		cache = new ResponseCache(directory, ResponseCache.DEFAULT_MAX_SIZE);
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	private static void delete(final File file) {
+		final File[] children = file.listFiles();
+		if (children != null)
+			for (final File child : children)
+				delete(child);
+		file.delete();
+	}
+
+	private static HttpHead head(final String text) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap((text + "\r\n\r\n")
+				.getBytes("ISO-8859-1"));
+		return HttpHead.parse(buffer, HttpHead.endOf(buffer));
+	}
+
+	private static HttpHead get(final String url) throws IOException {
+		return head("GET " + url + " HTTP/1.1\r\nHost: www.example.com");
+	}
+
+	/**
+	 * Stores a response to the URL, and waits for it to be written
+	 */
+	private static ResponseCache.Entry store(final ResponseCache cache,
+			final String url, final String fields, final String body)
+			throws IOException {
+		final HttpHead request = get(url);
+		final String key = cache.keyOf(request);
+		final ResponseCache.Writer writer = cache.store(key, request,
+				head("HTTP/1.1 200 OK\r\nContent-Length: " + body.length()
+						+ "\r\n" + fields));
+		assertNotNull(writer);
+		writer.write(ByteBuffer.wrap(body.getBytes("ISO-8859-1")));
+		writer.commit();
+		cache.flush();
+		return cache.lookup(key);
+	}
+
+	private static String bodyOf(final ResponseCache.Entry entry)
+			throws IOException {
+		final FileChannel channel = entry.open();
+		try {
+			final ByteBuffer body = ByteBuffer.allocate((int) entry.length);
+			channel.read(body, entry.offset);
+			return new String(body.array(), "ISO-8859-1");
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void freshResponsesAreServedFromTheFile() throws IOException {
+		final ResponseCache.Entry entry = store(cache,
+				"http://www.example.com/a.jar", "Cache-Control: max-age=60",
+				"ok");
+		assertNotNull(entry);
+		assertTrue(entry.isFresh());
+		assertEquals("ok", bodyOf(entry));
+		assertEquals("HIT", ResponseCache.served(entry).get("X-Cache"));
+		assertEquals(1, cache.getEntryCount());
+		assertEquals(entry.size(), cache.getSize());
+	}
+
+	@Test
+	public void staleResponsesAreRevalidated() throws IOException {
+		final ResponseCache.Entry entry = store(cache,
+				"http://www.example.com/a.jar",
+				"Cache-Control: max-age=0\r\nETag: \"v1\"", "ok");
+		assertFalse(entry.isFresh());
+		assertTrue(entry.isRevalidable());
+		cache.refresh(entry, head("HTTP/1.1 304 Not Modified\r\n"
+				+ "Cache-Control: max-age=60\r\nETag: \"v2\""));
+		assertTrue(entry.isFresh());
+		assertEquals("\"v2\"", entry.head.get("ETag"));
+		assertEquals("ok", bodyOf(entry));
+	}
+
+	@Test
+	public void responsesWhichCantBeRevalidatedAreNotStored()
+			throws IOException {
+		final HttpHead request = get("http://www.example.com/a.jar");
+		final String key = cache.keyOf(request);
+		assertNull(cache.store(key, request,
+				head("HTTP/1.1 200 OK\r\nContent-Length: 2")));
+		assertNull(cache.store(key, request,
+				head("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n"
+						+ "Cache-Control: private, max-age=60")));
+		assertNull(cache.store(key, request,
+				head("HTTP/1.1 404 Not Found\r\nContent-Length: 2\r\n"
+						+ "Cache-Control: max-age=60")));
+	}
+
+	@Test
+	public void incompleteBodiesAreDropped() throws IOException {
+		final HttpHead request = get("http://www.example.com/a.jar");
+		final String key = cache.keyOf(request);
+		final ResponseCache.Writer writer = cache.store(key, request,
+				head("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n"
+						+ "Cache-Control: max-age=60"));
+		writer.write(ByteBuffer.wrap(new byte[] { 'o' }));
+		writer.commit();
+		cache.flush();
+		assertNull(cache.lookup(key));
+		assertEquals(0, directory.listFiles().length);
+	}
+
+	@Test
+	public void leastRecentlyUsedResponsesAreEvicted() throws IOException {
+		final long entrySize = store(cache, "http://www.example.com/0",
+				"Cache-Control: max-age=60", "0123456789").size();
+		final File small = new File(directory, "small");
+		final ResponseCache bounded = new ResponseCache(small,
+				3 * entrySize + entrySize / 2);
+		for (int i = 0; i < 3; i++)
+			store(bounded, "http://www.example.com/" + i,
+					"Cache-Control: max-age=60", "0123456789");
+		assertNotNull(bounded.lookup("http://www.example.com/0"));
+		store(bounded, "http://www.example.com/3",
+				"Cache-Control: max-age=60", "0123456789");
+		assertEquals(3, bounded.getEntryCount());
+		assertTrue(bounded.getSize() <= 3 * entrySize + entrySize / 2);
+		assertNull(bounded.lookup("http://www.example.com/1"));
+		assertNotNull(bounded.lookup("http://www.example.com/0"));
+		assertNotNull(bounded.lookup("http://www.example.com/3"));
+	}
+
+	@Test
+	public void indexIsRebuiltFromTheFiles() throws IOException {
+		final ResponseCache.Entry entry = store(cache,
+				"http://www.example.com/a.jar", "Cache-Control: max-age=60",
+				"ok");
+		final ResponseCache.Entry loaded = new ResponseCache(directory,
+				ResponseCache.DEFAULT_MAX_SIZE)
+				.lookup("http://www.example.com/a.jar");
+		assertNotNull(loaded);
+		assertEquals(entry.expires, loaded.expires);
+		assertEquals("ok", bodyOf(loaded));
+	}
+}
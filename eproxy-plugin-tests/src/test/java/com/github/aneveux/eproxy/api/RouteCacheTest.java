@@ -0,0 +1,102 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.github.aneveux.eproxy.api.RouteCache.Route;
+
+/**
+ * Tests of the {@link RouteCache}, especially of the expiration of the learned
+ * routes, the time is provided by the tests
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class RouteCacheTest {
+
+	private final RouteCache routes = new RouteCache();
+
+	@Test
+	public void learnedRoutesExpireAfterTheTimeToLive() {
+		routes.learn("www.example.com", Route.DIRECT, 0);
+		assertEquals(Route.DIRECT, routes.get("www.example.com", 0));
+		assertEquals(Route.DIRECT,
+				routes.get("www.example.com", RouteCache.TIME_TO_LIVE - 1));
+		assertNull(routes.get("www.example.com", RouteCache.TIME_TO_LIVE));
+	}
+
+	@Test
+	public void learningAgainRestartsTheTimeToLive() {
+		routes.learn("www.example.com", Route.DIRECT, 0);
+		routes.learn("www.example.com", Route.PROXY, 1000);
+		assertEquals(Route.PROXY,
+				routes.get("www.example.com", RouteCache.TIME_TO_LIVE));
+		assertEquals(1, routes.getDirectWins());
+		assertEquals(1, routes.getProxyWins());
+	}
+
+	@Test
+	public void forgottenRoutesAreRacedAgain() {
+		routes.learn("www.example.com", Route.PROXY);
+		routes.forget("www.example.com");
+		assertNull(routes.get("www.example.com"));
+	}
+
+	@Test
+	public void hostsAreCaseInsensitive() {
+		routes.learn("WWW.Example.com", Route.PROXY, 0);
+		assertEquals(Route.PROXY, routes.get("www.example.COM", 0));
+	}
+
+	@Test
+	public void directHostsOnlyListTheRoutesStillValid() {
+		routes.learn("old.example.com", Route.DIRECT, 0);
+		routes.learn("proxied.example.com", Route.PROXY, 1000);
+		routes.learn("new.example.com", Route.DIRECT, 1000);
+		assertEquals(Arrays.asList("new.example.com"),
+				routes.getDirectHosts(RouteCache.TIME_TO_LIVE));
+		assertTrue(routes.getDirectHosts(RouteCache.TIME_TO_LIVE + 1000)
+				.isEmpty());
+	}
+}
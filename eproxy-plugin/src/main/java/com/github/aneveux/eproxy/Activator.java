@@ -34,12 +34,32 @@
  */
 package com.github.aneveux.eproxy;
 
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.eclipse.core.net.proxy.IProxyService;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.swt.graphics.Image;
+import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.util.tracker.ServiceTracker;
+
+import com.github.aneveux.eproxy.api.CredentialStore;
+import com.github.aneveux.eproxy.api.DefaultEProxyService;
+import com.github.aneveux.eproxy.api.EProxyService;
+import com.github.aneveux.eproxy.api.FailoverMonitor;
+import com.github.aneveux.eproxy.api.NetworkLocationWatcher;
+import com.github.aneveux.eproxy.api.ProxyChangeRecorder;
+import com.github.aneveux.eproxy.api.ProxyHelper;
+import com.github.aneveux.eproxy.api.ProxyMetrics;
+import com.github.aneveux.eproxy.api.ProxyMetricsMBean;
+import com.github.aneveux.eproxy.api.ProxyResolutionCache;
 
 /**
  * The activator class controls the plug-in life cycle
@@ -55,6 +75,15 @@ public class Activator extends AbstractUIPlugin {
 	// The shared instance
 	private static Activator plugin;
 
+	// Keeps track of the Eclipse proxy service while the plug-in is active
+	private ServiceTracker<IProxyService, IProxyService> proxyServiceTracker;
+
+	// Publishes the proxy metrics as an OSGi service
+	private ServiceRegistration<ProxyMetricsMBean> metricsRegistration;
+
+	// Publishes the asynchronous eProxy API as an OSGi service
+	private ServiceRegistration<EProxyService> serviceRegistration;
+
 	/**
 	 * The constructor
 	 */
@@ -71,6 +100,24 @@ public class Activator extends AbstractUIPlugin {
 	public void start(BundleContext context) throws Exception {
 		super.start(context);
 		plugin = this;
+		proxyServiceTracker = new ServiceTracker<IProxyService, IProxyService>(
+				context, IProxyService.class, null);
+		proxyServiceTracker.open();
+		ProxyChangeRecorder.getDefault();
+		metricsRegistration = context.registerService(
+				ProxyMetricsMBean.class, ProxyMetrics.getDefault(), null);
+		serviceRegistration = context.registerService(EProxyService.class,
+				DefaultEProxyService.getDefault(), null);
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+					ProxyMetrics.getDefault(),
+					new ObjectName(ProxyMetricsMBean.OBJECT_NAME));
+		} catch (final JMException e) {
+			sendWarningToErrorLog("Unable to register the proxy metrics MBean: "
+					+ e.getMessage());
+		}
+		ProxyHelper.restartRelay();
+		ProxyHelper.restorePacScript();
 	}
 
 	/*
@@ -81,7 +128,35 @@ public class Activator extends AbstractUIPlugin {
 	 * )
 	 */
 	public void stop(BundleContext context) throws Exception {
-		Activator.plugin.getImageRegistry().dispose();
+		if (serviceRegistration != null) {
+			serviceRegistration.unregister();
+			serviceRegistration = null;
+		}
+		DefaultEProxyService.shutdown();
+		NetworkLocationWatcher.shutdown();
+		FailoverMonitor.shutdown();
+		ProxyHelper.stopRelay();
+		ProxyResolutionCache.shutdown();
+		ProxyChangeRecorder.shutdown();
+		CredentialStore.shutdown();
+		if (metricsRegistration != null) {
+			metricsRegistration.unregister();
+			metricsRegistration = null;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+					new ObjectName(ProxyMetricsMBean.OBJECT_NAME));
+		} catch (final JMException e) {
+			// Not registered
+		}
+		if (proxyServiceTracker != null) {
+			proxyServiceTracker.close();
+			proxyServiceTracker = null;
+		}
+		// The image registry can only be created with a display, which isn't
+		// available when running headless
+		if (PlatformUI.isWorkbenchRunning())
+			Activator.plugin.getImageRegistry().dispose();
 		plugin = null;
 		super.stop(context);
 	}
@@ -95,6 +170,17 @@ public class Activator extends AbstractUIPlugin {
 		return plugin;
 	}
 
+	/**
+	 * Returns the Eclipse proxy service, as tracked since the plug-in has been
+	 * started
+	 * 
+	 * @return the {@link IProxyService}, or null if it isn't available
+	 */
+	public IProxyService getProxyService() {
+		final ServiceTracker<IProxyService, IProxyService> tracker = proxyServiceTracker;
+		return tracker != null ? tracker.getService() : null;
+	}
+
 	/**
 	 * Sends the message to the Error Log with the INFO severity
 	 * 
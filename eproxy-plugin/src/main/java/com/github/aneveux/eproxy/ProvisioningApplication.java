@@ -0,0 +1,322 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+
+import com.github.aneveux.eproxy.api.EProxyBuilder;
+import com.github.aneveux.eproxy.api.NonProxyHostParser;
+import com.github.aneveux.eproxy.api.ProfileStore;
+import com.github.aneveux.eproxy.api.ProxyApplyJob;
+import com.github.aneveux.eproxy.api.ProxyHelper;
+import com.github.aneveux.eproxy.api.ProxyTransaction;
+import com.github.aneveux.eproxy.data.EProxy;
+
+/**
+ * <p>
+ * {@link ProvisioningApplication} allows to define the Eclipse proxy without
+ * any display, so that workspaces can be provisioned from scripts:
+ * </p>
+ * 
+ * <pre>
+ * eclipse -nosplash -data &lt;workspace&gt; -application com.github.aneveux.eproxy.provision -profile office
+ * eclipse -nosplash -data &lt;workspace&gt; -application com.github.aneveux.eproxy.provision -host proxy.corp -port 3128 -nonProxyHosts "localhost,*.corp"
+ * eclipse -nosplash -data &lt;workspace&gt; -application com.github.aneveux.eproxy.provision -clear
+ * </pre>
+ * <p>
+ * The password isn't given on the command line, where any user could read it
+ * in the process list: it is read from the {@value #PASSWORD_VARIABLE}
+ * environment variable, or from the first line of the standard input with
+ * <code>-passwordStdin</code>.
+ * </p>
+ * <p>
+ * The configuration is applied through the {@link ProxyHelper}, exactly as
+ * the wizard would do it, and the application exits as soon as it has been
+ * written. A proxy given by its host is saved as the {@value #PROFILE}
+ * profile, which becomes the active one: the workbench loads its PAC script
+ * again when it starts. The relay of a profile doesn't outlive the application: the
+ * proxy behind it is written in Eclipse instead, and the relay starts again
+ * with the plug-in. It returns {@link #EXIT_ERROR} if the arguments are
+ * invalid or if the configuration couldn't be written within
+ * {@value #TIMEOUT} seconds.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ * @see IApplication
+ * 
+ */
+public class ProvisioningApplication implements IApplication {
+
+	/**
+	 * Exit code returned when the proxy couldn't be defined
+	 */
+	public static final Integer EXIT_ERROR = Integer.valueOf(1);
+
+	/**
+	 * Environment variable holding the password of the proxy
+	 */
+	public static final String PASSWORD_VARIABLE = "EPROXY_PASSWORD";
+
+	/**
+	 * Time in seconds given to the configuration to be written
+	 */
+	public static final int TIMEOUT = 60;
+
+	/**
+	 * Reference of the profile in which a proxy given by its host is saved
+	 */
+	public static final String PROFILE = "provisioned";
+
+	private static final String USAGE = "Usage: -profile <name>\n"
+			+ "   or: -host <host> -port <port> [-user <user> [-passwordStdin]] [-nonProxyHosts <hosts>] [-pac <url>]\n"
+			+ "   or: -clear\n"
+			+ "The password is read from the standard input with -passwordStdin, or from the "
+			+ PASSWORD_VARIABLE + " environment variable";
+
+	/**
+	 * @see IApplication#start(IApplicationContext)
+	 */
+	@Override
+	public Object start(final IApplicationContext context) throws Exception {
+		context.applicationRunning();
+		final Object arguments = context.getArguments().get(
+				IApplicationContext.APPLICATION_ARGS);
+		return run(arguments instanceof String[] ? (String[]) arguments
+				: new String[0], System.in, System.out, System.err);
+	}
+
+	/**
+	 * @see IApplication#stop()
+	 */
+	@Override
+	public void stop() {
+	}
+
+	/**
+	 * Allows to apply the configuration described by the arguments
+	 * 
+	 * @param args
+	 *            the application arguments
+	 * @param in
+	 *            stream from which the password is read with
+	 *            <code>-passwordStdin</code>
+	 * @param out
+	 *            stream on which the result is printed
+	 * @param err
+	 *            stream on which the errors are printed
+	 * @return the exit code of the application
+	 */
+	protected Integer run(final String[] args, final InputStream in,
+			final PrintStream out, final PrintStream err) {
+		String profile = null;
+		String host = null;
+		String port = null;
+		String user = null;
+		String password = null;
+		String nonProxyHosts = null;
+		String pac = null;
+		boolean clear = false;
+		boolean passwordStdin = false;
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			if ("-clear".equals(arg)) {
+				clear = true;
+				continue;
+			}
+			if ("-passwordStdin".equals(arg)) {
+				passwordStdin = true;
+				continue;
+			}
+			if ("-password".equals(arg)) {
+				err.println("-password would show the password in the process list, use -passwordStdin or "
+						+ PASSWORD_VARIABLE + "\n" + USAGE);
+				return EXIT_ERROR;
+			}
+			if ("-help".equals(arg) || "--help".equals(arg)) {
+				out.println(USAGE);
+				return IApplication.EXIT_OK;
+			}
+			if (i + 1 == args.length) {
+				err.println("Missing value for " + arg + "\n" + USAGE);
+				return EXIT_ERROR;
+			}
+			final String value = args[++i];
+			if ("-profile".equals(arg))
+				profile = value;
+			else if ("-host".equals(arg))
+				host = value;
+			else if ("-port".equals(arg))
+				port = value;
+			else if ("-user".equals(arg))
+				user = value;
+			else if ("-nonProxyHosts".equals(arg))
+				nonProxyHosts = value;
+			else if ("-pac".equals(arg))
+				pac = value;
+			else {
+				err.println("Unknown argument " + arg + "\n" + USAGE);
+				return EXIT_ERROR;
+			}
+		}
+		if (Activator.getDefault().getProxyService() == null) {
+			err.println("The Eclipse proxy service is not available");
+			return EXIT_ERROR;
+		}
+		final Future<ProxyTransaction.Result> future;
+		if (clear) {
+			future = ProxyHelper.clearProxyAsync();
+		} else if (profile != null) {
+			try {
+				future = ProxyHelper.applyProfile(profile);
+			} catch (final IllegalArgumentException e) {
+				err.println(e.getMessage() + ", known profiles: "
+						+ join(ProfileStore.getDefault().getProfileNames()));
+				return EXIT_ERROR;
+			}
+		} else if (host != null && port != null) {
+			if (user != null)
+				try {
+					password = passwordStdin ? readLine(in) : System
+							.getenv(PASSWORD_VARIABLE);
+				} catch (final IOException e) {
+					err.println("Error while reading the password: " + e);
+					return EXIT_ERROR;
+				}
+			if (user != null && password == null) {
+				err.println("No password for " + user + ", set "
+						+ PASSWORD_VARIABLE + " or use -passwordStdin\n" + USAGE);
+				return EXIT_ERROR;
+			}
+			final EProxy proxy;
+			try {
+				proxy = createProxy(host, port, user, password, pac);
+			} catch (final IllegalArgumentException e) {
+				err.println(e.getMessage());
+				return EXIT_ERROR;
+			}
+			if (nonProxyHosts != null) {
+				final NonProxyHostParser parser = NonProxyHostParser
+						.parse(nonProxyHosts);
+				for (final NonProxyHostParser.Problem problem : parser
+						.getProblems())
+					err.println((problem.isWarning() ? "Kept: " : "Ignored: ")
+							+ problem);
+				proxy.setNonProxyHosts(parser.getHosts());
+			}
+			ProfileStore.getDefault().save(proxy);
+			future = ProxyHelper.applyProfile(PROFILE);
+		} else {
+			err.println(USAGE);
+			return EXIT_ERROR;
+		}
+		try {
+			out.println("Proxy configuration applied: "
+					+ future.get(TIMEOUT, TimeUnit.SECONDS));
+			return IApplication.EXIT_OK;
+		} catch (final ExecutionException e) {
+			err.println("Error while writing the proxy configuration: "
+					+ e.getCause());
+			return EXIT_ERROR;
+		} catch (final TimeoutException e) {
+			err.println("The proxy configuration wasn't written within "
+					+ TIMEOUT + " seconds");
+			// The relay can't be stopped while the job may still start it
+			try {
+				ProxyApplyJob.getDefault().cancelPending();
+			} catch (final InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+			return EXIT_ERROR;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return EXIT_ERROR;
+		} finally {
+			// The relay goes away with the application, Eclipse has to keep
+			// the proxy behind it
+			ProxyHelper.stopRelay();
+		}
+	}
+
+	private static String readLine(final InputStream in) throws IOException {
+		final String line = new BufferedReader(new InputStreamReader(in))
+				.readLine();
+		if (line == null)
+			throw new IOException("No password on the standard input");
+		return line;
+	}
+
+	private static EProxy createProxy(final String host, final String port,
+			final String user, final String password, final String pac) {
+		final int portNumber;
+		try {
+			portNumber = Integer.parseInt(port);
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid port " + port);
+		}
+		if (portNumber < 1 || portNumber > 65535)
+			throw new IllegalArgumentException("Invalid port " + port);
+		final EProxyBuilder builder = new EProxyBuilder()
+				.withReference(PROFILE).withHost(host)
+				.withPort(portNumber).withAuthenticationRequired(user != null)
+				.withUser(user).withPassword(password);
+		if (pac != null)
+			builder.withPacLocation(pac);
+		return builder.build();
+	}
+
+	private static String join(final String[] values) {
+		final StringBuilder builder = new StringBuilder();
+		for (final String value : values) {
+			if (builder.length() > 0)
+				builder.append(", ");
+			builder.append(value);
+		}
+		return builder.toString();
+	}
+}
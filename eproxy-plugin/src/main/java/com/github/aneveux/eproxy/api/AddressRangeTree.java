@@ -0,0 +1,385 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+/**
+ * <p>
+ * A binary radix tree storing IPv4 and IPv6 address ranges in the CIDR
+ * notation (<i>10.0.0.0/8</i>, <i>fd00::/8</i>). Single addresses are stored
+ * as ranges covering the whole address length.
+ * </p>
+ * <p>
+ * The tree is keyed on the address bits, most significant bit first, so
+ * checking if an address belongs to one of the ranges walks at most 32 (IPv4)
+ * or 128 (IPv6) nodes, whatever the amount of ranges stored in the tree.
+ * </p>
+ * <p>
+ * Address literals are parsed in place, without creating any intermediate
+ * object, and without any DNS resolution.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public final class AddressRangeTree {
+
+	/**
+	 * Scratch buffer used to parse IPv6 addresses without allocating
+	 */
+	private static final ThreadLocal<int[]> GROUPS = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[8];
+		}
+	};
+
+	/**
+	 * Root of the IPv4 ranges
+	 */
+	private final Node ipv4 = new Node();
+
+	/**
+	 * Root of the IPv6 ranges
+	 */
+	private final Node ipv6 = new Node();
+
+	/**
+	 * Amount of ranges stored in this tree
+	 */
+	private int size;
+
+	/**
+	 * Allows to add a range to this tree
+	 * 
+	 * @param range
+	 *            an address or a range in the CIDR notation
+	 * @return true if the range has been added, false if it couldn't be parsed
+	 */
+	public boolean add(final String range) {
+		final int slash = range.indexOf('/');
+		final int end = slash < 0 ? range.length() : slash;
+		final long v4 = parseIPv4(range, 0, end);
+		if (v4 >= 0) {
+			final int prefix = slash < 0 ? 32 : parsePrefix(range, slash + 1,
+					32);
+			if (prefix < 0)
+				return false;
+			insert(ipv4, prefix, (int) v4, null);
+		} else {
+			final int[] groups = new int[8];
+			if (!parseIPv6(range, 0, end, groups))
+				return false;
+			final int prefix = slash < 0 ? 128 : parsePrefix(range,
+					slash + 1, 128);
+			if (prefix < 0)
+				return false;
+			insert(ipv6, prefix, 0, groups);
+		}
+		size++;
+		return true;
+	}
+
+	/**
+	 * @return the amount of ranges stored in this tree
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Allows to know if the provided host is an address literal which belongs
+	 * to one of the ranges of this tree
+	 * 
+	 * @param host
+	 *            a host, IPv6 addresses may be enclosed in brackets
+	 * @return true if the host is an address contained in one of the ranges
+	 */
+	public boolean contains(final String host) {
+		if (host == null || size == 0)
+			return false;
+		int from = 0;
+		int to = host.length();
+		if (to > 1 && host.charAt(0) == '[' && host.charAt(to - 1) == ']') {
+			from++;
+			to--;
+		}
+		final long v4 = parseIPv4(host, from, to);
+		if (v4 >= 0)
+			return lookup(ipv4, 32, (int) v4, null);
+		final int[] groups = GROUPS.get();
+		if (!parseIPv6(host, from, to, groups))
+			return false;
+		if (groups[0] == 0 && groups[1] == 0 && groups[2] == 0
+				&& groups[3] == 0 && groups[4] == 0 && groups[5] == 0xffff
+				&& lookup(ipv4, 32, groups[6] << 16 | groups[7], null))
+			return true;
+		return lookup(ipv6, 128, 0, groups);
+	}
+
+	/**
+	 * Allows to know if the provided range is strictly included in a broader
+	 * range of this tree
+	 * 
+	 * @param range
+	 *            an address or a range in the CIDR notation
+	 * @return true if a broader range of this tree already covers it
+	 */
+	public boolean isCovered(final String range) {
+		final int slash = range.indexOf('/');
+		final int end = slash < 0 ? range.length() : slash;
+		final long v4 = parseIPv4(range, 0, end);
+		if (v4 >= 0) {
+			final int prefix = slash < 0 ? 32 : parsePrefix(range, slash + 1,
+					32);
+			return prefix > 0 && lookup(ipv4, prefix - 1, (int) v4, null);
+		}
+		final int[] groups = GROUPS.get();
+		if (!parseIPv6(range, 0, end, groups))
+			return false;
+		final int prefix = slash < 0 ? 128 : parsePrefix(range, slash + 1, 128);
+		return prefix > 0 && lookup(ipv6, prefix - 1, 0, groups);
+	}
+
+	/**
+	 * Allows to know if the provided entry is an address or a range in the
+	 * CIDR notation
+	 * 
+	 * @param entry
+	 *            the entry to check
+	 * @return true if the entry can be added to an {@link AddressRangeTree}
+	 */
+	public static boolean isRange(final String entry) {
+		if (entry == null)
+			return false;
+		final int slash = entry.indexOf('/');
+		final int end = slash < 0 ? entry.length() : slash;
+		if (parseIPv4(entry, 0, end) >= 0)
+			return slash < 0 || parsePrefix(entry, slash + 1, 32) >= 0;
+		if (!parseIPv6(entry, 0, end, GROUPS.get()))
+			return false;
+		return slash < 0 || parsePrefix(entry, slash + 1, 128) >= 0;
+	}
+
+	/**
+	 * Returns the bit at the provided index, either from the IPv4 address or
+	 * from the IPv6 groups
+	 */
+	private static int bit(final int v4, final int[] groups, final int index) {
+		if (groups == null)
+			return (v4 >>> (31 - index)) & 1;
+		return (groups[index >>> 4] >>> (15 - (index & 15))) & 1;
+	}
+
+	private static void insert(final Node root, final int prefix,
+			final int v4, final int[] groups) {
+		Node node = root;
+		for (int i = 0; i < prefix; i++) {
+			if (node.terminal)
+				return;
+			if (bit(v4, groups, i) == 0) {
+				if (node.zero == null)
+					node.zero = new Node();
+				node = node.zero;
+			} else {
+				if (node.one == null)
+					node.one = new Node();
+				node = node.one;
+			}
+		}
+		node.terminal = true;
+		// Narrower ranges are now useless, the lookup stops here anyway
+		node.zero = null;
+		node.one = null;
+	}
+
+	/**
+	 * Walks the tree along the first <i>depth</i> bits of the address, and
+	 * returns true as soon as a range ends on the path
+	 */
+	private static boolean lookup(final Node root, final int depth,
+			final int v4, final int[] groups) {
+		Node node = root;
+		for (int i = 0; i < depth; i++) {
+			if (node.terminal)
+				return true;
+			node = bit(v4, groups, i) == 0 ? node.zero : node.one;
+			if (node == null)
+				return false;
+		}
+		return node.terminal;
+	}
+
+	/**
+	 * Parses the prefix length of a CIDR range
+	 * 
+	 * @return the prefix length, or -1 if it's not valid
+	 */
+	private static int parsePrefix(final String s, final int from,
+			final int max) {
+		if (from >= s.length() || s.length() - from > 3)
+			return -1;
+		int value = 0;
+		for (int i = from; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value <= max ? value : -1;
+	}
+
+	/**
+	 * Parses an IPv4 address in its dotted form
+	 * 
+	 * @return the address as an unsigned 32 bits value, or -1 if it's not a
+	 *         valid IPv4 address
+	 */
+	static long parseIPv4(final String s, final int from, final int to) {
+		long address = 0;
+		int octets = 0;
+		int value = -1;
+		for (int i = from; i < to; i++) {
+			final char c = s.charAt(i);
+			if (c >= '0' && c <= '9') {
+				value = (value < 0 ? 0 : value * 10) + (c - '0');
+				if (value > 255)
+					return -1;
+			} else if (c == '.' && value >= 0 && octets < 3) {
+				address = address << 8 | value;
+				octets++;
+				value = -1;
+			} else
+				return -1;
+		}
+		if (octets != 3 || value < 0)
+			return -1;
+		return address << 8 | value;
+	}
+
+	/**
+	 * Parses an IPv6 address, handling the <i>::</i> compression, zone
+	 * identifiers and trailing dotted IPv4 addresses
+	 * 
+	 * @param groups
+	 *            an array of 8 elements which receives the 16 bits groups
+	 * @return true if the address has been parsed
+	 */
+	static boolean parseIPv6(final String s, final int from, int to,
+			final int[] groups) {
+		final int zone = s.indexOf('%', from);
+		if (zone >= 0 && zone < to)
+			to = zone;
+		if (to - from < 2)
+			return false;
+		int count = 0;
+		int compressed = -1;
+		int i = from;
+		if (s.charAt(i) == ':') {
+			if (s.charAt(i + 1) != ':')
+				return false;
+			compressed = 0;
+			i += 2;
+		}
+		while (i < to) {
+			if (count == 8)
+				return false;
+			int j = i;
+			int value = 0;
+			while (j < to && j - i < 4) {
+				final int digit = Character.digit(s.charAt(j), 16);
+				if (digit < 0)
+					break;
+				value = value << 4 | digit;
+				j++;
+			}
+			if (j < to && s.charAt(j) == '.') {
+				if (count > 6)
+					return false;
+				final long v4 = parseIPv4(s, i, to);
+				if (v4 < 0)
+					return false;
+				groups[count++] = (int) (v4 >>> 16);
+				groups[count++] = (int) (v4 & 0xffff);
+				i = to;
+				break;
+			}
+			if (j == i)
+				return false;
+			groups[count++] = value;
+			if (j == to) {
+				i = j;
+				break;
+			}
+			if (s.charAt(j) != ':')
+				return false;
+			if (j + 1 < to && s.charAt(j + 1) == ':') {
+				if (compressed >= 0)
+					return false;
+				compressed = count;
+				i = j + 2;
+			} else if (j + 1 == to)
+				return false;
+			else
+				i = j + 1;
+		}
+		if (compressed < 0)
+			return count == 8;
+		if (count == 8)
+			return false;
+		final int tail = count - compressed;
+		System.arraycopy(groups, compressed, groups, 8 - tail, tail);
+		for (int k = compressed; k < 8 - tail; k++)
+			groups[k] = 0;
+		return true;
+	}
+
+	/**
+	 * A node of the tree, one child per bit value
+	 */
+	private static final class Node {
+
+		private Node zero;
+
+		private Node one;
+
+		/**
+		 * A range ends on this node
+		 */
+		private boolean terminal;
+	}
+
+}
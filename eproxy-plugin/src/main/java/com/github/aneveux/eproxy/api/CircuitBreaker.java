@@ -0,0 +1,223 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+/**
+ * <p>
+ * This circuit breaker keeps track of the health of one upstream proxy
+ * </p>
+ * <p>
+ * The breaker is {@link State#CLOSED} while the proxy answers. After
+ * {@link #getFailureThreshold()} consecutive failures it becomes
+ * {@link State#OPEN}: the proxy is considered down and isn't checked anymore
+ * for {@link #getOpenDuration()} milliseconds. It then becomes
+ * {@link State#HALF_OPEN}, and needs {@link #getSuccessThreshold()}
+ * consecutive successes to be closed again, a single failure opening it
+ * again. Requiring several successes before trusting the proxy again avoids
+ * switching back and forth to a flapping proxy.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ * @see FailoverMonitor
+ */
+public final class CircuitBreaker {
+
+	/**
+	 * States of a {@link CircuitBreaker}
+	 */
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	/**
+	 * Default amount of consecutive failures opening the breaker
+	 */
+	public static final int DEFAULT_FAILURE_THRESHOLD = 2;
+
+	/**
+	 * Default amount of consecutive successes closing a half-open breaker
+	 */
+	public static final int DEFAULT_SUCCESS_THRESHOLD = 3;
+
+	/**
+	 * Default time during which an open breaker isn't checked, in
+	 * milliseconds
+	 */
+	public static final long DEFAULT_OPEN_DURATION = 30000;
+
+	private final int failureThreshold;
+
+	private final int successThreshold;
+
+	private final long openDuration;
+
+	private State state = State.CLOSED;
+
+	private int failures;
+
+	private int successes;
+
+	private long openedAt;
+
+	/**
+	 * Creates a breaker using the default thresholds
+	 */
+	public CircuitBreaker() {
+		this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_SUCCESS_THRESHOLD,
+				DEFAULT_OPEN_DURATION);
+	}
+
+	/**
+	 * Creates a breaker
+	 * 
+	 * @param failureThreshold
+	 *            amount of consecutive failures opening the breaker
+	 * @param successThreshold
+	 *            amount of consecutive successes closing a half-open breaker
+	 * @param openDuration
+	 *            time during which an open breaker isn't checked, in
+	 *            milliseconds
+	 */
+	public CircuitBreaker(final int failureThreshold,
+			final int successThreshold, final long openDuration) {
+		if (failureThreshold < 1 || successThreshold < 1 || openDuration < 0)
+			throw new IllegalArgumentException("Invalid thresholds");
+		this.failureThreshold = failureThreshold;
+		this.successThreshold = successThreshold;
+		this.openDuration = openDuration;
+	}
+
+	/**
+	 * @param now
+	 *            the current time, in milliseconds
+	 * @return the state of the breaker at the provided time
+	 */
+	public synchronized State getState(final long now) {
+		if (state == State.OPEN && now - openedAt >= openDuration) {
+			state = State.HALF_OPEN;
+			successes = 0;
+		}
+		return state;
+	}
+
+	/**
+	 * @param now
+	 *            the current time, in milliseconds
+	 * @return true if the proxy should be checked, that is to say if the
+	 *         breaker isn't open
+	 */
+	public boolean shouldCheck(final long now) {
+		return getState(now) != State.OPEN;
+	}
+
+	/**
+	 * Allows to record a successful check
+	 * 
+	 * @param now
+	 *            the current time, in milliseconds
+	 */
+	public synchronized void onSuccess(final long now) {
+		switch (getState(now)) {
+		case CLOSED:
+			failures = 0;
+			break;
+		case HALF_OPEN:
+			if (++successes >= successThreshold) {
+				state = State.CLOSED;
+				failures = 0;
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Allows to record a failed check
+	 * 
+	 * @param now
+	 *            the current time, in milliseconds
+	 */
+	public synchronized void onFailure(final long now) {
+		switch (getState(now)) {
+		case CLOSED:
+			if (++failures >= failureThreshold)
+				open(now);
+			break;
+		case HALF_OPEN:
+			open(now);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void open(final long now) {
+		state = State.OPEN;
+		openedAt = now;
+		successes = 0;
+	}
+
+	/**
+	 * @return the amount of consecutive failures opening the breaker
+	 */
+	public int getFailureThreshold() {
+		return failureThreshold;
+	}
+
+	/**
+	 * @return the amount of consecutive successes closing a half-open breaker
+	 */
+	public int getSuccessThreshold() {
+		return successThreshold;
+	}
+
+	/**
+	 * @return the time during which an open breaker isn't checked, in
+	 *         milliseconds
+	 */
+	public long getOpenDuration() {
+		return openDuration;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "CircuitBreaker[" + state + ", failures=" + failures
+				+ ", successes=" + successes + "]";
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.equinox.security.storage.ISecurePreferences;
+import org.eclipse.equinox.security.storage.SecurePreferencesFactory;
+import org.eclipse.equinox.security.storage.StorageException;
+
+import com.github.aneveux.eproxy.Activator;
+import com.github.aneveux.eproxy.data.EProxy;
+
+/**
+ * <p>
+ * This store keeps the passwords of the proxy profiles in the Eclipse secure
+ * storage, encrypted, instead of the plain preferences
+ * </p>
+ * <p>
+ * Opening the secure storage can be slow and may prompt the user for the
+ * master password, so decrypted passwords are kept in memory for
+ * {@link #getTimeToLive()} milliseconds after their last use: switching
+ * between profiles doesn't need to go back to the secure storage. They're
+ * forgotten as soon as they expire (a system {@link Job} removes them even if
+ * they're not used anymore) and when {@link #wipe()} is called.
+ * </p>
+ * <p>
+ * The passwords end up in {@link String}s anyway (the {@link EProxy} and the
+ * Eclipse proxy settings keep them that way), so this store only limits how
+ * long it keeps a reference on them, it can't erase them from the memory.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ * @see ProfileStore
+ */
+public class CredentialStore {
+
+	/**
+	 * Default time during which a decrypted password is kept, in milliseconds
+	 */
+	public static final long DEFAULT_TIME_TO_LIVE = 5 * 60 * 1000;
+
+	/**
+	 * Path of the secure storage node containing the passwords
+	 */
+	private static final String SECURE_NODE = Activator.PLUGIN_ID
+			+ "/profiles";
+
+	private static final String PASSWORD = "password";
+
+	/**
+	 * The shared instance
+	 */
+	private static CredentialStore instance;
+
+	/**
+	 * Decrypted passwords, by profile reference
+	 */
+	private final Map<String, Entry> cache = new HashMap<String, Entry>();
+
+	private long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+	private final Job wipeJob = new Job("Wiping expired proxy credentials") {
+		@Override
+		protected IStatus run(final IProgressMonitor monitor) {
+			final long next = wipeExpired();
+			if (next > 0)
+				schedule(next);
+			return Status.OK_STATUS;
+		}
+	};
+
+	/**
+	 * @return the shared instance
+	 */
+	public static synchronized CredentialStore getDefault() {
+		if (instance == null)
+			instance = new CredentialStore();
+		return instance;
+	}
+
+	/**
+	 * Allows to wipe the decrypted passwords of the shared instance, if any
+	 */
+	public static synchronized void shutdown() {
+		if (instance != null) {
+			instance.wipeJob.cancel();
+			instance.wipe();
+		}
+	}
+
+	protected CredentialStore() {
+		wipeJob.setSystem(true);
+		wipeJob.setPriority(Job.DECORATE);
+	}
+
+	/**
+	 * @return the secure storage node in which the passwords are stored
+	 */
+	protected ISecurePreferences getSecurePreferences() {
+		return SecurePreferencesFactory.getDefault().node(SECURE_NODE);
+	}
+
+	/**
+	 * @return the time during which a decrypted password is kept after its
+	 *         last use, in milliseconds
+	 */
+	public synchronized long getTimeToLive() {
+		return timeToLive;
+	}
+
+	/**
+	 * Allows to define the time during which a decrypted password is kept
+	 * after its last use
+	 * 
+	 * @param timeToLive
+	 *            the time in milliseconds, 0 to never keep them
+	 */
+	public synchronized void setTimeToLive(final long timeToLive) {
+		this.timeToLive = Math.max(0, timeToLive);
+		final long limit = System.currentTimeMillis() + this.timeToLive;
+		for (final Entry entry : cache.values())
+			entry.expiresAt = Math.min(entry.expiresAt, limit);
+		// The job may be sleeping until the former expiration date
+		wipeJob.cancel();
+		final long next = wipeExpired();
+		if (next > 0)
+			wipeJob.schedule(next);
+	}
+
+	/**
+	 * Allows to get the password of a profile
+	 * 
+	 * @param reference
+	 *            the reference of the profile
+	 * @return the password, or null if there is none or if the secure storage
+	 *         couldn't be opened
+	 */
+	public synchronized String getPassword(final String reference) {
+		final long now = System.currentTimeMillis();
+		final Entry entry = cache.get(reference);
+		if (entry != null && entry.expiresAt > now) {
+			entry.expiresAt = now + timeToLive;
+			return entry.secret;
+		}
+		String password = null;
+		try {
+			final ISecurePreferences node = getSecurePreferences();
+			final String name = ProfileStore.nodeName(reference);
+			if (node.nodeExists(name))
+				password = node.node(name).get(PASSWORD, null);
+		} catch (final StorageException e) {
+			Activator.sendErrorToErrorLog(
+					"Error while trying to read the proxy password...", e);
+			return null;
+		}
+		remember(reference, password, now);
+		return password;
+	}
+
+	/**
+	 * Allows to store the password of a profile
+	 * 
+	 * @param reference
+	 *            the reference of the profile
+	 * @param password
+	 *            the password, or null to remove it
+	 */
+	public synchronized void setPassword(final String reference,
+			final String password) {
+		final ISecurePreferences node = getSecurePreferences().node(
+				ProfileStore.nodeName(reference));
+		try {
+			if (password != null)
+				node.put(PASSWORD, password, true);
+			else
+				node.remove(PASSWORD);
+			node.flush();
+		} catch (final StorageException e) {
+			Activator.sendErrorToErrorLog(
+					"Error while trying to store the proxy password...", e);
+		} catch (final IOException e) {
+			Activator.sendErrorToErrorLog(
+					"Error while trying to store the proxy password...", e);
+		}
+		remember(reference, password, System.currentTimeMillis());
+	}
+
+	/**
+	 * Allows to remove the password of a profile
+	 * 
+	 * @param reference
+	 *            the reference of the profile
+	 */
+	public synchronized void remove(final String reference) {
+		forget(reference);
+		final ISecurePreferences node = getSecurePreferences();
+		final String name = ProfileStore.nodeName(reference);
+		if (node.nodeExists(name)) {
+			node.node(name).removeNode();
+			try {
+				node.flush();
+			} catch (final IOException e) {
+				Activator.sendErrorToErrorLog(
+						"Error while trying to remove the proxy password...",
+						e);
+			}
+		}
+	}
+
+	/**
+	 * Allows to forget all the decrypted passwords, the next access will go to
+	 * the secure storage again
+	 */
+	public synchronized void wipe() {
+		cache.clear();
+	}
+
+	/**
+	 * @return the amount of decrypted passwords kept in memory
+	 */
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	private void remember(final String reference, final String password,
+			final long now) {
+		forget(reference);
+		if (timeToLive <= 0)
+			return;
+		cache.put(reference, new Entry(password, now + timeToLive));
+		if (cache.size() == 1)
+			wipeJob.schedule(timeToLive);
+	}
+
+	private void forget(final String reference) {
+		cache.remove(reference);
+	}
+
+	/**
+	 * Forgets the expired passwords
+	 * 
+	 * @return the delay before the next password expires, or 0 if there are
+	 *         no more passwords
+	 */
+	synchronized long wipeExpired() {
+		final long now = System.currentTimeMillis();
+		long next = Long.MAX_VALUE;
+		for (final Iterator<Entry> iterator = cache.values().iterator(); iterator
+				.hasNext();) {
+			final Entry entry = iterator.next();
+			if (entry.expiresAt <= now)
+				iterator.remove();
+			else
+				next = Math.min(next, entry.expiresAt - now);
+		}
+		return cache.isEmpty() ? 0 : next;
+	}
+
+	/**
+	 * A decrypted password and its expiration date
+	 */
+	private static final class Entry {
+
+		private final String secret;
+
+		private long expiresAt;
+
+		Entry(final String secret, final long expiresAt) {
+			this.secret = secret;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+
+import org.eclipse.core.net.proxy.IProxyChangeEvent;
+import org.eclipse.core.net.proxy.IProxyChangeListener;
+import org.eclipse.core.net.proxy.IProxyService;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import com.github.aneveux.eproxy.Activator;
+import com.github.aneveux.eproxy.data.EProxy;
+import com.github.aneveux.eproxy.data.EProxySnapshot;
+
+/**
+ * <p>
+ * The {@link EProxyService} registered by the plug-in activator
+ * </p>
+ * <p>
+ * The writes are handed to the {@link ProxyApplyJob}, and the reads are done
+ * in a short-lived system job. The implementation is also the {@link Job}
+ * delivering the changes to the subscribers: each change notified by the
+ * {@link IProxyService} schedules it after {@link #BATCH_DELAY} milliseconds,
+ * and it then delivers all the changes recorded by the
+ * {@link ProxyChangeRecorder} since its previous run.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class DefaultEProxyService extends Job implements EProxyService,
+		IProxyChangeListener {
+
+	/**
+	 * Delay during which the changes are gathered before being delivered, in
+	 * milliseconds
+	 */
+	public static final long BATCH_DELAY = 200;
+
+	/**
+	 * The shared instance
+	 */
+	private static DefaultEProxyService instance;
+
+	/**
+	 * The {@link IProxyService} this service listens to, if any
+	 */
+	private final IProxyService proxyService;
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	/**
+	 * Amount of changes recorded by the {@link ProxyChangeRecorder} when the
+	 * subscribers were last notified
+	 */
+	private long delivered;
+
+	/**
+	 * Creates the service, use {@link #getDefault()} to get the shared
+	 * instance
+	 * 
+	 * @param proxyService
+	 *            the {@link IProxyService} which is listened to, can be null
+	 */
+	protected DefaultEProxyService(final IProxyService proxyService) {
+		super("Notifying the proxy configuration changes");
+		this.proxyService = proxyService;
+		setSystem(true);
+		setPriority(Job.SHORT);
+	}
+
+	/**
+	 * @return the shared instance, listening to the Eclipse
+	 *         {@link IProxyService}
+	 */
+	public static synchronized DefaultEProxyService getDefault() {
+		if (instance == null) {
+			instance = new DefaultEProxyService(ProxyHelper.getProxyService());
+			if (instance.proxyService != null)
+				instance.proxyService.addProxyChangeListener(instance);
+		}
+		return instance;
+	}
+
+	/**
+	 * Stops listening to the {@link IProxyService}, forgets the subscribers
+	 * and drops the shared instance if it has been created
+	 */
+	public static synchronized void shutdown() {
+		if (instance != null) {
+			if (instance.proxyService != null)
+				instance.proxyService.removeProxyChangeListener(instance);
+			instance.listeners.clear();
+			instance.cancel();
+			instance = null;
+		}
+	}
+
+	/**
+	 * @see EProxyService#apply(EProxy)
+	 */
+	@Override
+	public Future<ProxyTransaction.Result> apply(final EProxy proxy) {
+		if (proxy == null)
+			throw new IllegalArgumentException("No proxy to apply");
+		return ProxyHelper.defineProxyAsync(proxy);
+	}
+
+	/**
+	 * @see EProxyService#applyProfile(String)
+	 */
+	@Override
+	public Future<ProxyTransaction.Result> applyProfile(final String reference) {
+		return ProxyHelper.applyProfile(reference);
+	}
+
+	/**
+	 * @see EProxyService#clear()
+	 */
+	@Override
+	public Future<ProxyTransaction.Result> clear() {
+		return ProxyHelper.clearProxyAsync();
+	}
+
+	/**
+	 * @see EProxyService#snapshot()
+	 */
+	@Override
+	public Future<EProxySnapshot> snapshot() {
+		final CompletionFuture<EProxySnapshot> future = new CompletionFuture<EProxySnapshot>();
+		final Job job = new Job("Reading proxy configuration") {
+			@Override
+			protected IStatus run(final IProgressMonitor monitor) {
+				try {
+					future.complete(EProxySnapshot.of(ProxyHelper
+							.getProxyInformation()), null);
+				} catch (final RuntimeException e) {
+					future.complete(null, e);
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		job.setSystem(true);
+		job.setPriority(Job.SHORT);
+		job.schedule();
+		return future;
+	}
+
+	/**
+	 * @see EProxyService#subscribe(Listener)
+	 */
+	@Override
+	public void subscribe(final Listener listener) {
+		synchronized (this) {
+			// Changes recorded while nobody was listening aren't delivered
+			if (listeners.isEmpty())
+				delivered = ProxyChangeRecorder.getDefault().getTotal();
+			if (!listeners.contains(listener))
+				listeners.add(listener);
+		}
+	}
+
+	/**
+	 * @see EProxyService#unsubscribe(Listener)
+	 */
+	@Override
+	public void unsubscribe(final Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @see IProxyChangeListener#proxyInfoChanged(IProxyChangeEvent)
+	 */
+	@Override
+	public void proxyInfoChanged(final IProxyChangeEvent event) {
+		if (!listeners.isEmpty())
+			schedule(BATCH_DELAY);
+	}
+
+	/**
+	 * @see Job#run(IProgressMonitor)
+	 */
+	@Override
+	protected IStatus run(final IProgressMonitor monitor) {
+		final ProxyChangeRecorder recorder = ProxyChangeRecorder.getDefault();
+		final List<ProxyChangeRecorder.Event> events;
+		// Holding the recorder so that no change is recorded in between
+		synchronized (this) {
+			synchronized (recorder) {
+				events = recorder.getEventsSince(delivered);
+				delivered = recorder.getTotal();
+			}
+		}
+		if (events.isEmpty())
+			return Status.OK_STATUS;
+		for (final Listener listener : listeners)
+			try {
+				listener.proxyChanged(events);
+			} catch (final RuntimeException e) {
+				Activator.sendErrorToErrorLog(
+						"Error while notifying a proxy configuration change...",
+						e);
+			}
+		return Status.OK_STATUS;
+	}
+
+}
@@ -38,6 +38,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.github.aneveux.eproxy.data.EProxy;
+import com.github.aneveux.eproxy.data.EProxySnapshot;
 
 /**
  * This fluent API allows to create an {@link EProxy} object following the
@@ -113,6 +114,135 @@ public class EProxyBuilder {
 		return this;
 	}
 
+	/**
+	 * Allows to use a different proxy for HTTPS, by default HTTPS goes
+	 * through the same proxy as HTTP
+	 * 
+	 * @see EProxy#setHttpsHost(String)
+	 * @see EProxy#setHttpsPort(int)
+	 * @param host
+	 *            {@link String} : the host of the HTTPS proxy
+	 * @param port
+	 *            int : the port of the HTTPS proxy
+	 * @return the current {@link EProxyBuilder}
+	 * @since 1.2
+	 */
+	public EProxyBuilder withHttpsProxy(String host, int port) {
+		this.result.setHttpsHost(host);
+		this.result.setHttpsPort(port);
+		return this;
+	}
+
+	/**
+	 * Allows to define the SOCKS proxy, by default the SOCKS configuration is
+	 * kept as it is
+	 * 
+	 * @see EProxy#setSocksHost(String)
+	 * @see EProxy#setSocksPort(int)
+	 * @param host
+	 *            {@link String} : the host of the SOCKS proxy
+	 * @param port
+	 *            int : the port of the SOCKS proxy
+	 * @return the current {@link EProxyBuilder}
+	 * @since 1.2
+	 */
+	public EProxyBuilder withSocksProxy(String host, int port) {
+		this.result.setSocksHost(host);
+		this.result.setSocksPort(port);
+		return this;
+	}
+
+	/**
+	 * Allows to add a proxy to fall back on when the previous ones aren't
+	 * reachable anymore, failover proxies are tried in the order they're added
+	 * 
+	 * @see EProxy#setFailoverProxies(String[])
+	 * @see FailoverMonitor
+	 * @param host
+	 *            {@link String} : the host of the failover proxy
+	 * @param port
+	 *            int : the port of the failover proxy
+	 * @return the current {@link EProxyBuilder}
+	 * @since 1.2
+	 */
+	public EProxyBuilder withFailoverProxy(String host, int port) {
+		final String[] previous = this.result.getFailoverProxies();
+		final String[] failoverProxies = new String[previous.length + 1];
+		System.arraycopy(previous, 0, failoverProxies, 0, previous.length);
+		failoverProxies[previous.length] = (host.indexOf(':') >= 0 ? "["
+				+ host + "]" : host) + ":" + port;
+		this.result.setFailoverProxies(failoverProxies);
+		return this;
+	}
+
+	/**
+	 * Allows to go through the local relay, which keeps authenticated
+	 * connections to the proxy open for all the Eclipse transports
+	 * 
+	 * @see EProxy#setRelayEnabled(boolean)
+	 * @see RelayProxy
+	 * @param relayEnabled
+	 *            boolean : true to go through the local relay
+	 * @return the current {@link EProxyBuilder}
+	 * @since 1.2
+	 */
+	public EProxyBuilder withRelay(boolean relayEnabled) {
+		this.result.setRelayEnabled(relayEnabled);
+		return this;
+	}
+
+	/**
+	 * Allows to cache the plain HTTP responses on disk, which goes through the
+	 * local relay as well
+	 * 
+	 * @see EProxy#setCacheEnabled(boolean)
+	 * @see ResponseCache
+	 * @param cacheEnabled
+	 *            boolean : true to cache the responses
+	 * @return the current {@link EProxyBuilder}
+	 * @since 1.2
+	 */
+	public EProxyBuilder withResponseCache(boolean cacheEnabled) {
+		this.result.setCacheEnabled(cacheEnabled);
+		return this;
+	}
+
+	/**
+	 * Allows to restrict the response cache to some hosts, all the hosts are
+	 * cached if none is added
+	 * 
+	 * @see EProxy#setCachedHosts(String[])
+	 * @param cachedHost
+	 *            {@link String} : a host whose responses are cached, with the
+	 *            same syntax as the nonProxyHosts
+	 * @return the current {@link EProxyBuilder}
+	 * @since 1.2
+	 */
+	public EProxyBuilder withCachedHost(String cachedHost) {
+		final String[] previous = this.result.getCachedHosts();
+		final String[] cachedHosts = new String[previous.length + 1];
+		System.arraycopy(previous, 0, cachedHosts, 0, previous.length);
+		cachedHosts[previous.length] = cachedHost;
+		this.result.setCachedHosts(cachedHosts);
+		return this;
+	}
+
+	/**
+	 * Allows to race direct connections against the proxy for the hosts which
+	 * aren't known yet, which goes through the local relay as well
+	 * 
+	 * @see EProxy#setDirectRacingEnabled(boolean)
+	 * @see RouteCache
+	 * @param directRacingEnabled
+	 *            boolean : true to race direct connections against the proxy
+	 * @return the current {@link EProxyBuilder}
+	 * @since 1.2
+	 */
+	public EProxyBuilder withDirectRacing(boolean directRacingEnabled) {
+		this.result.setDirectRacingEnabled(directRacingEnabled);
+		return this;
+	}
+
 	/**
 	 * Allows to define if authentication is required for your {@link EProxy}
 	 * instance
@@ -155,6 +285,22 @@ public class EProxyBuilder {
 		return this;
 	}
 
+	/**
+	 * Allows to define the location of a PAC script for your {@link EProxy}
+	 * instance
+	 * 
+	 * @see EProxy#setPacLocation(String)
+	 * @see PacProxyResolver
+	 * @param pacLocation
+	 *            {@link String} : the URL of the PAC script
+	 * @return the current {@link EProxyBuilder}
+	 * @since 1.2
+	 */
+	public EProxyBuilder withPacLocation(String pacLocation) {
+		this.result.setPacLocation(pacLocation);
+		return this;
+	}
+
 	/**
 	 * <p>
 	 * Allows to add a nonProxyHost to your {@link EProxy} instance
@@ -179,6 +325,34 @@ public class EProxyBuilder {
 		return this;
 	}
 
+	/**
+	 * <p>
+	 * Allows to add a range of addresses to bypass to your {@link EProxy}
+	 * instance, using the CIDR notation such as <i>10.0.0.0/8</i> or
+	 * <i>fd00::/8</i>
+	 * </p>
+	 * <p>
+	 * Note that these ranges are handled by eProxy (see
+	 * {@link ProxyHelper#shouldBypass(String)}), Eclipse itself only matches
+	 * nonProxyHosts by name
+	 * </p>
+	 * 
+	 * @see AddressRangeTree
+	 * @param range
+	 *            {@link String} : an address range in the CIDR notation
+	 * @return the current {@link EProxyBuilder}
+	 * @throws IllegalArgumentException
+	 *             if the range can't be parsed
+	 * @since 1.2
+	 */
+	public EProxyBuilder withNonProxyRange(String range) {
+		if (!AddressRangeTree.isRange(range))
+			throw new IllegalArgumentException("Invalid address range: "
+					+ range);
+		this.nonProxyHosts.add(range);
+		return this;
+	}
+
 	/**
 	 * <p>
 	 * Allows to add default nonProxyHosts to your {@link EProxy} instance
@@ -213,4 +387,19 @@ public class EProxyBuilder {
 		return this.result;
 	}
 
+	/**
+	 * Allows to build an immutable {@link EProxySnapshot} from all the
+	 * parameters received through the <b>with*</b> methods. Unlike the
+	 * {@link EProxy} given by {@link #build()}, it can't be changed afterwards,
+	 * neither through the builder nor by anybody it's shared with.
+	 * 
+	 * @see EProxySnapshot
+	 * @return an {@link EProxySnapshot} built from the information provided by
+	 *         the user
+	 * @since 1.2
+	 */
+	public EProxySnapshot snapshot() {
+		return EProxySnapshot.of(build());
+	}
+
 }
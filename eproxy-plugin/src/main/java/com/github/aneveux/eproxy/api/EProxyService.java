@@ -0,0 +1,146 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+import com.github.aneveux.eproxy.data.EProxy;
+import com.github.aneveux.eproxy.data.EProxySnapshot;
+
+/**
+ * <p>
+ * The OSGi service allowing other bundles to drive eProxy without blocking
+ * their own threads. It's registered by the plug-in activator while the
+ * plug-in is active.
+ * </p>
+ * <p>
+ * All the operations return at once: the work is done in the background and
+ * the returned {@link Future} gives its outcome. The configurations are
+ * written by the {@link ProxyApplyJob}, so requests submitted in a row are
+ * coalesced and only the latest one is written.
+ * </p>
+ * <p>
+ * Subscribers are notified of the changes of the Eclipse proxy configuration,
+ * whether they come from eProxy or not. Changes happening close to each other
+ * are delivered together in a single batch.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public interface EProxyService {
+
+	/**
+	 * Allows to define the proxy in the background
+	 * 
+	 * @param proxy
+	 *            the {@link EProxy} to define
+	 * @return a {@link Future} giving the {@link ProxyTransaction.Result} once
+	 *         the configuration has been written
+	 */
+	Future<ProxyTransaction.Result> apply(EProxy proxy);
+
+	/**
+	 * Allows to apply a profile stored in the {@link ProfileStore} in the
+	 * background
+	 * 
+	 * @param reference
+	 *            the reference of the profile to apply
+	 * @return a {@link Future} giving the {@link ProxyTransaction.Result} once
+	 *         the configuration has been written
+	 * @throws IllegalArgumentException
+	 *             if there is no profile with this reference
+	 */
+	Future<ProxyTransaction.Result> applyProfile(String reference);
+
+	/**
+	 * Allows to clear the proxy settings in the background
+	 * 
+	 * @return a {@link Future} giving the {@link ProxyTransaction.Result} once
+	 *         the configuration has been written
+	 */
+	Future<ProxyTransaction.Result> clear();
+
+	/**
+	 * Allows to read the Eclipse proxy configuration in the background
+	 * 
+	 * @return a {@link Future} giving the configuration in an immutable
+	 *         {@link EProxySnapshot}, see
+	 *         {@link ProxyHelper#getProxyInformation()}
+	 */
+	Future<EProxySnapshot> snapshot();
+
+	/**
+	 * Allows to be notified of the changes of the proxy configuration, from
+	 * now on. Subscribing the same listener twice has no effect.
+	 * 
+	 * @param listener
+	 *            the {@link Listener} to notify
+	 */
+	void subscribe(Listener listener);
+
+	/**
+	 * Allows to stop notifying the provided listener
+	 * 
+	 * @param listener
+	 *            a subscribed {@link Listener}
+	 */
+	void unsubscribe(Listener listener);
+
+	/**
+	 * A subscriber to the changes of the proxy configuration
+	 * 
+	 * @author Antoine Neveux
+	 * @version 1.0
+	 * @since 1.2
+	 * 
+	 */
+	interface Listener {
+
+		/**
+		 * Called in a background job with the changes which happened since
+		 * the previous call. Changes made by eProxy can be told apart using
+		 * {@link ProxyChangeRecorder.Event#isOwnChange()}.
+		 * 
+		 * @param events
+		 *            the changes, from the oldest to the most recent, never
+		 *            empty
+		 */
+		void proxyChanged(List<ProxyChangeRecorder.Event> events);
+	}
+}
@@ -34,6 +34,15 @@
  */
 package com.github.aneveux.eproxy.api;
 
+import java.net.SocketException;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.swt.widgets.Display;
+
+import com.github.aneveux.eproxy.Activator;
 import com.github.aneveux.eproxy.data.EProxy;
 import com.github.aneveux.eproxy.ui.EProxyUI;
 
@@ -50,6 +59,19 @@ import com.github.aneveux.eproxy.ui.EProxyUI;
  * If you need to create {@link EProxy} objects, you can use the fluent API
  * provided by {@link EProxyBuilder}
  * </p>
+ * <p>
+ * The UI thread never waits for the Eclipse configuration or the secure
+ * storage: the current configuration is read in the background before the
+ * wizard is opened, and the configuration selected by the user is saved and
+ * written in the background (see {@link ProxyHelper#defineProxyAsync(EProxy)}),
+ * so the workbench doesn't freeze once the wizard is closed
+ * </p>
+ * <p>
+ * Proxies named by the user in the wizard are stored as profiles, which can
+ * then be applied directly through {@link ProxyHelper#applyProfile(String)},
+ * or automatically on the network they have been bound to (see
+ * {@link NetworkLocationWatcher})
+ * </p>
  * 
  * @author Antoine Neveux
  * @version 1.0
@@ -64,20 +86,40 @@ public class EProxyWizard {
 	 */
 	public static void invokeEmptyWizard() {
 		EProxyUI ui = new EProxyUI();
-		if (ui.getResult() != null)
-			ProxyHelper.defineProxy(ui.getResult());
+		apply(ui);
 	}
 
 	/**
 	 * Allows to invoke an {@link EProxyUI} filled with the information which is
 	 * already present in Eclipse configuration, then the user will be asked for
 	 * modifying these values if necessary, and the Eclipse configuration will
-	 * be updated
+	 * be updated. The configuration is read in the background, so this method
+	 * returns immediately and the wizard is opened later in the UI thread.
 	 */
 	public static void invokeDefaultWizard() {
-		EProxyUI ui = new EProxyUI(ProxyHelper.getProxyInformation());
-		if (ui.getResult() != null)
-			ProxyHelper.defineProxy(ui.getResult());
+		final Display display = Display.getCurrent() == null ? Display
+				.getDefault() : Display.getCurrent();
+		final Job job = new Job("Reading the proxy configuration") {
+			@Override
+			protected IStatus run(final IProgressMonitor monitor) {
+				final EProxy current = ProxyHelper.getProxyInformation();
+				final String activeProfile = ProfileStore.getDefault()
+						.getActiveProfile();
+				if (activeProfile != null)
+					current.setReference(activeProfile);
+				if (!display.isDisposed())
+					display.asyncExec(new Runnable() {
+						@Override
+						public void run() {
+							apply(new EProxyUI(current));
+						}
+					});
+				return Status.OK_STATUS;
+			}
+		};
+		job.setSystem(true);
+		job.setPriority(Job.SHORT);
+		job.schedule();
 	}
 
 	/**
@@ -94,8 +136,66 @@ public class EProxyWizard {
 	 */
 	public static void invokeWizard(EProxy defaultConfiguration) {
 		EProxyUI ui = new EProxyUI(defaultConfiguration);
-		if (ui.getResult() != null)
-			ProxyHelper.defineProxy(ui.getResult());
+		apply(ui);
+	}
+
+	/**
+	 * Applies the user's selection, if any. If the user named the proxy, it's
+	 * also stored as a profile in the {@link ProfileStore}, which is done in
+	 * the background as the secure storage may ask for its master password,
+	 * and bound to the current network if the user asked for it.
+	 * 
+	 * @param ui
+	 *            the closed {@link EProxyUI}
+	 */
+	private static void apply(final EProxyUI ui) {
+		final EProxy result = ui.getResult();
+		if (result == null)
+			return;
+		final boolean named = ui.isProfileNamed();
+		final boolean bound = ui.isLocationBound();
+		final Job job = new Job("Saving the proxy configuration") {
+			@Override
+			protected IStatus run(final IProgressMonitor monitor) {
+				if (named) {
+					ProfileStore.getDefault().save(result);
+					ProfileStore.getDefault().setActiveProfile(
+							result.getReference());
+					bindLocation(result.getReference(), bound);
+				}
+				ProxyHelper.defineProxyAsync(result);
+				return Status.OK_STATUS;
+			}
+		};
+		job.setSystem(true);
+		job.setPriority(Job.SHORT);
+		job.schedule();
+	}
+
+	/**
+	 * Binds the current network location to the profile, starting the
+	 * {@link NetworkLocationWatcher} if needed, or removes the binding
+	 * 
+	 * @param reference
+	 *            the reference of the saved profile
+	 * @param bound
+	 *            true if the profile should be applied on the current network
+	 */
+	private static void bindLocation(final String reference,
+			final boolean bound) {
+		final NetworkLocationWatcher watcher = NetworkLocationWatcher
+				.getDefault();
+		try {
+			if (bound) {
+				watcher.bindCurrentLocation(reference);
+				if (!NetworkLocationWatcher.isEnabled())
+					watcher.setEnabled(true);
+			} else
+				watcher.unbindCurrentLocation(reference);
+		} catch (final SocketException e) {
+			Activator.sendErrorToErrorLog(
+					"Error while trying to read the network location...", e);
+		}
 	}
 
 }
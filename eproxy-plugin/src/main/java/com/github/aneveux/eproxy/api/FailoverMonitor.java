@@ -0,0 +1,329 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import com.github.aneveux.eproxy.Activator;
+import com.github.aneveux.eproxy.data.EProxy;
+
+/**
+ * <p>
+ * This {@link Job} keeps an eye on the upstream proxies of the applied
+ * {@link EProxy}: its own host and port first, then its failover proxies (see
+ * {@link EProxy#getFailoverProxies()}), in order
+ * </p>
+ * <p>
+ * Every {@link #CHECK_DELAY} milliseconds, the upstreams whose
+ * {@link CircuitBreaker} isn't open are probed together using a
+ * {@link ProxyProber}. When the breaker of the active upstream opens, the
+ * first upstream whose breaker is closed is submitted to the
+ * {@link ProxyApplyJob}, flagged as a switch. Going back to a preferred upstream
+ * only happens once its breaker is closed again, which requires several
+ * successful checks in a row, so that a flapping proxy doesn't make the
+ * configuration change on each check.
+ * </p>
+ * <p>
+ * The monitor is started by {@link ProxyHelper} each time a proxy having
+ * failover proxies is applied, and stopped as soon as another proxy is
+ * applied or the proxy is cleared.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class FailoverMonitor extends Job {
+
+	/**
+	 * Delay between two checks of the upstreams, in milliseconds
+	 */
+	public static final long CHECK_DELAY = 15000;
+
+	/**
+	 * The shared instance
+	 */
+	private static FailoverMonitor instance;
+
+	private final ProxyProber prober = new ProxyProber();
+
+	/**
+	 * The watched proxy, null while the monitor is stopped
+	 */
+	private EProxy proxy;
+
+	/**
+	 * The upstreams, as host:port, in order of preference
+	 */
+	private String[] upstreams = new String[0];
+
+	private CircuitBreaker[] breakers = new CircuitBreaker[0];
+
+	/**
+	 * Index of the applied upstream
+	 */
+	private int active;
+
+	private volatile boolean running;
+
+	/**
+	 * Creates the monitor, use {@link #getDefault()} to get the shared
+	 * instance
+	 */
+	protected FailoverMonitor() {
+		super("Checking the failover proxies");
+		setSystem(true);
+		setPriority(Job.DECORATE);
+	}
+
+	/**
+	 * @return the shared instance
+	 */
+	public static synchronized FailoverMonitor getDefault() {
+		if (instance == null)
+			instance = new FailoverMonitor();
+		return instance;
+	}
+
+	/**
+	 * Stops the shared instance if it has been created
+	 */
+	public static synchronized void shutdown() {
+		if (instance != null)
+			instance.stop();
+	}
+
+	/**
+	 * Called by {@link ProxyHelper} each time a configuration is written
+	 * 
+	 * @param applied
+	 *            the applied {@link EProxy}, or null if the proxy has been
+	 *            cleared
+	 * @param failover
+	 *            true if the monitor switched to this upstream itself, which
+	 *            keeps it watching the same chain
+	 */
+	static void onApplied(final EProxy applied, final boolean failover) {
+		if (failover)
+			return;
+		if (applied != null && applied.getFailoverProxies().length > 0)
+			getDefault().watch(applied);
+		else
+			shutdown();
+	}
+
+	/**
+	 * Allows to start watching the upstreams of the provided {@link EProxy},
+	 * considering its own host and port as the active upstream
+	 * 
+	 * @param watched
+	 *            the applied {@link EProxy}
+	 */
+	public synchronized void watch(final EProxy watched) {
+		final String[] chain = chain(watched);
+		if (!Arrays.equals(chain, upstreams)) {
+			upstreams = chain;
+			breakers = new CircuitBreaker[chain.length];
+			for (int i = 0; i < chain.length; i++)
+				breakers[i] = new CircuitBreaker();
+		}
+		proxy = watched;
+		active = 0;
+		if (!running) {
+			running = true;
+			schedule(CHECK_DELAY);
+		}
+	}
+
+	/**
+	 * Stops watching the upstreams
+	 */
+	public synchronized void stop() {
+		running = false;
+		proxy = null;
+		cancel();
+	}
+
+	/**
+	 * @return the upstreams, as host:port, in order of preference
+	 */
+	public synchronized String[] getUpstreams() {
+		return upstreams.clone();
+	}
+
+	/**
+	 * @return the applied upstream as host:port, or null if the monitor is
+	 *         stopped
+	 */
+	public synchronized String getActiveUpstream() {
+		return proxy != null ? upstreams[active] : null;
+	}
+
+	/**
+	 * @param index
+	 *            the index of an upstream
+	 * @return the state of the breaker of the upstream
+	 */
+	public synchronized CircuitBreaker.State getState(final int index) {
+		return breakers[index].getState(System.currentTimeMillis());
+	}
+
+	/**
+	 * @see Job#shouldSchedule()
+	 */
+	@Override
+	public boolean shouldSchedule() {
+		return running;
+	}
+
+	/**
+	 * @see Job#run(IProgressMonitor)
+	 */
+	@Override
+	protected IStatus run(final IProgressMonitor monitor) {
+		if (!running || monitor.isCanceled())
+			return Status.CANCEL_STATUS;
+		try {
+			check();
+		} catch (final IOException e) {
+			Activator.sendErrorToErrorLog(
+					"Error while trying to check the failover proxies...", e);
+		}
+		if (running)
+			schedule(CHECK_DELAY);
+		return Status.OK_STATUS;
+	}
+
+	/**
+	 * Probes the upstreams which can be checked, and switches to another
+	 * upstream if needed
+	 */
+	void check() throws IOException {
+		final EProxy watched;
+		final CircuitBreaker[] checked;
+		final Map<EProxy, Integer> indexes = new IdentityHashMap<EProxy, Integer>();
+		final List<EProxy> candidates = new ArrayList<EProxy>();
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			watched = proxy;
+			checked = breakers;
+			if (watched == null)
+				return;
+			for (int i = 0; i < upstreams.length; i++)
+				if (breakers[i].shouldCheck(now)) {
+					final EProxy candidate = upstream(watched, upstreams[i]);
+					indexes.put(candidate, Integer.valueOf(i));
+					candidates.add(candidate);
+				}
+		}
+		final List<ProxyProber.Result> results = candidates.isEmpty() ? new ArrayList<ProxyProber.Result>()
+				: prober.probe(candidates);
+		now = System.currentTimeMillis();
+		EProxy target = null;
+		synchronized (this) {
+			// The watched proxy may have changed while probing
+			if (watched != proxy || checked != breakers)
+				return;
+			for (final ProxyProber.Result result : results) {
+				final int index = indexes.get(result.getProxy()).intValue();
+				if (result.isReachable())
+					breakers[index].onSuccess(now);
+				else
+					breakers[index].onFailure(now);
+			}
+			int preferred = -1;
+			for (int i = 0; i < breakers.length && preferred < 0; i++)
+				if (breakers[i].getState(now) == CircuitBreaker.State.CLOSED)
+					preferred = i;
+			if (preferred >= 0
+					&& preferred != active
+					&& (preferred < active || breakers[active].getState(now) != CircuitBreaker.State.CLOSED)) {
+				Activator.sendInfoToErrorLog("Switching proxy from "
+						+ upstreams[active] + " to " + upstreams[preferred]);
+				active = preferred;
+				target = upstream(watched, upstreams[preferred]);
+			}
+		}
+		if (target != null)
+			ProxyApplyJob.getDefault().submit(target, true);
+	}
+
+	/**
+	 * @return the upstreams of the provided {@link EProxy}, its own host and
+	 *         port first
+	 */
+	private static String[] chain(final EProxy watched) {
+		final String[] failover = watched.getFailoverProxies();
+		final String[] chain = new String[failover.length + 1];
+		chain[0] = format(watched.getHost(), watched.getPort());
+		System.arraycopy(failover, 0, chain, 1, failover.length);
+		return chain;
+	}
+
+	private static String format(final String host, final int port) {
+		return (host != null && host.indexOf(':') >= 0 ? "[" + host + "]"
+				: host) + ":" + port;
+	}
+
+	/**
+	 * Creates a copy of the provided {@link EProxy} going through the provided
+	 * upstream, given as host:port
+	 */
+	static EProxy upstream(final EProxy watched, final String upstream) {
+		final int colon = upstream.lastIndexOf(':');
+		String host = colon > 0 ? upstream.substring(0, colon) : upstream;
+		if (host.startsWith("[") && host.endsWith("]"))
+			host = host.substring(1, host.length() - 1);
+		int port = watched.getPort();
+		if (colon > 0)
+			try {
+				port = Integer.parseInt(upstream.substring(colon + 1));
+			} catch (final NumberFormatException e) {
+				// Keeps the port of the watched proxy
+			}
+		return ProfileStore.copy(watched).setHost(host).setPort(port);
+	}
+}
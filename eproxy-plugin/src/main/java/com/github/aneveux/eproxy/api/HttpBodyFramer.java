@@ -0,0 +1,237 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Allows to find where the body of an HTTP/1.x message ends, while its bytes
+ * go through the {@link RelayProxy} without being copied
+ * </p>
+ * <p>
+ * Bodies are either delimited by a <i>Content-Length</i>, chunked, or ended
+ * when the connection is closed. Chunked bodies are parsed incrementally, a
+ * few bytes at a time if needed, and their trailer is part of the body.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+final class HttpBodyFramer {
+
+	private static final int LENGTH = 0;
+
+	private static final int CHUNK_SIZE = 1;
+
+	private static final int CHUNK_EXTENSION = 2;
+
+	private static final int CHUNK_DATA = 3;
+
+	private static final int CHUNK_END = 4;
+
+	private static final int TRAILER = 5;
+
+	private static final int UNTIL_CLOSE = 6;
+
+	private static final int DONE = 7;
+
+	private int state;
+
+	/**
+	 * Remaining bytes of the body or of the current chunk
+	 */
+	private long remaining;
+
+	/**
+	 * Amount of characters of the current chunk size or trailer line
+	 */
+	private int lineLength;
+
+	private HttpBodyFramer(final int state, final long remaining) {
+		this.state = remaining == 0 && state == LENGTH ? DONE : state;
+		this.remaining = remaining;
+	}
+
+	/**
+	 * @return a framer for a message without body
+	 */
+	static HttpBodyFramer none() {
+		return new HttpBodyFramer(DONE, 0);
+	}
+
+	/**
+	 * @param request
+	 *            the head of a request
+	 * @return the framer of its body
+	 * @throws IOException
+	 *             if its length is invalid
+	 */
+	static HttpBodyFramer forRequest(final HttpHead request)
+			throws IOException {
+		if (request.get("Transfer-Encoding") != null)
+			return new HttpBodyFramer(CHUNK_SIZE, 0);
+		final String length = request.get("Content-Length");
+		return length != null ? new HttpBodyFramer(LENGTH, parseLength(length))
+				: none();
+	}
+
+	/**
+	 * @param method
+	 *            the method of the request
+	 * @param response
+	 *            the head of the response
+	 * @return the framer of the body of the response
+	 * @throws IOException
+	 *             if its length is invalid
+	 */
+	static HttpBodyFramer forResponse(final String method,
+			final HttpHead response) throws IOException {
+		final int status = response.getStatus();
+		if ("HEAD".equalsIgnoreCase(method) || status / 100 == 1
+				|| status == 204 || status == 304)
+			return none();
+		final String encoding = response.get("Transfer-Encoding");
+		if (encoding != null)
+			return response.contains("Transfer-Encoding", "chunked") ? new HttpBodyFramer(
+					CHUNK_SIZE, 0) : new HttpBodyFramer(UNTIL_CLOSE, 0);
+		final String length = response.get("Content-Length");
+		return length != null ? new HttpBodyFramer(LENGTH, parseLength(length))
+				: new HttpBodyFramer(UNTIL_CLOSE, 0);
+	}
+
+	private static long parseLength(final String length) throws IOException {
+		try {
+			final long value = Long.parseLong(length.trim());
+			if (value >= 0)
+				return value;
+		} catch (final NumberFormatException e) {
+			// Reported below
+		}
+		throw new IOException("Invalid Content-Length: " + length);
+	}
+
+	/**
+	 * @return true if the whole body has been scanned
+	 */
+	boolean isDone() {
+		return state == DONE;
+	}
+
+	/**
+	 * @return true if the body ends when the connection is closed
+	 */
+	boolean isUntilClose() {
+		return state == UNTIL_CLOSE;
+	}
+
+	/**
+	 * Scans the readable bytes of the buffer, without moving it
+	 * 
+	 * @param buffer
+	 *            a buffer, in read mode
+	 * @return the amount of bytes, from the position of the buffer, which are
+	 *         part of the body
+	 * @throws IOException
+	 *             if a chunked body is invalid
+	 */
+	int scan(final ByteBuffer buffer) throws IOException {
+		final int start = buffer.position();
+		final int limit = buffer.limit();
+		int i = start;
+		while (i < limit && state != DONE) {
+			switch (state) {
+			case UNTIL_CLOSE:
+				return limit - start;
+			case LENGTH:
+			case CHUNK_DATA:
+				final int length = (int) Math.min(remaining, limit - i);
+				i += length;
+				remaining -= length;
+				if (remaining == 0)
+					state = state == LENGTH ? DONE : CHUNK_END;
+				break;
+			case CHUNK_SIZE:
+			case CHUNK_EXTENSION:
+				final byte b = buffer.get(i++);
+				if (b == '\n') {
+					if (lineLength == 0)
+						throw new IOException("Missing chunk size");
+					lineLength = 0;
+					state = remaining > 0 ? CHUNK_DATA : TRAILER;
+				} else if (state == CHUNK_SIZE && b != '\r') {
+					final int digit = Character.digit(b, 16);
+					if (digit >= 0 && lineLength < 15) {
+						remaining = remaining << 4 | digit;
+						lineLength++;
+					} else if (b == ';' || b == ' ' || b == '\t')
+						state = CHUNK_EXTENSION;
+					else
+						throw new IOException("Invalid chunk size");
+				}
+				break;
+			case CHUNK_END:
+				if (buffer.get(i++) == '\n')
+					state = CHUNK_SIZE;
+				break;
+			case TRAILER:
+				if (buffer.get(i++) == '\n') {
+					if (lineLength == 0)
+						state = DONE;
+					lineLength = 0;
+				} else if (buffer.get(i - 1) != '\r')
+					lineLength++;
+				break;
+			}
+		}
+		return i - start;
+	}
+
+	/**
+	 * Allows to know that the connection has been closed
+	 * 
+	 * @throws IOException
+	 *             if the body wasn't complete
+	 */
+	void endOfStream() throws IOException {
+		if (state == UNTIL_CLOSE)
+			state = DONE;
+		else if (state != DONE)
+			throw new IOException("Connection closed before the end of the body");
+	}
+}
@@ -0,0 +1,285 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * The head of an HTTP/1.x message going through the {@link RelayProxy}: its
+ * start line and its header fields, which can be rewritten before the head
+ * is sent again
+ * </p>
+ * <p>
+ * Heads are decoded as ISO-8859-1, so that any byte goes through unchanged.
+ * Header names are compared without case, and the order of the fields is
+ * kept.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+final class HttpHead {
+
+	private static final String CHARSET = "ISO-8859-1";
+
+	private final String startLine;
+
+	/**
+	 * The header fields, as name and value pairs
+	 */
+	private final List<String[]> fields = new ArrayList<String[]>();
+
+	private HttpHead(final String startLine) {
+		this.startLine = startLine;
+	}
+
+	/**
+	 * Looks for the end of a head in the readable bytes of the buffer
+	 * 
+	 * @param buffer
+	 *            a buffer, in read mode
+	 * @return the position following the empty line ending the head, or -1 if
+	 *         the head isn't complete yet
+	 */
+	static int endOf(final ByteBuffer buffer) {
+		final int limit = buffer.limit();
+		for (int i = buffer.position(); i < limit; i++)
+			if (buffer.get(i) == '\n') {
+				if (i + 1 < limit && buffer.get(i + 1) == '\n')
+					return i + 2;
+				if (i + 2 < limit && buffer.get(i + 1) == '\r'
+						&& buffer.get(i + 2) == '\n')
+					return i + 3;
+			}
+		return -1;
+	}
+
+	/**
+	 * Parses the head found in the buffer, and moves the buffer after it
+	 * 
+	 * @param buffer
+	 *            a buffer, in read mode
+	 * @param end
+	 *            the end of the head, as returned by {@link #endOf(ByteBuffer)}
+	 * @return the parsed head
+	 * @throws IOException
+	 *             if the head isn't a valid HTTP head
+	 */
+	static HttpHead parse(final ByteBuffer buffer, final int end)
+			throws IOException {
+		final byte[] bytes = new byte[end - buffer.position()];
+		buffer.get(bytes);
+		final String[] lines = new String(bytes, CHARSET).split("\r?\n");
+		// Tolerates empty lines before the start line
+		int first = 0;
+		while (first < lines.length && lines[first].length() == 0)
+			first++;
+		if (first == lines.length || lines[first].indexOf(' ') < 0)
+			throw new IOException("Invalid HTTP message");
+		final HttpHead head = new HttpHead(lines[first]);
+		for (int i = first + 1; i < lines.length; i++) {
+			final String line = lines[i];
+			if (line.length() == 0)
+				continue;
+			if ((line.charAt(0) == ' ' || line.charAt(0) == '\t')
+					&& !head.fields.isEmpty()) {
+				// Obsolete line folding, merged into the previous field
+				final String[] last = head.fields.get(head.fields.size() - 1);
+				last[1] = last[1] + " " + line.trim();
+				continue;
+			}
+			final int colon = line.indexOf(':');
+			if (colon <= 0)
+				throw new IOException("Invalid HTTP header: " + line);
+			head.fields.add(new String[] { line.substring(0, colon).trim(),
+					line.substring(colon + 1).trim() });
+		}
+		return head;
+	}
+
+	/**
+	 * @return the start line, either the request line or the status line
+	 */
+	String getStartLine() {
+		return startLine;
+	}
+
+	/**
+	 * @return the method of a request
+	 */
+	String getMethod() {
+		return startLine.substring(0, startLine.indexOf(' '));
+	}
+
+	/**
+	 * @return the target of a request, an absolute URI for a request sent to
+	 *         a proxy, or <i>host:port</i> for a CONNECT request
+	 */
+	String getTarget() {
+		final int start = startLine.indexOf(' ') + 1;
+		final int end = startLine.indexOf(' ', start);
+		return end > 0 ? startLine.substring(start, end) : startLine
+				.substring(start);
+	}
+
+	/**
+	 * @return the protocol version of a request or a response, such as
+	 *         <i>HTTP/1.1</i>
+	 */
+	String getVersion() {
+		if (startLine.startsWith("HTTP/"))
+			return startLine.substring(0, startLine.indexOf(' '));
+		return startLine.substring(startLine.lastIndexOf(' ') + 1);
+	}
+
+	/**
+	 * @return the status code of a response, or -1 if it can't be read
+	 */
+	int getStatus() {
+		final int start = startLine.indexOf(' ') + 1;
+		if (start + 3 > startLine.length())
+			return -1;
+		try {
+			return Integer.parseInt(startLine.substring(start, start + 3));
+		} catch (final NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @param name
+	 *            the name of a header field
+	 * @return the value of the first field having this name, or null if
+	 *         there is none
+	 */
+	String get(final String name) {
+		for (final String[] field : fields)
+			if (field[0].equalsIgnoreCase(name))
+				return field[1];
+		return null;
+	}
+
+	/**
+	 * @param name
+	 *            the name of a header field
+	 * @param token
+	 *            a token to look for
+	 * @return true if one of the fields having this name lists the token, as
+	 *         in <i>Connection: keep-alive</i>
+	 */
+	boolean contains(final String name, final String token) {
+		for (final String[] field : fields)
+			if (field[0].equalsIgnoreCase(name))
+				for (final String value : field[1].split(","))
+					if (value.trim().equalsIgnoreCase(token))
+						return true;
+		return false;
+	}
+
+	/**
+	 * Replaces all the fields having this name by a single one
+	 */
+	HttpHead set(final String name, final String value) {
+		remove(name);
+		fields.add(new String[] { name, value });
+		return this;
+	}
+
+	/**
+	 * Removes all the fields having this name
+	 */
+	HttpHead remove(final String name) {
+		for (int i = fields.size() - 1; i >= 0; i--)
+			if (fields.get(i)[0].equalsIgnoreCase(name))
+				fields.remove(i);
+		return this;
+	}
+
+	/**
+	 * @return a copy of this head, which can be rewritten independently
+	 */
+	HttpHead copy() {
+		final HttpHead copy = new HttpHead(startLine);
+		for (final String[] field : fields)
+			copy.fields.add(field.clone());
+		return copy;
+	}
+
+	/**
+	 * @return true if the connection can be kept open once the message has
+	 *         been transferred, according to its version and its
+	 *         <i>Connection</i> and <i>Proxy-Connection</i> fields
+	 */
+	boolean isKeepAlive() {
+		if (contains("Connection", "close")
+				|| contains("Proxy-Connection", "close"))
+			return false;
+		return !"HTTP/1.0".equals(getVersion())
+				|| contains("Connection", "keep-alive")
+				|| contains("Proxy-Connection", "keep-alive");
+	}
+
+	/**
+	 * @return the bytes of the head, ready to be sent
+	 */
+	ByteBuffer toBuffer() {
+		final StringBuilder builder = new StringBuilder(256);
+		builder.append(startLine).append("\r\n");
+		for (final String[] field : fields)
+			builder.append(field[0]).append(": ").append(field[1])
+					.append("\r\n");
+		builder.append("\r\n");
+		try {
+			return ByteBuffer.wrap(builder.toString().getBytes(CHARSET));
+		} catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return startLine;
+	}
+}
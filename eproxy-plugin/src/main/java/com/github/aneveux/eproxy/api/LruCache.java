@@ -0,0 +1,222 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A bounded, thread-safe cache evicting the least recently used entries once
+ * its capacity is reached
+ * </p>
+ * <p>
+ * The entries are spread over several stripes, each one locked on its own, so
+ * that concurrent lookups of different keys don't wait for each other. The
+ * eviction is made within a stripe: the evicted entry is the least recently
+ * used of its stripe, which is only approximately the least recently used of
+ * the whole cache.
+ * </p>
+ * <p>
+ * It also counts hits and misses, so that its efficiency can be checked
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ * @param <K>
+ *            type of the keys
+ * @param <V>
+ *            type of the values
+ */
+public class LruCache<K, V> {
+
+	/**
+	 * Maximum amount of stripes
+	 */
+	static final int MAX_STRIPES = 16;
+
+	/**
+	 * The stripes, each one keeping its entries in access order
+	 */
+	private final Stripe<K, V>[] stripes;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Creates a new cache
+	 * 
+	 * @param capacity
+	 *            the maximum amount of entries to keep
+	 */
+	public LruCache(final int capacity) {
+		this(capacity, Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(
+				capacity, 1))));
+	}
+
+	/**
+	 * Creates a new cache using the provided amount of stripes
+	 * 
+	 * @param capacity
+	 *            the maximum amount of entries to keep
+	 * @param stripes
+	 *            the amount of stripes, a power of two
+	 */
+	@SuppressWarnings("unchecked")
+	LruCache(final int capacity, final int stripes) {
+		if (Integer.bitCount(stripes) != 1)
+			throw new IllegalArgumentException("Invalid amount of stripes "
+					+ stripes);
+		this.stripes = new Stripe[stripes];
+		// The capacity is shared out so that the stripes hold at most
+		// capacity entries all together
+		for (int i = 0; i < stripes; i++)
+			this.stripes[i] = new Stripe<K, V>(capacity / stripes
+					+ (i < capacity % stripes ? 1 : 0));
+	}
+
+	/**
+	 * @return the stripe holding the provided key
+	 */
+	private Stripe<K, V> stripe(final Object key) {
+		final int hash = key.hashCode();
+		return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+	}
+
+	/**
+	 * @param key
+	 *            the key to look for
+	 * @return the cached value, or null if there is none
+	 */
+	public V get(final K key) {
+		final Stripe<K, V> stripe = stripe(key);
+		final V value;
+		synchronized (stripe) {
+			value = stripe.get(key);
+		}
+		if (value != null)
+			hits.incrementAndGet();
+		else
+			misses.incrementAndGet();
+		return value;
+	}
+
+	/**
+	 * @param key
+	 *            the key of the value
+	 * @param value
+	 *            the value to cache, can't be null
+	 */
+	public void put(final K key, final V value) {
+		final Stripe<K, V> stripe = stripe(key);
+		synchronized (stripe) {
+			stripe.put(key, value);
+		}
+	}
+
+	/**
+	 * Removes all the entries, counters are kept
+	 */
+	public void clear() {
+		for (final Stripe<K, V> stripe : stripes)
+			synchronized (stripe) {
+				stripe.clear();
+			}
+	}
+
+	/**
+	 * @return the amount of cached entries
+	 */
+	public int size() {
+		int size = 0;
+		for (final Stripe<K, V> stripe : stripes)
+			synchronized (stripe) {
+				size += stripe.size();
+			}
+		return size;
+	}
+
+	/**
+	 * @return a copy of the entries, from the least to the most recently used
+	 *         within each stripe, without counting any hit or miss
+	 */
+	public Map<K, V> snapshot() {
+		final Map<K, V> snapshot = new LinkedHashMap<K, V>();
+		for (final Stripe<K, V> stripe : stripes)
+			synchronized (stripe) {
+				snapshot.putAll(stripe);
+			}
+		return snapshot;
+	}
+
+	/**
+	 * @return the amount of lookups which found a value
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the amount of lookups which didn't find any value
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * A part of the entries, in access order, guarded by its own monitor
+	 */
+	private static final class Stripe<K, V> extends LinkedHashMap<K, V> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		private Stripe(final int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+			return size() > capacity;
+		}
+	}
+
+}
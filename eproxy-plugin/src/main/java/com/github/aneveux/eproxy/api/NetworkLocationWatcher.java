@@ -0,0 +1,426 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.preferences.InstanceScope;
+import org.osgi.service.prefs.BackingStoreException;
+
+import com.github.aneveux.eproxy.Activator;
+
+/**
+ * <p>
+ * This {@link Job} watches the network the machine is connected to, and
+ * applies the profile associated to it (see
+ * {@link ProfileStore#bindLocation(String, String)}) as soon as the machine
+ * moves to another network
+ * </p>
+ * <p>
+ * A network location is identified by a fingerprint of the active interfaces,
+ * their subnets (not their addresses, which change with DHCP), and the DNS
+ * search domains when the platform exposes them in <i>/etc/resolv.conf</i>.
+ * The fingerprint is computed every {@link #POLL_DELAY} milliseconds, which
+ * only costs a walk through the network interfaces. When it changes, it must
+ * stay the same for another {@link #SETTLE_DELAY} milliseconds before a
+ * profile is applied, so that interfaces going up and down while connecting
+ * don't trigger several changes.
+ * </p>
+ * <p>
+ * The watcher is disabled by default, see {@link #setEnabled(boolean)}. The
+ * wizard enables it when the user asks for a profile to be applied on the
+ * current network.
+ * </p>
+ * <p>
+ * Profiles are applied through {@link ProxyHelper#applyProfile(String)}, so
+ * the watcher never writes the configuration itself.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class NetworkLocationWatcher extends Job {
+
+	/**
+	 * Delay between two checks of the network, in milliseconds
+	 */
+	public static final long POLL_DELAY = 10000;
+
+	/**
+	 * Delay during which a new network location must stay the same before
+	 * being considered, in milliseconds
+	 */
+	public static final long SETTLE_DELAY = 3000;
+
+	/**
+	 * Preference key allowing to know if the watcher is enabled
+	 */
+	public static final String ENABLED_PREFERENCE = "watchNetworkLocation";
+
+	/**
+	 * File containing the DNS search domains on Unix systems
+	 */
+	private static final File RESOLV_CONF = new File("/etc/resolv.conf");
+
+	/**
+	 * The shared instance
+	 */
+	private static NetworkLocationWatcher instance;
+
+	/**
+	 * True while the watcher should keep running
+	 */
+	private volatile boolean running;
+
+	/**
+	 * The current network location, once it's settled
+	 */
+	private volatile String location;
+
+	/**
+	 * A new network location which hasn't settled yet
+	 */
+	private String candidate;
+
+	/**
+	 * DNS search domains read from {@link #RESOLV_CONF}, and the modification
+	 * date of the file when it has been read
+	 */
+	private List<String> dnsSuffixes = Collections.emptyList();
+
+	private long dnsSuffixesTimestamp = -1;
+
+	/**
+	 * Creates the watcher, use {@link #getDefault()} to get the shared
+	 * instance
+	 */
+	protected NetworkLocationWatcher() {
+		super("Watching network location");
+		setSystem(true);
+		setPriority(Job.DECORATE);
+	}
+
+	/**
+	 * @return the shared instance
+	 */
+	public static synchronized NetworkLocationWatcher getDefault() {
+		if (instance == null)
+			instance = new NetworkLocationWatcher();
+		return instance;
+	}
+
+	/**
+	 * Stops the shared instance if it has been created
+	 */
+	public static synchronized void shutdown() {
+		if (instance != null)
+			instance.stop();
+	}
+
+	/**
+	 * @return true if the watcher has been enabled by the user
+	 */
+	public static boolean isEnabled() {
+		return InstanceScope.INSTANCE.getNode(Activator.PLUGIN_ID).getBoolean(
+				ENABLED_PREFERENCE, false);
+	}
+
+	/**
+	 * Allows to enable or disable the watcher, the choice is remembered
+	 * 
+	 * @param enabled
+	 *            true to watch the network location
+	 */
+	public void setEnabled(final boolean enabled) {
+		InstanceScope.INSTANCE.getNode(Activator.PLUGIN_ID).putBoolean(
+				ENABLED_PREFERENCE, enabled);
+		try {
+			InstanceScope.INSTANCE.getNode(Activator.PLUGIN_ID).flush();
+		} catch (final BackingStoreException e) {
+			Activator.sendErrorToErrorLog(
+					"Error while trying to save the preferences...", e);
+		}
+		if (enabled)
+			start();
+		else
+			stop();
+	}
+
+	/**
+	 * Starts watching the network
+	 */
+	public void start() {
+		if (!running) {
+			running = true;
+			schedule();
+		}
+	}
+
+	/**
+	 * Stops watching the network
+	 */
+	public void stop() {
+		running = false;
+		cancel();
+	}
+
+	/**
+	 * @return the fingerprint of the current network location, or null if it
+	 *         hasn't been computed yet
+	 */
+	public String getLocation() {
+		return location;
+	}
+
+	/**
+	 * Allows to associate the current network location to a profile
+	 * 
+	 * @param reference
+	 *            the reference of the profile to apply on this network
+	 * @throws SocketException
+	 *             if the network interfaces can't be read
+	 */
+	public void bindCurrentLocation(final String reference)
+			throws SocketException {
+		final String current = location != null ? location
+				: computeFingerprint();
+		ProfileStore.getDefault().bindLocation(current, reference);
+	}
+
+	/**
+	 * Allows to forget the association between the current network location
+	 * and a profile, if there is one
+	 * 
+	 * @param reference
+	 *            the reference of the profile which shouldn't be applied on
+	 *            this network anymore
+	 * @throws SocketException
+	 *             if the network interfaces can't be read
+	 */
+	public void unbindCurrentLocation(final String reference)
+			throws SocketException {
+		final String current = location != null ? location
+				: computeFingerprint();
+		final ProfileStore store = ProfileStore.getDefault();
+		if (reference.equals(store.getProfileForLocation(current)))
+			store.bindLocation(current, null);
+	}
+
+	/**
+	 * Allows to know if a profile is applied on the current network location,
+	 * without reading the network interfaces
+	 * 
+	 * @param reference
+	 *            the reference of a profile
+	 * @return true if the watcher is enabled, already knows the current
+	 *         location, and the location is associated to the profile
+	 */
+	public boolean isBoundToCurrentLocation(final String reference) {
+		final String current = location;
+		return current != null && isEnabled()
+				&& reference.equals(ProfileStore.getDefault()
+						.getProfileForLocation(current));
+	}
+
+	/**
+	 * @see Job#shouldSchedule()
+	 */
+	@Override
+	public boolean shouldSchedule() {
+		return running;
+	}
+
+	/**
+	 * @see Job#run(IProgressMonitor)
+	 */
+	@Override
+	protected IStatus run(final IProgressMonitor monitor) {
+		if (!running || monitor.isCanceled())
+			return Status.CANCEL_STATUS;
+		long delay = POLL_DELAY;
+		try {
+			final String fingerprint = computeFingerprint();
+			if (fingerprint.equals(location))
+				candidate = null;
+			else if (!fingerprint.equals(candidate)) {
+				candidate = fingerprint;
+				delay = SETTLE_DELAY;
+			} else {
+				candidate = null;
+				location = fingerprint;
+				onLocationChanged(fingerprint);
+			}
+		} catch (final SocketException e) {
+			Activator
+					.sendWarningToErrorLog("Unable to read the network interfaces: "
+							+ e.getMessage());
+		}
+		schedule(delay);
+		return Status.OK_STATUS;
+	}
+
+	/**
+	 * Applies the profile associated to the new network location, if any
+	 */
+	protected void onLocationChanged(final String fingerprint) {
+		final ProfileStore store = ProfileStore.getDefault();
+		final String reference = store.getProfileForLocation(fingerprint);
+		if (reference == null || reference.equals(store.getActiveProfile())
+				|| !store.contains(reference))
+			return;
+		Activator
+				.sendInfoToErrorLog("Network location changed, applying the proxy profile "
+						+ reference);
+		ProxyHelper.applyProfile(reference);
+	}
+
+	/**
+	 * Computes the fingerprint of the current network location
+	 * 
+	 * @return the fingerprint, as an hexadecimal string
+	 * @throws SocketException
+	 *             if the network interfaces can't be read
+	 */
+	protected String computeFingerprint() throws SocketException {
+		final List<String> parts = new ArrayList<String>();
+		final Enumeration<NetworkInterface> interfaces = NetworkInterface
+				.getNetworkInterfaces();
+		while (interfaces != null && interfaces.hasMoreElements()) {
+			final NetworkInterface networkInterface = interfaces.nextElement();
+			if (!networkInterface.isUp() || networkInterface.isLoopback()
+					|| networkInterface.isVirtual())
+				continue;
+			for (final InterfaceAddress address : networkInterface
+					.getInterfaceAddresses()) {
+				if (address.getAddress().isLinkLocalAddress())
+					continue;
+				parts.add(networkInterface.getName()
+						+ "="
+						+ subnet(address.getAddress(),
+								address.getNetworkPrefixLength()));
+			}
+		}
+		parts.addAll(readDnsSuffixes());
+		Collections.sort(parts);
+		// 64 bits FNV-1a hash
+		long hash = 0xcbf29ce484222325L;
+		for (final String part : parts) {
+			for (int i = 0; i < part.length(); i++) {
+				hash ^= part.charAt(i);
+				hash *= 0x100000001b3L;
+			}
+			hash ^= '|';
+			hash *= 0x100000001b3L;
+		}
+		return Long.toHexString(hash);
+	}
+
+	/**
+	 * Masks the address with the prefix length in order to get the subnet
+	 */
+	private static String subnet(final InetAddress address, final int prefix) {
+		final byte[] bytes = address.getAddress();
+		if (prefix < 0 || prefix > bytes.length * 8)
+			return address.getHostAddress();
+		for (int i = 0; i < bytes.length; i++) {
+			final int bits = prefix - i * 8;
+			if (bits <= 0)
+				bytes[i] = 0;
+			else if (bits < 8)
+				bytes[i] &= 0xff << (8 - bits);
+		}
+		try {
+			return InetAddress.getByAddress(bytes).getHostAddress() + "/"
+					+ prefix;
+		} catch (final UnknownHostException e) {
+			return address.getHostAddress();
+		}
+	}
+
+	/**
+	 * Reads the DNS search domains, the file is only read again when it's
+	 * modified
+	 */
+	private List<String> readDnsSuffixes() {
+		final long timestamp = RESOLV_CONF.lastModified();
+		if (timestamp == dnsSuffixesTimestamp)
+			return dnsSuffixes;
+		final List<String> suffixes = new ArrayList<String>();
+		if (timestamp != 0) {
+			BufferedReader reader = null;
+			try {
+				reader = new BufferedReader(new FileReader(RESOLV_CONF));
+				String line;
+				while ((line = reader.readLine()) != null) {
+					final String[] tokens = line.trim().split("\\s+");
+					if (tokens[0].equals("search") || tokens[0].equals("domain"))
+						for (int i = 1; i < tokens.length; i++)
+							suffixes.add("dns=" + tokens[i].toLowerCase());
+				}
+			} catch (final IOException e) {
+				// Search domains are optional in the fingerprint
+			} finally {
+				if (reader != null)
+					try {
+						reader.close();
+					} catch (final IOException e) {
+						// Nothing to do
+					}
+			}
+		}
+		dnsSuffixes = suffixes;
+		dnsSuffixesTimestamp = timestamp;
+		return suffixes;
+	}
+
+}
@@ -0,0 +1,306 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * <p>
+ * This class allows to import hosts to bypass from text files, and to merge
+ * them with an existing nonProxyHosts list
+ * </p>
+ * <p>
+ * Files are read through a {@link FileChannel} in chunks of
+ * {@link #BUFFER_SIZE} bytes, decoded in place and streamed into a
+ * {@link NonProxyHostParser}, so huge exports never have to be loaded in
+ * memory. The format is the one of the parser: one entry per line, or entries
+ * separated by commas, semicolons or <i>|</i>.
+ * </p>
+ * <p>
+ * Once everything has been read, the merged list is compacted: entries which
+ * are already covered by a broader one (<i>a.b.corp</i> when <i>*.corp</i> is
+ * present, <i>10.1.0.0/16</i> when <i>10.0.0.0/8</i> is present...) are
+ * dropped, as they wouldn't change anything but the time needed to scan the
+ * list. Exact addresses are kept even when a range covers them, as the list
+ * is also used by Eclipse which doesn't understand ranges.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public final class NonProxyHostImporter {
+
+	/**
+	 * Size of the buffers used to read the files
+	 */
+	public static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Charset used when none is specified
+	 */
+	public static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * Entries of the existing list, kept as they are
+	 */
+	private final String[] existing;
+
+	private final NonProxyHostParser parser = new NonProxyHostParser();
+
+	private String[] hosts;
+
+	private int redundant;
+
+	/**
+	 * Creates an importer which will merge the imported entries into the
+	 * provided list
+	 * 
+	 * @param existing
+	 *            the current nonProxyHosts list, can be null
+	 */
+	public NonProxyHostImporter(final String[] existing) {
+		this.existing = existing == null ? new String[0] : existing.clone();
+	}
+
+	/**
+	 * Allows to import the entries of a file encoded in UTF-8
+	 * 
+	 * @param file
+	 *            the file to read
+	 * @return the importer itself
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	public NonProxyHostImporter read(final File file) throws IOException {
+		return read(file, DEFAULT_CHARSET);
+	}
+
+	/**
+	 * Allows to import the entries of a file
+	 * 
+	 * @param file
+	 *            the file to read
+	 * @param charset
+	 *            the encoding of the file, malformed characters are replaced
+	 * @return the importer itself
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	public NonProxyHostImporter read(final File file, final Charset charset)
+			throws IOException {
+		if (this.hosts != null)
+			throw new IllegalStateException("The import is already finished");
+		final CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+		final FileInputStream input = new FileInputStream(file);
+		try {
+			final FileChannel channel = input.getChannel();
+			boolean endOfInput = false;
+			while (!endOfInput) {
+				endOfInput = channel.read(bytes) < 0;
+				bytes.flip();
+				CoderResult result;
+				do {
+					result = decoder.decode(bytes, chars, endOfInput);
+					drain(chars);
+				} while (result.isOverflow());
+				bytes.compact();
+			}
+			while (decoder.flush(chars).isOverflow())
+				drain(chars);
+			drain(chars);
+		} finally {
+			input.close();
+		}
+		// Files don't necessarily end with a separator
+		this.parser.feed("\n");
+		return this;
+	}
+
+	private void drain(final CharBuffer chars) {
+		chars.flip();
+		this.parser.feed(chars.array(), chars.arrayOffset() + chars.position(),
+				chars.arrayOffset() + chars.limit());
+		chars.clear();
+	}
+
+	/**
+	 * Allows to merge and compact all the entries which have been read
+	 * 
+	 * @return the importer itself
+	 */
+	public NonProxyHostImporter finish() {
+		if (this.hosts == null) {
+			this.parser.finish();
+			final Set<String> merged = new LinkedHashSet<String>();
+			for (final String host : this.existing)
+				if (host != null && host.trim().length() > 0)
+					merged.add(host.trim().toLowerCase(Locale.ENGLISH));
+			for (final String host : this.parser.getHosts())
+				merged.add(host);
+			this.hosts = compact(merged.toArray(new String[merged.size()]));
+			this.redundant = merged.size() - this.hosts.length;
+		}
+		return this;
+	}
+
+	/**
+	 * @return the merged and compacted list, once {@link #finish()} has been
+	 *         called
+	 */
+	public String[] getHosts() {
+		finish();
+		return this.hosts.clone();
+	}
+
+	/**
+	 * @return the amount of entries dropped as they were covered by a broader
+	 *         entry
+	 */
+	public int getRedundant() {
+		finish();
+		return this.redundant;
+	}
+
+	/**
+	 * @return the parser used to read the files, which knows about the
+	 *         duplicates and invalid entries
+	 */
+	public NonProxyHostParser getParser() {
+		return this.parser;
+	}
+
+	/**
+	 * <p>
+	 * Allows to remove from a nonProxyHosts list the entries which are
+	 * already covered by a broader one
+	 * </p>
+	 * <p>
+	 * Exact hosts are checked against a {@link NonProxyHostMatcher} built on
+	 * the wildcards only, ranges are checked using
+	 * {@link AddressRangeTree#isCovered(String)}, and wildcards are checked
+	 * against shorter wildcards of the same kind. Entries are expected to be
+	 * lower cased and distinct.
+	 * </p>
+	 * <p>
+	 * Ranges never cover exact addresses (<i>10.1.2.3</i> or <i>fd00::1</i>
+	 * stay next to <i>10.0.0.0/8</i> or <i>fd00::/8</i>): the list ends up in
+	 * {@link org.eclipse.core.net.proxy.IProxyService}, whose matching only
+	 * knows names and wildcards, and connections made by Eclipse itself to
+	 * these addresses would otherwise go through the proxy.
+	 * </p>
+	 * 
+	 * @param hosts
+	 *            the list to compact
+	 * @return the compacted list, in the original order
+	 */
+	public static String[] compact(final String[] hosts) {
+		final Set<String> wildcards = new HashSet<String>();
+		final AddressRangeTree ranges = new AddressRangeTree();
+		for (final String host : hosts) {
+			if ("*".equals(host))
+				return new String[] { host };
+			if (isRange(host)) {
+				ranges.add(host);
+			} else if (isWildcard(host)) {
+				wildcards.add(host);
+			}
+		}
+		final NonProxyHostMatcher matcher = NonProxyHostMatcher
+				.compile(wildcards.toArray(new String[wildcards.size()]));
+		final List<String> result = new ArrayList<String>(hosts.length);
+		for (final String host : hosts) {
+			final boolean covered;
+			if (isRange(host))
+				covered = ranges.isCovered(host);
+			else if (isWildcard(host))
+				covered = isCoveredWildcard(host, wildcards);
+			else
+				covered = matcher.matches(host);
+			if (!covered)
+				result.add(host);
+		}
+		return result.toArray(new String[result.size()]);
+	}
+
+	private static boolean isRange(final String host) {
+		return host.indexOf('/') >= 0;
+	}
+
+	private static boolean isWildcard(final String host) {
+		return host.indexOf('*') >= 0 || host.indexOf('?') >= 0;
+	}
+
+	/**
+	 * Checks if a leading (<i>*.a.corp</i>) or trailing (<i>10.1.*</i>)
+	 * wildcard is covered by a shorter wildcard of the same kind
+	 */
+	private static boolean isCoveredWildcard(final String host,
+			final Set<String> wildcards) {
+		final int last = host.length() - 1;
+		if (host.indexOf('?') >= 0)
+			return false;
+		if (host.lastIndexOf('*') == 0) {
+			for (int i = 2; i <= last; i++)
+				if (wildcards.contains("*" + host.substring(i)))
+					return true;
+		} else if (host.indexOf('*') == last) {
+			for (int i = 1; i < last; i++)
+				if (wildcards.contains(host.substring(0, i) + "*"))
+					return true;
+		}
+		return false;
+	}
+}
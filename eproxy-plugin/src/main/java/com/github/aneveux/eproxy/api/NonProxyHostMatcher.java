@@ -0,0 +1,377 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * This class compiles a nonProxyHosts list (as defined in
+ * {@link com.github.aneveux.eproxy.data.EProxy#getNonProxyHosts()}) once, so
+ * that deciding if a host should bypass the proxy doesn't require to scan the
+ * whole list again
+ * </p>
+ * <p>
+ * Exact hosts and leading wildcards (<i>*.corp.example</i>) are stored in a
+ * suffix trie built on the reversed host names, so labels are shared from the
+ * top level domain down to the host. Trailing wildcards (<i>host*</i>,
+ * <i>192.168.*</i>) are stored in a prefix trie. Both tries are walked one
+ * character at a time, so a lookup costs O(hostname length) whatever the size
+ * of the list, and doesn't allocate anything.
+ * </p>
+ * <p>
+ * Address ranges in the CIDR notation (<i>10.0.0.0/8</i>, <i>fd00::/8</i>) and
+ * IPv6 addresses are stored in an {@link AddressRangeTree}, so checking an
+ * address literal doesn't depend on the amount of ranges either.
+ * </p>
+ * <p>
+ * Entries which can't be expressed that way (wildcards in the middle of the
+ * entry, <i>?</i> jokers...) are kept aside and matched one by one, the same
+ * way Eclipse would do it.
+ * </p>
+ * <p>
+ * Matching is case insensitive. Instances are immutable and can be shared
+ * between threads.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public final class NonProxyHostMatcher {
+
+	/**
+	 * A matcher which doesn't match anything, used for empty lists
+	 */
+	public static final NonProxyHostMatcher EMPTY = new NonProxyHostMatcher(
+			new String[0]);
+
+	/**
+	 * Root of the trie containing exact hosts and leading wildcards, built on
+	 * reversed host names
+	 */
+	private final Node suffixes;
+
+	/**
+	 * Root of the trie containing trailing wildcards
+	 */
+	private final Node prefixes;
+
+	/**
+	 * Entries which can't be stored in one of the tries, lower cased
+	 */
+	private final String[] patterns;
+
+	/**
+	 * Address ranges and IPv6 addresses
+	 */
+	private final AddressRangeTree ranges;
+
+	/**
+	 * True if the list contains a single <i>*</i> entry
+	 */
+	private final boolean matchAll;
+
+	/**
+	 * Amount of entries which have been compiled
+	 */
+	private final int size;
+
+	/**
+	 * Allows to compile a nonProxyHosts list
+	 * 
+	 * @param nonProxyHosts
+	 *            the nonProxyHosts to compile, can be null
+	 * @return a {@link NonProxyHostMatcher} matching the provided entries
+	 */
+	public static NonProxyHostMatcher compile(final String[] nonProxyHosts) {
+		if (nonProxyHosts == null || nonProxyHosts.length == 0)
+			return EMPTY;
+		return new NonProxyHostMatcher(nonProxyHosts);
+	}
+
+	/**
+	 * Private constructor, use {@link #compile(String[])} instead
+	 * 
+	 * @param nonProxyHosts
+	 *            the nonProxyHosts to compile
+	 */
+	private NonProxyHostMatcher(final String[] nonProxyHosts) {
+		final Node suffixRoot = new Node();
+		final Node prefixRoot = new Node();
+		final List<String> others = new ArrayList<String>();
+		final AddressRangeTree rangeTree = new AddressRangeTree();
+		boolean all = false;
+		int count = 0;
+		for (final String raw : nonProxyHosts) {
+			if (raw == null)
+				continue;
+			final String entry = raw.trim().toLowerCase();
+			if (entry.length() == 0)
+				continue;
+			count++;
+			final int first = entry.indexOf('*');
+			final int last = entry.lastIndexOf('*');
+			if ((entry.indexOf('/') >= 0 || entry.indexOf(':') >= 0)
+					&& rangeTree.add(entry))
+				continue;
+			if (entry.indexOf('?') >= 0)
+				others.add(entry);
+			else if (first < 0)
+				suffixRoot.insertReversed(entry, entry.length(), false);
+			else if (entry.length() == 1)
+				all = true;
+			else if (first == 0 && last == 0)
+				suffixRoot.insertReversed(entry.substring(1),
+						entry.length() - 1, true);
+			else if (first == entry.length() - 1)
+				prefixRoot.insert(entry, entry.length() - 1, true);
+			else
+				others.add(entry);
+		}
+		this.suffixes = suffixRoot.freeze();
+		this.prefixes = prefixRoot.freeze();
+		this.patterns = others.toArray(new String[others.size()]);
+		this.ranges = rangeTree;
+		this.matchAll = all;
+		this.size = count;
+	}
+
+	/**
+	 * Allows to know if the provided host is matched by one of the compiled
+	 * entries, which means that the proxy should be bypassed for this host
+	 * 
+	 * @param host
+	 *            the host name or address to check
+	 * @return true if the host matches one of the nonProxyHosts
+	 */
+	public boolean matches(final String host) {
+		if (host == null)
+			return false;
+		int end = host.length();
+		if (end > 0 && host.charAt(end - 1) == '.')
+			end--;
+		if (end == 0)
+			return false;
+		if (matchAll)
+			return true;
+		return matchesSuffix(host, end) || matchesPrefix(host, end)
+				|| ranges.contains(host) || matchesPatterns(host, end);
+	}
+
+	/**
+	 * @return the amount of entries compiled in this matcher
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Walks the suffix trie from the end of the host
+	 */
+	private boolean matchesSuffix(final String host, final int end) {
+		Node node = suffixes;
+		for (int i = end - 1; i >= 0; i--) {
+			if (node.wildcard)
+				return true;
+			node = node.child(Character.toLowerCase(host.charAt(i)));
+			if (node == null)
+				return false;
+		}
+		return node.terminal || node.wildcard;
+	}
+
+	/**
+	 * Walks the prefix trie from the beginning of the host
+	 */
+	private boolean matchesPrefix(final String host, final int end) {
+		Node node = prefixes;
+		for (int i = 0; i < end; i++) {
+			if (node.wildcard)
+				return true;
+			node = node.child(Character.toLowerCase(host.charAt(i)));
+			if (node == null)
+				return false;
+		}
+		return node.wildcard;
+	}
+
+	/**
+	 * Matches the entries which couldn't be compiled in one of the tries
+	 */
+	private boolean matchesPatterns(final String host, final int end) {
+		for (final String pattern : patterns)
+			if (glob(pattern, 0, host, 0, end))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Simple glob matching supporting <i>*</i> and <i>?</i>, the pattern is
+	 * expected to be lower cased already
+	 */
+	static boolean glob(final String pattern, int p, final String s,
+			int i, final int end) {
+		int starP = -1;
+		int starI = 0;
+		while (i < end) {
+			if (p < pattern.length()
+					&& (pattern.charAt(p) == '?' || pattern.charAt(p) == Character
+							.toLowerCase(s.charAt(i)))) {
+				p++;
+				i++;
+			} else if (p < pattern.length() && pattern.charAt(p) == '*') {
+				starP = p++;
+				starI = i;
+			} else if (starP >= 0) {
+				p = starP + 1;
+				i = ++starI;
+			} else
+				return false;
+		}
+		while (p < pattern.length() && pattern.charAt(p) == '*')
+			p++;
+		return p == pattern.length();
+	}
+
+	/**
+	 * A node of the tries. Children are stored in sorted arrays once frozen so
+	 * that a lookup is a simple binary search
+	 */
+	private static final class Node {
+
+		private static final char[] NO_KEYS = new char[0];
+
+		private static final Node[] NO_CHILDREN = new Node[0];
+
+		private char[] keys = NO_KEYS;
+
+		private Node[] children = NO_CHILDREN;
+
+		/**
+		 * An entry ends on this node
+		 */
+		private boolean terminal;
+
+		/**
+		 * A wildcard entry ends on this node, anything after it matches
+		 */
+		private boolean wildcard;
+
+		private Node child(final char c) {
+			int low = 0;
+			int high = keys.length - 1;
+			while (low <= high) {
+				final int mid = (low + high) >>> 1;
+				final char k = keys[mid];
+				if (k < c)
+					low = mid + 1;
+				else if (k > c)
+					high = mid - 1;
+				else
+					return children[mid];
+			}
+			return null;
+		}
+
+		private Node childOrCreate(final char c) {
+			int low = 0;
+			int high = keys.length - 1;
+			while (low <= high) {
+				final int mid = (low + high) >>> 1;
+				final char k = keys[mid];
+				if (k < c)
+					low = mid + 1;
+				else if (k > c)
+					high = mid - 1;
+				else
+					return children[mid];
+			}
+			final Node created = new Node();
+			final char[] newKeys = new char[keys.length + 1];
+			final Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(keys, 0, newKeys, 0, low);
+			System.arraycopy(children, 0, newChildren, 0, low);
+			newKeys[low] = c;
+			newChildren[low] = created;
+			System.arraycopy(keys, low, newKeys, low + 1, keys.length - low);
+			System.arraycopy(children, low, newChildren, low + 1,
+					children.length - low);
+			keys = newKeys;
+			children = newChildren;
+			return created;
+		}
+
+		private void insert(final String entry, final int length,
+				final boolean isWildcard) {
+			Node node = this;
+			for (int i = 0; i < length; i++)
+				node = node.childOrCreate(entry.charAt(i));
+			node.mark(isWildcard);
+		}
+
+		private void insertReversed(final String entry, final int length,
+				final boolean isWildcard) {
+			Node node = this;
+			for (int i = length - 1; i >= 0; i--)
+				node = node.childOrCreate(entry.charAt(i));
+			node.mark(isWildcard);
+		}
+
+		private void mark(final boolean isWildcard) {
+			if (isWildcard)
+				wildcard = true;
+			else
+				terminal = true;
+		}
+
+		/**
+		 * Drops the branches which are below a wildcard, as they can never be
+		 * reached during a lookup
+		 */
+		private Node freeze() {
+			if (wildcard) {
+				keys = NO_KEYS;
+				children = NO_CHILDREN;
+			} else
+				for (final Node child : children)
+					child.freeze();
+			return this;
+		}
+	}
+
+}
@@ -0,0 +1,519 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * This class parses a list of hosts to bypass in a single pass. Entries can be
+ * separated by commas, semicolons, <i>|</i> or new lines, surrounding blanks
+ * are ignored, entries are lower cased and duplicates are dropped on the fly.
+ * </p>
+ * <p>
+ * The text can be provided in several chunks using {@link #feed(CharSequence)}
+ * or {@link #feed(char[], int, int)}, followed by a call to {@link #finish()},
+ * so that huge lists can be read without being loaded in memory first. The
+ * current entry is accumulated in a single reusable buffer, and duplicates are
+ * detected from that buffer using an open addressing hash table: only distinct
+ * entries end up allocating a {@link String}.
+ * </p>
+ * <p>
+ * Entries which can't be a host name, a host pattern, an IP address or an
+ * address range are reported using {@link #getProblems()} with their position
+ * in the text. Eclipse accepts any entry and matches it as a pattern, so most
+ * of them (<i>&lt;local&gt;</i>, <i>[::1]</i>, <i>169.254/16</i>...) are
+ * kept with a warning. Only entries which can't be used at all, as they
+ * contain blanks or control characters or are too long, are errors and are
+ * not kept.
+ * </p>
+ * <p>
+ * Instances are not thread safe.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public final class NonProxyHostParser {
+
+	/**
+	 * Maximum amount of problems which are kept, the following ones are only
+	 * counted
+	 */
+	public static final int MAX_PROBLEMS = 100;
+
+	/**
+	 * Maximum length of an entry, as defined for host names
+	 */
+	private static final int MAX_LENGTH = 255;
+
+	/**
+	 * Buffer containing the current entry, lower cased
+	 */
+	private char[] buffer = new char[64];
+
+	/**
+	 * Length of the current entry, excluding the trailing blanks
+	 */
+	private int length;
+
+	/**
+	 * Length of the current entry, including the trailing blanks, limited to
+	 * {@link #MAX_LENGTH} + 1
+	 */
+	private int pending;
+
+	/**
+	 * Offset of the first character of the current entry
+	 */
+	private long start = -1;
+
+	/**
+	 * Line of the first character of the current entry
+	 */
+	private int startLine;
+
+	/**
+	 * Offset of the next character in the whole text
+	 */
+	private long offset;
+
+	/**
+	 * Current line in the whole text, starting from 1
+	 */
+	private int line = 1;
+
+	/**
+	 * True if the current entry contains a blank or a control character,
+	 * which no host can match
+	 */
+	private boolean invalidCharacter;
+
+	/**
+	 * True if the current entry contains a character which isn't expected in
+	 * a host name, a pattern or an address
+	 */
+	private boolean unexpectedCharacter;
+
+	/**
+	 * True if the current entry contains a character only allowed for address
+	 * ranges
+	 */
+	private boolean range;
+
+	/**
+	 * Distinct entries, in order of appearance
+	 */
+	private String[] hosts = new String[16];
+
+	private int size;
+
+	/**
+	 * Open addressing hash table containing the index of the entries plus one,
+	 * zero meaning an empty slot
+	 */
+	private int[] table = new int[32];
+
+	/**
+	 * Hash of the entries, so that the table can be resized without computing
+	 * them again
+	 */
+	private int[] hashes = new int[16];
+
+	private int duplicates;
+
+	private final List<Problem> problems = new ArrayList<Problem>();
+
+	private int problemCount;
+
+	private int errorCount;
+
+	private boolean finished;
+
+	/**
+	 * Allows to parse a whole list of hosts to bypass at once
+	 * 
+	 * @param toParse
+	 *            the text to parse, can be null
+	 * @return the parser, which contains the hosts and the problems
+	 */
+	public static NonProxyHostParser parse(final CharSequence toParse) {
+		final NonProxyHostParser parser = new NonProxyHostParser();
+		if (toParse != null)
+			parser.feed(toParse);
+		return parser.finish();
+	}
+
+	/**
+	 * Allows to parse the next chunk of the text
+	 * 
+	 * @param chunk
+	 *            the next characters of the text
+	 * @return the parser itself
+	 */
+	public NonProxyHostParser feed(final CharSequence chunk) {
+		checkNotFinished();
+		final int length = chunk.length();
+		for (int i = 0; i < length; i++)
+			accept(chunk.charAt(i));
+		return this;
+	}
+
+	/**
+	 * Allows to parse the next chunk of the text
+	 * 
+	 * @param chunk
+	 *            a buffer containing the next characters of the text
+	 * @param from
+	 *            index of the first character to parse
+	 * @param to
+	 *            index after the last character to parse
+	 * @return the parser itself
+	 */
+	public NonProxyHostParser feed(final char[] chunk, final int from,
+			final int to) {
+		checkNotFinished();
+		for (int i = from; i < to; i++)
+			accept(chunk[i]);
+		return this;
+	}
+
+	/**
+	 * Allows to notify the parser that the whole text has been provided, so
+	 * that the last entry is taken into account
+	 * 
+	 * @return the parser itself
+	 */
+	public NonProxyHostParser finish() {
+		if (!finished) {
+			endEntry();
+			finished = true;
+		}
+		return this;
+	}
+
+	/**
+	 * @return the distinct valid entries, in order of appearance
+	 */
+	public String[] getHosts() {
+		final String[] result = new String[size];
+		System.arraycopy(hosts, 0, result, 0, size);
+		return result;
+	}
+
+	/**
+	 * @return the amount of distinct valid entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the amount of entries which have been dropped as they were
+	 *         already in the list
+	 */
+	public int getDuplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * @return the unexpected entries, kept or not, limited to the first
+	 *         {@link #MAX_PROBLEMS}
+	 */
+	public List<Problem> getProblems() {
+		return Collections.unmodifiableList(problems);
+	}
+
+	/**
+	 * @return the total amount of unexpected entries, kept or not
+	 */
+	public int getProblemCount() {
+		return problemCount;
+	}
+
+	/**
+	 * @return the amount of entries which can't be used and haven't been kept
+	 */
+	public int getErrorCount() {
+		return errorCount;
+	}
+
+	private void checkNotFinished() {
+		if (finished)
+			throw new IllegalStateException("The parser is already finished");
+	}
+
+	private void accept(final char c) {
+		final long position = offset++;
+		switch (c) {
+		case ',':
+		case ';':
+		case '|':
+			endEntry();
+			return;
+		case '\n':
+			endEntry();
+			line++;
+			return;
+		case ' ':
+		case '\t':
+		case '\r':
+		case '\f':
+		case '\uFEFF':
+			// Byte order mark, found at the beginning of some files
+			if (length > 0)
+				append(c);
+			return;
+		default:
+			if (length == 0) {
+				start = position;
+				startLine = line;
+			} else if (pending > length)
+				// Blanks in the middle of an entry
+				invalidCharacter = true;
+			append(Character.toLowerCase(c));
+			length = pending;
+			check(c);
+		}
+	}
+
+	private void append(final char c) {
+		// Entries which are too long are only kept up to the limit, for the
+		// report
+		if (pending > MAX_LENGTH)
+			return;
+		if (pending == buffer.length) {
+			final char[] bigger = new char[buffer.length * 2];
+			System.arraycopy(buffer, 0, bigger, 0, pending);
+			buffer = bigger;
+		}
+		buffer[pending++] = c;
+	}
+
+	private void check(final char c) {
+		if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+				|| (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '_'
+				|| c == '*' || c == '?')
+			return;
+		if (c == '/' || c == ':' || c == '%')
+			range = true;
+		else if (c < ' ' || c == '\u007F')
+			invalidCharacter = true;
+		else
+			unexpectedCharacter = true;
+	}
+
+	private void endEntry() {
+		final int length = this.length;
+		final boolean tooLong = length > MAX_LENGTH;
+		final boolean invalidCharacter = this.invalidCharacter;
+		final boolean unexpectedCharacter = this.unexpectedCharacter;
+		final boolean range = this.range;
+		this.length = 0;
+		pending = 0;
+		this.invalidCharacter = false;
+		this.unexpectedCharacter = false;
+		this.range = false;
+		if (length == 0)
+			return;
+		if (tooLong) {
+			report(length, "Entry is longer than " + MAX_LENGTH
+					+ " characters", false);
+			return;
+		}
+		if (invalidCharacter) {
+			report(length, "Entry contains blanks or control characters",
+					false);
+			return;
+		}
+		int hash = 0;
+		for (int i = 0; i < length; i++)
+			hash = 31 * hash + buffer[i];
+		final int mask = table.length - 1;
+		int slot = mix(hash) & mask;
+		for (int index = table[slot]; index != 0; index = table[slot]) {
+			if (hashes[index - 1] == hash
+					&& sameAsBuffer(hosts[index - 1], length)) {
+				duplicates++;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		final String host = new String(buffer, 0, length);
+		if (unexpectedCharacter)
+			report(length,
+					"Entry is not a host name, a pattern or an address, kept as Eclipse matches it",
+					true);
+		else if (range && !AddressRangeTree.isRange(host))
+			report(length,
+					"Entry is not a valid address or address range, kept as Eclipse matches it",
+					true);
+		add(host, hash, slot);
+	}
+
+	private boolean sameAsBuffer(final String host, final int length) {
+		if (host.length() != length)
+			return false;
+		for (int i = 0; i < length; i++)
+			if (host.charAt(i) != buffer[i])
+				return false;
+		return true;
+	}
+
+	private void add(final String host, final int hash, final int slot) {
+		if (size == this.hosts.length) {
+			final String[] hosts = new String[size * 2];
+			System.arraycopy(this.hosts, 0, hosts, 0, size);
+			this.hosts = hosts;
+			final int[] hashes = new int[size * 2];
+			System.arraycopy(this.hashes, 0, hashes, 0, size);
+			this.hashes = hashes;
+		}
+		this.hosts[size] = host;
+		this.hashes[size] = hash;
+		table[slot] = ++size;
+		// Keeps the load factor of the table under one half
+		if (size * 2 > table.length)
+			rehash();
+	}
+
+	private void rehash() {
+		final int[] table = new int[this.table.length * 2];
+		final int mask = table.length - 1;
+		for (int i = 0; i < size; i++) {
+			int slot = mix(hashes[i]) & mask;
+			while (table[slot] != 0)
+				slot = (slot + 1) & mask;
+			table[slot] = i + 1;
+		}
+		this.table = table;
+	}
+
+	/**
+	 * Spreads the bits of the hash, as {@link String#hashCode()} is weak on
+	 * the lower ones for short strings
+	 */
+	private static int mix(final int hash) {
+		final int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private void report(final int length, final String reason,
+			final boolean warning) {
+		problemCount++;
+		if (!warning)
+			errorCount++;
+		if (problems.size() < MAX_PROBLEMS)
+			problems.add(new Problem(new String(buffer, 0, length),
+					start, startLine, reason, warning));
+	}
+
+	/**
+	 * Describes an unexpected entry found while parsing a list
+	 * 
+	 * @author Antoine Neveux
+	 * @version 1.0
+	 * @since 1.2
+	 * 
+	 */
+	public static final class Problem {
+
+		private final String entry;
+
+		private final long offset;
+
+		private final int line;
+
+		private final String reason;
+
+		private final boolean warning;
+
+		Problem(final String entry, final long offset, final int line,
+				final String reason, final boolean warning) {
+			this.entry = entry;
+			this.offset = offset;
+			this.line = line;
+			this.reason = reason;
+			this.warning = warning;
+		}
+
+		/**
+		 * @return the unexpected entry, lower cased and possibly truncated
+		 */
+		public String getEntry() {
+			return entry;
+		}
+
+		/**
+		 * @return the offset of the first character of the entry in the text,
+		 *         starting from 0
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * @return the line of the entry in the text, starting from 1
+		 */
+		public int getLine() {
+			return line;
+		}
+
+		/**
+		 * @return a description of the problem
+		 */
+		public String getReason() {
+			return reason;
+		}
+
+		/**
+		 * @return true if the entry has been kept anyway, false if it can't
+		 *         be used
+		 */
+		public boolean isWarning() {
+			return warning;
+		}
+
+		@Override
+		public String toString() {
+			return "Line " + line + ", offset " + offset + ": "
+					+ reason + " (" + entry + ")";
+		}
+	}
+}
@@ -0,0 +1,664 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.UnknownHostException;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import javax.script.Compilable;
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import org.eclipse.core.net.proxy.IProxyData;
+
+/**
+ * <p>
+ * This class evaluates a PAC (Proxy Auto-Config) script in order to know
+ * which proxy to use for a given {@link URI}
+ * </p>
+ * <p>
+ * The script is compiled once, when it's defined through
+ * {@link #setScript(String)} or {@link #load(String)}. Results of
+ * <i>FindProxyForURL</i> are then kept in a bounded {@link LruCache} keyed by
+ * host, so resolving several URIs of the same host only evaluates the script
+ * once. Note that the cache assumes the script only depends on the host, and
+ * that time based functions (<i>weekdayRange</i>, <i>dateRange</i>,
+ * <i>timeRange</i>) are evaluated once per cached host. The cache is emptied
+ * whenever the script changes.
+ * </p>
+ * <p>
+ * The script comes from the network, so it mustn't be able to run code in
+ * the IDE: it is evaluated by the Nashorn engine of the JVM with a
+ * <i>ClassFilter</i> exposing no class at all, which also forbids
+ * reflection. Other engines (such as the Rhino engine of Java 6 and 7) can't
+ * be restricted this way, so PAC scripts are refused when Nashorn isn't
+ * available.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class PacProxyResolver {
+
+	/**
+	 * Amount of hosts for which results are kept
+	 */
+	public static final int CACHE_SIZE = 512;
+
+	/**
+	 * Result of <i>FindProxyForURL</i> meaning that no proxy should be used
+	 */
+	public static final String DIRECT = "DIRECT";
+
+	/**
+	 * Timeout of the connection to the location of the script, and of each
+	 * read, in milliseconds. The script is read while the proxy configuration
+	 * is applied, so an unreachable location mustn't hold it for long.
+	 */
+	public static final int LOAD_TIMEOUT = 3000;
+
+	/**
+	 * The functions every PAC script can rely on, implemented on top of
+	 * {@link Functions}
+	 */
+	private static final String PAC_FUNCTIONS = ""
+			+ "function isPlainHostName(host) { return host.indexOf('.') < 0; }\n"
+			+ "function dnsDomainIs(host, domain) { return host.length >= domain.length && host.substring(host.length - domain.length) == domain; }\n"
+			+ "function localHostOrDomainIs(host, hostdom) { return host == hostdom || (host.indexOf('.') < 0 && hostdom.indexOf(host + '.') == 0); }\n"
+			+ "function dnsResolve(host) { var ip = eproxyPac.dnsResolve(host); return ip == null ? null : String(ip); }\n"
+			+ "function isResolvable(host) { return eproxyPac.dnsResolve(host) != null; }\n"
+			+ "function myIpAddress() { return String(eproxyPac.myIpAddress()); }\n"
+			+ "function isInNet(host, pattern, mask) { return eproxyPac.isInNet(host, pattern, mask) == true; }\n"
+			+ "function dnsDomainLevels(host) { return host.split('.').length - 1; }\n"
+			+ "function shExpMatch(str, shexp) { return eproxyPac.shExpMatch(str, shexp) == true; }\n"
+			+ "function weekdayRange(wd1, wd2, gmt) {\n"
+			+ "  var days = ['SUN', 'MON', 'TUE', 'WED', 'THU', 'FRI', 'SAT'];\n"
+			+ "  if (wd2 == 'GMT') { gmt = wd2; wd2 = undefined; }\n"
+			+ "  var now = new Date(); var d = gmt == 'GMT' ? now.getUTCDay() : now.getDay();\n"
+			+ "  var d1 = -1; var d2 = -1;\n"
+			+ "  for (var i = 0; i < days.length; i++) { if (days[i] == wd1) d1 = i; if (days[i] == wd2) d2 = i; }\n"
+			+ "  if (wd2 == undefined) d2 = d1;\n"
+			+ "  return d1 <= d2 ? d >= d1 && d <= d2 : d >= d1 || d <= d2;\n"
+			+ "}\n"
+			+ "function eproxyArguments(args) { var values = []; for (var i = 0; i < args.length; i++) values.push(String(args[i])); return values.join(' '); }\n"
+			+ "function dateRange() { return eproxyPac.dateRange(eproxyArguments(arguments)) == true; }\n"
+			+ "function timeRange() { return eproxyPac.timeRange(eproxyArguments(arguments)) == true; }\n";
+
+	/**
+	 * Names of the months used by <i>dateRange</i>
+	 */
+	private static final String[] MONTHS = { "JAN", "FEB", "MAR", "APR",
+			"MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC" };
+
+	/**
+	 * The shared instance
+	 */
+	private static PacProxyResolver instance;
+
+	/**
+	 * Results of the script, keyed by host
+	 */
+	private final LruCache<String, String> cache = new LruCache<String, String>(
+			CACHE_SIZE);
+
+	/**
+	 * The source of the current script, null if there is none
+	 */
+	private String source;
+
+	/**
+	 * The engine in which the current script has been compiled
+	 */
+	private Invocable engine;
+
+	/**
+	 * @return the shared instance
+	 */
+	public static synchronized PacProxyResolver getDefault() {
+		if (instance == null)
+			instance = new PacProxyResolver();
+		return instance;
+	}
+
+	/**
+	 * Allows to load the PAC script from the provided location
+	 * 
+	 * @param location
+	 *            the URL of the script
+	 * @throws IOException
+	 *             if the script can't be read within the
+	 *             {@link #LOAD_TIMEOUT}
+	 * @throws ScriptException
+	 *             if the script can't be compiled
+	 */
+	public void load(final String location) throws IOException,
+			ScriptException {
+		final URLConnection connection = new URL(location).openConnection();
+		connection.setConnectTimeout(LOAD_TIMEOUT);
+		connection.setReadTimeout(LOAD_TIMEOUT);
+		final InputStream stream = connection.getInputStream();
+		try {
+			final Reader reader = new InputStreamReader(stream, "UTF-8");
+			final StringBuilder builder = new StringBuilder();
+			final char[] buffer = new char[4096];
+			int read;
+			while ((read = reader.read(buffer)) >= 0)
+				builder.append(buffer, 0, read);
+			setScript(builder.toString());
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Allows to define the PAC script to use. Nothing happens if the script is
+	 * the current one, otherwise it's compiled and cached results are dropped.
+	 * 
+	 * @param script
+	 *            the source of the PAC script, or null to stop using PAC
+	 * @throws ScriptException
+	 *             if the script can't be compiled
+	 */
+	public synchronized void setScript(final String script)
+			throws ScriptException {
+		if (script == null ? source == null : script.equals(source))
+			return;
+		Invocable compiled = null;
+		if (script != null) {
+			final ScriptEngine scriptEngine = createEngine();
+			scriptEngine.put("eproxyPac", new Functions());
+			scriptEngine.eval(PAC_FUNCTIONS);
+			if (scriptEngine instanceof Compilable)
+				((Compilable) scriptEngine).compile(script).eval();
+			else
+				scriptEngine.eval(script);
+			compiled = (Invocable) scriptEngine;
+		}
+		this.engine = compiled;
+		this.source = script;
+		cache.clear();
+	}
+
+	/**
+	 * Creates a Nashorn engine which can't reach any Java class. Nashorn is
+	 * looked up through reflection as it isn't part of every JVM, and its
+	 * <i>ClassFilter</i> is implemented by a {@link Proxy} refusing every
+	 * class.
+	 * 
+	 * @return the restricted engine
+	 * @throws ScriptException
+	 *             if there is no engine able to evaluate the script without
+	 *             access to Java
+	 */
+	private static ScriptEngine createEngine() throws ScriptException {
+		for (final ScriptEngineFactory factory : new ScriptEngineManager()
+				.getEngineFactories()) {
+			final Class<?> type = factory.getClass();
+			final String name = type.getName();
+			if (!name.endsWith(".NashornScriptEngineFactory"))
+				continue;
+			try {
+				final Class<?> filter = Class.forName(
+						name.substring(0, name.lastIndexOf('.'))
+								+ ".ClassFilter", false, type.getClassLoader());
+				final Object denyAll = Proxy.newProxyInstance(
+						filter.getClassLoader(), new Class<?>[] { filter },
+						new InvocationHandler() {
+							@Override
+							public Object invoke(final Object proxy,
+									final Method method, final Object[] args) {
+								if (method.getName().equals("equals"))
+									return Boolean.valueOf(proxy == args[0]);
+								if (method.getName().equals("hashCode"))
+									return Integer.valueOf(System
+											.identityHashCode(proxy));
+								if (method.getName().equals("toString"))
+									return "no class exposed to PAC scripts";
+								return Boolean.FALSE;
+							}
+						});
+				return (ScriptEngine) type.getMethod("getScriptEngine", filter)
+						.invoke(factory, denyAll);
+			} catch (final ClassNotFoundException e) {
+				// Nashorn before 8u40, which can't be restricted
+			} catch (final NoSuchMethodException e) {
+				// Nashorn before 8u40, which can't be restricted
+			} catch (final IllegalAccessException e) {
+				throw new ScriptException(e);
+			} catch (final InvocationTargetException e) {
+				throw new ScriptException(e.getCause() instanceof Exception ? (Exception) e
+						.getCause() : e);
+			}
+		}
+		throw new ScriptException(
+				"No JavaScript engine able to evaluate PAC scripts without access to Java");
+	}
+
+	/**
+	 * @return true if a PAC script is defined
+	 */
+	public synchronized boolean isActive() {
+		return engine != null;
+	}
+
+	/**
+	 * Allows to know which proxies to use for the provided {@link URI}
+	 * 
+	 * @param uri
+	 *            the {@link URI} to resolve
+	 * @return the result of <i>FindProxyForURL</i>, such as
+	 *         <i>PROXY host:port; DIRECT</i>, or {@link #DIRECT} if no script is
+	 *         defined
+	 * @throws ScriptException
+	 *             if the script fails
+	 */
+	public String findProxyForURL(final URI uri) throws ScriptException {
+		final String host = uri.getHost() != null ? uri.getHost().toLowerCase()
+				: "";
+		final String cached = cache.get(host);
+		if (cached != null)
+			return cached;
+		final String result;
+		synchronized (this) {
+			if (engine == null)
+				return DIRECT;
+			try {
+				final Object value = engine.invokeFunction("FindProxyForURL",
+						uri.toString(), host);
+				result = value != null ? value.toString().trim() : DIRECT;
+			} catch (final NoSuchMethodException e) {
+				throw new ScriptException(
+						"The PAC script doesn't define FindProxyForURL");
+			} catch (final RuntimeException e) {
+				// Errors of the engine, such as a class refused to the script
+				// or invalid arguments given to dateRange or timeRange
+				final ScriptException error = new ScriptException(
+						e.getMessage());
+				error.initCause(e);
+				throw error;
+			}
+			cache.put(host, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Allows to extract the first proxy from a <i>FindProxyForURL</i> result
+	 * 
+	 * @param result
+	 *            the result of <i>FindProxyForURL</i>
+	 * @return the first <i>host:port</i> to use, or null if the first choice
+	 *         is to connect directly
+	 */
+	public static String firstProxy(final String result) {
+		final String[] directive = firstDirective(result);
+		return directive != null ? directive[1] : null;
+	}
+
+	/**
+	 * Allows to know the type of the first proxy of a <i>FindProxyForURL</i>
+	 * result: <i>SOCKS</i>, <i>SOCKS4</i> and <i>SOCKS5</i> directives are
+	 * SOCKS proxies, <i>PROXY</i>, <i>HTTP</i> and <i>HTTPS</i> ones are HTTP
+	 * proxies
+	 * 
+	 * @param result
+	 *            the result of <i>FindProxyForURL</i>
+	 * @return {@link IProxyData#SOCKS_PROXY_TYPE} or
+	 *         {@link IProxyData#HTTP_PROXY_TYPE}, or null if the first choice
+	 *         is to connect directly
+	 */
+	public static String firstProxyType(final String result) {
+		final String[] directive = firstDirective(result);
+		return directive != null ? directive[0] : null;
+	}
+
+	/**
+	 * Finds the first directive of a result, skipping the unknown ones
+	 * 
+	 * @return the proxy type and the <i>host:port</i>, or null for
+	 *         {@link #DIRECT}
+	 */
+	private static String[] firstDirective(final String result) {
+		for (final String directive : result.split(";")) {
+			final String trimmed = directive.trim();
+			if (trimmed.length() == 0)
+				continue;
+			if (trimmed.regionMatches(true, 0, DIRECT, 0, DIRECT.length()))
+				return null;
+			final int space = trimmed.indexOf(' ');
+			if (space <= 0)
+				continue;
+			final String keyword = trimmed.substring(0, space).toUpperCase();
+			final String type;
+			if (keyword.equals("PROXY") || keyword.equals("HTTP")
+					|| keyword.equals("HTTPS"))
+				type = IProxyData.HTTP_PROXY_TYPE;
+			else if (keyword.equals("SOCKS") || keyword.equals("SOCKS4")
+					|| keyword.equals("SOCKS5"))
+				type = IProxyData.SOCKS_PROXY_TYPE;
+			else
+				continue;
+			return new String[] { type, trimmed.substring(space + 1).trim() };
+		}
+		return null;
+	}
+
+	/**
+	 * @return the cache of results, for statistics purposes
+	 */
+	public LruCache<String, String> getCache() {
+		return cache;
+	}
+
+	/**
+	 * Native functions exposed to the PAC scripts. This class has to be public
+	 * so that the script engine can call it, and only its public methods are
+	 * visible to the scripts.
+	 */
+	public static final class Functions {
+
+		/**
+		 * @param host
+		 *            the host to resolve
+		 * @return the address of the host, or null if it can't be resolved
+		 */
+		public String dnsResolve(final String host) {
+			try {
+				return InetAddress.getByName(host).getHostAddress();
+			} catch (final UnknownHostException e) {
+				return null;
+			}
+		}
+
+		/**
+		 * @return the address of the local host
+		 */
+		public String myIpAddress() {
+			try {
+				return InetAddress.getLocalHost().getHostAddress();
+			} catch (final UnknownHostException e) {
+				return "127.0.0.1";
+			}
+		}
+
+		/**
+		 * @param host
+		 *            a host or an IPv4 address
+		 * @param pattern
+		 *            the network address
+		 * @param mask
+		 *            the network mask
+		 * @return true if the host address belongs to the network
+		 */
+		public boolean isInNet(final String host, final String pattern,
+				final String mask) {
+			final String address = dnsResolve(host);
+			if (address == null)
+				return false;
+			final long ip = AddressRangeTree.parseIPv4(address, 0,
+					address.length());
+			final long net = AddressRangeTree.parseIPv4(pattern, 0,
+					pattern.length());
+			final long bits = AddressRangeTree.parseIPv4(mask, 0,
+					mask.length());
+			return ip >= 0 && net >= 0 && bits >= 0
+					&& (ip & bits) == (net & bits);
+		}
+
+		/**
+		 * @param str
+		 *            the string to check
+		 * @param shexp
+		 *            a shell expression using <i>*</i> and <i>?</i>
+		 * @return true if the string matches the expression, case
+		 *         sensitively as in the browsers
+		 */
+		public boolean shExpMatch(final String str, final String shexp) {
+			int p = 0;
+			int i = 0;
+			int starP = -1;
+			int starI = 0;
+			while (i < str.length()) {
+				if (p < shexp.length()
+						&& (shexp.charAt(p) == '?' || shexp.charAt(p) == str
+								.charAt(i))) {
+					p++;
+					i++;
+				} else if (p < shexp.length() && shexp.charAt(p) == '*') {
+					starP = p++;
+					starI = i;
+				} else if (starP >= 0) {
+					p = starP + 1;
+					i = ++starI;
+				} else
+					return false;
+			}
+			while (p < shexp.length() && shexp.charAt(p) == '*')
+				p++;
+			return p == shexp.length();
+		}
+
+		/**
+		 * @param arguments
+		 *            the arguments of <i>dateRange</i>, separated by spaces
+		 * @return true if the current date is in the range
+		 * @throws IllegalArgumentException
+		 *             if the arguments aren't one of the forms of
+		 *             <i>dateRange</i>
+		 */
+		public boolean dateRange(final String arguments) {
+			return dateRange(split(arguments), Calendar.getInstance());
+		}
+
+		/**
+		 * @param arguments
+		 *            the arguments of <i>timeRange</i>, separated by spaces
+		 * @return true if the current time is in the range
+		 * @throws IllegalArgumentException
+		 *             if the arguments aren't one of the forms of
+		 *             <i>timeRange</i>
+		 */
+		public boolean timeRange(final String arguments) {
+			return timeRange(split(arguments), Calendar.getInstance());
+		}
+
+		/**
+		 * Allows to know if a date is in the range described by the arguments
+		 * of <i>dateRange</i>: a day of the month, a month, a year, a pair of
+		 * them, or a pair of day and month, month and year, or day, month and
+		 * year, optionally followed by <i>GMT</i>. Ranges without a year wrap
+		 * around the end of the year (or of the month).
+		 */
+		static boolean dateRange(final String[] arguments, final Calendar now) {
+			final Calendar date = inZone(arguments, now);
+			final int count = countWithoutZone(arguments);
+			if (count != 1 && count != 2 && count != 4 && count != 6)
+				throw invalid("dateRange", arguments);
+			final int half = count == 1 ? 1 : count / 2;
+			final int[] start = parseDate(arguments, 0, half);
+			final int[] end = count == 1 ? start : parseDate(arguments, half,
+					count);
+			for (int i = 0; i < start.length; i++)
+				if ((start[i] < 0) != (end[i] < 0))
+					throw invalid("dateRange", arguments);
+			final int[] current = { date.get(Calendar.YEAR),
+					date.get(Calendar.MONTH), date.get(Calendar.DAY_OF_MONTH) };
+			final int from = dateKey(start, start);
+			final int to = dateKey(start, end);
+			final int key = dateKey(start, current);
+			if (from <= to)
+				return key >= from && key <= to;
+			return start[0] < 0 && (key >= from || key <= to);
+		}
+
+		/**
+		 * Allows to know if a time is in the range described by the arguments
+		 * of <i>timeRange</i>: an hour, a pair of hours, of hours and minutes
+		 * or of hours, minutes and seconds, optionally followed by <i>GMT</i>.
+		 * The end of the range is excluded, and ranges wrap around midnight.
+		 */
+		static boolean timeRange(final String[] arguments, final Calendar now) {
+			final Calendar time = inZone(arguments, now);
+			final int count = countWithoutZone(arguments);
+			if (count != 1 && count != 2 && count != 4 && count != 6)
+				throw invalid("timeRange", arguments);
+			final int hour = time.get(Calendar.HOUR_OF_DAY);
+			if (count == 1)
+				return hour == parse("timeRange", arguments, 0, 23);
+			final int half = count / 2;
+			int from = 0;
+			int to = 0;
+			for (int i = 0; i < 3; i++) {
+				from = from * 60
+						+ (i < half ? parse("timeRange", arguments, i,
+								i == 0 ? 23 : 59) : 0);
+				to = to * 60
+						+ (i < half ? parse("timeRange", arguments, half + i,
+								i == 0 ? 23 : 59) : 0);
+			}
+			final int current = (hour * 60 + time.get(Calendar.MINUTE)) * 60
+					+ time.get(Calendar.SECOND);
+			if (from <= to)
+				return current >= from && current < to;
+			return current >= from || current < to;
+		}
+
+		/**
+		 * Parses one bound of <i>dateRange</i>
+		 * 
+		 * @return the year, the month and the day of the bound, -1 for the
+		 *         ones it doesn't define
+		 */
+		private static int[] parseDate(final String[] arguments,
+				final int from, final int to) {
+			final int[] date = { -1, -1, -1 };
+			for (int i = from; i < to; i++) {
+				final String argument = arguments[i];
+				int field = -1;
+				int value = -1;
+				for (int month = 0; month < MONTHS.length; month++)
+					if (MONTHS[month].equalsIgnoreCase(argument)) {
+						field = 1;
+						value = month;
+					}
+				if (field < 0) {
+					value = parse("dateRange", arguments, i, Integer.MAX_VALUE);
+					field = value > 31 ? 0 : 2;
+					if (value == 0)
+						throw invalid("dateRange", arguments);
+				}
+				if (date[field] >= 0)
+					throw invalid("dateRange", arguments);
+				date[field] = value;
+			}
+			// A day and a year only make sense with a month
+			if (date[0] >= 0 && date[2] >= 0 && date[1] < 0)
+				throw invalid("dateRange", arguments);
+			return date;
+		}
+
+		/**
+		 * @return a key ordering the dates on the fields defined by the bound
+		 */
+		private static int dateKey(final int[] bound, final int[] date) {
+			int key = 0;
+			for (int i = 0; i < bound.length; i++)
+				key = key * (i == 0 ? 1 : 100) + (bound[i] >= 0 ? date[i] : 0);
+			return key;
+		}
+
+		private static int parse(final String function,
+				final String[] arguments, final int index, final int max) {
+			try {
+				final int value = Integer.parseInt(arguments[index]);
+				if (value >= 0 && value <= max)
+					return value;
+			} catch (final NumberFormatException e) {
+				// Reported below
+			}
+			throw invalid(function, arguments);
+		}
+
+		private static Calendar inZone(final String[] arguments,
+				final Calendar now) {
+			if (countWithoutZone(arguments) == arguments.length)
+				return now;
+			final Calendar gmt = Calendar.getInstance(TimeZone
+					.getTimeZone("GMT"));
+			gmt.setTimeInMillis(now.getTimeInMillis());
+			return gmt;
+		}
+
+		private static int countWithoutZone(final String[] arguments) {
+			return arguments.length > 0
+					&& "GMT".equalsIgnoreCase(arguments[arguments.length - 1]) ? arguments.length - 1
+					: arguments.length;
+		}
+
+		private static String[] split(final String arguments) {
+			final String trimmed = arguments.trim();
+			return trimmed.length() == 0 ? new String[0] : trimmed
+					.split("\\s+");
+		}
+
+		private static IllegalArgumentException invalid(
+				final String function, final String[] arguments) {
+			final StringBuilder builder = new StringBuilder("Invalid ")
+					.append(function).append(" arguments:");
+			for (final String argument : arguments)
+				builder.append(' ').append(argument);
+			return new IllegalArgumentException(builder.toString());
+		}
+	}
+
+}
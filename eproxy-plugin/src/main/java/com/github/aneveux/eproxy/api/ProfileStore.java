@@ -0,0 +1,421 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.core.runtime.preferences.InstanceScope;
+import org.osgi.service.prefs.BackingStoreException;
+import org.osgi.service.prefs.Preferences;
+
+import com.github.aneveux.eproxy.Activator;
+import com.github.aneveux.eproxy.data.EProxy;
+
+/**
+ * <p>
+ * This store keeps named proxy profiles in the Eclipse instance preferences,
+ * so that a known proxy can be applied again without retyping it in the
+ * wizard
+ * </p>
+ * <p>
+ * Profiles are identified by their reference (see
+ * {@link EProxy#getReference()}). They're loaded from the preferences the first
+ * time the store is used, and then served from memory.
+ * </p>
+ * <p>
+ * Passwords are not kept in the preferences: they're stored in the Eclipse
+ * secure storage by the {@link CredentialStore}. Passwords found in the
+ * preferences of a previous version are moved there when the profiles are
+ * loaded.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ * @see ProxyHelper#applyProfile(String)
+ */
+public class ProfileStore {
+
+	/**
+	 * Name of the preference node containing the profiles
+	 */
+	private static final String PROFILES_NODE = "profiles";
+
+	/**
+	 * Preference key of the last applied profile
+	 */
+	private static final String ACTIVE_PROFILE = "activeProfile";
+
+	/**
+	 * Name of the preference node mapping network locations to profiles
+	 */
+	private static final String LOCATIONS_NODE = "locations";
+
+	private static final String REFERENCE = "reference";
+
+	private static final String HOST = "host";
+
+	private static final String PORT = "port";
+
+	private static final String AUTHENTICATION_REQUIRED = "authenticationRequired";
+
+	private static final String USER = "user";
+
+	private static final String PASSWORD = "password";
+
+	private static final String NON_PROXY_HOSTS = "nonProxyHosts";
+
+	private static final String PAC_LOCATION = "pacLocation";
+
+	private static final String HTTPS_HOST = "httpsHost";
+
+	private static final String HTTPS_PORT = "httpsPort";
+
+	private static final String SOCKS_HOST = "socksHost";
+
+	private static final String SOCKS_PORT = "socksPort";
+
+	private static final String FAILOVER_PROXIES = "failoverProxies";
+
+	private static final String RELAY_ENABLED = "relayEnabled";
+
+	private static final String CACHE_ENABLED = "cacheEnabled";
+
+	private static final String CACHED_HOSTS = "cachedHosts";
+
+	private static final String DIRECT_RACING_ENABLED = "directRacingEnabled";
+
+	/**
+	 * The shared instance
+	 */
+	private static ProfileStore instance;
+
+	/**
+	 * The profiles, sorted by reference, null until they're loaded
+	 */
+	private Map<String, EProxy> profiles;
+
+	/**
+	 * @return the shared instance
+	 */
+	public static synchronized ProfileStore getDefault() {
+		if (instance == null)
+			instance = new ProfileStore();
+		return instance;
+	}
+
+	/**
+	 * @return the preference node in which the profiles are stored
+	 */
+	protected Preferences getPreferences() {
+		return InstanceScope.INSTANCE.getNode(Activator.PLUGIN_ID);
+	}
+
+	/**
+	 * Allows to get a stored profile
+	 * 
+	 * @param reference
+	 *            the reference of the profile
+	 * @return a copy of the stored {@link EProxy}, or null if there is no such
+	 *         profile
+	 */
+	public synchronized EProxy getProfile(final String reference) {
+		final EProxy profile = load().get(reference);
+		if (profile == null)
+			return null;
+		final EProxy result = copy(profile);
+		if (result.isAuthenticationRequired())
+			result.setPassword(CredentialStore.getDefault().getPassword(
+					reference));
+		return result;
+	}
+
+	/**
+	 * Allows to know if a profile is stored, without reading its password from
+	 * the secure storage
+	 * 
+	 * @param reference
+	 *            the reference of the profile
+	 * @return true if there is a profile with this reference
+	 */
+	public synchronized boolean contains(final String reference) {
+		return load().containsKey(reference);
+	}
+
+	/**
+	 * @return the references of all the stored profiles, sorted
+	 */
+	public synchronized String[] getProfileNames() {
+		final Map<String, EProxy> loaded = load();
+		return loaded.keySet().toArray(new String[loaded.size()]);
+	}
+
+	/**
+	 * Allows to store a profile, replacing any profile having the same
+	 * reference
+	 * 
+	 * @param proxy
+	 *            the {@link EProxy} to store
+	 */
+	public synchronized void save(final EProxy proxy) {
+		final EProxy profile = copy(proxy).setPassword(null);
+		load().put(profile.getReference(), profile);
+		final Preferences node = getPreferences().node(PROFILES_NODE).node(
+				nodeName(profile.getReference()));
+		node.put(REFERENCE, profile.getReference());
+		node.put(HOST, profile.getHost() != null ? profile.getHost() : "");
+		node.putInt(PORT, profile.getPort());
+		node.putBoolean(AUTHENTICATION_REQUIRED,
+				profile.isAuthenticationRequired());
+		putOrRemove(node, USER, profile.getUser());
+		node.remove(PASSWORD);
+		CredentialStore.getDefault().setPassword(profile.getReference(),
+				proxy.getPassword());
+		node.put(NON_PROXY_HOSTS, join(profile.getNonProxyHosts()));
+		putOrRemove(node, PAC_LOCATION, profile.getPacLocation());
+		putOrRemove(node, HTTPS_HOST, profile.getHttpsHost());
+		node.putInt(HTTPS_PORT, profile.getHttpsPort());
+		putOrRemove(node, SOCKS_HOST, profile.getSocksHost());
+		node.putInt(SOCKS_PORT, profile.getSocksPort());
+		node.put(FAILOVER_PROXIES, join(profile.getFailoverProxies()));
+		node.putBoolean(RELAY_ENABLED, profile.isRelayEnabled());
+		node.putBoolean(CACHE_ENABLED, profile.isCacheEnabled());
+		node.put(CACHED_HOSTS, join(profile.getCachedHosts()));
+		node.putBoolean(DIRECT_RACING_ENABLED, profile.isDirectRacingEnabled());
+		flush();
+	}
+
+	/**
+	 * Allows to remove a stored profile
+	 * 
+	 * @param reference
+	 *            the reference of the profile to remove
+	 * @return true if the profile existed
+	 */
+	public synchronized boolean remove(final String reference) {
+		if (load().remove(reference) == null)
+			return false;
+		CredentialStore.getDefault().remove(reference);
+		try {
+			getPreferences().node(PROFILES_NODE).node(nodeName(reference))
+					.removeNode();
+			if (reference.equals(getActiveProfile()))
+				getPreferences().remove(ACTIVE_PROFILE);
+		} catch (final BackingStoreException e) {
+			Activator.sendErrorToErrorLog(
+					"Error while trying to remove the proxy profile...", e);
+		}
+		flush();
+		return true;
+	}
+
+	/**
+	 * @return the reference of the last applied profile, or null
+	 */
+	public synchronized String getActiveProfile() {
+		return getPreferences().get(ACTIVE_PROFILE, null);
+	}
+
+	/**
+	 * Allows to remember the last applied profile
+	 * 
+	 * @param reference
+	 *            the reference of the profile
+	 */
+	public synchronized void setActiveProfile(final String reference) {
+		if (reference.equals(getActiveProfile()))
+			return;
+		getPreferences().put(ACTIVE_PROFILE, reference);
+		flush();
+	}
+
+	/**
+	 * Allows to associate a network location to a profile, so that the
+	 * profile gets applied when the machine joins this network
+	 * 
+	 * @see NetworkLocationWatcher
+	 * @param location
+	 *            the fingerprint of the network location
+	 * @param reference
+	 *            the reference of the profile, or null to remove the
+	 *            association
+	 */
+	public synchronized void bindLocation(final String location,
+			final String reference) {
+		putOrRemove(getPreferences().node(LOCATIONS_NODE), location, reference);
+		flush();
+	}
+
+	/**
+	 * Allows to get the profile associated to a network location
+	 * 
+	 * @param location
+	 *            the fingerprint of the network location
+	 * @return the reference of the profile, or null if there is none
+	 */
+	public synchronized String getProfileForLocation(final String location) {
+		return getPreferences().node(LOCATIONS_NODE).get(location, null);
+	}
+
+	/**
+	 * Loads the profiles from the preferences if it hasn't been done yet
+	 */
+	private Map<String, EProxy> load() {
+		if (profiles != null)
+			return profiles;
+		profiles = new TreeMap<String, EProxy>();
+		boolean migrated = false;
+		try {
+			final Preferences root = getPreferences().node(PROFILES_NODE);
+			for (final String name : root.childrenNames()) {
+				final Preferences node = root.node(name);
+				final EProxy profile = new EProxy();
+				profile.setReference(node.get(REFERENCE, name));
+				profile.setHost(node.get(HOST, ""));
+				profile.setPort(node.getInt(PORT, 0));
+				profile.setAuthenticationRequired(node.getBoolean(
+						AUTHENTICATION_REQUIRED, false));
+				profile.setUser(node.get(USER, null));
+				final String password = node.get(PASSWORD, null);
+				if (password != null) {
+					CredentialStore.getDefault().setPassword(
+							profile.getReference(), password);
+					node.remove(PASSWORD);
+					migrated = true;
+				}
+				final String nonProxyHosts = node.get(NON_PROXY_HOSTS, "");
+				if (nonProxyHosts.length() > 0)
+					profile.setNonProxyHosts(nonProxyHosts);
+				profile.setPacLocation(node.get(PAC_LOCATION, null));
+				profile.setHttpsHost(node.get(HTTPS_HOST, null));
+				profile.setHttpsPort(node.getInt(HTTPS_PORT, 0));
+				profile.setSocksHost(node.get(SOCKS_HOST, null));
+				profile.setSocksPort(node.getInt(SOCKS_PORT, 0));
+				final String failoverProxies = node.get(FAILOVER_PROXIES, "");
+				if (failoverProxies.length() > 0)
+					profile.setFailoverProxies(failoverProxies.split(","));
+				profile.setRelayEnabled(node.getBoolean(RELAY_ENABLED, false));
+				profile.setCacheEnabled(node.getBoolean(CACHE_ENABLED, false));
+				final String cachedHosts = node.get(CACHED_HOSTS, "");
+				if (cachedHosts.length() > 0)
+					profile.setCachedHosts(cachedHosts.split(","));
+				profile.setDirectRacingEnabled(node.getBoolean(
+						DIRECT_RACING_ENABLED, false));
+				profiles.put(profile.getReference(), profile);
+			}
+		} catch (final BackingStoreException e) {
+			Activator.sendErrorToErrorLog(
+					"Error while trying to load the proxy profiles...", e);
+		}
+		if (migrated)
+			flush();
+		return profiles;
+	}
+
+	/**
+	 * Writes the preferences on disk
+	 */
+	private void flush() {
+		try {
+			getPreferences().flush();
+		} catch (final BackingStoreException e) {
+			Activator.sendErrorToErrorLog(
+					"Error while trying to save the proxy profiles...", e);
+		}
+	}
+
+	private static void putOrRemove(final Preferences node, final String key,
+			final String value) {
+		if (value != null)
+			node.put(key, value);
+		else
+			node.remove(key);
+	}
+
+	/**
+	 * Preference node names can't contain slashes, so references are encoded
+	 */
+	static String nodeName(final String reference) {
+		try {
+			return URLEncoder.encode(reference, "UTF-8");
+		} catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String join(final String[] values) {
+		if (values == null)
+			return "";
+		final StringBuilder builder = new StringBuilder();
+		for (final String value : values) {
+			if (builder.length() > 0)
+				builder.append(',');
+			builder.append(value);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Profiles are copied in and out of the store, as {@link EProxy} is
+	 * mutable
+	 */
+	static EProxy copy(final EProxy proxy) {
+		return new EProxy()
+				.setReference(proxy.getReference())
+				.setHost(proxy.getHost())
+				.setPort(proxy.getPort())
+				.setAuthenticationRequired(proxy.isAuthenticationRequired())
+				.setUser(proxy.getUser())
+				.setPassword(proxy.getPassword())
+				.setPacLocation(proxy.getPacLocation())
+				.setHttpsHost(proxy.getHttpsHost())
+				.setHttpsPort(proxy.getHttpsPort())
+				.setSocksHost(proxy.getSocksHost())
+				.setSocksPort(proxy.getSocksPort())
+				.setFailoverProxies(proxy.getFailoverProxies().clone())
+				.setRelayEnabled(proxy.isRelayEnabled())
+				.setCacheEnabled(proxy.isCacheEnabled())
+				.setCachedHosts(proxy.getCachedHosts().clone())
+				.setDirectRacingEnabled(proxy.isDirectRacingEnabled())
+				.setNonProxyHosts(
+						proxy.getNonProxyHosts() != null ? proxy
+								.getNonProxyHosts().clone() : new String[0]);
+	}
+
+}
@@ -0,0 +1,223 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import com.github.aneveux.eproxy.Activator;
+import com.github.aneveux.eproxy.data.EProxy;
+
+/**
+ * <p>
+ * This {@link Job} applies proxy configurations in the background, so that
+ * callers (and especially the SWT thread) never wait for the
+ * {@link org.eclipse.core.net.proxy.IProxyService} and its preference store
+ * </p>
+ * <p>
+ * Requests are put in a single slot drained by the job. As a job never runs
+ * concurrently with itself, and as the synchronous writers of
+ * {@link ProxyHelper} hold the same lock as the job, there is always a single
+ * writer. If several requests are submitted before the job gets a chance to
+ * run, only the latest one is written, and all the callers are notified with
+ * its result.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ * @see ProxyHelper#defineProxyAsync(EProxy)
+ * @see ProxyHelper#clearProxyAsync()
+ */
+public class ProxyApplyJob extends Job {
+
+	/**
+	 * The shared instance
+	 */
+	private static ProxyApplyJob instance;
+
+	/**
+	 * The configuration waiting to be written, null if there is none
+	 */
+	private Request pending;
+
+	/**
+	 * Creates the job, use {@link #getDefault()} to get the shared instance
+	 */
+	protected ProxyApplyJob() {
+		super("Applying proxy configuration");
+		setSystem(true);
+		setPriority(Job.SHORT);
+	}
+
+	/**
+	 * @return the shared instance
+	 */
+	public static synchronized ProxyApplyJob getDefault() {
+		if (instance == null)
+			instance = new ProxyApplyJob();
+		return instance;
+	}
+
+	/**
+	 * Allows to request the provided configuration to be written in the
+	 * background
+	 * 
+	 * @param proxy
+	 *            the {@link EProxy} to define, or null in order to clear the
+	 *            proxy configuration
+	 * @return a {@link Future} giving the result of the write which included
+	 *         this request
+	 */
+	public Future<ProxyTransaction.Result> submit(final EProxy proxy) {
+		return submit(proxy, false);
+	}
+
+	/**
+	 * Allows to request the provided configuration to be written in the
+	 * background, flagging the switches made by the {@link FailoverMonitor}
+	 * so that it doesn't start watching its own choice. A switch doesn't
+	 * replace a configuration chosen elsewhere which is still pending.
+	 * 
+	 * @param proxy
+	 *            the {@link EProxy} to define, or null in order to clear the
+	 *            proxy configuration
+	 * @param failover
+	 *            true if the {@link FailoverMonitor} switches to another
+	 *            upstream
+	 * @return a {@link Future} giving the result of the write which included
+	 *         this request
+	 */
+	Future<ProxyTransaction.Result> submit(final EProxy proxy,
+			final boolean failover) {
+		final CompletionFuture<ProxyTransaction.Result> future = new CompletionFuture<ProxyTransaction.Result>();
+		synchronized (this) {
+			if (failover && pending != null && !pending.failover) {
+				pending.futures.add(future);
+				return future;
+			}
+			final Request request = new Request(proxy, failover);
+			if (pending != null)
+				request.futures.addAll(pending.futures);
+			request.futures.add(future);
+			pending = request;
+		}
+		schedule();
+		return future;
+	}
+
+	/**
+	 * Allows to drop the configuration waiting to be written, whose callers
+	 * get an error, and to wait for the end of the write in progress, if any
+	 * 
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public void cancelPending() throws InterruptedException {
+		final Request request = take();
+		if (request != null)
+			for (final CompletionFuture<ProxyTransaction.Result> future : request.futures)
+				future.complete(null, new IllegalStateException(
+						"The proxy configuration was discarded"));
+		join();
+	}
+
+	/**
+	 * @see Job#run(IProgressMonitor)
+	 */
+	@Override
+	protected IStatus run(final IProgressMonitor monitor) {
+		Request request;
+		while ((request = take()) != null) {
+			ProxyTransaction.Result result = null;
+			// Reported if the write ends with an Error, so that the callers
+			// never wait forever
+			Exception error = new IllegalStateException(
+					"The proxy configuration couldn't be written");
+			try {
+				result = ProxyHelper.commit(request.proxy, request.failover);
+				error = null;
+			} catch (final CoreException e) {
+				error = e;
+				Activator.sendErrorToErrorLog(
+						"Error while trying to define the proxy...", e);
+			} catch (final RuntimeException e) {
+				error = e;
+				Activator.sendErrorToErrorLog(
+						"Error while trying to define the proxy...", e);
+			} finally {
+				for (final CompletionFuture<ProxyTransaction.Result> future : request.futures)
+					future.complete(result, error);
+			}
+		}
+		return Status.OK_STATUS;
+	}
+
+	/**
+	 * Takes the pending request out of the slot
+	 */
+	private synchronized Request take() {
+		final Request request = pending;
+		pending = null;
+		return request;
+	}
+
+	/**
+	 * A configuration to write, and all the callers waiting for it
+	 */
+	private static final class Request {
+
+		private final EProxy proxy;
+
+		private final boolean failover;
+
+		private final List<CompletionFuture<ProxyTransaction.Result>> futures = new ArrayList<CompletionFuture<ProxyTransaction.Result>>(
+				2);
+
+		private Request(final EProxy proxy, final boolean failover) {
+			this.proxy = proxy;
+			this.failover = failover;
+		}
+	}
+
+}
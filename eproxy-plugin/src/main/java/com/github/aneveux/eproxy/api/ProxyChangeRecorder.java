@@ -0,0 +1,486 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.core.net.proxy.IProxyChangeEvent;
+import org.eclipse.core.net.proxy.IProxyChangeListener;
+import org.eclipse.core.net.proxy.IProxyData;
+import org.eclipse.core.net.proxy.IProxyService;
+
+/**
+ * <p>
+ * This recorder keeps the last changes of the Eclipse proxy configuration, so
+ * that one can find out afterwards when the proxy changed, to what, and who
+ * changed it
+ * </p>
+ * <p>
+ * Every change notified by the {@link IProxyService} is recorded, whether it
+ * comes from eProxy or from anything else. Changes are written in a ring
+ * buffer of {@link #getCapacity()} slots allocated once, the oldest change
+ * being overwritten: recording a change only copies a few references and
+ * numbers into the next slot. The differences between the nonProxyHosts lists
+ * are only computed when the changes are read, see {@link #getEvents()} and
+ * {@link #export(Writer)}.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class ProxyChangeRecorder implements IProxyChangeListener {
+
+	/**
+	 * Default amount of changes kept by the recorder
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	/**
+	 * The shared instance
+	 */
+	private static ProxyChangeRecorder instance;
+
+	/**
+	 * Allows to know if the current thread is writing the configuration on
+	 * behalf of eProxy
+	 */
+	private static final ThreadLocal<Boolean> OWN_WRITE = new ThreadLocal<Boolean>();
+
+	/**
+	 * The {@link IProxyService} this recorder listens to, if any
+	 */
+	private final IProxyService proxyService;
+
+	private final Slot[] slots;
+
+	/**
+	 * Amount of changes recorded since the creation of the recorder, the next
+	 * slot being <code>total % slots.length</code>
+	 */
+	private long total;
+
+	/**
+	 * Creates a recorder, use {@link #getDefault()} to get the shared instance
+	 * 
+	 * @param proxyService
+	 *            the {@link IProxyService} which is listened to, can be null
+	 * @param capacity
+	 *            the amount of changes to keep
+	 */
+	protected ProxyChangeRecorder(final IProxyService proxyService,
+			final int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Invalid capacity " + capacity);
+		this.proxyService = proxyService;
+		slots = new Slot[capacity];
+		for (int i = 0; i < capacity; i++)
+			slots[i] = new Slot();
+	}
+
+	/**
+	 * @return the shared instance, listening to the Eclipse
+	 *         {@link IProxyService}
+	 */
+	public static synchronized ProxyChangeRecorder getDefault() {
+		if (instance == null) {
+			instance = new ProxyChangeRecorder(ProxyHelper.getProxyService(),
+					DEFAULT_CAPACITY);
+			if (instance.proxyService != null)
+				instance.proxyService.addProxyChangeListener(instance);
+		}
+		return instance;
+	}
+
+	/**
+	 * Stops listening to the {@link IProxyService} and drops the shared
+	 * instance if it has been created
+	 */
+	public static synchronized void shutdown() {
+		if (instance != null) {
+			if (instance.proxyService != null)
+				instance.proxyService.removeProxyChangeListener(instance);
+			instance = null;
+			ProxyHelper.forgetApplied();
+		}
+	}
+
+	/**
+	 * Allows to flag the changes notified in the current thread as being made
+	 * by eProxy
+	 * 
+	 * @param ownWrite
+	 *            true while eProxy writes the configuration
+	 */
+	static void setOwnWrite(final boolean ownWrite) {
+		if (ownWrite)
+			OWN_WRITE.set(Boolean.TRUE);
+		else
+			OWN_WRITE.remove();
+	}
+
+	/**
+	 * @see IProxyChangeListener#proxyInfoChanged(IProxyChangeEvent)
+	 */
+	@Override
+	public void proxyInfoChanged(final IProxyChangeEvent event) {
+		final Thread thread = Thread.currentThread();
+		final boolean own = OWN_WRITE.get() != null;
+		synchronized (this) {
+			final Slot slot = slots[(int) (total++ % slots.length)];
+			slot.time = System.currentTimeMillis();
+			slot.changeType = event.getChangeType();
+			slot.thread = thread.getName();
+			slot.own = own;
+			slot.oldHosts = event.getOldNonProxiedHosts();
+			slot.newHosts = event.getNonProxiedHosts();
+			slot.proxyType = null;
+			slot.oldHost = null;
+			slot.oldPort = -1;
+			slot.newHost = null;
+			slot.newPort = -1;
+			final IProxyData changed = pick(event.getChangedProxyData(), null);
+			if (changed != null) {
+				slot.proxyType = changed.getType();
+				slot.newHost = changed.getHost();
+				slot.newPort = changed.getPort();
+				final IProxyData old = pick(event.getOldProxyData(),
+						slot.proxyType);
+				if (old != null) {
+					slot.oldHost = old.getHost();
+					slot.oldPort = old.getPort();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Picks the entry of the provided type, or the HTTP entry, or the first
+	 * one
+	 */
+	private static IProxyData pick(final IProxyData[] data, final String type) {
+		if (data == null || data.length == 0)
+			return null;
+		final String wanted = type != null ? type : IProxyData.HTTP_PROXY_TYPE;
+		for (final IProxyData d : data)
+			if (d != null && wanted.equals(d.getType()))
+				return d;
+		return type != null ? null : data[0];
+	}
+
+	/**
+	 * @return the maximum amount of changes kept
+	 */
+	public int getCapacity() {
+		return slots.length;
+	}
+
+	/**
+	 * @return the amount of changes recorded, including the ones which have
+	 *         been overwritten since
+	 */
+	public synchronized long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Allows to forget all the recorded changes. The {@link ProxyHelper}
+	 * can't skip writing the configuration it wrote last anymore, as the
+	 * changes made since are lost.
+	 */
+	public synchronized void clear() {
+		for (final Slot slot : slots)
+			slot.clear();
+		total = 0;
+		ProxyHelper.forgetApplied();
+	}
+
+	/**
+	 * @return the recorded changes, from the oldest to the most recent
+	 */
+	public List<Event> getEvents() {
+		return getEventsSince(0);
+	}
+
+	/**
+	 * Allows to get the changes recorded after a previous call to
+	 * {@link #getTotal()}. The changes which have been overwritten since
+	 * aren't returned.
+	 *
+	 * @param since
+	 *            the amount of changes already known, as given by
+	 *            {@link #getTotal()}
+	 * @return the changes recorded after this amount, from the oldest to the
+	 *         most recent, or all the kept changes if the recorder has been
+	 *         cleared since
+	 */
+	public synchronized List<Event> getEventsSince(final long since) {
+		long first = Math.max(total - slots.length, 0);
+		if (since > first && since <= total)
+			first = since;
+		final List<Event> events = new ArrayList<Event>((int) (total - first));
+		for (long i = first; i < total; i++)
+			events.add(new Event(slots[(int) (i % slots.length)]));
+		return Collections.unmodifiableList(events);
+	}
+
+	/**
+	 * Allows to write the recorded changes, one per line, from the oldest to
+	 * the most recent
+	 * 
+	 * @param writer
+	 *            the {@link Writer} to use
+	 * @throws IOException
+	 *             if the changes can't be written
+	 */
+	public void export(final Writer writer) throws IOException {
+		for (final Event event : getEvents()) {
+			writer.write(event.toString());
+			writer.write('\n');
+		}
+		writer.flush();
+	}
+
+	/**
+	 * @return the recorded changes, one per line
+	 */
+	public String export() {
+		final StringWriter writer = new StringWriter();
+		try {
+			export(writer);
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return writer.toString();
+	}
+
+	/**
+	 * Preallocated storage of one change, overwritten in place
+	 */
+	private static final class Slot {
+
+		long time;
+
+		int changeType;
+
+		String thread;
+
+		boolean own;
+
+		String proxyType;
+
+		String oldHost;
+
+		int oldPort;
+
+		String newHost;
+
+		int newPort;
+
+		String[] oldHosts;
+
+		String[] newHosts;
+
+		void clear() {
+			thread = null;
+			proxyType = null;
+			oldHost = null;
+			newHost = null;
+			oldHosts = null;
+			newHosts = null;
+		}
+	}
+
+	/**
+	 * A recorded change of the proxy configuration
+	 * 
+	 * @author Antoine Neveux
+	 * @version 1.0
+	 * @since 1.2
+	 * 
+	 */
+	public static final class Event {
+
+		private final long time;
+
+		private final int changeType;
+
+		private final String thread;
+
+		private final boolean own;
+
+		private final String proxyType;
+
+		private final String oldProxy;
+
+		private final String newProxy;
+
+		private final String[] addedHosts;
+
+		private final String[] removedHosts;
+
+		Event(final Slot slot) {
+			time = slot.time;
+			changeType = slot.changeType;
+			thread = slot.thread;
+			own = slot.own;
+			proxyType = slot.proxyType;
+			oldProxy = slot.oldHost != null ? slot.oldHost + ":"
+					+ slot.oldPort : null;
+			newProxy = slot.newHost != null ? slot.newHost + ":"
+					+ slot.newPort : null;
+			addedHosts = difference(slot.newHosts, slot.oldHosts);
+			removedHosts = difference(slot.oldHosts, slot.newHosts);
+		}
+
+		private static String[] difference(final String[] hosts,
+				final String[] others) {
+			if (hosts == null || hosts.length == 0)
+				return new String[0];
+			final Set<String> excluded = new HashSet<String>();
+			if (others != null)
+				excluded.addAll(Arrays.asList(others));
+			final List<String> result = new ArrayList<String>();
+			for (final String host : hosts)
+				if (!excluded.contains(host))
+					result.add(host);
+			return result.toArray(new String[result.size()]);
+		}
+
+		/**
+		 * @return the time of the change, in milliseconds since the epoch
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return the type of the change, as defined in
+		 *         {@link IProxyChangeEvent}
+		 */
+		public int getChangeType() {
+			return changeType;
+		}
+
+		/**
+		 * @return the name of the thread which made the change
+		 */
+		public String getThread() {
+			return thread;
+		}
+
+		/**
+		 * @return true if the change has been made by eProxy
+		 */
+		public boolean isOwnChange() {
+			return own;
+		}
+
+		/**
+		 * @return the type of the proxy which changed, or null
+		 */
+		public String getProxyType() {
+			return proxyType;
+		}
+
+		/**
+		 * @return the previous proxy as host:port, or null
+		 */
+		public String getOldProxy() {
+			return oldProxy;
+		}
+
+		/**
+		 * @return the new proxy as host:port, or null
+		 */
+		public String getNewProxy() {
+			return newProxy;
+		}
+
+		/**
+		 * @return the hosts added to the nonProxyHosts
+		 */
+		public String[] getAddedHosts() {
+			return addedHosts.clone();
+		}
+
+		/**
+		 * @return the hosts removed from the nonProxyHosts
+		 */
+		public String[] getRemovedHosts() {
+			return removedHosts.clone();
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder builder = new StringBuilder();
+			builder.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS")
+					.format(new Date(time)));
+			builder.append(" [").append(thread).append("] ");
+			switch (changeType) {
+			case IProxyChangeEvent.PROXY_DATA_CHANGED:
+				builder.append(proxyType).append(" proxy ").append(oldProxy)
+						.append(" -> ").append(newProxy);
+				break;
+			case IProxyChangeEvent.NONPROXIED_HOSTS_CHANGED:
+				builder.append("nonProxyHosts +")
+						.append(Arrays.toString(addedHosts)).append(" -")
+						.append(Arrays.toString(removedHosts));
+				break;
+			case IProxyChangeEvent.PROXY_SERVICE_ENABLEMENT_CHANGE:
+				builder.append("proxies enablement changed");
+				break;
+			case IProxyChangeEvent.SYSTEM_PROXY_ENABLEMENT_CHANGE:
+				builder.append("system proxies enablement changed");
+				break;
+			default:
+				builder.append("change ").append(changeType);
+			}
+			builder.append(own ? " (eProxy)" : " (external)");
+			return builder.toString();
+		}
+	}
+}
@@ -34,14 +34,32 @@
  */
 package com.github.aneveux.eproxy.api;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import javax.script.ScriptException;
+
 import org.eclipse.core.net.proxy.IProxyData;
 import org.eclipse.core.net.proxy.IProxyService;
 import org.eclipse.core.runtime.CoreException;
-import org.osgi.framework.BundleContext;
-import org.osgi.framework.ServiceReference;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences;
+import org.eclipse.core.runtime.preferences.InstanceScope;
+import org.osgi.service.prefs.BackingStoreException;
 
 import com.github.aneveux.eproxy.Activator;
+import com.github.aneveux.eproxy.api.ProxyMetrics.Operation;
 import com.github.aneveux.eproxy.data.EProxy;
+import com.github.aneveux.eproxy.data.EProxySnapshot;
 
 /**
  * This helper class uses the Eclipse {@link IProxyService} in order to interact
@@ -56,20 +74,40 @@ import com.github.aneveux.eproxy.data.EProxy;
 public class ProxyHelper {
 
 	/**
+	 * The last configuration written by {@link #commit(EProxy)}, null if
+	 * there is none or if it can't be skipped
+	 */
+	private static volatile Applied lastApplied;
+
+	/**
+	 * Held by every write of the Eclipse configuration, so that two writes
+	 * never interleave and {@link #lastApplied} always describes the last one
+	 */
+	private static final Object WRITE_LOCK = new Object();
+
+	/**
+	 * <p>
 	 * This technical method allows to get the Eclipse {@link IProxyService} in
 	 * order to interact with the proxy configuration from Eclipse platform
+	 * </p>
+	 * <p>
+	 * The service is tracked by the {@link Activator} for the whole life of the
+	 * plug-in, so this call doesn't query the OSGi registry again
+	 * </p>
 	 * 
 	 * @return the Eclipse {@link IProxyService} to use in order to interact
 	 *         with the proxy configuration
 	 */
 	protected static IProxyService getProxyService() {
-		final BundleContext bc = Activator.getDefault().getBundle()
-				.getBundleContext();
-		final ServiceReference<?> serviceReference = bc
-				.getServiceReference(IProxyService.class.getName());
-		final IProxyService service = (IProxyService) bc
-				.getService(serviceReference);
-		return service;
+		final long start = System.nanoTime();
+		final IProxyService proxyService = Activator.getDefault()
+				.getProxyService();
+		if (proxyService != null)
+			ProxyMetrics.getDefault().record(Operation.GET_PROXY_SERVICE, start);
+		else
+			ProxyMetrics.getDefault().failure(Operation.GET_PROXY_SERVICE,
+					start, null);
+		return proxyService;
 	}
 
 	/**
@@ -82,30 +120,35 @@ public class ProxyHelper {
 	 *            Eclipse's proxy
 	 */
 	public static void defineProxy(final EProxy proxy) {
-		final IProxyService proxyService = getProxyService();
-		final IProxyData[] proxyData = proxyService.getProxyData();
-		for (final IProxyData data : proxyData)
-			if (IProxyData.HTTP_PROXY_TYPE.equals(data.getType())
-					|| IProxyData.HTTPS_PROXY_TYPE.equals(data.getType())) {
-				if (proxy.isAuthenticationRequired() && proxy.getUser() != null
-						&& proxy.getPassword() != null) {
-					data.setUserid(proxy.getUser());
-					data.setPassword(proxy.getPassword());
-				} else if (!proxy.isAuthenticationRequired())
-					data.disable();
-				data.setHost(proxy.getHost());
-				data.setPort(proxy.getPort());
-			}
-		proxyService.setSystemProxiesEnabled(false);
-		proxyService.setProxiesEnabled(true);
+		applyProxy(proxy);
+	}
+
+	/**
+	 * <p>
+	 * Allows to define the HTTP and HTTPS proxy in Eclipse, exactly like
+	 * {@link #defineProxy(EProxy)} does, and to get a report of what has been
+	 * written
+	 * </p>
+	 * <p>
+	 * The configuration is applied through a {@link ProxyTransaction}: nothing
+	 * is written if the configuration doesn't change, and the previous
+	 * configuration is restored if an error occurs
+	 * </p>
+	 * 
+	 * @param proxy
+	 *            an {@link EProxy} container to use in order to define
+	 *            Eclipse's proxy
+	 * @return the {@link ProxyTransaction.Result} of the operation, or null if
+	 *         the configuration couldn't be written
+	 * @since 1.2
+	 */
+	public static ProxyTransaction.Result applyProxy(final EProxy proxy) {
 		try {
-			proxyService.setProxyData(proxyData);
-			if (proxy.getNonProxyHosts() != null
-					&& proxy.getNonProxyHosts().length > 0)
-				proxyService.setNonProxiedHosts(proxy.getNonProxyHosts());
+			return commit(proxy, false);
 		} catch (final CoreException e) {
 			Activator.sendErrorToErrorLog(
 					"Error while trying to define the proxy...", e);
+			return null;
 		}
 	}
 
@@ -116,15 +159,8 @@ public class ProxyHelper {
 	 * @since 1.1
 	 */
 	public static void clearProxy() {
-		final IProxyService proxyService = getProxyService();
-		final IProxyData[] proxyData = proxyService.getProxyData();
-		for (final IProxyData data : proxyData)
-			data.disable();
-		proxyService.setSystemProxiesEnabled(true);
-		proxyService.setProxiesEnabled(false);
 		try {
-			proxyService.setProxyData(proxyData);
-			proxyService.setNonProxiedHosts(new String[0]);
+			commit(null, false);
 		} catch (final CoreException e) {
 			Activator.sendErrorToErrorLog(
 					"Error while trying to define the proxy...", e);
@@ -132,17 +168,499 @@ public class ProxyHelper {
 	}
 
 	/**
-	 * Allows to get the Eclipse HTTP proxy configuration in an {@link EProxy}
+	 * Allows to define the proxy in the background, the calling thread won't
+	 * wait for the Eclipse configuration to be written
+	 * 
+	 * @see ProxyApplyJob
+	 * @param proxy
+	 *            an {@link EProxy} container to use in order to define
+	 *            Eclipse's proxy
+	 * @return a {@link Future} giving the {@link ProxyTransaction.Result} once
+	 *         the configuration has been written
+	 * @since 1.2
+	 */
+	public static Future<ProxyTransaction.Result> defineProxyAsync(
+			final EProxy proxy) {
+		return ProxyApplyJob.getDefault().submit(proxy);
+	}
+
+	/**
+	 * Allows to clear the proxy settings in the background, the calling thread
+	 * won't wait for the Eclipse configuration to be written
+	 * 
+	 * @see ProxyApplyJob
+	 * @return a {@link Future} giving the {@link ProxyTransaction.Result} once
+	 *         the configuration has been written
+	 * @since 1.2
+	 */
+	public static Future<ProxyTransaction.Result> clearProxyAsync() {
+		return ProxyApplyJob.getDefault().submit(null);
+	}
+
+	/**
+	 * <p>
+	 * Allows to apply a profile stored in the {@link ProfileStore}, without
+	 * opening the wizard
+	 * </p>
+	 * <p>
+	 * The configuration is written in the background, see
+	 * {@link #defineProxyAsync(EProxy)}
+	 * </p>
+	 * 
+	 * @param reference
+	 *            the reference of the profile to apply
+	 * @return a {@link Future} giving the {@link ProxyTransaction.Result} once
+	 *         the configuration has been written
+	 * @throws IllegalArgumentException
+	 *             if there is no profile with this reference
+	 * @since 1.2
+	 */
+	public static Future<ProxyTransaction.Result> applyProfile(
+			final String reference) {
+		final ProfileStore store = ProfileStore.getDefault();
+		final EProxy profile = store.getProfile(reference);
+		if (profile == null)
+			throw new IllegalArgumentException("Unknown proxy profile: "
+					+ reference);
+		store.setActiveProfile(reference);
+		return defineProxyAsync(profile);
+	}
+
+	/**
+	 * <p>
+	 * Writes the provided configuration through a {@link ProxyTransaction},
+	 * records it in the {@link ProxyMetrics}, and lets the
+	 * {@link FailoverMonitor} know about it
+	 * </p>
+	 * <p>
+	 * Nothing is done if the configuration is equal to the last written one,
+	 * which is checked through the fingerprints of their
+	 * {@link EProxySnapshot}, if the {@link ProxyChangeRecorder} hasn't
+	 * recorded any change since, and if the {@link RelayProxy} is still
+	 * running when the configuration needs it. The {@link IProxyService}
+	 * isn't even read then. Changes written straight into the preferences of
+	 * the {@link IProxyService}, which it doesn't notify, can't be noticed.
+	 * </p>
+	 * <p>
+	 * The whole check and write happen under a single lock, shared with the
+	 * other writers of this class, so concurrent callers are serialized.
+	 * </p>
+	 * 
+	 * @param proxy
+	 *            the {@link EProxy} to define, or null in order to clear the
+	 *            proxy configuration
+	 * @param failover
+	 *            true if the {@link FailoverMonitor} switches to another
+	 *            upstream, in which case it isn't restarted
+	 * @return the {@link ProxyTransaction.Result}
+	 * @throws CoreException
+	 *             if the configuration couldn't be written
+	 */
+	static ProxyTransaction.Result commit(final EProxy proxy,
+			final boolean failover) throws CoreException {
+		synchronized (WRITE_LOCK) {
+			return commitLocked(proxy, failover);
+		}
+	}
+
+	private static ProxyTransaction.Result commitLocked(final EProxy proxy,
+			final boolean failover) throws CoreException {
+		final Operation operation = proxy != null ? Operation.DEFINE_PROXY
+				: Operation.CLEAR_PROXY;
+		final long start = System.nanoTime();
+		final EProxySnapshot snapshot = proxy != null ? EProxySnapshot
+				.of(proxy) : null;
+		final Applied applied = lastApplied;
+		if (applied != null && applied.isStill(snapshot)) {
+			ProxyMetrics.getDefault().record(operation, start);
+			return ProxyTransaction.unchanged();
+		}
+		lastApplied = null;
+		try {
+			final ProxyTransaction.Result result = write(proxy);
+			// A PAC script may have changed behind the same location, so
+			// such configurations are always written again
+			if (snapshot != null && snapshot.getPacLocation() == null)
+				lastApplied = new Applied(snapshot, ProxyChangeRecorder
+						.getDefault().getTotal());
+			ProxyMetrics.getDefault().record(operation, start);
+			FailoverMonitor.onApplied(proxy, failover);
+			return result;
+		} catch (final CoreException e) {
+			ProxyMetrics.getDefault().failure(operation, start, e);
+			throw e;
+		} catch (final RuntimeException e) {
+			ProxyMetrics.getDefault().failure(operation, start, null);
+			throw e;
+		}
+	}
+
+	/**
+	 * Forgets the last written configuration, so that the next one is written
+	 * whatever it is. Called when the {@link ProxyChangeRecorder} can't tell
+	 * anymore whether the configuration changed since.
+	 */
+	static void forgetApplied() {
+		lastApplied = null;
+	}
+
+	private static ProxyTransaction.Result write(final EProxy proxy)
+			throws CoreException {
+		updatePacScript(proxy != null ? proxy.getPacLocation() : null);
+		final ProxyTransaction transaction = new ProxyTransaction(
+				getProxyService());
+		if (proxy != null) {
+			final EProxy written = relay(proxy);
+			if (written != proxy)
+				transaction.defineRelayed(written, RelayProxy.USER, RelayProxy
+						.getDefault().getToken());
+			else
+				transaction.define(proxy);
+		} else {
+			RelayProxy.shutdown();
+			setRelayRestarted(false);
+			transaction.clear();
+		}
+		return write(transaction);
+	}
+
+	private static ProxyTransaction.Result write(
+			final ProxyTransaction transaction) throws CoreException {
+		ProxyChangeRecorder.setOwnWrite(true);
+		try {
+			return transaction.commit();
+		} finally {
+			ProxyChangeRecorder.setOwnWrite(false);
+			ProxyResolutionCache.invalidate();
+		}
+	}
+
+	/**
+	 * Starts the {@link RelayProxy} if the applied {@link EProxy} enables it,
+	 * the {@link ResponseCache} or the direct racing, and stops it otherwise.
+	 * Failing to start the relay isn't an error, the proxy is defined directly
+	 * instead.
+	 * 
+	 * @param proxy
+	 *            the applied {@link EProxy}
+	 * @return the {@link EProxy} to write in Eclipse: a copy pointing at the
+	 *         relay, or the applied proxy itself
+	 */
+	private static EProxy relay(final EProxy proxy) {
+		if (!proxy.isRelayEnabled() && !proxy.isCacheEnabled()
+				&& !proxy.isDirectRacingEnabled()) {
+			RelayProxy.shutdown();
+			setRelayRestarted(false);
+			return proxy;
+		}
+		final int port;
+		try {
+			port = RelayProxy.getDefault().start(proxy);
+		} catch (final IOException e) {
+			Activator.sendErrorToErrorLog(
+					"Unable to start the local relay, defining the proxy directly...",
+					e);
+			RelayProxy.shutdown();
+			setRelayRestarted(false);
+			return proxy;
+		}
+		setRelayRestarted(true);
+		final EProxy local = ProfileStore.copy(proxy)
+				.setHost(RelayProxy.LOCAL_HOST).setPort(port);
+		final boolean sameHttps = proxy.getHttpsHost() == null
+				|| (proxy.getHttpsHost().equals(proxy.getHost()) && proxy
+						.getHttpsPort() == proxy.getPort());
+		if (sameHttps)
+			local.setHttpsHost(null);
+		// Eclipse authenticates against the relay with its token, and keeps the
+		// upstream credentials for a HTTPS or SOCKS proxy the relay doesn't
+		// handle, see ProxyTransaction#defineRelayed
+		return local;
+	}
+
+	/**
+	 * <p>
+	 * Allows to stop the {@link RelayProxy}, writing its upstream proxy back
+	 * in Eclipse: the configuration keeps working once the relay is gone,
+	 * including after a restart or in a headless run which doesn't start the
+	 * relay
+	 * </p>
+	 * <p>
+	 * The relay is started again with the plug-in, see {@link #restartRelay()}
+	 * </p>
+	 * 
+	 * @since 1.2
+	 */
+	public static void stopRelay() {
+		synchronized (WRITE_LOCK) {
+			final EProxy upstream = RelayProxy.getDefault().getUpstream();
+			if (upstream != null) {
+				lastApplied = null;
+				try {
+					write(new ProxyTransaction(getProxyService())
+							.define(upstream));
+				} catch (final CoreException e) {
+					Activator.sendErrorToErrorLog(
+							"Error while trying to restore the proxy behind the relay...",
+							e);
+				}
+			}
+			RelayProxy.shutdown();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Allows to start the {@link RelayProxy} again if it was running when the
+	 * plug-in stopped, which is called when the plug-in starts
+	 * </p>
+	 * <p>
+	 * The active profile is applied again in the background, provided that
+	 * Eclipse still uses its proxy (or a relay which is gone, if Eclipse
+	 * didn't stop properly): the configuration may have been changed while
+	 * the plug-in wasn't running.
+	 * </p>
+	 * 
+	 * @since 1.2
+	 */
+	public static void restartRelay() {
+		if (!getPreferences().getBoolean(RelayProxy.RESTART_PREFERENCE, false))
+			return;
+		final Job job = new Job("Restarting the proxy relay") {
+			@Override
+			protected IStatus run(final IProgressMonitor monitor) {
+				final ProfileStore store = ProfileStore.getDefault();
+				final String reference = store.getActiveProfile();
+				final EProxy profile = reference != null ? store
+						.getProfile(reference) : null;
+				if (profile != null && isStillUsed(profile))
+					defineProxyAsync(profile);
+				else
+					setRelayRestarted(false);
+				return Status.OK_STATUS;
+			}
+		};
+		job.setSystem(true);
+		job.schedule();
+	}
+
+	/**
+	 * <p>
+	 * Allows to load the PAC script of the active profile again when the
+	 * plug-in starts, since the {@link PacProxyResolver} only keeps it in
+	 * memory
+	 * </p>
+	 * <p>
+	 * Nothing is done if the relay is started again, which applies the whole
+	 * profile, or if Eclipse doesn't use the proxy of the profile anymore.
+	 * </p>
+	 * 
+	 * @since 1.2
+	 */
+	public static void restorePacScript() {
+		if (getPreferences().getBoolean(RelayProxy.RESTART_PREFERENCE, false))
+			return;
+		final Job job = new Job("Loading the PAC script") {
+			@Override
+			protected IStatus run(final IProgressMonitor monitor) {
+				final ProfileStore store = ProfileStore.getDefault();
+				final String reference = store.getActiveProfile();
+				final EProxy profile = reference != null ? store
+						.getProfile(reference) : null;
+				if (profile != null && profile.getPacLocation() != null
+						&& isStillUsed(profile))
+					updatePacScript(profile.getPacLocation());
+				return Status.OK_STATUS;
+			}
+		};
+		job.setSystem(true);
+		job.schedule();
+	}
+
+	/**
+	 * @return true if Eclipse still uses the proxy of the profile, or a relay
+	 *         in front of it
+	 */
+	private static boolean isStillUsed(final EProxy profile) {
+		final EProxy current = getProxyInformation();
+		return current.getHost() != null
+				&& (current.getHost().equals(RelayProxy.LOCAL_HOST) || (current
+						.getHost().equals(profile.getHost()) && current
+						.getPort() == profile.getPort()));
+	}
+
+	/**
+	 * Allows to remember if the {@link RelayProxy} has to be started again
+	 * with the plug-in
+	 */
+	private static void setRelayRestarted(final boolean restarted) {
+		final IEclipsePreferences preferences = getPreferences();
+		if (preferences.getBoolean(RelayProxy.RESTART_PREFERENCE, false) == restarted)
+			return;
+		preferences.putBoolean(RelayProxy.RESTART_PREFERENCE, restarted);
+		try {
+			preferences.flush();
+		} catch (final BackingStoreException e) {
+			Activator.sendErrorToErrorLog(
+					"Error while trying to save the preferences...", e);
+		}
+	}
+
+	private static IEclipsePreferences getPreferences() {
+		return InstanceScope.INSTANCE.getNode(Activator.PLUGIN_ID);
+	}
+
+	/**
+	 * Loads the PAC script of the applied {@link EProxy} in the
+	 * {@link PacProxyResolver}, or stops using PAC if there is none. Failing to
+	 * load the script doesn't prevent the rest of the configuration from being
+	 * applied.
+	 * 
+	 * @param pacLocation
+	 *            the location of the PAC script, or null
+	 */
+	private static void updatePacScript(final String pacLocation) {
+		try {
+			if (pacLocation != null && pacLocation.trim().length() > 0)
+				PacProxyResolver.getDefault().load(pacLocation.trim());
+			else
+				PacProxyResolver.getDefault().setScript(null);
+		} catch (final IOException e) {
+			Activator.sendErrorToErrorLog(
+					"Error while trying to read the PAC script...", e);
+		} catch (final ScriptException e) {
+			Activator.sendErrorToErrorLog(
+					"Error while trying to compile the PAC script...", e);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Allows to import the hosts to bypass listed in a text file into the
+	 * Eclipse nonProxyHosts list
+	 * </p>
+	 * <p>
+	 * The file is streamed using a {@link NonProxyHostImporter}, its entries
+	 * are merged with the current list, and entries covered by a broader one
+	 * are removed before the list is written, so the list Eclipse scans for
+	 * each connection only gets the useful entries
+	 * </p>
+	 * 
+	 * @param file
+	 *            a text file, with one host to bypass per line
+	 * @return the {@link NonProxyHostImporter} which has been used, to get the
+	 *         details about the import
+	 * @throws IOException
+	 *             if the file can't be read
+	 * @throws CoreException
+	 *             if the list can't be written in Eclipse
+	 * @since 1.2
+	 */
+	public static NonProxyHostImporter importNonProxyHosts(final File file)
+			throws IOException, CoreException {
+		final IProxyService proxyService = getProxyService();
+		synchronized (WRITE_LOCK) {
+			final NonProxyHostImporter importer = new NonProxyHostImporter(
+					proxyService.getNonProxiedHosts()).read(file).finish();
+			final String[] hosts = importer.getHosts();
+			if (!Arrays.equals(hosts, proxyService.getNonProxiedHosts()))
+				writeNonProxyHosts(proxyService, hosts);
+			return importer;
+		}
+	}
+
+	/**
+	 * <p>
+	 * Allows to add hosts learned to be reachable directly (see
+	 * {@link RouteCache#getDirectHosts()}) to the hosts to bypass
+	 * </p>
+	 * <p>
+	 * The hosts are added to the active profile, which is saved in the
+	 * {@link ProfileStore} and applied again. If no profile is active, they're
+	 * only added to the Eclipse nonProxyHosts. Entries covered by a broader
+	 * one are removed, as when importing a file.
+	 * </p>
+	 * 
+	 * @param hosts
+	 *            the hosts to bypass
+	 * @return the new nonProxyHosts
+	 * @throws CoreException
+	 *             if the configuration can't be written in Eclipse
+	 * @since 1.2
+	 */
+	public static String[] promoteDirectHosts(final Collection<String> hosts)
+			throws CoreException {
+		final ProfileStore store = ProfileStore.getDefault();
+		final IProxyService proxyService = getProxyService();
+		synchronized (WRITE_LOCK) {
+			final String reference = store.getActiveProfile();
+			final EProxy profile = reference != null ? store
+					.getProfile(reference) : null;
+			final String[] current = profile != null ? profile
+					.getNonProxyHosts() : proxyService.getNonProxiedHosts();
+			final List<String> merged = new ArrayList<String>(
+					Arrays.asList(current));
+			merged.addAll(hosts);
+			final String[] promoted = NonProxyHostImporter
+					.compact(NonProxyHostParser.parse(join(merged)).getHosts());
+			if (profile != null) {
+				profile.setNonProxyHosts(promoted);
+				store.save(profile);
+				commitLocked(profile, false);
+			} else if (!Arrays.equals(promoted, current))
+				writeNonProxyHosts(proxyService, promoted);
+			return promoted;
+		}
+	}
+
+	/**
+	 * Writes the nonProxyHosts alone, the caller holding the
+	 * {@link #WRITE_LOCK}
+	 */
+	private static void writeNonProxyHosts(final IProxyService proxyService,
+			final String[] hosts) throws CoreException {
+		ProxyChangeRecorder.setOwnWrite(true);
+		try {
+			proxyService.setNonProxiedHosts(hosts);
+		} finally {
+			ProxyChangeRecorder.setOwnWrite(false);
+			ProxyResolutionCache.invalidate();
+		}
+	}
+
+	private static String join(final List<String> hosts) {
+		final StringBuilder builder = new StringBuilder();
+		for (final String host : hosts)
+			builder.append(host).append('\n');
+		return builder.toString();
+	}
+
+	/**
+	 * <p>
+	 * Allows to get the Eclipse proxy configuration in an {@link EProxy}
 	 * container
+	 * </p>
+	 * <p>
+	 * The proxy entries are read in a single pass: the HTTP entry gives the
+	 * host, port and credentials, the HTTPS entry is kept apart only if it
+	 * differs from the HTTP one, and the SOCKS entry is kept if it's defined
+	 * </p>
+	 * <p>
+	 * If Eclipse uses the {@link RelayProxy}, the proxy it relays to and its
+	 * relay settings are reported instead of the local address
+	 * </p>
 	 * 
 	 * @return an {@link EProxy} container which contains all the actual Eclipse
-	 *         configuration for the HTTP proxy
+	 *         configuration for the HTTP, HTTPS and SOCKS proxies
 	 */
 	public static EProxy getProxyInformation() {
+		final long start = System.nanoTime();
 		final EProxy proxy = new EProxy();
 		proxy.setReference("HTTP-" + System.currentTimeMillis());
 		final IProxyService proxyService = getProxyService();
 		final IProxyData[] proxyData = proxyService.getProxyData();
+		final EProxy upstream = RelayProxy.getDefault().getUpstream();
+		IProxyData https = null;
 		for (final IProxyData data : proxyData)
 			if (IProxyData.HTTP_PROXY_TYPE.equals(data.getType())) {
 				proxy.setHost(data.getHost());
@@ -150,9 +668,111 @@ public class ProxyHelper {
 				proxy.setAuthenticationRequired(data.isRequiresAuthentication());
 				proxy.setUser(data.getUserId());
 				proxy.setPassword(data.getPassword());
+			} else if (IProxyData.HTTPS_PROXY_TYPE.equals(data.getType()))
+				https = data;
+			else if (IProxyData.SOCKS_PROXY_TYPE.equals(data.getType())
+					&& data.getHost() != null) {
+				proxy.setSocksHost(data.getHost());
+				proxy.setSocksPort(data.getPort());
 			}
+		if (https != null && https.getHost() != null
+				&& (https.getPort() != proxy.getPort() || !https.getHost()
+						.equals(proxy.getHost()))) {
+			proxy.setHttpsHost(https.getHost());
+			proxy.setHttpsPort(https.getPort());
+		}
+		// The relay isn't the proxy to report, but the one it relays to
+		if (upstream != null && isRelay(proxy.getHost(), proxy.getPort()))
+			proxy.setHost(upstream.getHost()).setPort(upstream.getPort())
+					.setAuthenticationRequired(
+							upstream.isAuthenticationRequired())
+					.setUser(upstream.getUser())
+					.setPassword(upstream.getPassword())
+					.setRelayEnabled(upstream.isRelayEnabled())
+					.setCacheEnabled(upstream.isCacheEnabled())
+					.setCachedHosts(upstream.getCachedHosts())
+					.setDirectRacingEnabled(upstream.isDirectRacingEnabled());
 		proxy.setNonProxyHosts(proxyService.getNonProxiedHosts());
+		ProxyMetrics.getDefault().record(Operation.GET_PROXY_INFORMATION,
+				start);
 		return proxy;
 	}
 
+	private static boolean isRelay(final String host, final int port) {
+		return RelayProxy.LOCAL_HOST.equals(host)
+				&& port == RelayProxy.getDefault().getPort();
+	}
+
+	/**
+	 * <p>
+	 * Allows to know if the proxy should be bypassed for the provided host,
+	 * according to the nonProxyHosts defined in Eclipse
+	 * </p>
+	 * <p>
+	 * The nonProxyHosts list is compiled once in a {@link NonProxyHostMatcher},
+	 * so each call only costs the length of the host name. It's compiled again
+	 * only when the proxy configuration changes.
+	 * </p>
+	 * 
+	 * @param host
+	 *            the host name or address to check
+	 * @return true if the host matches one of the nonProxyHosts
+	 * @since 1.2
+	 */
+	public static boolean shouldBypass(final String host) {
+		return ProxyResolutionCache.getDefault().shouldBypass(host);
+	}
+
+	/**
+	 * <p>
+	 * Allows to know which proxy should be used in order to reach the provided
+	 * {@link URI}, taking the nonProxyHosts and the PAC script (if any) into
+	 * account
+	 * </p>
+	 * <p>
+	 * Results are kept in the {@link ProxyResolutionCache}, which is dropped
+	 * each time the proxy configuration changes
+	 * </p>
+	 * 
+	 * @param uri
+	 *            the destination
+	 * @return the {@link IProxyData} to use, which must not be modified, or
+	 *         null if the connection should be direct
+	 * @since 1.2
+	 */
+	public static IProxyData resolve(final URI uri) {
+		return ProxyResolutionCache.getDefault().resolve(uri);
+	}
+
+	/**
+	 * A written configuration, and the amount of changes recorded by the
+	 * {@link ProxyChangeRecorder} right after it has been written
+	 */
+	private static final class Applied {
+
+		private final EProxySnapshot snapshot;
+
+		private final long changes;
+
+		private Applied(final EProxySnapshot snapshot, final long changes) {
+			this.snapshot = snapshot;
+			this.changes = changes;
+		}
+
+		/**
+		 * @return true if the provided configuration is this one, nothing has
+		 *         changed the Eclipse configuration since, and the relay it
+		 *         relies on (if any) is still running
+		 */
+		private boolean isStill(final EProxySnapshot other) {
+			return other != null
+					&& snapshot.equals(other)
+					&& ProxyChangeRecorder.getDefault().getTotal() == changes
+					&& (!(snapshot.isRelayEnabled()
+							|| snapshot.isCacheEnabled() || snapshot
+								.isDirectRacingEnabled()) || RelayProxy
+							.getDefault().isRunning());
+		}
+	}
+
 }
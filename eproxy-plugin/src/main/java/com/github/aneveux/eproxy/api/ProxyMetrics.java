@@ -0,0 +1,275 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * <p>
+ * This class records how often the {@link ProxyHelper} operations are called,
+ * how long they take and how often they fail
+ * </p>
+ * <p>
+ * Recording a call only costs two {@link System#nanoTime()} calls and a few
+ * atomic increments, there is no lock on the path of the operations. Latencies
+ * are counted in a fixed histogram whose buckets are powers of ten, from 10
+ * microseconds to 1 second.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ * @see ProxyMetricsMBean
+ */
+public final class ProxyMetrics implements ProxyMetricsMBean {
+
+	/**
+	 * The instrumented operations
+	 */
+	public enum Operation {
+		DEFINE_PROXY, CLEAR_PROXY, GET_PROXY_INFORMATION, GET_PROXY_SERVICE
+	}
+
+	/**
+	 * Upper bounds of the histogram buckets, in nanoseconds
+	 */
+	private static final long[] BOUNDS = { 10000L, 100000L, 1000000L,
+			10000000L, 100000000L, 1000000000L };
+
+	/**
+	 * The shared instance, created eagerly so that getting it never locks
+	 */
+	private static final ProxyMetrics INSTANCE = new ProxyMetrics();
+
+	private final Counters[] counters;
+
+	private final AtomicReference<CoreException> lastError = new AtomicReference<CoreException>();
+
+	private final AtomicLong lastErrorTime = new AtomicLong();
+
+	/**
+	 * @return the shared instance
+	 */
+	public static ProxyMetrics getDefault() {
+		return INSTANCE;
+	}
+
+	private ProxyMetrics() {
+		final Operation[] operations = Operation.values();
+		counters = new Counters[operations.length];
+		for (int i = 0; i < operations.length; i++)
+			counters[i] = new Counters();
+	}
+
+	/**
+	 * Allows to record a successful call
+	 * 
+	 * @param operation
+	 *            the operation which has been called
+	 * @param start
+	 *            the value of {@link System#nanoTime()} when the call started
+	 */
+	public void record(final Operation operation, final long start) {
+		counters[operation.ordinal()].record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Allows to record a failed call
+	 * 
+	 * @param operation
+	 *            the operation which has been called
+	 * @param start
+	 *            the value of {@link System#nanoTime()} when the call started
+	 * @param error
+	 *            the {@link CoreException} which occurred, or null
+	 */
+	public void failure(final Operation operation, final long start,
+			final CoreException error) {
+		final Counters operationCounters = counters[operation.ordinal()];
+		operationCounters.record(System.nanoTime() - start);
+		operationCounters.failures.incrementAndGet();
+		if (error != null) {
+			lastError.set(error);
+			lastErrorTime.set(System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * @param operation
+	 *            the operation
+	 * @return the amount of calls of the operation
+	 */
+	public long getCount(final Operation operation) {
+		return counters[operation.ordinal()].count.get();
+	}
+
+	/**
+	 * @return the last {@link CoreException} recorded, or null
+	 */
+	public CoreException getLastException() {
+		return lastError.get();
+	}
+
+	@Override
+	public String[] getOperations() {
+		final Operation[] operations = Operation.values();
+		final String[] names = new String[operations.length];
+		for (int i = 0; i < operations.length; i++)
+			names[i] = operations[i].name();
+		return names;
+	}
+
+	@Override
+	public long[] getHistogramBounds() {
+		final long[] bounds = new long[BOUNDS.length];
+		for (int i = 0; i < bounds.length; i++)
+			bounds[i] = BOUNDS[i] / 1000;
+		return bounds;
+	}
+
+	@Override
+	public long getCount(final String operation) {
+		return counters(operation).count.get();
+	}
+
+	@Override
+	public long getFailures(final String operation) {
+		return counters(operation).failures.get();
+	}
+
+	@Override
+	public double getAverageLatency(final String operation) {
+		final Counters operationCounters = counters(operation);
+		final long count = operationCounters.count.get();
+		return count == 0 ? 0 : operationCounters.totalNanos.get() / 1000d
+				/ count;
+	}
+
+	@Override
+	public long getMaxLatency(final String operation) {
+		return counters(operation).maxNanos.get() / 1000;
+	}
+
+	@Override
+	public long[] getLatencyHistogram(final String operation) {
+		final AtomicLongArray histogram = counters(operation).histogram;
+		final long[] values = new long[histogram.length()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = histogram.get(i);
+		return values;
+	}
+
+	@Override
+	public String getLastError() {
+		final CoreException error = lastError.get();
+		if (error == null)
+			return null;
+		return error.getStatus() != null ? error.getStatus().getMessage()
+				: String.valueOf(error.getMessage());
+	}
+
+	@Override
+	public long getLastErrorTime() {
+		return lastErrorTime.get();
+	}
+
+	@Override
+	public double getResponseCacheHitRatio() {
+		final ResponseCache cache = RelayProxy.getDefault().getResponseCache();
+		return cache != null ? cache.getHitRatio() : 0;
+	}
+
+	@Override
+	public void reset() {
+		for (final Counters operationCounters : counters)
+			operationCounters.reset();
+		lastError.set(null);
+		lastErrorTime.set(0);
+	}
+
+	private Counters counters(final String operation) {
+		try {
+			return counters[Operation.valueOf(operation).ordinal()];
+		} catch (final IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown operation "
+					+ operation + ", expected one of "
+					+ Arrays.toString(getOperations()));
+		}
+	}
+
+	/**
+	 * Counters of one operation
+	 */
+	private static final class Counters {
+
+		final AtomicLong count = new AtomicLong();
+
+		final AtomicLong failures = new AtomicLong();
+
+		final AtomicLong totalNanos = new AtomicLong();
+
+		final AtomicLong maxNanos = new AtomicLong();
+
+		final AtomicLongArray histogram = new AtomicLongArray(
+				BOUNDS.length + 1);
+
+		void record(final long nanos) {
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			int bucket = 0;
+			while (bucket < BOUNDS.length && nanos >= BOUNDS[bucket])
+				bucket++;
+			histogram.incrementAndGet(bucket);
+			long max = maxNanos.get();
+			while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+				max = maxNanos.get();
+		}
+
+		void reset() {
+			count.set(0);
+			failures.set(0);
+			totalNanos.set(0);
+			maxNanos.set(0);
+			for (int i = 0; i < histogram.length(); i++)
+				histogram.set(i, 0);
+		}
+	}
+}
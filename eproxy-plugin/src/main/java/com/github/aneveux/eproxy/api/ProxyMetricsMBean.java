@@ -0,0 +1,130 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+/**
+ * <p>
+ * Management interface of the {@link ProxyMetrics}, exposed as a JMX MBean
+ * named {@link #OBJECT_NAME} and as an OSGi service while the plug-in is
+ * active
+ * </p>
+ * <p>
+ * Operations are identified by their name, see {@link #getOperations()}.
+ * Latencies are given in microseconds.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public interface ProxyMetricsMBean {
+
+	/**
+	 * Name under which the metrics are registered in the platform MBean server
+	 */
+	String OBJECT_NAME = "com.github.aneveux.eproxy:type=ProxyMetrics";
+
+	/**
+	 * @return the names of the instrumented operations
+	 */
+	String[] getOperations();
+
+	/**
+	 * @return the upper bounds of the histogram buckets, in microseconds, the
+	 *         last bucket having no upper bound
+	 */
+	long[] getHistogramBounds();
+
+	/**
+	 * @param operation
+	 *            the name of the operation
+	 * @return the amount of calls of the operation
+	 */
+	long getCount(String operation);
+
+	/**
+	 * @param operation
+	 *            the name of the operation
+	 * @return the amount of calls of the operation which failed
+	 */
+	long getFailures(String operation);
+
+	/**
+	 * @param operation
+	 *            the name of the operation
+	 * @return the average latency of the operation, in microseconds
+	 */
+	double getAverageLatency(String operation);
+
+	/**
+	 * @param operation
+	 *            the name of the operation
+	 * @return the highest latency of the operation, in microseconds
+	 */
+	long getMaxLatency(String operation);
+
+	/**
+	 * @param operation
+	 *            the name of the operation
+	 * @return the amount of calls in each bucket of
+	 *         {@link #getHistogramBounds()}
+	 */
+	long[] getLatencyHistogram(String operation);
+
+	/**
+	 * @return a description of the last CoreException, or null if there was
+	 *         none
+	 */
+	String getLastError();
+
+	/**
+	 * @return the time of the last CoreException, in milliseconds since the
+	 *         epoch, or 0
+	 */
+	long getLastErrorTime();
+
+	/**
+	 * @return the part of the cacheable requests served by the
+	 *         {@link ResponseCache} of the local relay, between 0 and 1, or 0
+	 *         if responses aren't cached
+	 */
+	double getResponseCacheHitRatio();
+
+	/**
+	 * Allows to reset all the metrics
+	 */
+	void reset();
+}
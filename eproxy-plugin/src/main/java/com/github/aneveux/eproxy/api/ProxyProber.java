@@ -0,0 +1,454 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.github.aneveux.eproxy.data.EProxy;
+
+/**
+ * <p>
+ * This class allows to check which candidate proxies are reachable, and how
+ * fast
+ * </p>
+ * <p>
+ * A non-blocking TCP connection is opened to the host and port of each
+ * {@link EProxy} at the same time, and all of them are handled by a single
+ * {@link Selector}, so probing several proxies costs the time of the slowest
+ * one (bounded by the timeout) and a single thread. Connections are closed as
+ * soon as they're established, nothing is sent to the proxies.
+ * </p>
+ * <p>
+ * Host names are resolved in parallel, each one in a thread of its own, and
+ * their resolution counts against the same timeout: a host whose name isn't
+ * resolved in time is reported as timed out, like a host not answering.
+ * </p>
+ * <p>
+ * Example:
+ * 
+ * <pre>
+ * List&lt;ProxyProber.Result&gt; ranking = new ProxyProber(500).probe(candidates);
+ * </pre>
+ * 
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class ProxyProber {
+
+	/**
+	 * Default timeout, in milliseconds
+	 */
+	public static final long DEFAULT_TIMEOUT = 1000;
+
+	/**
+	 * Timeout of the whole probe, in milliseconds
+	 */
+	private final long timeout;
+
+	/**
+	 * Resolves the host names of the candidates
+	 */
+	private final Resolver resolver;
+
+	/**
+	 * Resolves host names without blocking the probe. A lookup can't be
+	 * interrupted, so the threads are daemons left to finish on their own if
+	 * the probe times out before them.
+	 */
+	private static final ExecutorService RESOLVERS = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable,
+							"eProxy prober resolver");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * Resolves the host name of a candidate
+	 */
+	interface Resolver {
+
+		/**
+		 * @param host
+		 *            the host name or address to resolve
+		 * @return the address of the host
+		 * @throws UnknownHostException
+		 *             if the host can't be resolved
+		 */
+		InetAddress resolve(String host) throws UnknownHostException;
+	}
+
+	/**
+	 * Resolves host names with {@link InetAddress#getByName(String)}
+	 */
+	static final Resolver DNS = new Resolver() {
+		@Override
+		public InetAddress resolve(final String host)
+				throws UnknownHostException {
+			return InetAddress.getByName(host);
+		}
+	};
+
+	/**
+	 * Creates a prober using the {@link #DEFAULT_TIMEOUT}
+	 */
+	public ProxyProber() {
+		this(DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Creates a prober using the provided timeout
+	 * 
+	 * @param timeout
+	 *            the timeout of the whole probe, in milliseconds
+	 */
+	public ProxyProber(final long timeout) {
+		this(timeout, DNS);
+	}
+
+	/**
+	 * Creates a prober using the provided timeout and {@link Resolver}
+	 */
+	ProxyProber(final long timeout, final Resolver resolver) {
+		this.timeout = timeout;
+		this.resolver = resolver;
+	}
+
+	/**
+	 * Allows to probe the provided proxies
+	 * 
+	 * @param candidates
+	 *            the {@link EProxy} to probe
+	 * @return the {@link Result} of each candidate, reachable proxies first
+	 *         from the fastest to the slowest, then unreachable ones in their
+	 *         original order
+	 * @throws IOException
+	 *             if the {@link Selector} can't be opened
+	 */
+	public List<Result> probe(final List<EProxy> candidates)
+			throws IOException {
+		final long deadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(timeout);
+		final List<Result> results = new ArrayList<Result>(candidates.size());
+		final Selector selector = Selector.open();
+		final Resolutions resolutions = new Resolutions(selector);
+		try {
+			// Candidates being resolved or connected: cancelled keys stay in
+			// selector.keys() until the next select, so they're counted
+			// instead
+			int pending = 0;
+			for (final EProxy candidate : candidates) {
+				final Result result = new Result(candidate);
+				results.add(result);
+				if (resolve(result, resolutions))
+					pending++;
+			}
+			while (pending > 0) {
+				final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline
+						- System.nanoTime());
+				if (remaining <= 0)
+					break;
+				selector.select(remaining);
+				Resolution resolution;
+				while ((resolution = resolutions.poll()) != null) {
+					if (resolution.address == null) {
+						resolution.result.error = "Unknown host";
+						pending--;
+					} else if (!connect(selector, resolution.result,
+							resolution.address))
+						pending--;
+				}
+				final Iterator<SelectionKey> keys = selector.selectedKeys()
+						.iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					if (finishConnect(key))
+						pending--;
+				}
+			}
+			for (final SelectionKey key : selector.keys())
+				close(key.channel());
+			for (final Result result : results)
+				if (!result.isReachable() && result.error == null)
+					result.error = "Timed out";
+		} finally {
+			resolutions.close();
+			selector.close();
+		}
+		final List<Result> ranking = new ArrayList<Result>(results);
+		Collections.sort(ranking, new Comparator<Result>() {
+			@Override
+			public int compare(final Result r1, final Result r2) {
+				if (r1.isReachable() != r2.isReachable())
+					return r1.isReachable() ? -1 : 1;
+				if (!r1.isReachable())
+					return 0;
+				return r1.latency < r2.latency ? -1
+						: r1.latency == r2.latency ? 0 : 1;
+			}
+		});
+		return ranking;
+	}
+
+	/**
+	 * Starts the resolution of the host name of the candidate in a
+	 * {@link #RESOLVERS} thread
+	 * 
+	 * @return true if the resolution is in progress, false if the candidate
+	 *         is invalid
+	 */
+	private boolean resolve(final Result result,
+			final Resolutions resolutions) {
+		final String host = result.getProxy().getHost();
+		try {
+			// Checks the host and port without any lookup
+			InetSocketAddress.createUnresolved(host, result.getProxy()
+					.getPort());
+		} catch (final IllegalArgumentException e) {
+			result.error = e.getMessage();
+			return false;
+		}
+		RESOLVERS.execute(new Runnable() {
+			@Override
+			public void run() {
+				InetAddress address = null;
+				try {
+					address = resolver.resolve(host);
+				} catch (final UnknownHostException e) {
+					// Reported as an unknown host by the probe
+				}
+				resolutions.offer(new Resolution(result, address));
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Starts a non-blocking connection to the candidate
+	 * 
+	 * @return true if the connection is in progress, false if the candidate
+	 *         is already resolved
+	 */
+	private static boolean connect(final Selector selector,
+			final Result result, final InetAddress host) {
+		SocketChannel channel = null;
+		try {
+			final InetSocketAddress address = new InetSocketAddress(host,
+					result.getProxy().getPort());
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			result.start = System.nanoTime();
+			if (channel.connect(address)) {
+				result.latency = System.nanoTime() - result.start;
+				close(channel);
+				return false;
+			}
+			channel.register(selector, SelectionKey.OP_CONNECT, result);
+			return true;
+		} catch (final IOException e) {
+			result.error = e.getMessage() != null ? e.getMessage() : e
+					.getClass().getSimpleName();
+			close(channel);
+		} catch (final IllegalArgumentException e) {
+			result.error = e.getMessage();
+		}
+		return false;
+	}
+
+	/**
+	 * Completes a connection once the {@link Selector} reports it
+	 * 
+	 * @return true if the candidate is resolved, reachable or not
+	 */
+	private static boolean finishConnect(final SelectionKey key) {
+		final Result result = (Result) key.attachment();
+		final SocketChannel channel = (SocketChannel) key.channel();
+		try {
+			if (channel.finishConnect())
+				result.latency = System.nanoTime() - result.start;
+			else
+				return false;
+		} catch (final IOException e) {
+			result.error = e.getMessage() != null ? e.getMessage() : e
+					.getClass().getSimpleName();
+		}
+		key.cancel();
+		close(channel);
+		return true;
+	}
+
+	private static void close(final Channel channel) {
+		if (channel != null)
+			try {
+				channel.close();
+			} catch (final IOException e) {
+				// Nothing to do, the probe is over anyway
+			}
+	}
+
+	/**
+	 * The outcome of the resolution of the host name of a candidate
+	 */
+	private static final class Resolution {
+
+		private final Result result;
+
+		/**
+		 * The address of the host, or null if it's unknown
+		 */
+		private final InetAddress address;
+
+		private Resolution(final Result result, final InetAddress address) {
+			this.result = result;
+			this.address = address;
+		}
+	}
+
+	/**
+	 * Hands the {@link Resolution}s over from the {@link #RESOLVERS} threads
+	 * to the thread of the probe, waking its {@link Selector} up. Once the
+	 * probe is over, late resolutions are dropped.
+	 */
+	private static final class Resolutions {
+
+		private final Selector selector;
+
+		private final Queue<Resolution> queue = new LinkedList<Resolution>();
+
+		private boolean closed;
+
+		private Resolutions(final Selector selector) {
+			this.selector = selector;
+		}
+
+		private synchronized void offer(final Resolution resolution) {
+			if (closed)
+				return;
+			queue.add(resolution);
+			selector.wakeup();
+		}
+
+		private synchronized Resolution poll() {
+			return queue.poll();
+		}
+
+		private synchronized void close() {
+			closed = true;
+		}
+	}
+
+	/**
+	 * The result of the probe of a candidate proxy
+	 */
+	public static final class Result {
+
+		private final EProxy proxy;
+
+		private long start;
+
+		/**
+		 * Connection latency in nanoseconds, -1 while not connected
+		 */
+		private long latency = -1;
+
+		private String error;
+
+		private Result(final EProxy proxy) {
+			this.proxy = proxy;
+		}
+
+		/**
+		 * @return the probed {@link EProxy}
+		 */
+		public EProxy getProxy() {
+			return proxy;
+		}
+
+		/**
+		 * @return true if a connection could be established before the timeout
+		 */
+		public boolean isReachable() {
+			return latency >= 0;
+		}
+
+		/**
+		 * @return the time needed to establish the connection, in
+		 *         microseconds, or -1 if the proxy isn't reachable
+		 */
+		public long getLatency() {
+			return latency >= 0 ? TimeUnit.NANOSECONDS.toMicros(latency) : -1;
+		}
+
+		/**
+		 * @return the reason why the proxy isn't reachable, or null
+		 */
+		public String getError() {
+			return isReachable() ? null : error;
+		}
+
+		@Override
+		public String toString() {
+			return proxy.getHost() + ":" + proxy.getPort() + " "
+					+ (isReachable() ? getLatency() + "us" : error);
+		}
+	}
+
+}
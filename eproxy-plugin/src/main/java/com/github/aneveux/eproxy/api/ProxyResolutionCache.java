@@ -0,0 +1,292 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.net.URI;
+
+import javax.script.ScriptException;
+
+import org.eclipse.core.net.proxy.IProxyChangeEvent;
+import org.eclipse.core.net.proxy.IProxyChangeListener;
+import org.eclipse.core.net.proxy.IProxyData;
+import org.eclipse.core.net.proxy.IProxyService;
+
+import com.github.aneveux.eproxy.Activator;
+
+/**
+ * <p>
+ * This cache remembers which proxy has to be used for each destination, so
+ * that resolving the proxy of an {@link URI} doesn't require to go through
+ * the {@link IProxyService} and the nonProxyHosts again and again
+ * </p>
+ * <p>
+ * Destinations are identified by their scheme, host and port, and kept in a
+ * bounded {@link LruCache}. The cache also holds the compiled
+ * {@link NonProxyHostMatcher}. It listens to the {@link IProxyService}, and
+ * everything is dropped as soon as the proxy configuration changes, whoever
+ * changed it. Results still being computed when the cache is dropped are
+ * returned to their callers but not kept.
+ * </p>
+ * <p>
+ * The {@link IProxyData} returned by the cache are shared between callers and
+ * must not be modified.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ * @see ProxyHelper#resolve(URI)
+ */
+public class ProxyResolutionCache implements IProxyChangeListener {
+
+	/**
+	 * Amount of destinations for which the proxy is kept
+	 */
+	public static final int CACHE_SIZE = 1024;
+
+	/**
+	 * Cached value meaning that no proxy should be used
+	 */
+	private static final Object DIRECT = new Object();
+
+	/**
+	 * The shared instance
+	 */
+	private static ProxyResolutionCache instance;
+
+	/**
+	 * The {@link IProxyService} this cache listens to
+	 */
+	private final IProxyService proxyService;
+
+	/**
+	 * The proxy of each destination, either an {@link IProxyData} or
+	 * {@link #DIRECT}
+	 */
+	private final LruCache<String, Object> cache = new LruCache<String, Object>(
+			CACHE_SIZE);
+
+	/**
+	 * Compiled version of the nonProxyHosts, lazily created
+	 */
+	private volatile NonProxyHostMatcher nonProxyHostMatcher;
+
+	/**
+	 * Incremented each time the cache is cleared, so that a result computed
+	 * from a configuration which changed meanwhile isn't kept
+	 */
+	private long generation;
+
+	/**
+	 * Creates a cache for the provided {@link IProxyService}, use
+	 * {@link #getDefault()} to get the shared instance
+	 * 
+	 * @param proxyService
+	 *            the {@link IProxyService} to use and listen to, or null if
+	 *            it isn't available, every connection being direct then
+	 */
+	protected ProxyResolutionCache(final IProxyService proxyService) {
+		this.proxyService = proxyService;
+	}
+
+	/**
+	 * @return the shared instance, listening to the Eclipse
+	 *         {@link IProxyService}
+	 */
+	public static synchronized ProxyResolutionCache getDefault() {
+		if (instance == null) {
+			instance = new ProxyResolutionCache(ProxyHelper.getProxyService());
+			if (instance.proxyService != null)
+				instance.proxyService.addProxyChangeListener(instance);
+		}
+		return instance;
+	}
+
+	/**
+	 * Stops listening to the {@link IProxyService} and drops the shared
+	 * instance if it has been created
+	 */
+	public static synchronized void shutdown() {
+		if (instance != null) {
+			if (instance.proxyService != null)
+				instance.proxyService.removeProxyChangeListener(instance);
+			instance = null;
+		}
+	}
+
+	/**
+	 * Drops the shared instance content if it has been created, without
+	 * creating it
+	 */
+	static synchronized void invalidate() {
+		if (instance != null)
+			instance.clear();
+	}
+
+	/**
+	 * Allows to know which proxy to use for the provided {@link URI}
+	 * 
+	 * @param uri
+	 *            the destination
+	 * @return the {@link IProxyData} to use, or null if the connection should
+	 *         be direct
+	 */
+	public IProxyData resolve(final URI uri) {
+		final String key = uri.getScheme() + "://" + uri.getHost() + ":"
+				+ uri.getPort();
+		Object proxy = cache.get(key);
+		if (proxy == null) {
+			final long computedFor = getGeneration();
+			proxy = lookup(uri);
+			synchronized (this) {
+				if (generation == computedFor)
+					cache.put(key, proxy);
+			}
+		}
+		return proxy != DIRECT ? (IProxyData) proxy : null;
+	}
+
+	/**
+	 * Allows to know if the proxy should be bypassed for the provided host
+	 * 
+	 * @param host
+	 *            the host name or address to check
+	 * @return true if the host matches one of the nonProxyHosts
+	 */
+	public boolean shouldBypass(final String host) {
+		NonProxyHostMatcher matcher = nonProxyHostMatcher;
+		if (matcher == null) {
+			final long computedFor = getGeneration();
+			matcher = NonProxyHostMatcher
+					.compile(proxyService != null ? proxyService
+							.getNonProxiedHosts() : new String[0]);
+			synchronized (this) {
+				if (generation == computedFor)
+					nonProxyHostMatcher = matcher;
+			}
+		}
+		return matcher.matches(host);
+	}
+
+	/**
+	 * Drops everything which has been cached
+	 */
+	public synchronized void clear() {
+		generation++;
+		nonProxyHostMatcher = null;
+		cache.clear();
+	}
+
+	private synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @see IProxyChangeListener#proxyInfoChanged(IProxyChangeEvent)
+	 */
+	@Override
+	public void proxyInfoChanged(final IProxyChangeEvent event) {
+		clear();
+	}
+
+	/**
+	 * @return the amount of resolutions served from the cache
+	 */
+	public long getHits() {
+		return cache.getHits();
+	}
+
+	/**
+	 * @return the amount of resolutions which had to be computed
+	 */
+	public long getMisses() {
+		return cache.getMisses();
+	}
+
+	/**
+	 * Resolves the proxy without the cache, using the PAC script if one is
+	 * active, the Eclipse configuration otherwise
+	 */
+	private Object lookup(final URI uri) {
+		// Without the Eclipse proxy service, there is no proxy to go through
+		if (proxyService == null || uri.getHost() == null
+				|| shouldBypass(uri.getHost()))
+			return DIRECT;
+		final PacProxyResolver pac = PacProxyResolver.getDefault();
+		if (pac.isActive())
+			try {
+				final String result = pac.findProxyForURL(uri);
+				return fromPac(uri, PacProxyResolver.firstProxyType(result),
+						PacProxyResolver.firstProxy(result));
+			} catch (final ScriptException e) {
+				Activator.sendWarningToErrorLog("PAC script failed for "
+						+ uri.getHost() + ": " + e.getMessage());
+			}
+		final IProxyData[] selected = proxyService.select(uri);
+		return selected != null && selected.length > 0 ? selected[0] : DIRECT;
+	}
+
+	/**
+	 * Builds the {@link IProxyData} matching a PAC result, on top of the
+	 * Eclipse entry of the same type: the SOCKS entry for SOCKS directives,
+	 * the entry of the scheme otherwise
+	 */
+	private Object fromPac(final URI uri, final String pacType,
+			final String hostAndPort) {
+		if (hostAndPort == null)
+			return DIRECT;
+		final String type;
+		if (IProxyData.SOCKS_PROXY_TYPE.equals(pacType))
+			type = IProxyData.SOCKS_PROXY_TYPE;
+		else
+			type = "https".equalsIgnoreCase(uri.getScheme()) ? IProxyData.HTTPS_PROXY_TYPE
+					: IProxyData.HTTP_PROXY_TYPE;
+		final IProxyData data = proxyService.getProxyData(type);
+		if (data == null)
+			return DIRECT;
+		final int colon = hostAndPort.lastIndexOf(':');
+		try {
+			data.setHost(colon > 0 ? hostAndPort.substring(0, colon)
+					: hostAndPort);
+			data.setPort(colon > 0 ? Integer.parseInt(hostAndPort
+					.substring(colon + 1)) : 80);
+		} catch (final NumberFormatException e) {
+			return DIRECT;
+		}
+		return data;
+	}
+
+}
@@ -0,0 +1,325 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.util.Arrays;
+
+import org.eclipse.core.net.proxy.IProxyData;
+import org.eclipse.core.net.proxy.IProxyService;
+
+import com.github.aneveux.eproxy.data.EProxy;
+
+/**
+ * <p>
+ * An immutable snapshot of the whole Eclipse proxy configuration: the proxy
+ * entries of each type, the nonProxyHosts, and the enablement flags of the
+ * {@link IProxyService}
+ * </p>
+ * <p>
+ * Snapshots are used by {@link ProxyTransaction} in order to compute the
+ * state to reach, detect what actually changes, and restore the previous
+ * configuration if something goes wrong
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public final class ProxyState {
+
+	/**
+	 * The proxy entries, one per proxy type
+	 */
+	private final Endpoint[] endpoints;
+
+	/**
+	 * The nonProxyHosts
+	 */
+	private final String[] nonProxiedHosts;
+
+	/**
+	 * @see IProxyService#isProxiesEnabled()
+	 */
+	private final boolean proxiesEnabled;
+
+	/**
+	 * @see IProxyService#isSystemProxiesEnabled()
+	 */
+	private final boolean systemProxiesEnabled;
+
+	/**
+	 * Private constructor, use {@link #capture(IProxyService)} instead
+	 */
+	private ProxyState(final Endpoint[] endpoints,
+			final String[] nonProxiedHosts, final boolean proxiesEnabled,
+			final boolean systemProxiesEnabled) {
+		this.endpoints = endpoints;
+		this.nonProxiedHosts = nonProxiedHosts != null ? nonProxiedHosts
+				: new String[0];
+		this.proxiesEnabled = proxiesEnabled;
+		this.systemProxiesEnabled = systemProxiesEnabled;
+	}
+
+	/**
+	 * Allows to take a snapshot of the current configuration of the provided
+	 * {@link IProxyService}
+	 * 
+	 * @param proxyService
+	 *            the {@link IProxyService} to read
+	 * @return the current {@link ProxyState}
+	 */
+	public static ProxyState capture(final IProxyService proxyService) {
+		final IProxyData[] proxyData = proxyService.getProxyData();
+		final Endpoint[] endpoints = new Endpoint[proxyData.length];
+		for (int i = 0; i < proxyData.length; i++)
+			endpoints[i] = new Endpoint(proxyData[i].getType(),
+					proxyData[i].getHost(), proxyData[i].getPort(),
+					proxyData[i].getUserId(), proxyData[i].getPassword());
+		return new ProxyState(endpoints, proxyService.getNonProxiedHosts(),
+				proxyService.isProxiesEnabled(),
+				proxyService.isSystemProxiesEnabled());
+	}
+
+	/**
+	 * Allows to compute the state obtained by defining the provided
+	 * {@link EProxy} on top of this one, following the rules of
+	 * {@link ProxyHelper#defineProxy(EProxy)}
+	 * 
+	 * @param proxy
+	 *            the {@link EProxy} to define
+	 * @return the resulting {@link ProxyState}
+	 */
+	public ProxyState define(final EProxy proxy) {
+		return define(proxy, null, null);
+	}
+
+	/**
+	 * Allows to compute the state obtained by defining the provided
+	 * {@link EProxy} on top of this one, Eclipse reaching it through the
+	 * {@link RelayProxy}: the entries pointing at the relay get its
+	 * credentials, the others keep the credentials of the {@link EProxy}
+	 * 
+	 * @param proxy
+	 *            the {@link EProxy} to define
+	 * @param relayUser
+	 *            the user for the entries pointing at the relay, or null if
+	 *            there is no relay
+	 * @param relayPassword
+	 *            the password for the entries pointing at the relay
+	 * @return the resulting {@link ProxyState}
+	 */
+	ProxyState define(final EProxy proxy, final String relayUser,
+			final String relayPassword) {
+		final Endpoint[] result = new Endpoint[endpoints.length];
+		for (int i = 0; i < endpoints.length; i++) {
+			final Endpoint current = endpoints[i];
+			final String host;
+			final int port;
+			if (IProxyData.HTTP_PROXY_TYPE.equals(current.type)) {
+				host = proxy.getHost();
+				port = proxy.getPort();
+			} else if (IProxyData.HTTPS_PROXY_TYPE.equals(current.type)) {
+				final boolean shared = proxy.getHttpsHost() == null;
+				host = shared ? proxy.getHost() : proxy.getHttpsHost();
+				port = shared ? proxy.getPort() : proxy.getHttpsPort();
+			} else if (IProxyData.SOCKS_PROXY_TYPE.equals(current.type)
+					&& proxy.getSocksHost() != null) {
+				host = proxy.getSocksHost();
+				port = proxy.getSocksPort();
+			} else {
+				result[i] = current;
+				continue;
+			}
+			String userId = current.userId;
+			String password = current.password;
+			if (relayUser != null && RelayProxy.LOCAL_HOST.equals(host)) {
+				userId = relayUser;
+				password = relayPassword;
+			} else if (proxy.isAuthenticationRequired() && proxy.getUser() != null
+					&& proxy.getPassword() != null) {
+				userId = proxy.getUser();
+				password = proxy.getPassword();
+			} else if (!proxy.isAuthenticationRequired()) {
+				userId = null;
+				password = null;
+			}
+			result[i] = new Endpoint(current.type, host, port, userId,
+					password);
+		}
+		final String[] hosts = proxy.getNonProxyHosts() != null
+				&& proxy.getNonProxyHosts().length > 0 ? proxy
+				.getNonProxyHosts().clone() : nonProxiedHosts;
+		return new ProxyState(result, hosts, true, false);
+	}
+
+	/**
+	 * Allows to compute the state obtained by clearing the proxy
+	 * configuration, following the rules of {@link ProxyHelper#clearProxy()}
+	 * 
+	 * @return the resulting {@link ProxyState}
+	 */
+	public ProxyState clear() {
+		final Endpoint[] result = new Endpoint[endpoints.length];
+		for (int i = 0; i < endpoints.length; i++)
+			result[i] = new Endpoint(endpoints[i].type, null, -1, null, null);
+		return new ProxyState(result, new String[0], false, true);
+	}
+
+	/**
+	 * Allows to know if the proxy entries differ between both states
+	 */
+	boolean hasSameEndpoints(final ProxyState other) {
+		return Arrays.equals(endpoints, other.endpoints);
+	}
+
+	/**
+	 * Allows to know if the nonProxyHosts differ between both states
+	 */
+	boolean hasSameNonProxiedHosts(final ProxyState other) {
+		return Arrays.equals(nonProxiedHosts, other.nonProxiedHosts);
+	}
+
+	/**
+	 * Copies the proxy entries of this state on the provided
+	 * {@link IProxyData}, which can then be given to
+	 * {@link IProxyService#setProxyData(IProxyData[])}
+	 * 
+	 * @param proxyData
+	 *            the {@link IProxyData} to update
+	 * @return the updated {@link IProxyData}
+	 */
+	IProxyData[] applyTo(final IProxyData[] proxyData) {
+		for (final IProxyData data : proxyData)
+			for (final Endpoint endpoint : endpoints)
+				if (endpoint.type.equals(data.getType())) {
+					data.disable();
+					data.setHost(endpoint.host);
+					data.setPort(endpoint.port);
+					data.setUserid(endpoint.userId);
+					data.setPassword(endpoint.password);
+				}
+		return proxyData;
+	}
+
+	/**
+	 * @return a copy of the nonProxyHosts of this state
+	 */
+	public String[] getNonProxiedHosts() {
+		return nonProxiedHosts.clone();
+	}
+
+	/**
+	 * @return true if proxies are enabled in this state
+	 */
+	public boolean isProxiesEnabled() {
+		return proxiesEnabled;
+	}
+
+	/**
+	 * @return true if system proxies are enabled in this state
+	 */
+	public boolean isSystemProxiesEnabled() {
+		return systemProxiesEnabled;
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof ProxyState))
+			return false;
+		final ProxyState other = (ProxyState) obj;
+		return proxiesEnabled == other.proxiesEnabled
+				&& systemProxiesEnabled == other.systemProxiesEnabled
+				&& hasSameEndpoints(other) && hasSameNonProxiedHosts(other);
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = Arrays.hashCode(endpoints);
+		hash = 31 * hash + Arrays.hashCode(nonProxiedHosts);
+		hash = 31 * hash + (proxiesEnabled ? 1 : 0);
+		return 31 * hash + (systemProxiesEnabled ? 1 : 0);
+	}
+
+	/**
+	 * The part of an {@link IProxyData} which is managed by eProxy
+	 */
+	private static final class Endpoint {
+
+		private final String type;
+
+		private final String host;
+
+		private final int port;
+
+		private final String userId;
+
+		private final String password;
+
+		private Endpoint(final String type, final String host,
+				final int port, final String userId, final String password) {
+			this.type = type;
+			this.host = host;
+			this.port = port;
+			this.userId = userId;
+			this.password = password;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Endpoint))
+				return false;
+			final Endpoint other = (Endpoint) obj;
+			return port == other.port && same(type, other.type)
+					&& same(host, other.host) && same(userId, other.userId)
+					&& same(password, other.password);
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = type != null ? type.hashCode() : 0;
+			hash = 31 * hash + (host != null ? host.hashCode() : 0);
+			hash = 31 * hash + port;
+			return 31 * hash + (userId != null ? userId.hashCode() : 0);
+		}
+
+		private static boolean same(final String a, final String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+
+}
@@ -0,0 +1,269 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import org.eclipse.core.net.proxy.IProxyService;
+import org.eclipse.core.runtime.CoreException;
+
+import com.github.aneveux.eproxy.data.EProxy;
+
+/**
+ * <p>
+ * This class allows to apply a new proxy configuration to an
+ * {@link IProxyService} as a single unit of work
+ * </p>
+ * <p>
+ * The current configuration is captured in a {@link ProxyState} when the
+ * transaction is created. On {@link #commit()}, only the parts of the
+ * configuration which actually change are written: each call to the
+ * {@link IProxyService} setters flushes the preferences and notifies all the
+ * proxy change listeners, so skipping useless calls avoids these flushes and
+ * notifications. If one of the writes fails, the captured configuration is
+ * restored so that Eclipse is never left half-configured.
+ * </p>
+ * <p>
+ * Example:
+ * 
+ * <pre>
+ * ProxyTransaction.Result result = new ProxyTransaction(proxyService).define(
+ * 		proxy).commit();
+ * </pre>
+ * 
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class ProxyTransaction {
+
+	/**
+	 * Amount of writes needed to apply a full configuration: proxy data,
+	 * nonProxyHosts, and both enablement flags
+	 */
+	private static final int FULL_WRITES = 4;
+
+	/**
+	 * The {@link IProxyService} to update
+	 */
+	private final IProxyService proxyService;
+
+	/**
+	 * The configuration before the transaction
+	 */
+	private final ProxyState snapshot;
+
+	/**
+	 * The configuration to reach
+	 */
+	private ProxyState target;
+
+	/**
+	 * Creates a new transaction on the provided {@link IProxyService},
+	 * capturing its current configuration
+	 * 
+	 * @param proxyService
+	 *            the {@link IProxyService} to update
+	 */
+	public ProxyTransaction(final IProxyService proxyService) {
+		this.proxyService = proxyService;
+		this.snapshot = ProxyState.capture(proxyService);
+		this.target = snapshot;
+	}
+
+	/**
+	 * Allows to define the provided {@link EProxy} during this transaction
+	 * 
+	 * @param proxy
+	 *            the {@link EProxy} to define
+	 * @return the current {@link ProxyTransaction}
+	 */
+	public ProxyTransaction define(final EProxy proxy) {
+		this.target = snapshot.define(proxy);
+		return this;
+	}
+
+	/**
+	 * Allows to define the provided {@link EProxy} during this transaction,
+	 * Eclipse reaching it through the {@link RelayProxy}. Only the entries
+	 * pointing at the relay get its credentials: a HTTPS or SOCKS proxy the
+	 * relay doesn't handle keeps the credentials of the {@link EProxy}.
+	 * 
+	 * @param proxy
+	 *            the {@link EProxy} to define, whose host is the relay
+	 * @param relayUser
+	 *            the user expected by the relay
+	 * @param relayPassword
+	 *            the password expected by the relay
+	 * @return the current {@link ProxyTransaction}
+	 */
+	public ProxyTransaction defineRelayed(final EProxy proxy,
+			final String relayUser, final String relayPassword) {
+		this.target = snapshot.define(proxy, relayUser, relayPassword);
+		return this;
+	}
+
+	/**
+	 * Allows to clear the proxy configuration during this transaction
+	 * 
+	 * @return the current {@link ProxyTransaction}
+	 */
+	public ProxyTransaction clear() {
+		this.target = snapshot.clear();
+		return this;
+	}
+
+	/**
+	 * @return the configuration captured when the transaction was created
+	 */
+	public ProxyState getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Allows to write the configuration to the {@link IProxyService}. Nothing
+	 * is written if the configuration doesn't change.
+	 * 
+	 * @return a {@link Result} describing what has been written
+	 * @throws CoreException
+	 *             if the configuration couldn't be written, in which case the
+	 *             previous configuration has been restored
+	 */
+	public Result commit() throws CoreException {
+		final boolean dataChanged = !target.hasSameEndpoints(snapshot);
+		final boolean hostsChanged = !target.hasSameNonProxiedHosts(snapshot);
+		final boolean systemChanged = target.isSystemProxiesEnabled() != snapshot
+				.isSystemProxiesEnabled();
+		final boolean enabledChanged = target.isProxiesEnabled() != snapshot
+				.isProxiesEnabled();
+		try {
+			if (dataChanged)
+				proxyService.setProxyData(target.applyTo(proxyService
+						.getProxyData()));
+			if (hostsChanged)
+				proxyService.setNonProxiedHosts(target.getNonProxiedHosts());
+		} catch (final CoreException e) {
+			rollback(dataChanged, hostsChanged);
+			throw e;
+		}
+		if (systemChanged)
+			proxyService.setSystemProxiesEnabled(target
+					.isSystemProxiesEnabled());
+		if (enabledChanged)
+			proxyService.setProxiesEnabled(target.isProxiesEnabled());
+		final int writes = (dataChanged ? 1 : 0) + (hostsChanged ? 1 : 0)
+				+ (systemChanged ? 1 : 0) + (enabledChanged ? 1 : 0);
+		return new Result(writes, FULL_WRITES - writes);
+	}
+
+	/**
+	 * @return the {@link Result} of a configuration which didn't need to be
+	 *         written at all
+	 */
+	static Result unchanged() {
+		return new Result(0, FULL_WRITES);
+	}
+
+	/**
+	 * Restores the configuration captured when the transaction was created.
+	 * Errors occurring during the rollback are ignored, as the original error
+	 * is the one to report.
+	 */
+	private void rollback(final boolean dataChanged, final boolean hostsChanged) {
+		try {
+			if (dataChanged)
+				proxyService.setProxyData(snapshot.applyTo(proxyService
+						.getProxyData()));
+			if (hostsChanged)
+				proxyService.setNonProxiedHosts(snapshot.getNonProxiedHosts());
+		} catch (final CoreException e) {
+			// The original error will be reported
+		}
+	}
+
+	/**
+	 * Describes what a {@link ProxyTransaction} has written
+	 */
+	public static final class Result {
+
+		/**
+		 * Amount of writes done on the {@link IProxyService}
+		 */
+		private final int writes;
+
+		/**
+		 * Amount of writes which have been skipped as they wouldn't have
+		 * changed anything
+		 */
+		private final int skippedWrites;
+
+		private Result(final int writes, final int skippedWrites) {
+			this.writes = writes;
+			this.skippedWrites = skippedWrites;
+		}
+
+		/**
+		 * @return true if the configuration was already the expected one
+		 */
+		public boolean isNoOp() {
+			return writes == 0;
+		}
+
+		/**
+		 * @return the amount of writes done on the {@link IProxyService}
+		 */
+		public int getWrites() {
+			return writes;
+		}
+
+		/**
+		 * Each skipped write saves a preference flush and a notification of
+		 * all the proxy change listeners
+		 * 
+		 * @return the amount of listener notifications saved
+		 */
+		public int getSavedNotifications() {
+			return skippedWrites;
+		}
+
+		@Override
+		public String toString() {
+			return "ProxyTransaction.Result[writes=" + writes
+					+ ", savedNotifications=" + skippedWrites + "]";
+		}
+	}
+
+}
@@ -0,0 +1,884 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * <p>
+ * A connection of an Eclipse transport to the {@link RelayProxy}, and the
+ * exchange it's going through
+ * </p>
+ * <p>
+ * Requests are read one after the other, those which don't carry the
+ * credentials of the relay are refused (see {@link RelayProxy#getToken()}).
+ * Their head is rewritten to authenticate against the upstream proxy and to
+ * keep the upstream connection alive, then they're sent through a connection of the {@link UpstreamPool}.
+ * Bodies are forwarded as they come, without being copied, using
+ * {@link HttpBodyFramer} to know where they end. Once the response has been
+ * relayed, the upstream connection goes back to the pool. A successful
+ * CONNECT turns the connection into a tunnel, whose upstream connection can't
+ * be reused.
+ * </p>
+ * <p>
+ * When the {@link ResponseCache} is enabled, fresh responses are served from
+ * their file without going upstream, stale ones are revalidated, and the
+ * cacheable responses are stored while they're relayed.
+ * </p>
+ * <p>
+ * When direct connections are raced, a CONNECT to a host which isn't known
+ * to be behind the proxy waits for the {@link RouteRacer}, then tunnels
+ * through the connection which won.
+ * </p>
+ * <p>
+ * Everything happens in the thread of the relay: {@link #handle()} does all
+ * the I/O it can without blocking, then updates the interest of both
+ * {@link SelectionKey} with what it's waiting for.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+final class RelayConnection {
+
+	/**
+	 * Initial size of the buffers
+	 */
+	private static final int BUFFER_SIZE = 16384;
+
+	/**
+	 * Maximum size of a head
+	 */
+	private static final int MAX_HEAD_SIZE = 65536;
+
+	private static final int REQUEST_HEAD = 0;
+
+	private static final int REQUEST_BODY = 1;
+
+	private static final int RESPONSE_HEAD = 2;
+
+	private static final int RESPONSE_BODY = 3;
+
+	private static final int TUNNEL = 4;
+
+	private static final int CACHED_BODY = 5;
+
+	private static final int RACING = 6;
+
+	private static final int CLOSED = 7;
+
+	private static final byte[] ESTABLISHED = "HTTP/1.1 200 Connection established\r\n\r\n"
+			.getBytes();
+
+	private static final byte[] PROXY_AUTHENTICATION_REQUIRED = "HTTP/1.1 407 Proxy Authentication Required\r\nProxy-Authenticate: Basic realm=\"eProxy relay\"\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+			.getBytes();
+
+	private static final byte[] BAD_GATEWAY = "HTTP/1.1 502 Bad Gateway\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+			.getBytes();
+
+	private final RelayProxy relay;
+
+	private final RelayProxy.Loop loop;
+
+	private final UpstreamPool pool;
+
+	private final SelectionKey clientKey;
+
+	private final SocketChannel client;
+
+	private SelectionKey upstreamKey;
+
+	private SocketChannel upstream;
+
+	/**
+	 * The upstream proxy of the current exchange
+	 */
+	private UpstreamPool.Endpoint endpoint;
+
+	/**
+	 * Bytes read from the client and not forwarded yet, in read mode
+	 */
+	private ByteBuffer clientIn = ByteBuffer.allocate(BUFFER_SIZE);
+
+	/**
+	 * Bytes read from the upstream proxy and not forwarded yet, in read mode
+	 */
+	private ByteBuffer upstreamIn = ByteBuffer.allocate(BUFFER_SIZE);
+
+	/**
+	 * A rewritten head to send to the upstream proxy, null if there is none
+	 */
+	private ByteBuffer toUpstream;
+
+	/**
+	 * A rewritten head to send to the client, null if there is none
+	 */
+	private ByteBuffer toClient;
+
+	private HttpHead request;
+
+	private HttpBodyFramer requestBody;
+
+	private HttpBodyFramer responseBody;
+
+	/**
+	 * Bytes of {@link #clientIn} known to be part of the request body
+	 */
+	private int pendingRequest;
+
+	/**
+	 * Bytes of {@link #upstreamIn} known to be part of the response body
+	 */
+	private int pendingResponse;
+
+	private int state = REQUEST_HEAD;
+
+	private boolean clientKeepAlive;
+
+	private boolean upstreamKeepAlive;
+
+	private boolean clientClosed;
+
+	private boolean upstreamClosed;
+
+	/**
+	 * True while the request head asks the upstream proxy to agree before the
+	 * body is sent
+	 */
+	private boolean expectContinue;
+
+	/**
+	 * True once something has been sent to the client for the current
+	 * exchange, so that it can't be answered with an error anymore
+	 */
+	private boolean answered;
+
+	/**
+	 * True if the current request, which has no body, went through an idle
+	 * connection of the {@link UpstreamPool}: it can be sent again if the
+	 * upstream proxy closed the connection meanwhile
+	 */
+	private boolean retriable;
+
+	/**
+	 * The response cache, null if the relay doesn't cache responses
+	 */
+	private ResponseCache cache;
+
+	/**
+	 * The key of the current request in the {@link #cache}, null if the
+	 * request can't use it
+	 */
+	private String cacheKey;
+
+	/**
+	 * The cached response being served or revalidated, null if there is none
+	 */
+	private ResponseCache.Entry cached;
+
+	private FileChannel cachedBody;
+
+	/**
+	 * Position of the next byte of {@link #cachedBody} to send
+	 */
+	private long cachedPosition;
+
+	/**
+	 * Stores the response being relayed, null if it isn't cacheable
+	 */
+	private ResponseCache.Writer storing;
+
+	/**
+	 * The interests computed while handling the connection
+	 */
+	private int clientOps;
+
+	private int upstreamOps;
+
+	RelayConnection(final RelayProxy relay, final RelayProxy.Loop loop,
+			final SelectionKey clientKey) {
+		this.relay = relay;
+		this.loop = loop;
+		this.pool = loop.pool;
+		this.clientKey = clientKey;
+		this.client = (SocketChannel) clientKey.channel();
+		this.clientIn.flip();
+		this.upstreamIn.flip();
+	}
+
+	/**
+	 * Does everything which can be done without blocking, called each time
+	 * one of the channels is ready
+	 */
+	void handle() {
+		try {
+			if (upstreamKey != null && upstreamKey.isValid()
+					&& upstream.isConnectionPending()
+					&& upstreamKey.isConnectable())
+				upstream.finishConnect();
+			boolean progress = true;
+			while (progress && state != CLOSED) {
+				clientOps = 0;
+				upstreamOps = 0;
+				progress = step();
+			}
+			if (state != CLOSED) {
+				clientKey.interestOps(clientOps);
+				if (upstreamKey != null)
+					upstreamKey.interestOps(upstreamOps);
+			}
+		} catch (final IOException e) {
+			if (retry())
+				handle();
+			else
+				fail();
+		} catch (final RuntimeException e) {
+			// Such as a CancelledKeyException, the connection is unusable
+			fail();
+		}
+	}
+
+	/**
+	 * Closes both connections, used when the relay stops
+	 */
+	void close() {
+		if (state == CLOSED)
+			return;
+		state = CLOSED;
+		if (storing != null) {
+			storing.abort();
+			storing = null;
+		}
+		closeCached();
+		UpstreamPool.close(clientKey);
+		if (upstreamKey != null) {
+			UpstreamPool.close(upstreamKey);
+			upstreamKey = null;
+		}
+	}
+
+	/**
+	 * Makes the exchange progress
+	 * 
+	 * @return true if something changed, false if waiting for the channels
+	 */
+	private boolean step() throws IOException {
+		switch (state) {
+		case REQUEST_HEAD:
+			return readRequestHead();
+		case REQUEST_BODY:
+			if (!upstream.isConnected()) {
+				upstreamOps |= SelectionKey.OP_CONNECT;
+				return false;
+			}
+			if (flush(toClient, client, true)
+					|| flush(toUpstream, upstream, false))
+				return false;
+			if (requestBody.isDone() || expectContinue) {
+				expectContinue = false;
+				state = RESPONSE_HEAD;
+				return true;
+			}
+			if (pendingRequest == 0 && clientIn.hasRemaining())
+				pendingRequest = requestBody.scan(clientIn);
+			if (pendingRequest > 0) {
+				pendingRequest -= write(upstream, clientIn, pendingRequest,
+						false);
+				return true;
+			}
+			if (requestBody.isDone())
+				return true;
+			if (readClient() < 0)
+				throw new IOException("Request body truncated");
+			return clientIn.hasRemaining();
+		case RESPONSE_HEAD:
+			if (flush(toClient, client, true))
+				return false;
+			if (readResponseHead())
+				return true;
+			// Clients only wait for a while before sending the body, the
+			// upstream proxy may never send the interim response
+			if (state == RESPONSE_HEAD && !requestBody.isDone()
+					&& (clientIn.hasRemaining() || readClient() > 0)) {
+				state = REQUEST_BODY;
+				return true;
+			}
+			return false;
+		case RESPONSE_BODY:
+			if (flush(toClient, client, true))
+				return false;
+			if (responseBody.isDone() && pendingResponse == 0) {
+				endExchange();
+				return true;
+			}
+			if (pendingResponse == 0 && upstreamIn.hasRemaining())
+				pendingResponse = responseBody.scan(upstreamIn);
+			if (pendingResponse > 0) {
+				final int start = upstreamIn.position();
+				final int written = write(client, upstreamIn, pendingResponse,
+						true);
+				pendingResponse -= written;
+				if (storing != null && written > 0) {
+					final ByteBuffer stored = upstreamIn.duplicate();
+					stored.position(start).limit(start + written);
+					storing.write(stored);
+				}
+				return true;
+			}
+			if (responseBody.isDone())
+				return true;
+			if (readUpstream() < 0) {
+				responseBody.endOfStream();
+				return true;
+			}
+			return upstreamIn.hasRemaining();
+		case CACHED_BODY:
+			if (flush(toClient, client, true))
+				return false;
+			final long end = cached.offset + cached.length;
+			if (cachedPosition < end) {
+				final long sent = cachedBody.transferTo(cachedPosition, end
+						- cachedPosition, client);
+				if (sent == 0) {
+					if (cachedBody.size() < end)
+						throw new IOException("Truncated cache entry");
+					clientOps |= SelectionKey.OP_WRITE;
+					return false;
+				}
+				cachedPosition += sent;
+				answered = true;
+				return true;
+			}
+			endExchange();
+			return true;
+		case TUNNEL:
+			if (flush(toClient, client, true))
+				return false;
+			boolean progress = false;
+			if (clientIn.hasRemaining())
+				progress |= write(upstream, clientIn, clientIn.remaining(),
+						false) > 0;
+			else if (readClient() != 0)
+				progress = true;
+			if (upstreamIn.hasRemaining())
+				progress |= write(client, upstreamIn, upstreamIn.remaining(),
+						true) > 0;
+			else if (readUpstream() != 0)
+				progress = true;
+			if ((clientClosed && !clientIn.hasRemaining())
+					|| (upstreamClosed && !upstreamIn.hasRemaining())) {
+				close();
+				return false;
+			}
+			return progress;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the head of the next request, and starts sending it upstream
+	 */
+	private boolean readRequestHead() throws IOException {
+		final int end = HttpHead.endOf(clientIn);
+		if (end < 0) {
+			if (clientIn.remaining() >= MAX_HEAD_SIZE)
+				throw new IOException("Request head too large");
+			if (clientIn.remaining() == clientIn.capacity())
+				clientIn = grow(clientIn);
+			final int read = readClient();
+			if (read < 0) {
+				// The client closed its connection between two requests
+				close();
+				return false;
+			}
+			return read > 0;
+		}
+		request = HttpHead.parse(clientIn, end);
+		answered = false;
+		endpoint = relay.getEndpoint();
+		if (!relay.isAuthorized(request.get("Proxy-Authorization"), endpoint)) {
+			refuse();
+			return false;
+		}
+		clientKeepAlive = request.isKeepAlive();
+		final boolean connect = "CONNECT".equalsIgnoreCase(request
+				.getMethod());
+		requestBody = connect ? HttpBodyFramer.none() : HttpBodyFramer
+				.forRequest(request);
+		if (lookup())
+			return true;
+		if (connect && race())
+			return false;
+		// The credentials of the relay don't go any further
+		request.remove("Proxy-Authorization");
+		if (endpoint.authorization != null)
+			request.set("Proxy-Authorization", endpoint.authorization);
+		if (!connect) {
+			// Keeps the upstream connection alive, whatever the client does
+			request.remove("Connection");
+			request.set("Proxy-Connection", "keep-alive");
+		}
+		expectContinue = !requestBody.isDone()
+				&& request.contains("Expect", "100-continue");
+		toUpstream = request.toBuffer();
+		upstreamKey = pool.reuse(endpoint, this);
+		retriable = upstreamKey != null && requestBody.isDone()
+				&& isIdempotent(request.getMethod());
+		if (upstreamKey == null)
+			upstreamKey = pool.connect(endpoint, clientKey.selector(), this);
+		upstream = (SocketChannel) upstreamKey.channel();
+		state = REQUEST_BODY;
+		return true;
+	}
+
+	/**
+	 * Sends the current request again through a new upstream connection, if
+	 * the idle one it went through failed before anything has been received.
+	 * The upstream proxy may close an idle connection while the request is on
+	 * its way, so a request which can safely be sent twice gets a second
+	 * chance, once. Requests with a body aren't retried, their body has been
+	 * forwarded already.
+	 * 
+	 * @return true if the request is sent again
+	 */
+	private boolean retry() {
+		if (!retriable || answered || upstreamKey == null
+				|| (state != REQUEST_BODY && state != RESPONSE_HEAD)
+				|| upstreamIn.hasRemaining())
+			return false;
+		retriable = false;
+		UpstreamPool.close(upstreamKey);
+		upstreamClosed = false;
+		upstreamIn.clear().flip();
+		try {
+			upstreamKey = pool.connect(endpoint, clientKey.selector(), this);
+		} catch (final IOException e) {
+			upstreamKey = null;
+			upstream = null;
+			return false;
+		}
+		upstream = (SocketChannel) upstreamKey.channel();
+		toUpstream = request.toBuffer();
+		state = REQUEST_BODY;
+		return true;
+	}
+
+	/**
+	 * @return true if sending the request twice has the same effect as sending
+	 *         it once, nothing has been tunneled yet for a CONNECT
+	 */
+	private static boolean isIdempotent(final String method) {
+		for (final String idempotent : new String[] { "GET", "HEAD",
+				"OPTIONS", "TRACE", "PUT", "DELETE", "CONNECT" })
+			if (idempotent.equalsIgnoreCase(method))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Reads the head of the response, and starts sending it to the client
+	 */
+	private boolean readResponseHead() throws IOException {
+		final int end = HttpHead.endOf(upstreamIn);
+		if (end < 0) {
+			if (upstreamIn.remaining() >= MAX_HEAD_SIZE)
+				throw new IOException("Response head too large");
+			if (upstreamIn.remaining() == upstreamIn.capacity())
+				upstreamIn = grow(upstreamIn);
+			final int read = readUpstream();
+			if (read < 0)
+				throw new IOException("Upstream proxy closed the connection");
+			return read > 0;
+		}
+		final HttpHead response = HttpHead.parse(upstreamIn, end);
+		final int status = response.getStatus();
+		if (status / 100 == 1 && status != 101) {
+			// Interim response, the final one follows
+			toClient = response.toBuffer();
+			if (status == 100 && !requestBody.isDone())
+				state = REQUEST_BODY;
+			return true;
+		}
+		if (cached != null) {
+			if (status == 304) {
+				// Still the same, served from the cache
+				cache.refresh(cached, response);
+				cache.hit(true);
+				releaseUpstream(response.isKeepAlive() && requestBody.isDone());
+				serveCached();
+				return true;
+			}
+			if (status == 200 || status == 404 || status == 410)
+				cache.remove(cached);
+			closeCached();
+		}
+		final String method = request.getMethod();
+		if (status == 101
+				|| ("CONNECT".equalsIgnoreCase(method) && status / 100 == 2)) {
+			toClient = response.toBuffer();
+			state = TUNNEL;
+			return true;
+		}
+		responseBody = HttpBodyFramer.forResponse(method, response);
+		if (cacheKey != null) {
+			cache.miss();
+			storing = cache.store(cacheKey, request, response);
+		}
+		upstreamKeepAlive = response.isKeepAlive()
+				&& !responseBody.isUntilClose() && requestBody.isDone();
+		if (!requestBody.isDone() || responseBody.isUntilClose())
+			clientKeepAlive = false;
+		response.remove("Connection").remove("Proxy-Connection");
+		if (!clientKeepAlive)
+			response.set("Connection", "close");
+		else if ("HTTP/1.0".equals(request.getVersion()))
+			response.set("Connection", "keep-alive");
+		toClient = response.toBuffer();
+		state = RESPONSE_BODY;
+		return true;
+	}
+
+	/**
+	 * Gives the upstream connection back to the pool, and waits for the next
+	 * request if the client keeps its connection open
+	 */
+	private void endExchange() {
+		if (upstreamKey != null)
+			releaseUpstream(upstreamKeepAlive);
+		if (storing != null) {
+			storing.commit();
+			storing = null;
+		}
+		closeCached();
+		cacheKey = null;
+		request = null;
+		requestBody = null;
+		responseBody = null;
+		upstreamIn.clear().flip();
+		if (clientKeepAlive)
+			state = REQUEST_HEAD;
+		else
+			close();
+	}
+
+	/**
+	 * Gives the upstream connection back to the pool if it can be reused,
+	 * closes it otherwise
+	 */
+	private void releaseUpstream(final boolean keepAlive) {
+		if (keepAlive && !upstreamIn.hasRemaining())
+			pool.release(upstreamKey, endpoint);
+		else
+			UpstreamPool.close(upstreamKey);
+		upstreamKey = null;
+		upstream = null;
+		upstreamClosed = false;
+	}
+
+	/**
+	 * Looks for the response of the current request in the cache. A stale
+	 * response is kept in order to be revalidated.
+	 * 
+	 * @return true if a fresh response is served from the cache
+	 */
+	private boolean lookup() {
+		cache = relay.getResponseCache();
+		cacheKey = cache != null && requestBody.isDone() ? cache
+				.keyOf(request) : null;
+		if (cacheKey == null || !ResponseCache.acceptsStored(request))
+			return false;
+		final ResponseCache.Entry entry = cache.lookup(cacheKey);
+		if (entry == null || (!entry.isFresh() && !entry.isRevalidable()))
+			return false;
+		try {
+			cachedBody = entry.open();
+		} catch (final IOException e) {
+			cache.remove(entry);
+			return false;
+		}
+		cached = entry;
+		if (entry.isFresh()) {
+			cache.hit(false);
+			serveCached();
+			return true;
+		}
+		final String etag = entry.head.get("ETag");
+		if (etag != null)
+			request.set("If-None-Match", etag);
+		final String lastModified = entry.head.get("Last-Modified");
+		if (lastModified != null)
+			request.set("If-Modified-Since", lastModified);
+		return false;
+	}
+
+	/**
+	 * Races a direct connection against the proxy for the target of the
+	 * current CONNECT request, unless the host is known to be behind the
+	 * proxy
+	 * 
+	 * @return true if the connection waits for the race
+	 */
+	private boolean race() {
+		final RouteCache routes = relay.getRouteCache();
+		if (routes == null)
+			return false;
+		final String target = request.getTarget();
+		final int colon = target.lastIndexOf(':');
+		String host = colon > 0 ? target.substring(0, colon) : target;
+		if (host.startsWith("[") && host.endsWith("]"))
+			host = host.substring(1, host.length() - 1);
+		int port = 443;
+		if (colon > 0)
+			try {
+				port = Integer.parseInt(target.substring(colon + 1));
+			} catch (final NumberFormatException e) {
+				return false;
+			}
+		final RouteCache.Route known = routes.get(host);
+		if (known == RouteCache.Route.PROXY)
+			return false;
+		state = RACING;
+		loop.racer.race(host, port, known, endpoint, routes,
+				new RouteRacer.Callback() {
+					@Override
+					public void won(final SocketChannel channel,
+							final ByteBuffer leftover) {
+						loop.execute(new Runnable() {
+							@Override
+							public void run() {
+								tunnel(channel, leftover);
+							}
+						});
+					}
+
+					@Override
+					public void lost(final IOException error) {
+						loop.execute(new Runnable() {
+							@Override
+							public void run() {
+								if (state == RACING)
+									fail();
+							}
+						});
+					}
+				});
+		return true;
+	}
+
+	/**
+	 * Tunnels the client through the connection which won the race
+	 */
+	private void tunnel(final SocketChannel channel, final ByteBuffer leftover) {
+		if (state != RACING) {
+			try {
+				channel.close();
+			} catch (final IOException e) {
+				// Nothing to do, the client is gone
+			}
+			return;
+		}
+		try {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			upstreamKey = channel.register(clientKey.selector(), 0, this);
+		} catch (final IOException e) {
+			try {
+				channel.close();
+			} catch (final IOException ignored) {
+				// Reported to the client below
+			}
+			fail();
+			return;
+		}
+		upstream = channel;
+		if (leftover.remaining() > upstreamIn.capacity())
+			upstreamIn = ByteBuffer.allocate(leftover.remaining());
+		upstreamIn.clear();
+		upstreamIn.put(leftover).flip();
+		toClient = ByteBuffer.wrap(ESTABLISHED);
+		state = TUNNEL;
+		handle();
+	}
+
+	/**
+	 * Starts sending the {@link #cached} response to the client
+	 */
+	private void serveCached() {
+		final HttpHead head = ResponseCache.served(cached);
+		if (!clientKeepAlive)
+			head.set("Connection", "close");
+		else if ("HTTP/1.0".equals(request.getVersion()))
+			head.set("Connection", "keep-alive");
+		toClient = head.toBuffer();
+		cachedPosition = cached.offset;
+		state = CACHED_BODY;
+	}
+
+	private void closeCached() {
+		cached = null;
+		if (cachedBody != null) {
+			try {
+				cachedBody.close();
+			} catch (final IOException e) {
+				// Nothing to do, the file was only read
+			}
+			cachedBody = null;
+		}
+	}
+
+	/**
+	 * Asks the client for the credentials of the relay, then closes the
+	 * connection
+	 */
+	private void refuse() {
+		try {
+			client.write(ByteBuffer.wrap(PROXY_AUTHENTICATION_REQUIRED));
+		} catch (final IOException e) {
+			// The client is gone
+		}
+		close();
+	}
+
+	/**
+	 * Answers the client with an error if nothing has been sent yet, then
+	 * closes the connections
+	 */
+	private void fail() {
+		if (!answered && state != TUNNEL && state != CLOSED)
+			try {
+				client.write(ByteBuffer.wrap(BAD_GATEWAY));
+			} catch (final IOException e) {
+				// The client is gone as well
+			}
+		close();
+	}
+
+	/**
+	 * Writes a pending head
+	 * 
+	 * @return true if some bytes are still waiting to be written
+	 */
+	private boolean flush(final ByteBuffer head, final SocketChannel channel,
+			final boolean toClient) throws IOException {
+		if (head == null || !head.hasRemaining())
+			return false;
+		write(channel, head, head.remaining(), toClient);
+		return head.hasRemaining();
+	}
+
+	/**
+	 * Writes some bytes of the buffer, and waits for the channel if they
+	 * can't all be written
+	 * 
+	 * @return the amount of bytes written
+	 */
+	private int write(final SocketChannel channel, final ByteBuffer buffer,
+			final int length, final boolean toClient) throws IOException {
+		final int limit = buffer.limit();
+		buffer.limit(buffer.position() + length);
+		final int written;
+		try {
+			written = channel.write(buffer);
+		} finally {
+			buffer.limit(limit);
+		}
+		if (written < length) {
+			if (toClient)
+				clientOps |= SelectionKey.OP_WRITE;
+			else
+				upstreamOps |= SelectionKey.OP_WRITE;
+		}
+		if (toClient && written > 0)
+			answered = true;
+		return written;
+	}
+
+	/**
+	 * @return the amount of bytes read from the client, -1 if it closed its
+	 *         connection
+	 */
+	private int readClient() throws IOException {
+		if (clientClosed)
+			return 0;
+		final int read = read(client, clientIn);
+		if (read < 0)
+			clientClosed = true;
+		else if (read == 0 && clientIn.remaining() < clientIn.capacity())
+			clientOps |= SelectionKey.OP_READ;
+		return read;
+	}
+
+	/**
+	 * @return the amount of bytes read from the upstream proxy, -1 if it
+	 *         closed the connection
+	 */
+	private int readUpstream() throws IOException {
+		if (upstreamClosed)
+			return 0;
+		final int read = read(upstream, upstreamIn);
+		if (read < 0)
+			upstreamClosed = true;
+		else if (read == 0 && upstreamIn.remaining() < upstreamIn.capacity())
+			upstreamOps |= SelectionKey.OP_READ;
+		return read;
+	}
+
+	private static int read(final SocketChannel channel,
+			final ByteBuffer buffer) throws IOException {
+		buffer.compact();
+		try {
+			return channel.read(buffer);
+		} finally {
+			buffer.flip();
+		}
+	}
+
+	/**
+	 * @return a buffer twice as large, holding the same bytes
+	 */
+	private static ByteBuffer grow(final ByteBuffer buffer) {
+		final ByteBuffer larger = ByteBuffer.allocate(Math.min(
+				buffer.capacity() * 2, MAX_HEAD_SIZE + BUFFER_SIZE));
+		larger.put(buffer).flip();
+		return larger;
+	}
+}
@@ -0,0 +1,452 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import com.github.aneveux.eproxy.Activator;
+import com.github.aneveux.eproxy.data.EProxy;
+
+/**
+ * <p>
+ * A lightweight forward proxy running on the loopback interface, which
+ * relays the requests of all the Eclipse transports (p2, Marketplace, Git,
+ * Maven...) to the real proxy
+ * </p>
+ * <p>
+ * Each transport usually opens its own connections to the proxy and goes
+ * through the authentication handshake again and again. The relay keeps a
+ * pool of keep-alive connections to the upstream proxy instead (see
+ * {@link UpstreamPool}), and sets the <i>Proxy-Authorization</i> field of the
+ * upstream credentials on the requests, so that transports never get
+ * challenged by the upstream proxy. HTTPS goes through CONNECT tunnels as
+ * usual.
+ * </p>
+ * <p>
+ * Any local process can connect to the loopback interface, so the relay only
+ * accepts the requests authenticated as {@link #USER} with the random
+ * {@link #getToken()} of the session, which Eclipse is configured with, or
+ * with the upstream credentials themselves: other processes can't use the
+ * upstream credentials without knowing them.
+ * </p>
+ * <p>
+ * Everything is handled by a single thread using a {@link Selector}. The
+ * relay is started by {@link ProxyHelper} when the applied {@link EProxy}
+ * enables it (see {@link EProxy#isRelayEnabled()}), and Eclipse is then
+ * configured to use {@link #LOCAL_HOST} and {@link #getPort()} as its proxy.
+ * The upstream proxy is written back in Eclipse when the plug-in stops, and
+ * the relay is started again with the plug-in (see
+ * {@link ProxyHelper#stopRelay()}).
+ * </p>
+ * <p>
+ * The relay can also serve plain HTTP responses from the
+ * {@link ResponseCache}, if the applied {@link EProxy} enables it (see
+ * {@link EProxy#isCacheEnabled()}), and race direct connections against
+ * the proxy for the CONNECT requests (see
+ * {@link EProxy#isDirectRacingEnabled()} and {@link RouteRacer}).
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class RelayProxy {
+
+	/**
+	 * The address the relay listens to
+	 */
+	public static final String LOCAL_HOST = "127.0.0.1";
+
+	/**
+	 * Preference key allowing to know if the relay has to be started again
+	 * with the plug-in, see {@link ProxyHelper#restartRelay()}
+	 */
+	public static final String RESTART_PREFERENCE = "restartRelay";
+
+	/**
+	 * The user name the clients of the relay authenticate with
+	 */
+	public static final String USER = "eproxy";
+
+	/**
+	 * Delay between two evictions of the idle upstream connections, in
+	 * milliseconds
+	 */
+	private static final long EVICTION_DELAY = 5000;
+
+	/**
+	 * The shared instance
+	 */
+	private static RelayProxy instance;
+
+	/**
+	 * The upstream proxy, read by the thread of the relay for each request
+	 */
+	private volatile UpstreamPool.Endpoint endpoint;
+
+	/**
+	 * The {@link EProxy} the relay has been started with, null while the
+	 * relay is stopped
+	 */
+	private EProxy upstream;
+
+	/**
+	 * The response cache, null if responses aren't cached
+	 */
+	private volatile ResponseCache responseCache;
+
+	/**
+	 * The learned routes, null if direct connections aren't raced
+	 */
+	private volatile RouteCache routeCache;
+
+	/**
+	 * The running loop, null while the relay is stopped
+	 */
+	private Loop loop;
+
+	/**
+	 * The password the clients of the relay authenticate with
+	 */
+	private final String token;
+
+	/**
+	 * Value of the <i>Proxy-Authorization</i> field matching {@link #token}
+	 */
+	private final String authorization;
+
+	/**
+	 * Creates a relay, use {@link #getDefault()} to get the shared instance
+	 */
+	protected RelayProxy() {
+		final byte[] bytes = new byte[16];
+		new SecureRandom().nextBytes(bytes);
+		final StringBuilder builder = new StringBuilder(2 * bytes.length);
+		for (final byte b : bytes)
+			builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(
+					Character.forDigit(b & 0xf, 16));
+		token = builder.toString();
+		authorization = "Basic "
+				+ UpstreamPool.Endpoint.base64(USER + ":" + token);
+	}
+
+	/**
+	 * @return the shared instance
+	 */
+	public static synchronized RelayProxy getDefault() {
+		if (instance == null)
+			instance = new RelayProxy();
+		return instance;
+	}
+
+	/**
+	 * Stops the shared instance if it has been created
+	 */
+	public static synchronized void shutdown() {
+		if (instance != null)
+			instance.stop();
+	}
+
+	/**
+	 * Allows to start the relay, or to change its upstream proxy if it's
+	 * already running. Requests already going through the relay keep their
+	 * upstream connection, the next ones use the new upstream proxy.
+	 * 
+	 * @param upstream
+	 *            the {@link EProxy} to relay the requests to, using its HTTP
+	 *            host, port and credentials, and its cache settings
+	 * @return the port the relay listens to
+	 * @throws IOException
+	 *             if the upstream host can't be resolved, or if the relay
+	 *             can't listen
+	 */
+	public synchronized int start(final EProxy upstream) throws IOException {
+		endpoint = UpstreamPool.Endpoint.of(upstream);
+		this.upstream = ProfileStore.copy(upstream);
+		if (upstream.isCacheEnabled()) {
+			final ResponseCache cache = ResponseCache.getDefault();
+			cache.setCachedHosts(upstream.getCachedHosts());
+			responseCache = cache;
+		} else
+			responseCache = null;
+		routeCache = upstream.isDirectRacingEnabled() ? RouteCache
+				.getDefault() : null;
+		if (loop == null) {
+			loop = new Loop(this);
+			final Thread thread = new Thread(loop, "eProxy relay");
+			thread.setDaemon(true);
+			thread.start();
+			Activator.sendInfoToErrorLog("Relaying the proxy " + endpoint
+					+ " on " + LOCAL_HOST + ":" + loop.port);
+		}
+		return loop.port;
+	}
+
+	/**
+	 * Stops the relay, closing all its connections
+	 */
+	public synchronized void stop() {
+		if (loop != null) {
+			loop.stop();
+			loop = null;
+		}
+		upstream = null;
+	}
+
+	/**
+	 * @return true if the relay is running
+	 */
+	public synchronized boolean isRunning() {
+		return loop != null;
+	}
+
+	/**
+	 * @return a copy of the {@link EProxy} the requests are relayed to, or
+	 *         null if the relay is stopped
+	 */
+	public synchronized EProxy getUpstream() {
+		return loop != null ? ProfileStore.copy(upstream) : null;
+	}
+
+	/**
+	 * @return the port the relay listens to, or -1 if it's stopped
+	 */
+	public synchronized int getPort() {
+		return loop != null ? loop.port : -1;
+	}
+
+	/**
+	 * @return the amount of connections opened to the upstream proxy since the
+	 *         relay started
+	 */
+	public synchronized long getOpenedConnections() {
+		return loop != null ? loop.pool.getOpened() : 0;
+	}
+
+	/**
+	 * @return the amount of requests which reused a pooled upstream
+	 *         connection since the relay started
+	 */
+	public synchronized long getReusedConnections() {
+		return loop != null ? loop.pool.getReused() : 0;
+	}
+
+	/**
+	 * @return the response cache used by the relay, or null if responses
+	 *         aren't cached
+	 */
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
+
+	/**
+	 * @return the routes learned by the relay, or null if direct connections
+	 *         aren't raced
+	 */
+	public RouteCache getRouteCache() {
+		return routeCache;
+	}
+
+	/**
+	 * @return the password the clients of the relay authenticate with, along
+	 *         with {@link #USER}, which is drawn at random for each session
+	 */
+	public String getToken() {
+		return token;
+	}
+
+	/**
+	 * @return the upstream proxy to use for the next requests
+	 */
+	UpstreamPool.Endpoint getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * @param credentials
+	 *            the <i>Proxy-Authorization</i> field of a request, or null
+	 * @param upstream
+	 *            the upstream proxy the request would go to
+	 * @return true if the request carries the credentials of the relay or the
+	 *         ones of the upstream proxy
+	 */
+	boolean isAuthorized(final String credentials,
+			final UpstreamPool.Endpoint upstream) {
+		return credentials != null
+				&& (credentials.equals(authorization) || credentials
+						.equals(upstream.authorization));
+	}
+
+	/**
+	 * The thread of the relay, accepting connections and handling them until
+	 * it's stopped. Other threads hand their work over to it through
+	 * {@link #execute(Runnable)}.
+	 */
+	static final class Loop implements Runnable, Executor {
+
+		private final RelayProxy relay;
+
+		private final Selector selector;
+
+		private final ServerSocketChannel server;
+
+		final UpstreamPool pool = new UpstreamPool();
+
+		final RouteRacer racer = new RouteRacer();
+
+		/**
+		 * Tasks to run in the thread of the relay
+		 */
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+		private final int port;
+
+		private volatile boolean running = true;
+
+		Loop(final RelayProxy relay) throws IOException {
+			this.relay = relay;
+			selector = Selector.open();
+			try {
+				server = ServerSocketChannel.open();
+				server.configureBlocking(false);
+				server.socket().bind(
+						new InetSocketAddress(InetAddress.getByName(LOCAL_HOST),
+								0));
+				server.register(selector, SelectionKey.OP_ACCEPT);
+				port = server.socket().getLocalPort();
+			} catch (final IOException e) {
+				selector.close();
+				throw e;
+			}
+		}
+
+		void stop() {
+			running = false;
+			selector.wakeup();
+		}
+
+		/**
+		 * Runs the task in the thread of the relay. Tasks submitted while the
+		 * relay stops still run, once its connections are closed.
+		 * 
+		 * @see Executor#execute(Runnable)
+		 */
+		@Override
+		public void execute(final Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			try {
+				long eviction = System.currentTimeMillis() + EVICTION_DELAY;
+				while (running) {
+					selector.select(EVICTION_DELAY);
+					Runnable task;
+					while ((task = tasks.poll()) != null)
+						task.run();
+					final Iterator<SelectionKey> keys = selector
+							.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						final SelectionKey key = keys.next();
+						keys.remove();
+						if (!key.isValid())
+							continue;
+						if (key.isAcceptable())
+							accept();
+						else if (key.attachment() instanceof RelayConnection)
+							((RelayConnection) key.attachment()).handle();
+					}
+					final long now = System.currentTimeMillis();
+					if (now >= eviction) {
+						pool.evict();
+						eviction = now + EVICTION_DELAY;
+					}
+				}
+			} catch (final IOException e) {
+				Activator.sendErrorToErrorLog(
+						"Error while relaying the proxy...", e);
+			} finally {
+				close();
+			}
+		}
+
+		private void accept() throws IOException {
+			final SocketChannel client = server.accept();
+			if (client == null)
+				return;
+			try {
+				client.configureBlocking(false);
+				client.socket().setTcpNoDelay(true);
+				final SelectionKey key = client.register(selector,
+						SelectionKey.OP_READ);
+				key.attach(new RelayConnection(relay, this, key));
+			} catch (final IOException e) {
+				client.close();
+			}
+		}
+
+		private void close() {
+			racer.shutdown();
+			pool.clear();
+			for (final SelectionKey key : selector.keys())
+				if (key.attachment() instanceof RelayConnection)
+					((RelayConnection) key.attachment()).close();
+				else
+					UpstreamPool.close(key);
+			try {
+				selector.close();
+			} catch (final IOException e) {
+				// Nothing to do, the relay is stopped anyway
+			}
+			Runnable task;
+			while ((task = tasks.poll()) != null)
+				task.run();
+		}
+	}
+}
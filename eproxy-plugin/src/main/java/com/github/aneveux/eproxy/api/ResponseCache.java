@@ -0,0 +1,883 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.aneveux.eproxy.Activator;
+import com.github.aneveux.eproxy.data.EProxy;
+
+/**
+ * <p>
+ * An on-disk cache of the plain HTTP responses going through the
+ * {@link RelayProxy}, so that the update sites artifacts and the Maven jars
+ * downloaded again and again are served locally
+ * </p>
+ * <p>
+ * Only the GET requests to the cached hosts (see
+ * {@link EProxy#getCachedHosts()}) are considered, and only the complete
+ * <i>200</i> responses having a <i>Content-Length</i> are stored, unless
+ * <i>Cache-Control</i> forbids it. A response is fresh until its
+ * <i>max-age</i> or its <i>Expires</i> date, or for a tenth of its age when
+ * it only has a <i>Last-Modified</i> date. Stale responses are revalidated
+ * with <i>If-None-Match</i> or <i>If-Modified-Since</i>, and served again when
+ * the upstream answers <i>304</i>.
+ * </p>
+ * <p>
+ * Each response is kept in its own file, holding the URL, the freshness, the
+ * head and the body, so that the body can be served with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * without being copied. The total size of the files is bounded, the least
+ * recently used responses being evicted first, and the index is rebuilt from
+ * the files when the cache is created.
+ * </p>
+ * <p>
+ * The files are written by a background thread, so that the thread of the
+ * relay never waits for the disk: it only hands over copies of the bytes it
+ * relays. If the disk can't keep up and more than {@link #MAX_PENDING} bytes
+ * are waiting, the responses being stored are dropped instead.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class ResponseCache {
+
+	/**
+	 * Default maximum size of the cache, in bytes
+	 */
+	public static final long DEFAULT_MAX_SIZE = 512L * 1024 * 1024;
+
+	/**
+	 * Freshness given to responses only having a <i>Last-Modified</i> date is
+	 * capped to one day
+	 */
+	private static final long MAX_HEURISTIC_FRESHNESS = 24L * 60 * 60 * 1000;
+
+	/**
+	 * Maximum amount of bytes waiting to be written
+	 */
+	static final long MAX_PENDING = 8L * 1024 * 1024;
+
+	private static final String MAGIC = "EPROXY-CACHE 1";
+
+	private static final String SUFFIX = ".entry";
+
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	private static final String CHARSET = "ISO-8859-1";
+
+	/**
+	 * Header fields which only make sense between the upstream proxy and the
+	 * relay, and aren't stored
+	 */
+	private static final String[] HOP_BY_HOP = { "Connection",
+			"Proxy-Connection", "Keep-Alive", "Transfer-Encoding",
+			"Proxy-Authenticate", "Trailer", "Upgrade" };
+
+	/**
+	 * The shared instance
+	 */
+	private static ResponseCache instance;
+
+	private final File directory;
+
+	private final long maxSize;
+
+	/**
+	 * The cached responses, in access order
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+			16, 0.75f, true);
+
+	/**
+	 * Total size of the files of {@link #entries}
+	 */
+	private long size;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong revalidations = new AtomicLong();
+
+	/**
+	 * The cached hosts, null to cache all the hosts
+	 */
+	private volatile NonProxyHostMatcher hosts;
+
+	/**
+	 * Writes the files, its thread stops when there is nothing to write
+	 */
+	private final ThreadPoolExecutor writer = new ThreadPoolExecutor(1, 1, 30,
+			TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+			new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable,
+							"eProxy response cache");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * Amount of bytes waiting to be written
+	 */
+	private final AtomicLong pending = new AtomicLong();
+
+	/**
+	 * Creates a cache, use {@link #getDefault()} to get the shared instance
+	 * 
+	 * @param directory
+	 *            the directory holding the responses, created if needed
+	 * @param maxSize
+	 *            the maximum size of the cache, in bytes
+	 */
+	public ResponseCache(final File directory, final long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+		writer.allowCoreThreadTimeOut(true);
+		load();
+	}
+
+	/**
+	 * @return the shared instance, stored in the state location of the
+	 *         plug-in
+	 */
+	public static synchronized ResponseCache getDefault() {
+		if (instance == null)
+			instance = new ResponseCache(Activator.getDefault()
+					.getStateLocation().append("http-cache").toFile(),
+					DEFAULT_MAX_SIZE);
+		return instance;
+	}
+
+	/**
+	 * Allows to define which hosts are cached
+	 * 
+	 * @param cachedHosts
+	 *            host names, possibly with wildcards, or ranges, as for the
+	 *            nonProxyHosts. All the hosts are cached if there is none.
+	 */
+	public void setCachedHosts(final String[] cachedHosts) {
+		hosts = cachedHosts == null || cachedHosts.length == 0 ? null
+				: NonProxyHostMatcher.compile(cachedHosts);
+	}
+
+	/**
+	 * @return the amount of responses served from the cache, including the
+	 *         revalidated ones
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the amount of cacheable requests which had to be downloaded
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the amount of stale responses served again after the upstream
+	 *         confirmed they didn't change
+	 */
+	public long getRevalidations() {
+		return revalidations.get();
+	}
+
+	/**
+	 * @return the part of the cacheable requests served from the cache,
+	 *         between 0 and 1
+	 */
+	public double getHitRatio() {
+		final long h = hits.get();
+		final long total = h + misses.get();
+		return total > 0 ? (double) h / total : 0;
+	}
+
+	/**
+	 * @return the total size of the cached responses, in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the amount of cached responses
+	 */
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Removes all the cached responses, counters are kept. The responses
+	 * being written are added first, so that they're removed as well.
+	 */
+	public void clear() {
+		flush();
+		synchronized (this) {
+			for (final Entry entry : entries.values())
+				entry.file.delete();
+			entries.clear();
+			size = 0;
+		}
+	}
+
+	/**
+	 * Waits until everything handed over to the background thread has been
+	 * written
+	 */
+	void flush() {
+		try {
+			writer.submit(new Runnable() {
+				@Override
+				public void run() {
+					// Runs once the previous writes are done
+				}
+			}).get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final ExecutionException e) {
+			// Nothing to do, the task does nothing
+		}
+	}
+
+	/**
+	 * @param request
+	 *            the head of a request going through the relay
+	 * @return the key of the request in the cache, or null if the request
+	 *         can't use the cache
+	 */
+	String keyOf(final HttpHead request) {
+		if (!"GET".equals(request.getMethod())
+				|| request.get("Authorization") != null
+				|| request.get("Range") != null)
+			return null;
+		final URI uri;
+		try {
+			uri = new URI(request.getTarget());
+		} catch (final URISyntaxException e) {
+			return null;
+		}
+		if (!"http".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null)
+			return null;
+		final NonProxyHostMatcher matcher = hosts;
+		if (matcher != null && !matcher.matches(uri.getHost()))
+			return null;
+		return request.getTarget();
+	}
+
+	/**
+	 * @param request
+	 *            the head of a request
+	 * @return true if the request accepts a stored response, false if it asks
+	 *         for a new one or handles its own validators
+	 */
+	static boolean acceptsStored(final HttpHead request) {
+		return !request.contains("Cache-Control", "no-cache")
+				&& !request.contains("Cache-Control", "no-store")
+				&& !request.contains("Pragma", "no-cache")
+				&& request.get("If-None-Match") == null
+				&& request.get("If-Modified-Since") == null;
+	}
+
+	/**
+	 * @param key
+	 *            the key of a request
+	 * @return the cached response, or null if there is none
+	 */
+	synchronized Entry lookup(final String key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * Counts a request served from the cache
+	 * 
+	 * @param revalidated
+	 *            true if the response had to be revalidated
+	 */
+	void hit(final boolean revalidated) {
+		hits.incrementAndGet();
+		if (revalidated)
+			revalidations.incrementAndGet();
+	}
+
+	/**
+	 * Counts a cacheable request which had to be downloaded
+	 */
+	void miss() {
+		misses.incrementAndGet();
+	}
+
+	/**
+	 * Updates the freshness of a cached response, once the upstream answered
+	 * <i>304</i> to its revalidation
+	 */
+	synchronized void refresh(final Entry entry, final HttpHead notModified) {
+		final long now = System.currentTimeMillis();
+		final long expires = expires(notModified, now);
+		entry.expires = expires >= 0 ? expires : expires(entry.head, now);
+		if (notModified.get("ETag") != null)
+			entry.head.set("ETag", notModified.get("ETag"));
+	}
+
+	/**
+	 * Removes a cached response
+	 */
+	synchronized void remove(final Entry entry) {
+		if (entries.get(entry.key) == entry) {
+			entries.remove(entry.key);
+			size -= entry.size();
+			entry.file.delete();
+		}
+	}
+
+	/**
+	 * Starts storing a response
+	 * 
+	 * @param key
+	 *            the key of the request
+	 * @param request
+	 *            the head of the request
+	 * @param response
+	 *            the head of the response, before its body
+	 * @return a {@link Writer} to store the body into, or null if the
+	 *         response can't be stored
+	 */
+	Writer store(final String key, final HttpHead request,
+			final HttpHead response) {
+		if (response.getStatus() != 200
+				|| request.contains("Cache-Control", "no-store")
+				|| response.contains("Cache-Control", "no-store")
+				|| response.contains("Cache-Control", "private")
+				|| response.get("Vary") != null
+				|| response.get("Set-Cookie") != null
+				|| response.get("Transfer-Encoding") != null)
+			return null;
+		final long length;
+		try {
+			length = Long.parseLong(String.valueOf(
+					response.get("Content-Length")).trim());
+		} catch (final NumberFormatException e) {
+			return null;
+		}
+		final long expires = expires(response, System.currentTimeMillis());
+		if (length < 0 || length > maxSize / 8
+				|| (expires < 0 && response.get("ETag") == null))
+			return null;
+		final HttpHead stored = response.copy();
+		for (final String name : HOP_BY_HOP)
+			stored.remove(name);
+		try {
+			return new Writer(key, stored, length, Math.max(expires, 0));
+		} catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Computes until when a response is fresh
+	 * 
+	 * @return the expiration time, in milliseconds since the epoch, 0 if the
+	 *         response must always be revalidated, or -1 if its freshness is
+	 *         unknown
+	 */
+	static long expires(final HttpHead response, final long now) {
+		if (response.contains("Cache-Control", "no-cache"))
+			return 0;
+		final String cacheControl = response.get("Cache-Control");
+		if (cacheControl != null)
+			for (final String directive : cacheControl.split(",")) {
+				final String d = directive.trim().toLowerCase(Locale.US);
+				if (d.startsWith("max-age="))
+					try {
+						long age = 0;
+						if (response.get("Age") != null)
+							age = Long.parseLong(response.get("Age").trim());
+						return now
+								+ Math.max(0, Long.parseLong(d.substring(8)
+										.replace("\"", "")) - age) * 1000;
+					} catch (final NumberFormatException e) {
+						return 0;
+					}
+			}
+		final String expires = response.get("Expires");
+		if (expires != null) {
+			final long date = parseDate(expires);
+			return date > now ? date : 0;
+		}
+		final long lastModified = parseDate(response.get("Last-Modified"));
+		if (lastModified > 0 && lastModified < now)
+			return now + Math.min((now - lastModified) / 10,
+					MAX_HEURISTIC_FRESHNESS);
+		return -1;
+	}
+
+	/**
+	 * @return the time of an HTTP date, or -1 if it can't be parsed
+	 */
+	private static long parseDate(final String date) {
+		if (date == null)
+			return -1;
+		final SimpleDateFormat format = new SimpleDateFormat(
+				"EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		try {
+			return format.parse(date.trim()).getTime();
+		} catch (final ParseException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Adds a completely written response, and evicts the least recently used
+	 * ones if the cache becomes too large
+	 */
+	private synchronized void add(final Entry entry) {
+		final Entry previous = entries.remove(entry.key);
+		if (previous != null)
+			size -= previous.size();
+		// Another URL may have the same file name
+		for (final Iterator<Entry> iterator = entries.values().iterator(); iterator
+				.hasNext();) {
+			final Entry other = iterator.next();
+			if (other.file.equals(entry.file)) {
+				size -= other.size();
+				iterator.remove();
+			}
+		}
+		final File target = entry.file;
+		target.delete();
+		if (!entry.temporary.renameTo(target)) {
+			entry.temporary.delete();
+			return;
+		}
+		entry.temporary = null;
+		entries.put(entry.key, entry);
+		size += entry.size();
+		evict();
+	}
+
+	/**
+	 * Evicts the least recently used responses until the cache fits in its
+	 * maximum size
+	 */
+	private void evict() {
+		final Iterator<Entry> eldest = entries.values().iterator();
+		while (size > maxSize && eldest.hasNext()) {
+			final Entry evicted = eldest.next();
+			eldest.remove();
+			size -= evicted.size();
+			evicted.file.delete();
+		}
+	}
+
+	/**
+	 * Rebuilds the index from the files of the directory, the most recently
+	 * written ones being considered the most recently used
+	 */
+	private synchronized void load() {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			Activator.sendWarningToErrorLog("Unable to create the cache directory "
+					+ directory);
+			return;
+		}
+		final File[] files = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(final File file) {
+				if (file.getName().endsWith(TEMPORARY_SUFFIX))
+					file.delete();
+				return file.getName().endsWith(SUFFIX);
+			}
+		});
+		if (files == null)
+			return;
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(final File f1, final File f2) {
+				final long t1 = f1.lastModified();
+				final long t2 = f2.lastModified();
+				return t1 < t2 ? -1 : t1 == t2 ? 0 : 1;
+			}
+		});
+		for (final File file : files)
+			try {
+				final Entry entry = read(file);
+				entries.put(entry.key, entry);
+				size += entry.size();
+			} catch (final IOException e) {
+				file.delete();
+			}
+		evict();
+	}
+
+	/**
+	 * Reads the beginning of a file, up to the body
+	 */
+	private static Entry read(final File file) throws IOException {
+		final RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			final byte[] bytes = new byte[(int) Math.min(input.length(), 65536)];
+			input.readFully(bytes);
+			final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			final String magic = readLine(buffer);
+			final String key = readLine(buffer);
+			final String expires = readLine(buffer);
+			final int end = HttpHead.endOf(buffer);
+			if (!MAGIC.equals(magic) || expires == null || end < 0)
+				throw new IOException("Invalid cache entry");
+			final HttpHead head = HttpHead.parse(buffer, end);
+			final Entry entry = new Entry(key, file, head, end, input.length()
+					- end);
+			entry.expires = Long.parseLong(expires);
+			if (!String.valueOf(entry.length).equals(head.get("Content-Length")))
+				throw new IOException("Truncated cache entry");
+			return entry;
+		} catch (final NumberFormatException e) {
+			throw new IOException("Invalid cache entry");
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * @return the next line of the buffer, or null if there is none
+	 */
+	private static String readLine(final ByteBuffer buffer)
+			throws UnsupportedEncodingException {
+		for (int i = buffer.position(); i < buffer.limit(); i++)
+			if (buffer.get(i) == '\n') {
+				final String line = new String(buffer.array(),
+						buffer.position(), i - buffer.position(), CHARSET);
+				buffer.position(i + 1);
+				return line;
+			}
+		return null;
+	}
+
+	/**
+	 * @return the name of the file of a key, from a 64-bit FNV-1a hash
+	 */
+	private static String fileName(final String key) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return Long.toHexString(hash) + SUFFIX;
+	}
+
+	/**
+	 * A cached response
+	 */
+	static final class Entry {
+
+		final String key;
+
+		final File file;
+
+		/**
+		 * The head of the response, without the hop-by-hop fields
+		 */
+		final HttpHead head;
+
+		/**
+		 * Position of the body in the file
+		 */
+		final long offset;
+
+		/**
+		 * Length of the body
+		 */
+		final long length;
+
+		/**
+		 * Expiration time, in milliseconds since the epoch
+		 */
+		volatile long expires;
+
+		/**
+		 * The file being written, until the entry is complete
+		 */
+		File temporary;
+
+		Entry(final String key, final File file, final HttpHead head,
+				final long offset, final long length) {
+			this.key = key;
+			this.file = file;
+			this.head = head;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		/**
+		 * @return the size of the file
+		 */
+		long size() {
+			return offset + length;
+		}
+
+		/**
+		 * @return true if the response can be served without being
+		 *         revalidated
+		 */
+		boolean isFresh() {
+			return System.currentTimeMillis() < expires;
+		}
+
+		/**
+		 * @return true if the response can be revalidated
+		 */
+		boolean isRevalidable() {
+			return head.get("ETag") != null
+					|| head.get("Last-Modified") != null;
+		}
+
+		/**
+		 * Opens the file, so that it can still be read if the entry is
+		 * evicted meanwhile
+		 * 
+		 * @return a {@link FileChannel} to read the body from
+		 */
+		FileChannel open() throws IOException {
+			return new FileInputStream(file).getChannel();
+		}
+	}
+
+	/**
+	 * Stores a response in a temporary file while its body goes through the
+	 * relay, the response being added to the cache once complete. The methods
+	 * only hand the work over to the background thread, which runs it in
+	 * order.
+	 */
+	final class Writer {
+
+		private final Entry entry;
+
+		/**
+		 * The beginning of the file, up to the body
+		 */
+		private final ByteBuffer prefix;
+
+		/**
+		 * Amount of bytes of the body handed over
+		 */
+		private long written;
+
+		private volatile boolean failed;
+
+		/**
+		 * Used by the background thread only
+		 */
+		private RandomAccessFile output;
+
+		Writer(final String key, final HttpHead head, final long length,
+				final long expires) throws UnsupportedEncodingException {
+			final File file = new File(directory, fileName(key));
+			final byte[] magic = (MAGIC + "\n" + key + "\n" + expires + "\n")
+					.getBytes(CHARSET);
+			final ByteBuffer headBytes = head.toBuffer();
+			prefix = ByteBuffer.allocate(magic.length + headBytes.remaining());
+			prefix.put(magic).put(headBytes).flip();
+			entry = new Entry(key, file, head, prefix.remaining(), length);
+			entry.expires = expires;
+			submit(prefix.remaining(), new Runnable() {
+				@Override
+				public void run() {
+					try {
+						entry.temporary = File.createTempFile("response",
+								TEMPORARY_SUFFIX, directory);
+						output = new RandomAccessFile(entry.temporary, "rw");
+					} catch (final IOException e) {
+						Activator.sendWarningToErrorLog("Unable to cache "
+								+ entry.key + ": " + e.getMessage());
+						failed = true;
+						return;
+					}
+					append(prefix);
+				}
+			});
+		}
+
+		/**
+		 * Stores some bytes of the body, failures only prevent the response
+		 * from being cached. The bytes are copied, the buffer can be reused
+		 * right away.
+		 */
+		void write(final ByteBuffer bytes) {
+			if (failed)
+				return;
+			written += bytes.remaining();
+			// The disk doesn't keep up, the response isn't worth the memory
+			if (pending.get() + bytes.remaining() > MAX_PENDING) {
+				abort();
+				return;
+			}
+			final ByteBuffer copy = ByteBuffer.allocate(bytes.remaining());
+			copy.put(bytes).flip();
+			submit(copy.remaining(), new Runnable() {
+				@Override
+				public void run() {
+					append(copy);
+				}
+			});
+		}
+
+		/**
+		 * Adds the response to the cache if its body is complete, drops it
+		 * otherwise
+		 */
+		void commit() {
+			if (failed)
+				return;
+			if (written != entry.length) {
+				abort();
+				return;
+			}
+			submit(0, new Runnable() {
+				@Override
+				public void run() {
+					if (failed)
+						return;
+					try {
+						output.close();
+					} catch (final IOException e) {
+						drop();
+						return;
+					}
+					add(entry);
+				}
+			});
+		}
+
+		/**
+		 * Drops the response
+		 */
+		void abort() {
+			failed = true;
+			submit(0, new Runnable() {
+				@Override
+				public void run() {
+					drop();
+				}
+			});
+		}
+
+		/**
+		 * Hands some work over to the background thread
+		 * 
+		 * @param bytes
+		 *            the amount of bytes the task writes
+		 */
+		private void submit(final int bytes, final Runnable task) {
+			pending.addAndGet(bytes);
+			writer.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						task.run();
+					} finally {
+						pending.addAndGet(-bytes);
+					}
+				}
+			});
+		}
+
+		/**
+		 * Writes some bytes in the background thread
+		 */
+		private void append(final ByteBuffer bytes) {
+			if (failed)
+				return;
+			try {
+				final FileChannel channel = output.getChannel();
+				while (bytes.hasRemaining())
+					channel.write(bytes);
+			} catch (final IOException e) {
+				drop();
+			}
+		}
+
+		/**
+		 * Deletes the file in the background thread
+		 */
+		private void drop() {
+			failed = true;
+			if (output != null)
+				try {
+					output.close();
+				} catch (final IOException e) {
+					// The file is deleted anyway
+				}
+			if (entry.temporary != null)
+				entry.temporary.delete();
+		}
+	}
+
+	/**
+	 * @return the head of a cached response, as sent to the client
+	 */
+	static HttpHead served(final Entry entry) {
+		return entry.head.copy().set("X-Cache", "HIT");
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Remembers, for each host, whether the {@link RelayProxy} reached it
+ * directly or through the proxy the last time it raced both routes (see
+ * {@link RouteRacer})
+ * </p>
+ * <p>
+ * Routes are kept in a bounded {@link LruCache}, and expire after
+ * {@link #TIME_TO_LIVE} milliseconds so that a host moving behind the proxy,
+ * or out of it, is raced again. The hosts learned to be reachable directly
+ * can be added to the nonProxyHosts of the active profile, see
+ * {@link ProxyHelper#promoteDirectHosts(java.util.Collection)}.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class RouteCache {
+
+	/**
+	 * Amount of hosts whose route is kept
+	 */
+	public static final int CACHE_SIZE = 1024;
+
+	/**
+	 * Time after which a learned route is raced again, in milliseconds
+	 */
+	public static final long TIME_TO_LIVE = 10 * 60 * 1000;
+
+	/**
+	 * The routes a connection can take
+	 */
+	public static enum Route {
+		/**
+		 * Straight to the host
+		 */
+		DIRECT,
+		/**
+		 * Through a CONNECT tunnel of the upstream proxy
+		 */
+		PROXY
+	}
+
+	/**
+	 * The shared instance
+	 */
+	private static RouteCache instance;
+
+	private final LruCache<String, Learned> routes = new LruCache<String, Learned>(
+			CACHE_SIZE);
+
+	private final AtomicLong directWins = new AtomicLong();
+
+	private final AtomicLong proxyWins = new AtomicLong();
+
+	/**
+	 * Creates a cache, use {@link #getDefault()} to get the shared instance
+	 */
+	protected RouteCache() {
+	}
+
+	/**
+	 * @return the shared instance, kept while the relay restarts
+	 */
+	public static synchronized RouteCache getDefault() {
+		if (instance == null)
+			instance = new RouteCache();
+		return instance;
+	}
+
+	/**
+	 * @param host
+	 *            a host name or address
+	 * @return the route learned for the host, or null if it's unknown or
+	 *         expired
+	 */
+	public Route get(final String host) {
+		return get(host, System.currentTimeMillis());
+	}
+
+	/**
+	 * @see #get(String)
+	 * @param now
+	 *            the current time, in milliseconds
+	 */
+	Route get(final String host, final long now) {
+		final Learned learned = routes.get(key(host));
+		return learned != null && now < learned.expires ? learned.route
+				: null;
+	}
+
+	/**
+	 * Remembers the route which won a race
+	 * 
+	 * @param host
+	 *            a host name or address
+	 * @param route
+	 *            the {@link Route} to use for the host
+	 */
+	public void learn(final String host, final Route route) {
+		learn(host, route, System.currentTimeMillis());
+	}
+
+	/**
+	 * @see #learn(String, Route)
+	 * @param now
+	 *            the current time, in milliseconds
+	 */
+	void learn(final String host, final Route route, final long now) {
+		routes.put(key(host), new Learned(route, now + TIME_TO_LIVE));
+		(route == Route.DIRECT ? directWins : proxyWins).incrementAndGet();
+	}
+
+	/**
+	 * Forgets the route of a host, so that the next connection races again
+	 * 
+	 * @param host
+	 *            a host name or address
+	 */
+	public void forget(final String host) {
+		routes.put(key(host), new Learned(null, 0));
+	}
+
+	/**
+	 * Drops all the learned routes
+	 */
+	public void clear() {
+		routes.clear();
+	}
+
+	/**
+	 * @return the hosts currently known to be reachable directly, which are
+	 *         candidates for the nonProxyHosts
+	 */
+	public List<String> getDirectHosts() {
+		return getDirectHosts(System.currentTimeMillis());
+	}
+
+	/**
+	 * @see #getDirectHosts()
+	 * @param now
+	 *            the current time, in milliseconds
+	 */
+	List<String> getDirectHosts(final long now) {
+		final List<String> hosts = new ArrayList<String>();
+		for (final Map.Entry<String, Learned> entry : routes.snapshot()
+				.entrySet())
+			if (entry.getValue().route == Route.DIRECT
+					&& now < entry.getValue().expires)
+				hosts.add(entry.getKey());
+		return hosts;
+	}
+
+	/**
+	 * @return the amount of races won by the direct route
+	 */
+	public long getDirectWins() {
+		return directWins.get();
+	}
+
+	/**
+	 * @return the amount of races won by the proxy
+	 */
+	public long getProxyWins() {
+		return proxyWins.get();
+	}
+
+	private static String key(final String host) {
+		return host.toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * A learned route and its expiration time
+	 */
+	private static final class Learned {
+
+		final Route route;
+
+		final long expires;
+
+		Learned(final Route route, final long expires) {
+			this.route = route;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,342 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>
+ * Races a direct connection to a host against a CONNECT tunnel through the
+ * upstream proxy, the way <i>happy eyeballs</i> races IPv6 against IPv4, and
+ * hands the first established connection to the {@link RelayProxy}
+ * </p>
+ * <p>
+ * The direct connection starts first. The tunnel starts {@link #RACE_DELAY}
+ * milliseconds later, or as soon as the direct connection fails, so that
+ * internal hosts answering quickly never cost a tunnel, while external hosts
+ * whose direct connections are silently dropped only cost the delay. The
+ * loser is closed, and the winner is remembered in the {@link RouteCache} so
+ * that the next connections to the host don't race. A host known to be
+ * reachable directly is connected to directly, falling back to the proxy if
+ * it isn't anymore.
+ * </p>
+ * <p>
+ * Races use blocking connections, in their own threads, so that resolving the
+ * host never blocks the thread of the relay.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+final class RouteRacer {
+
+	/**
+	 * Head start of the direct connection, in milliseconds
+	 */
+	static final long RACE_DELAY = 250;
+
+	/**
+	 * Time after which a connection attempt fails, in milliseconds
+	 */
+	static final int CONNECT_TIMEOUT = 10000;
+
+	/**
+	 * Maximum size of the response of the upstream proxy to a CONNECT
+	 */
+	private static final int MAX_HEAD_SIZE = 65536;
+
+	private final ExecutorService executor = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable,
+							"eProxy route racer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * Receives the outcome of a race, in the thread of the winner
+	 */
+	interface Callback {
+
+		/**
+		 * @param channel
+		 *            the established connection, in blocking mode
+		 * @param leftover
+		 *            bytes already received from the host, in read mode
+		 */
+		void won(SocketChannel channel, ByteBuffer leftover);
+
+		/**
+		 * @param error
+		 *            the error of the last route which failed
+		 */
+		void lost(IOException error);
+	}
+
+	/**
+	 * Connects to a host, racing both routes unless one is known
+	 * 
+	 * @param host
+	 *            the host to connect to
+	 * @param port
+	 *            its port
+	 * @param known
+	 *            the route learned for the host, null if it's unknown
+	 * @param endpoint
+	 *            the upstream proxy
+	 * @param routes
+	 *            the {@link RouteCache} to record the winner into
+	 * @param callback
+	 *            the {@link Callback} to call once a connection is
+	 *            established or both routes failed
+	 */
+	void race(final String host, final int port,
+			final RouteCache.Route known, final UpstreamPool.Endpoint endpoint,
+			final RouteCache routes, final Callback callback) {
+		final Race race = new Race(host, known, routes, callback);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				race.attempt(RouteCache.Route.DIRECT, host, port, endpoint);
+			}
+		});
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (race.awaitHeadStart())
+					race.attempt(RouteCache.Route.PROXY, host, port, endpoint);
+			}
+		});
+	}
+
+	/**
+	 * Stops all the races
+	 */
+	void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * The state of a race, shared by its two attempts
+	 */
+	private static final class Race {
+
+		private final String host;
+
+		private final RouteCache.Route known;
+
+		private final RouteCache routes;
+
+		private final Callback callback;
+
+		/**
+		 * Channels of the attempts, closed once the race is decided
+		 */
+		private final List<SocketChannel> channels = new ArrayList<SocketChannel>(
+				2);
+
+		private boolean decided;
+
+		private boolean directFailed;
+
+		private int failures;
+
+		Race(final String host, final RouteCache.Route known,
+				final RouteCache routes, final Callback callback) {
+			this.host = host;
+			this.known = known;
+			this.routes = routes;
+			this.callback = callback;
+		}
+
+		/**
+		 * Waits for the head start of the direct connection, or for the whole
+		 * direct attempt if the host is known to be reachable directly
+		 * 
+		 * @return true if the tunnel should be attempted
+		 */
+		synchronized boolean awaitHeadStart() {
+			final long deadline = System.currentTimeMillis() + RACE_DELAY;
+			long remaining = RACE_DELAY;
+			try {
+				while (!decided && !directFailed
+						&& (known == RouteCache.Route.DIRECT || remaining > 0)) {
+					wait(known == RouteCache.Route.DIRECT ? 0 : remaining);
+					remaining = deadline - System.currentTimeMillis();
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			return !decided;
+		}
+
+		/**
+		 * Establishes a connection through one of the routes
+		 */
+		void attempt(final RouteCache.Route route, final String host,
+				final int port, final UpstreamPool.Endpoint endpoint) {
+			SocketChannel channel = null;
+			try {
+				channel = SocketChannel.open();
+				if (!register(channel))
+					return;
+				ByteBuffer leftover = ByteBuffer.allocate(0);
+				if (route == RouteCache.Route.DIRECT) {
+					final InetSocketAddress address = new InetSocketAddress(
+							host, port);
+					if (address.isUnresolved())
+						throw new UnknownHostException(host);
+					channel.socket().connect(address, CONNECT_TIMEOUT);
+				} else {
+					channel.socket().connect(endpoint.address, CONNECT_TIMEOUT);
+					leftover = tunnel(channel, host, port, endpoint);
+				}
+				if (!win(channel, route, leftover))
+					close(channel);
+			} catch (final IOException e) {
+				close(channel);
+				fail(route, e);
+			}
+		}
+
+		private synchronized boolean register(final SocketChannel channel) {
+			if (decided) {
+				close(channel);
+				return false;
+			}
+			channels.add(channel);
+			return true;
+		}
+
+		private synchronized boolean win(final SocketChannel channel,
+				final RouteCache.Route route, final ByteBuffer leftover) {
+			if (decided)
+				return false;
+			decided = true;
+			notifyAll();
+			for (final SocketChannel other : channels)
+				if (other != channel)
+					close(other);
+			if (route != known)
+				routes.learn(host, route);
+			callback.won(channel, leftover);
+			return true;
+		}
+
+		private synchronized void fail(final RouteCache.Route route,
+				final IOException error) {
+			if (route == RouteCache.Route.DIRECT)
+				directFailed = true;
+			failures++;
+			notifyAll();
+			if (failures == 2 && !decided) {
+				decided = true;
+				if (known != null)
+					routes.forget(host);
+				callback.lost(error);
+			}
+		}
+
+		/**
+		 * Asks the upstream proxy for a tunnel to the host
+		 * 
+		 * @return the bytes received after the response of the proxy
+		 */
+		private static ByteBuffer tunnel(final SocketChannel channel,
+				final String host, final int port,
+				final UpstreamPool.Endpoint endpoint) throws IOException {
+			final String authority = (host.indexOf(':') >= 0 ? "[" + host
+					+ "]" : host)
+					+ ":" + port;
+			final StringBuilder request = new StringBuilder(256);
+			request.append("CONNECT ").append(authority)
+					.append(" HTTP/1.1\r\nHost: ").append(authority)
+					.append("\r\n");
+			if (endpoint.authorization != null)
+				request.append("Proxy-Authorization: ")
+						.append(endpoint.authorization).append("\r\n");
+			request.append("\r\n");
+			final ByteBuffer head = ByteBuffer.wrap(request.toString()
+					.getBytes("ISO-8859-1"));
+			while (head.hasRemaining())
+				channel.write(head);
+			channel.socket().setSoTimeout(CONNECT_TIMEOUT);
+			final InputStream in = channel.socket().getInputStream();
+			final ByteBuffer response = ByteBuffer.allocate(MAX_HEAD_SIZE);
+			int end;
+			while ((end = HttpHead.endOf((ByteBuffer) response.duplicate()
+					.flip())) < 0) {
+				if (!response.hasRemaining())
+					throw new IOException("Response of the proxy too large");
+				final int read = in.read(response.array(),
+						response.position(), response.remaining());
+				if (read < 0)
+					throw new IOException("Proxy closed the connection");
+				response.position(response.position() + read);
+			}
+			response.flip();
+			final HttpHead status = HttpHead.parse(response, end);
+			if (status.getStatus() / 100 != 2)
+				throw new IOException("Proxy refused the tunnel: " + status);
+			channel.socket().setSoTimeout(0);
+			return response.slice();
+		}
+
+		private static void close(final SocketChannel channel) {
+			if (channel != null)
+				try {
+					channel.close();
+				} catch (final IOException e) {
+					// Nothing to do, the attempt is over anyway
+				}
+		}
+	}
+}
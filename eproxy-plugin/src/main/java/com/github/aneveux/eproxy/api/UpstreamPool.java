@@ -0,0 +1,347 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.api;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import com.github.aneveux.eproxy.data.EProxy;
+
+/**
+ * <p>
+ * The keep-alive connections of the {@link RelayProxy} to its upstream proxy
+ * </p>
+ * <p>
+ * Once a response has been relayed, its upstream connection is given back to
+ * the pool instead of being closed, and the next request reuses it, saving
+ * both the TCP and the authentication handshakes. Idle connections are kept
+ * registered in the {@link Selector} of the relay, without any interest, and
+ * at most {@link #MAX_IDLE} of them are kept for {@link #IDLE_TIMEOUT}
+ * milliseconds. The pool is only used by the thread of the relay.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+final class UpstreamPool {
+
+	/**
+	 * Maximum amount of idle connections
+	 */
+	static final int MAX_IDLE = 8;
+
+	/**
+	 * Time after which an idle connection is closed, in milliseconds
+	 */
+	static final long IDLE_TIMEOUT = 30000;
+
+	/**
+	 * Idle connections, the most recently released last
+	 */
+	private final ArrayDeque<Idle> idle = new ArrayDeque<Idle>();
+
+	private volatile long opened;
+
+	private volatile long reused;
+
+	/**
+	 * Allows to get an idle connection to the upstream proxy. The upstream
+	 * proxy may still close it before reading the next request, which can
+	 * then be sent again through a new connection.
+	 * 
+	 * @param endpoint
+	 *            the upstream proxy
+	 * @param attachment
+	 *            the object to attach to the {@link SelectionKey}
+	 * @return the {@link SelectionKey} of the connection, or null if there is
+	 *         no idle connection to this upstream proxy
+	 */
+	SelectionKey reuse(final Endpoint endpoint, final Object attachment) {
+		final long now = System.currentTimeMillis();
+		while (!idle.isEmpty()) {
+			final Idle candidate = idle.pollLast();
+			if (candidate.endpoint.equals(endpoint)
+					&& now - candidate.since < IDLE_TIMEOUT
+					&& isAlive(candidate.key)) {
+				candidate.key.attach(attachment);
+				reused++;
+				return candidate.key;
+			}
+			close(candidate.key);
+		}
+		return null;
+	}
+
+	/**
+	 * Allows to open a new connection to the upstream proxy, which may still
+	 * be connecting
+	 * 
+	 * @param endpoint
+	 *            the upstream proxy
+	 * @param selector
+	 *            the {@link Selector} of the relay
+	 * @param attachment
+	 *            the object to attach to the {@link SelectionKey}
+	 * @return the {@link SelectionKey} of the connection
+	 * @throws IOException
+	 *             if the connection can't be opened
+	 */
+	SelectionKey connect(final Endpoint endpoint, final Selector selector,
+			final Object attachment) throws IOException {
+		final SocketChannel channel = SocketChannel.open();
+		try {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			final boolean connected = channel.connect(endpoint.address);
+			opened++;
+			return channel.register(selector, connected ? 0
+					: SelectionKey.OP_CONNECT, attachment);
+		} catch (final IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives a connection back to the pool, once a response has been fully
+	 * relayed
+	 * 
+	 * @param key
+	 *            the {@link SelectionKey} of the connection
+	 * @param endpoint
+	 *            the upstream proxy it's connected to
+	 */
+	void release(final SelectionKey key, final Endpoint endpoint) {
+		if (!key.isValid())
+			return;
+		key.interestOps(0);
+		key.attach(null);
+		idle.addLast(new Idle(key, endpoint, System.currentTimeMillis()));
+		while (idle.size() > MAX_IDLE)
+			close(idle.pollFirst().key);
+	}
+
+	/**
+	 * Closes the connections which have been idle for too long
+	 */
+	void evict() {
+		final long now = System.currentTimeMillis();
+		final Iterator<Idle> iterator = idle.iterator();
+		while (iterator.hasNext()) {
+			final Idle candidate = iterator.next();
+			if (now - candidate.since >= IDLE_TIMEOUT) {
+				iterator.remove();
+				close(candidate.key);
+			}
+		}
+	}
+
+	/**
+	 * Closes all the idle connections
+	 */
+	void clear() {
+		while (!idle.isEmpty())
+			close(idle.pollFirst().key);
+	}
+
+	/**
+	 * @return the amount of idle connections
+	 */
+	int size() {
+		return idle.size();
+	}
+
+	/**
+	 * @return the amount of connections opened to the upstream proxy
+	 */
+	long getOpened() {
+		return opened;
+	}
+
+	/**
+	 * @return the amount of requests which reused an idle connection
+	 */
+	long getReused() {
+		return reused;
+	}
+
+	/**
+	 * An idle connection should have nothing to read: reading it shows if the
+	 * upstream proxy closed it meanwhile
+	 */
+	private static boolean isAlive(final SelectionKey key) {
+		if (!key.isValid())
+			return false;
+		try {
+			return ((SocketChannel) key.channel()).read(ByteBuffer.allocate(1)) == 0;
+		} catch (final IOException e) {
+			return false;
+		}
+	}
+
+	static void close(final SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (final IOException e) {
+			// Nothing to do, the connection is dropped anyway
+		}
+	}
+
+	/**
+	 * An idle connection
+	 */
+	private static final class Idle {
+
+		final SelectionKey key;
+
+		final Endpoint endpoint;
+
+		final long since;
+
+		Idle(final SelectionKey key, final Endpoint endpoint, final long since) {
+			this.key = key;
+			this.endpoint = endpoint;
+			this.since = since;
+		}
+	}
+
+	/**
+	 * The address of the upstream proxy and the credentials to use with it,
+	 * resolved once when the relay is configured so that the thread of the
+	 * relay never waits for the DNS
+	 */
+	static final class Endpoint {
+
+		final InetSocketAddress address;
+
+		/**
+		 * Value of the <i>Proxy-Authorization</i> field, null if the upstream
+		 * proxy doesn't require authentication
+		 */
+		final String authorization;
+
+		private Endpoint(final InetSocketAddress address,
+				final String authorization) {
+			this.address = address;
+			this.authorization = authorization;
+		}
+
+		/**
+		 * @param proxy
+		 *            the upstream {@link EProxy}
+		 * @return the {@link Endpoint} of its HTTP proxy
+		 * @throws IOException
+		 *             if its host can't be resolved
+		 */
+		static Endpoint of(final EProxy proxy) throws IOException {
+			final InetSocketAddress address = new InetSocketAddress(
+					proxy.getHost(), proxy.getPort());
+			if (address.isUnresolved())
+				throw new IOException("Unknown host: " + proxy.getHost());
+			String authorization = null;
+			if (proxy.isAuthenticationRequired() && proxy.getUser() != null)
+				authorization = "Basic "
+						+ base64(proxy.getUser()
+								+ ":"
+								+ (proxy.getPassword() != null ? proxy
+										.getPassword() : ""));
+			return new Endpoint(address, authorization);
+		}
+
+		static String base64(final String value) {
+			final char[] alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+					.toCharArray();
+			final byte[] bytes;
+			try {
+				bytes = value.getBytes("UTF-8");
+			} catch (final UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+			final StringBuilder builder = new StringBuilder(
+					(bytes.length + 2) / 3 * 4);
+			for (int i = 0; i < bytes.length; i += 3) {
+				final int b0 = bytes[i] & 0xff;
+				final int b1 = i + 1 < bytes.length ? bytes[i + 1] & 0xff : 0;
+				final int b2 = i + 2 < bytes.length ? bytes[i + 2] & 0xff : 0;
+				builder.append(alphabet[b0 >> 2]);
+				builder.append(alphabet[(b0 & 0x03) << 4 | b1 >> 4]);
+				builder.append(i + 1 < bytes.length ? alphabet[(b1 & 0x0f) << 2
+						| b2 >> 6] : '=');
+				builder.append(i + 2 < bytes.length ? alphabet[b2 & 0x3f] : '=');
+			}
+			return builder.toString();
+		}
+
+		/**
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Endpoint))
+				return false;
+			final Endpoint other = (Endpoint) obj;
+			return address.equals(other.address)
+					&& (authorization == null ? other.authorization == null
+							: authorization.equals(other.authorization));
+		}
+
+		/**
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return address.hashCode() * 31
+					+ (authorization != null ? authorization.hashCode() : 0);
+		}
+
+		/**
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return address.toString();
+		}
+	}
+}
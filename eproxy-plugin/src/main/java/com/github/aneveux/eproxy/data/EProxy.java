@@ -34,9 +34,10 @@
  */
 package com.github.aneveux.eproxy.data;
 
-import java.util.ArrayList;
 import java.util.List;
 
+import com.github.aneveux.eproxy.api.NonProxyHostParser;
+
 /**
  * EProxy stands for EasyProxy and is actually a container of information in
  * order to describe a Proxy
@@ -87,6 +88,82 @@ public class EProxy {
 	 */
 	protected String[] nonProxyHosts;
 
+	/**
+	 * Location of a PAC (Proxy Auto-Config) script to use in order to choose
+	 * the proxy for each URI, null if there is none
+	 * 
+	 * @since 1.2
+	 */
+	protected String pacLocation;
+
+	/**
+	 * Host of the proxy to use for HTTPS, null to use {@link #host}
+	 * 
+	 * @since 1.2
+	 */
+	protected String httpsHost;
+
+	/**
+	 * Port of the proxy to use for HTTPS, if {@link #httpsHost} is defined
+	 * 
+	 * @since 1.2
+	 */
+	protected int httpsPort;
+
+	/**
+	 * Host of the SOCKS proxy, null to keep the SOCKS configuration as it is
+	 * 
+	 * @since 1.2
+	 */
+	protected String socksHost;
+
+	/**
+	 * Port of the SOCKS proxy, if {@link #socksHost} is defined
+	 * 
+	 * @since 1.2
+	 */
+	protected int socksPort;
+
+	/**
+	 * Proxies to fall back on, in order, when this one isn't reachable
+	 * anymore. Each of them is given as <i>host:port</i>, IPv6 hosts being
+	 * enclosed in brackets
+	 * 
+	 * @since 1.2
+	 */
+	protected String[] failoverProxies;
+
+	/**
+	 * Should be true to go through the local relay, which keeps authenticated
+	 * connections to the proxy open for all the Eclipse transports
+	 * 
+	 * @since 1.2
+	 */
+	protected boolean relayEnabled;
+
+	/**
+	 * Should be true to cache the plain HTTP responses in the local relay
+	 * 
+	 * @since 1.2
+	 */
+	protected boolean cacheEnabled;
+
+	/**
+	 * The hosts whose responses are cached, with the same syntax as
+	 * {@link #nonProxyHosts}, all the hosts being cached if there is none
+	 * 
+	 * @since 1.2
+	 */
+	protected String[] cachedHosts;
+
+	/**
+	 * Should be true to race direct connections against the proxy in the
+	 * local relay, and learn which hosts don't need the proxy
+	 * 
+	 * @since 1.2
+	 */
+	protected boolean directRacingEnabled;
+
 	/**
 	* Default constructor
 	*/
@@ -96,6 +173,8 @@ public class EProxy {
 		this.port = 0;
 		this.authenticationRequired = false;
 		this.nonProxyHosts = new String[0];
+		this.failoverProxies = new String[0];
+		this.cachedHosts = new String[0];
 	}
 
 	/**
@@ -224,16 +303,202 @@ public class EProxy {
 
 	/**
 	 * Allows to define all the nonProxyHosts from a string with hosts separated
-	 * by a comma
+	 * by a comma, a semicolon, a <i>|</i> or a new line. Entries are trimmed
+	 * and lower cased, duplicates and entries which can't be used are dropped
+	 * (see {@link NonProxyHostParser} to get the details about them)
 	 * 
 	 * @param toParse
-	 *            a string which contains hosts separated by a comma
+	 *            a string which contains the hosts to bypass
 	 */
 	public EProxy setNonProxyHosts(String toParse) {
-		ArrayList<String> array = new ArrayList<String>();
-		for (String s : toParse.split(","))
-			array.add(s.trim());
-		this.setNonProxyHosts(array);
+		this.nonProxyHosts = NonProxyHostParser.parse(toParse).getHosts();
+		return this;
+	}
+
+	/**
+	 * @return the PAC script location
+	 * @since 1.2
+	 */
+	public String getPacLocation() {
+		return pacLocation;
+	}
+
+	/**
+	 * @param pacLocation
+	 *            the PAC script location to set, null to disable PAC
+	 * @since 1.2
+	 */
+	public EProxy setPacLocation(String pacLocation) {
+		this.pacLocation = pacLocation;
+		return this;
+	}
+
+	/**
+	 * @return the HTTPS proxy host, or null if HTTPS uses the same proxy as
+	 *         HTTP
+	 * @since 1.2
+	 */
+	public String getHttpsHost() {
+		return httpsHost;
+	}
+
+	/**
+	 * @param httpsHost
+	 *            the HTTPS proxy host to set, null to use the same proxy as
+	 *            HTTP
+	 * @since 1.2
+	 */
+	public EProxy setHttpsHost(String httpsHost) {
+		this.httpsHost = httpsHost;
+		return this;
+	}
+
+	/**
+	 * @return the HTTPS proxy port
+	 * @since 1.2
+	 */
+	public int getHttpsPort() {
+		return httpsPort;
+	}
+
+	/**
+	 * @param httpsPort
+	 *            the HTTPS proxy port to set
+	 * @since 1.2
+	 */
+	public EProxy setHttpsPort(int httpsPort) {
+		this.httpsPort = httpsPort;
+		return this;
+	}
+
+	/**
+	 * @return the SOCKS proxy host, or null if the SOCKS proxy isn't managed
+	 * @since 1.2
+	 */
+	public String getSocksHost() {
+		return socksHost;
+	}
+
+	/**
+	 * @param socksHost
+	 *            the SOCKS proxy host to set, null to keep the SOCKS
+	 *            configuration as it is
+	 * @since 1.2
+	 */
+	public EProxy setSocksHost(String socksHost) {
+		this.socksHost = socksHost;
+		return this;
+	}
+
+	/**
+	 * @return the SOCKS proxy port
+	 * @since 1.2
+	 */
+	public int getSocksPort() {
+		return socksPort;
+	}
+
+	/**
+	 * @param socksPort
+	 *            the SOCKS proxy port to set
+	 * @since 1.2
+	 */
+	public EProxy setSocksPort(int socksPort) {
+		this.socksPort = socksPort;
+		return this;
+	}
+
+	/**
+	 * @return the failover proxies, as <i>host:port</i>, in order
+	 * @since 1.2
+	 */
+	public String[] getFailoverProxies() {
+		return failoverProxies;
+	}
+
+	/**
+	 * @param failoverProxies
+	 *            the failover proxies to set, as <i>host:port</i>, in order
+	 * @since 1.2
+	 */
+	public EProxy setFailoverProxies(String[] failoverProxies) {
+		this.failoverProxies = failoverProxies != null ? failoverProxies
+				: new String[0];
+		return this;
+	}
+
+	/**
+	 * @return true if the local relay should be used
+	 * @since 1.2
+	 */
+	public boolean isRelayEnabled() {
+		return relayEnabled;
+	}
+
+	/**
+	 * @param relayEnabled
+	 *            true to go through the local relay
+	 * @since 1.2
+	 */
+	public EProxy setRelayEnabled(boolean relayEnabled) {
+		this.relayEnabled = relayEnabled;
+		return this;
+	}
+
+	/**
+	 * @return true if the plain HTTP responses should be cached, which implies
+	 *         the local relay
+	 * @since 1.2
+	 */
+	public boolean isCacheEnabled() {
+		return cacheEnabled;
+	}
+
+	/**
+	 * @param cacheEnabled
+	 *            true to cache the plain HTTP responses
+	 * @since 1.2
+	 */
+	public EProxy setCacheEnabled(boolean cacheEnabled) {
+		this.cacheEnabled = cacheEnabled;
+		return this;
+	}
+
+	/**
+	 * @return the hosts whose responses are cached
+	 * @since 1.2
+	 */
+	public String[] getCachedHosts() {
+		return cachedHosts;
+	}
+
+	/**
+	 * @param cachedHosts
+	 *            the hosts whose responses are cached, none to cache all the
+	 *            hosts
+	 * @since 1.2
+	 */
+	public EProxy setCachedHosts(String[] cachedHosts) {
+		this.cachedHosts = cachedHosts != null ? cachedHosts : new String[0];
+		return this;
+	}
+
+	/**
+	 * @return true if direct connections should be raced against the proxy,
+	 *         which implies the local relay
+	 * @since 1.2
+	 */
+	public boolean isDirectRacingEnabled() {
+		return directRacingEnabled;
+	}
+
+	/**
+	 * @param directRacingEnabled
+	 *            true to race direct connections against the proxy
+	 * @since 1.2
+	 */
+	public EProxy setDirectRacingEnabled(boolean directRacingEnabled) {
+		this.directRacingEnabled = directRacingEnabled;
 		return this;
 	}
 
@@ -0,0 +1,388 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.data;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * An immutable copy of an {@link EProxy}, which can be shared between threads
+ * and jobs without any synchronization, and used as a cache key
+ * </p>
+ * <p>
+ * The arrays are copied when the snapshot is created and when they're
+ * returned, so nobody can change the snapshot afterwards. A 64-bit fingerprint
+ * of the whole content is computed once at creation: two snapshots having
+ * different fingerprints are known to be different without comparing their
+ * fields, and the hash code is derived from it.
+ * </p>
+ * <p>
+ * The reference isn't part of the content: two snapshots describing the same
+ * configuration are equal whatever their reference, so that a configuration
+ * read from Eclipse can be compared with a profile.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ * @see com.github.aneveux.eproxy.api.EProxyBuilder#snapshot()
+ */
+public final class EProxySnapshot {
+
+	private final String reference;
+
+	private final String host;
+
+	private final int port;
+
+	private final boolean authenticationRequired;
+
+	private final String user;
+
+	private final String password;
+
+	private final String[] nonProxyHosts;
+
+	private final String pacLocation;
+
+	private final String httpsHost;
+
+	private final int httpsPort;
+
+	private final String socksHost;
+
+	private final int socksPort;
+
+	private final String[] failoverProxies;
+
+	private final boolean relayEnabled;
+
+	private final boolean cacheEnabled;
+
+	private final String[] cachedHosts;
+
+	private final boolean directRacingEnabled;
+
+	/**
+	 * 64-bit FNV-1a hash of the content
+	 */
+	private final long fingerprint;
+
+	private final int hash;
+
+	private EProxySnapshot(final EProxy proxy) {
+		this.reference = proxy.getReference();
+		this.host = proxy.getHost();
+		this.port = proxy.getPort();
+		this.authenticationRequired = proxy.isAuthenticationRequired();
+		this.user = proxy.getUser();
+		this.password = proxy.getPassword();
+		this.nonProxyHosts = copy(proxy.getNonProxyHosts());
+		this.pacLocation = proxy.getPacLocation();
+		this.httpsHost = proxy.getHttpsHost();
+		this.httpsPort = proxy.getHttpsPort();
+		this.socksHost = proxy.getSocksHost();
+		this.socksPort = proxy.getSocksPort();
+		this.failoverProxies = copy(proxy.getFailoverProxies());
+		this.relayEnabled = proxy.isRelayEnabled();
+		this.cacheEnabled = proxy.isCacheEnabled();
+		this.cachedHosts = copy(proxy.getCachedHosts());
+		this.directRacingEnabled = proxy.isDirectRacingEnabled();
+		this.fingerprint = fingerprint();
+		this.hash = (int) (fingerprint ^ (fingerprint >>> 32));
+	}
+
+	/**
+	 * Allows to take a snapshot of the provided {@link EProxy}. Later changes
+	 * of the {@link EProxy} don't affect the snapshot.
+	 * 
+	 * @param proxy
+	 *            the {@link EProxy} to copy
+	 * @return the {@link EProxySnapshot}
+	 */
+	public static EProxySnapshot of(final EProxy proxy) {
+		return new EProxySnapshot(proxy);
+	}
+
+	private static String[] copy(final String[] array) {
+		return array != null ? array.clone() : new String[0];
+	}
+
+	/**
+	 * Computes the fingerprint from all the fields but the reference
+	 */
+	private long fingerprint() {
+		long h = 0xcbf29ce484222325L;
+		h = mix(h, host);
+		h = mix(h, port);
+		h = mix(h, authenticationRequired ? 1 : 0);
+		h = mix(h, user);
+		h = mix(h, password);
+		h = mix(h, nonProxyHosts);
+		h = mix(h, pacLocation);
+		h = mix(h, httpsHost);
+		h = mix(h, httpsPort);
+		h = mix(h, socksHost);
+		h = mix(h, socksPort);
+		h = mix(h, failoverProxies);
+		h = mix(h, relayEnabled ? 1 : 0);
+		h = mix(h, cacheEnabled ? 1 : 0);
+		h = mix(h, cachedHosts);
+		return mix(h, directRacingEnabled ? 1 : 0);
+	}
+
+	private static long mix(long h, final int value) {
+		for (int shift = 0; shift < 32; shift += 8) {
+			h ^= (value >>> shift) & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * Mixes the length first, -1 for null, so that consecutive values can't
+	 * be confused
+	 */
+	private static long mix(long h, final String value) {
+		if (value == null)
+			return mix(h, -1);
+		h = mix(h, value.length());
+		for (int i = 0; i < value.length(); i++) {
+			h ^= value.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	private static long mix(long h, final String[] values) {
+		h = mix(h, values.length);
+		for (final String value : values)
+			h = mix(h, value);
+		return h;
+	}
+
+	/**
+	 * @return a mutable {@link EProxy} copy of this snapshot
+	 */
+	public EProxy toEProxy() {
+		return new EProxy().setReference(reference).setHost(host)
+				.setPort(port)
+				.setAuthenticationRequired(authenticationRequired)
+				.setUser(user).setPassword(password)
+				.setNonProxyHosts(nonProxyHosts.clone())
+				.setPacLocation(pacLocation).setHttpsHost(httpsHost)
+				.setHttpsPort(httpsPort).setSocksHost(socksHost)
+				.setSocksPort(socksPort)
+				.setFailoverProxies(failoverProxies.clone())
+				.setRelayEnabled(relayEnabled).setCacheEnabled(cacheEnabled)
+				.setCachedHosts(cachedHosts.clone())
+				.setDirectRacingEnabled(directRacingEnabled);
+	}
+
+	/**
+	 * @return the 64-bit fingerprint of the content, equal for equal
+	 *         snapshots
+	 */
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * @see EProxy#getReference()
+	 */
+	public String getReference() {
+		return reference;
+	}
+
+	/**
+	 * @see EProxy#getHost()
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * @see EProxy#getPort()
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @see EProxy#isAuthenticationRequired()
+	 */
+	public boolean isAuthenticationRequired() {
+		return authenticationRequired;
+	}
+
+	/**
+	 * @see EProxy#getUser()
+	 */
+	public String getUser() {
+		return user;
+	}
+
+	/**
+	 * @see EProxy#getPassword()
+	 */
+	public String getPassword() {
+		return password;
+	}
+
+	/**
+	 * @return a copy of the hosts that the proxy should bypass
+	 * @see EProxy#getNonProxyHosts()
+	 */
+	public String[] getNonProxyHosts() {
+		return nonProxyHosts.clone();
+	}
+
+	/**
+	 * @see EProxy#getPacLocation()
+	 */
+	public String getPacLocation() {
+		return pacLocation;
+	}
+
+	/**
+	 * @see EProxy#getHttpsHost()
+	 */
+	public String getHttpsHost() {
+		return httpsHost;
+	}
+
+	/**
+	 * @see EProxy#getHttpsPort()
+	 */
+	public int getHttpsPort() {
+		return httpsPort;
+	}
+
+	/**
+	 * @see EProxy#getSocksHost()
+	 */
+	public String getSocksHost() {
+		return socksHost;
+	}
+
+	/**
+	 * @see EProxy#getSocksPort()
+	 */
+	public int getSocksPort() {
+		return socksPort;
+	}
+
+	/**
+	 * @return a copy of the failover proxies
+	 * @see EProxy#getFailoverProxies()
+	 */
+	public String[] getFailoverProxies() {
+		return failoverProxies.clone();
+	}
+
+	/**
+	 * @see EProxy#isRelayEnabled()
+	 */
+	public boolean isRelayEnabled() {
+		return relayEnabled;
+	}
+
+	/**
+	 * @see EProxy#isCacheEnabled()
+	 */
+	public boolean isCacheEnabled() {
+		return cacheEnabled;
+	}
+
+	/**
+	 * @return a copy of the cached hosts
+	 * @see EProxy#getCachedHosts()
+	 */
+	public String[] getCachedHosts() {
+		return cachedHosts.clone();
+	}
+
+	/**
+	 * @see EProxy#isDirectRacingEnabled()
+	 */
+	public boolean isDirectRacingEnabled() {
+		return directRacingEnabled;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	/**
+	 * Snapshots having different fingerprints are told apart at once, the
+	 * fields are only compared to rule out a collision
+	 */
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof EProxySnapshot))
+			return false;
+		final EProxySnapshot other = (EProxySnapshot) obj;
+		return fingerprint == other.fingerprint && port == other.port
+				&& httpsPort == other.httpsPort
+				&& socksPort == other.socksPort
+				&& authenticationRequired == other.authenticationRequired
+				&& relayEnabled == other.relayEnabled
+				&& cacheEnabled == other.cacheEnabled
+				&& directRacingEnabled == other.directRacingEnabled
+				&& eq(host, other.host) && eq(user, other.user)
+				&& eq(password, other.password)
+				&& eq(pacLocation, other.pacLocation)
+				&& eq(httpsHost, other.httpsHost)
+				&& eq(socksHost, other.socksHost)
+				&& Arrays.equals(nonProxyHosts, other.nonProxyHosts)
+				&& Arrays.equals(failoverProxies, other.failoverProxies)
+				&& Arrays.equals(cachedHosts, other.cachedHosts);
+	}
+
+	private static boolean eq(final String a, final String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	@Override
+	public String toString() {
+		return "EProxySnapshot[" + reference + ", " + host + ":" + port
+				+ ", fingerprint=" + Long.toHexString(fingerprint) + "]";
+	}
+
+}
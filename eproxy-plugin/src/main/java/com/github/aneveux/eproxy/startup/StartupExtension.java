@@ -0,0 +1,82 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.startup;
+
+import org.eclipse.core.runtime.preferences.IEclipsePreferences;
+import org.eclipse.core.runtime.preferences.InstanceScope;
+import org.eclipse.ui.IStartup;
+
+import com.github.aneveux.eproxy.Activator;
+import com.github.aneveux.eproxy.api.NetworkLocationWatcher;
+import com.github.aneveux.eproxy.api.RelayProxy;
+
+/**
+ * <p>
+ * {@link StartupExtension} is called once the workbench has started, it
+ * allows to start the {@link NetworkLocationWatcher} if the user enabled it,
+ * and the {@link RelayProxy} if it was running when Eclipse stopped
+ * </p>
+ * <p>
+ * This package is excluded from the lazy activation of the plug-in (see the
+ * manifest), and only compile-time constants of the other classes are used
+ * before the preferences are checked: loading this class doesn't activate the
+ * plug-in, which is only activated on startup if it has something to do.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ * @see IStartup
+ * 
+ */
+public class StartupExtension implements IStartup {
+
+	/**
+	 * @see IStartup#earlyStartup()
+	 */
+	@Override
+	public void earlyStartup() {
+		final IEclipsePreferences preferences = InstanceScope.INSTANCE
+				.getNode(Activator.PLUGIN_ID);
+		if (preferences.getBoolean(NetworkLocationWatcher.ENABLED_PREFERENCE,
+				false))
+			NetworkLocationWatcher.getDefault().start();
+		// Activating the plug-in starts the relay again
+		if (preferences.getBoolean(RelayProxy.RESTART_PREFERENCE, false))
+			Activator.getDefault();
+	}
+
+}
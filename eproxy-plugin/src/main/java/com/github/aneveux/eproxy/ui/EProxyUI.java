@@ -34,7 +34,11 @@
  */
 package com.github.aneveux.eproxy.ui;
 
+import java.util.List;
+
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
 import org.eclipse.swt.events.ModifyEvent;
 import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.events.SelectionEvent;
@@ -43,6 +47,7 @@ import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.layout.FormLayout;
 import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Combo;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Label;
@@ -52,7 +57,11 @@ import org.eclipse.swt.widgets.Text;
 import org.eclipse.ui.PlatformUI;
 
 import com.github.aneveux.eproxy.Activator;
+import com.github.aneveux.eproxy.api.NetworkLocationWatcher;
+import com.github.aneveux.eproxy.api.NonProxyHostParser;
+import com.github.aneveux.eproxy.api.ProfileStore;
 import com.github.aneveux.eproxy.data.EProxy;
+import com.github.aneveux.eproxy.data.EProxySnapshot;
 
 /**
  * This UI element allows to display a wizard which will ask for various
@@ -85,6 +94,35 @@ public class EProxyUI {
 	 */
 	private boolean keepOpen = true;
 
+	/**
+	 * {@link Label} to ask for the profile name
+	 */
+	protected Label profile;
+
+	/**
+	 * {@link Combo} to get the profile name from user, or to select a stored
+	 * profile
+	 */
+	protected Combo profileCombo;
+
+	/**
+	 * Allows to know if the profile should be applied automatically on the
+	 * current network
+	 */
+	protected Button locationCheckbox;
+
+	/**
+	 * Tooltip of {@link #proxyText} when the proxy hasn't been checked yet
+	 */
+	private static final String PROXY_TOOLTIP =
+			"Define proxy following this syntax: host:port";
+
+	/**
+	 * Tooltip of {@link #nonProxyHostsText} when all the entries are valid
+	 */
+	private static final String NON_PROXY_HOSTS_TOOLTIP =
+			"Define non proxy hosts, separe them with a comma";
+
 	/**
 	 * {@link Label} to ask for the proxy host and port
 	 */
@@ -130,6 +168,12 @@ public class EProxyUI {
 	 */
 	protected Text nonProxyHostsText;
 
+	/**
+	 * Allows to know if all the entries of {@link #nonProxyHostsText} can be
+	 * used, the proxy can't be saved otherwise
+	 */
+	protected boolean nonProxyHostsValid = true;
+
 	/**
 	 * Save {@link Button} in order to save the user selection
 	 */
@@ -158,6 +202,39 @@ public class EProxyUI {
 	 */
 	protected boolean isReferenceProvided;
 
+	/**
+	 * Allows to know if the user provided a profile name
+	 */
+	protected boolean isProfileNamed;
+
+	/**
+	 * Allows to know if the user asked for the profile to be applied on the
+	 * current network
+	 */
+	protected boolean isLocationBound;
+
+	/**
+	 * Background of {@link #proxyText} when the proxy is valid, created once
+	 * and disposed with the {@link #shell}
+	 */
+	protected Color validColor;
+
+	/**
+	 * Background of the fields which contain something that can't be used
+	 */
+	protected Color invalidColor;
+
+	/**
+	 * Background of the fields which only deserve a warning, such as a proxy
+	 * which can't be reached
+	 */
+	protected Color warningColor;
+
+	/**
+	 * {@link ProxyReachabilityJob} checking the proxy in the background
+	 */
+	protected ProxyReachabilityJob reachabilityJob;
+
 	/**
 	 * Allows to get the result of the user's selection in the {@link EProxy}
 	 * wizard
@@ -168,6 +245,28 @@ public class EProxyUI {
 		return result;
 	}
 
+	/**
+	 * Allows to know if the user gave a name to the proxy, in which case the
+	 * result can be stored as a profile
+	 * 
+	 * @return true if the result's reference has been provided by the user
+	 */
+	public boolean isProfileNamed() {
+		return result != null && isProfileNamed;
+	}
+
+	/**
+	 * Allows to know if the user asked for the named profile to be applied
+	 * automatically on the current network
+	 * 
+	 * @see NetworkLocationWatcher
+	 * @return true if the profile should be bound to the current network
+	 *         location
+	 */
+	public boolean isLocationBound() {
+		return isProfileNamed() && isLocationBound;
+	}
+
 	/**
 	 * <p>
 	 * Default constructor
@@ -238,9 +337,29 @@ public class EProxyUI {
 		shell = new Shell(display, SWT.BORDER | SWT.APPLICATION_MODAL
 				| SWT.DIALOG_TRIM);
 		shell.setImage(Activator.getDefault().getImage("/icons/proxy.png"));
-		shell.setSize(300, 270);
+		shell.setSize(300, 340);
 		shell.setText("Easy Proxy !");
 		shell.setLayout(new FormLayout());
+		validColor = new Color(display, 250, 250, 250);
+		invalidColor = new Color(display, 250, 0, 0);
+		warningColor = new Color(display, 250, 200, 0);
+		reachabilityJob = new ProxyReachabilityJob(display,
+				new ProxyReachabilityJob.Annotator() {
+					@Override
+					public void annotate(final ProxyAddress address,
+							final String problem, final long latency) {
+						EProxyUI.this.annotateProxy(problem, latency);
+					}
+				});
+		shell.addDisposeListener(new DisposeListener() {
+			@Override
+			public void widgetDisposed(final DisposeEvent e) {
+				reachabilityJob.dispose();
+				validColor.dispose();
+				invalidColor.dispose();
+				warningColor.dispose();
+			}
+		});
 	}
 
 	/**
@@ -305,18 +424,32 @@ public class EProxyUI {
 	 * also a few validation on {@link #proxyText}
 	 */
 	protected void addListenersToComponents() {
+		profileCombo.addSelectionListener(new SelectionListener() {
+			@Override
+			public void widgetSelected(final SelectionEvent e) {
+				final ProfileStore store = ProfileStore.getDefault();
+				// The password is only read from the secure storage once a
+				// profile is actually picked, as it's displayed
+				if (store.contains(profileCombo.getText())) {
+					reference = store.getProfile(profileCombo.getText());
+					displayReference();
+				}
+			}
+
+			@Override
+			public void widgetDefaultSelected(final SelectionEvent e) {
+			}
+		});
 		proxyText.addModifyListener(new ModifyListener() {
 			@Override
 			public void modifyText(final ModifyEvent e) {
-				if (proxyText.getText() == null
-						|| !proxyText.getText().contains(":")
-						|| proxyText.getText().split(":").length != 2) {
-					proxyText.setBackground(new Color(null, 250, 0, 0));
-					save.setEnabled(false);
-				} else {
-					proxyText.setBackground(new Color(null, 250, 250, 250));
-					save.setEnabled(true);
-				}
+				EProxyUI.this.validateProxy();
+			}
+		});
+		nonProxyHostsText.addModifyListener(new ModifyListener() {
+			@Override
+			public void modifyText(final ModifyEvent e) {
+				EProxyUI.this.validateNonProxyHosts();
 			}
 		});
 		checkbox.addSelectionListener(new SelectionListener() {
@@ -343,16 +476,31 @@ public class EProxyUI {
 		save.addSelectionListener(new SelectionListener() {
 			@Override
 			public void widgetSelected(final SelectionEvent e) {
-				result = new EProxy();
-				result.setHost(proxyText.getText().split(":")[0]);
-				result.setPort(Integer
-						.parseInt(proxyText.getText().split(":")[1]));
-				result.setAuthenticationRequired(checkbox.getSelection());
-				if (checkbox.getSelection()) {
-					result.setUser(userText.getText());
-					result.setPassword(passwordText.getText());
+				final ProxyAddress address = ProxyAddress.parse(proxyText
+						.getText());
+				if (!address.isValid()) {
+					EProxyUI.this.validateProxy();
+					return;
 				}
-				result.setNonProxyHosts(nonProxyHostsText.getText());
+				final NonProxyHostParser parser = EProxyUI.this
+						.validateNonProxyHosts();
+				if (!nonProxyHostsValid)
+					return;
+				// Settings which can't be edited in the wizard are kept
+				result = reference != null ? EProxySnapshot.of(reference)
+						.toEProxy() : new EProxy();
+				final String profileName = profileCombo.getText().trim();
+				isProfileNamed = profileName.length() > 0;
+				isLocationBound = locationCheckbox.getSelection();
+				result.setReference(isProfileNamed ? profileName : null);
+				result.setHost(address.getHost());
+				result.setPort(address.getPort());
+				result.setAuthenticationRequired(checkbox.getSelection());
+				result.setUser(checkbox.getSelection() ? userText.getText()
+						: null);
+				result.setPassword(checkbox.getSelection() ? passwordText
+						.getText() : null);
+				result.setNonProxyHosts(parser.getHosts());
 				EProxyUI.this.close();
 			}
 
@@ -360,6 +508,95 @@ public class EProxyUI {
 			public void widgetDefaultSelected(final SelectionEvent e) {
 			}
 		});
+		validateProxy();
+		validateNonProxyHosts();
+	}
+
+	/**
+	 * <p>
+	 * Allows to check the syntax of {@link #proxyText}, which is cheap enough
+	 * to be done on each keystroke
+	 * </p>
+	 * <p>
+	 * Once the syntax is valid, the {@link #reachabilityJob} checks in the
+	 * background that the proxy can be reached, see
+	 * {@link #annotateProxy(String, long)}
+	 * </p>
+	 */
+	protected void validateProxy() {
+		final String text = proxyText.getText();
+		final ProxyAddress address = ProxyAddress.parse(text);
+		if (address.isValid()) {
+			proxyText.setBackground(validColor);
+			proxyText.setToolTipText(PROXY_TOOLTIP);
+			save.setEnabled(nonProxyHostsValid);
+			reachabilityJob.check(address);
+		} else {
+			reachabilityJob.dispose();
+			final boolean empty = text == null || text.trim().length() == 0;
+			proxyText.setBackground(empty ? validColor : invalidColor);
+			proxyText.setToolTipText(address.getError());
+			save.setEnabled(false);
+		}
+	}
+
+	/**
+	 * Allows to check the entries of {@link #nonProxyHostsText}: the
+	 * unexpected ones are reported in the tooltip. Entries Eclipse accepts
+	 * anyway are only warnings, but the proxy can't be saved until the ones
+	 * which can't be used are fixed.
+	 * 
+	 * @return the parser, which contains the normalized hosts to bypass
+	 */
+	protected NonProxyHostParser validateNonProxyHosts() {
+		final NonProxyHostParser parser = NonProxyHostParser
+				.parse(nonProxyHostsText.getText());
+		final List<NonProxyHostParser.Problem> problems = parser.getProblems();
+		nonProxyHostsValid = parser.getErrorCount() == 0;
+		if (problems.isEmpty()) {
+			nonProxyHostsText.setBackground(validColor);
+			nonProxyHostsText.setToolTipText(NON_PROXY_HOSTS_TOOLTIP);
+		} else {
+			// Errors are reported first, as they prevent saving
+			NonProxyHostParser.Problem first = problems.get(0);
+			for (final NonProxyHostParser.Problem problem : problems)
+				if (!problem.isWarning()) {
+					first = problem;
+					break;
+				}
+			String tooltip = first.getReason() + ": " + first.getEntry();
+			if (parser.getProblemCount() > 1)
+				tooltip += " (and " + (parser.getProblemCount() - 1)
+						+ " more)";
+			nonProxyHostsText.setBackground(nonProxyHostsValid ? warningColor
+					: invalidColor);
+			nonProxyHostsText.setToolTipText(tooltip);
+		}
+		save.setEnabled(nonProxyHostsValid
+				&& ProxyAddress.parse(proxyText.getText()).isValid());
+		return parser;
+	}
+
+	/**
+	 * Allows to display the result of the background check of
+	 * {@link #proxyText}, the proxy can still be saved if it isn't reachable
+	 * 
+	 * @param problem
+	 *            a description of the problem, or null if the proxy is
+	 *            reachable
+	 * @param latency
+	 *            time needed to connect to the proxy, in milliseconds
+	 */
+	protected void annotateProxy(final String problem, final long latency) {
+		if (proxyText.isDisposed())
+			return;
+		if (problem != null) {
+			proxyText.setBackground(warningColor);
+			proxyText.setToolTipText(problem);
+		} else {
+			proxyText.setBackground(validColor);
+			proxyText.setToolTipText("Proxy reachable in " + latency + " ms");
+		}
 	}
 
 	/**
@@ -367,12 +604,25 @@ public class EProxyUI {
 	 * {@link FormDataBuilder} in order to deal with the Layout
 	 */
 	protected void createComponents() {
+		profile = new Label(shell, SWT.NONE);
+		profile.setText("Profile:");
+		new FormDataBuilder().top().horizontal().apply(profile);
+		profileCombo = new Combo(shell, SWT.DROP_DOWN);
+		profileCombo
+				.setToolTipText("Name this proxy to store it as a profile, or select a stored profile");
+		profileCombo.setItems(ProfileStore.getDefault().getProfileNames());
+		new FormDataBuilder().top(profile).horizontal().apply(profileCombo);
+		locationCheckbox = new Button(shell, SWT.CHECK);
+		locationCheckbox.setText("Apply this profile on the current network");
+		locationCheckbox
+				.setToolTipText("Apply the named profile automatically each time Eclipse joins this network");
+		new FormDataBuilder().top(profileCombo).horizontal()
+				.apply(locationCheckbox);
 		proxy = new Label(shell, SWT.NONE);
 		proxy.setText("Proxy: (host:port)");
-		new FormDataBuilder().top().horizontal().apply(proxy);
+		new FormDataBuilder().top(locationCheckbox).horizontal().apply(proxy);
 		proxyText = new Text(shell, SWT.BORDER);
-		proxyText
-				.setToolTipText("Define proxy following this syntax: host:port");
+		proxyText.setToolTipText(PROXY_TOOLTIP);
 		new FormDataBuilder().top(proxy).horizontal().apply(proxyText);
 		checkbox = new Button(shell, SWT.CHECK);
 		checkbox.setText("Requires authentication");
@@ -396,8 +646,7 @@ public class EProxyUI {
 		new FormDataBuilder().top(passwordText).horizontal()
 				.apply(nonProxyHosts);
 		nonProxyHostsText = new Text(shell, SWT.BORDER);
-		nonProxyHostsText
-				.setToolTipText("Define non proxy hosts, separe them with a comma");
+		nonProxyHostsText.setToolTipText(NON_PROXY_HOSTS_TOOLTIP);
 		new FormDataBuilder().top(nonProxyHosts).horizontal()
 				.apply(nonProxyHostsText);
 		save = new Button(shell, SWT.PUSH);
@@ -416,7 +665,20 @@ public class EProxyUI {
 	 */
 	protected void displayReference() {
 		if (reference != null) {
-			proxyText.setText(reference.getHost() + ":" + reference.getPort());
+			if (ProfileStore.getDefault().contains(reference.getReference())) {
+				profileCombo.setText(reference.getReference());
+				locationCheckbox.setSelection(NetworkLocationWatcher
+						.getDefault().isBoundToCurrentLocation(
+								reference.getReference()));
+			}
+			if (reference.getHost() == null)
+				proxyText.setText("");
+			else if (reference.getHost().indexOf(':') >= 0)
+				proxyText.setText("[" + reference.getHost() + "]:"
+						+ reference.getPort());
+			else
+				proxyText.setText(reference.getHost() + ":"
+						+ reference.getPort());
 			checkbox.setSelection(reference.isAuthenticationRequired());
 			userText.setEnabled(reference.isAuthenticationRequired());
 			passwordText.setEnabled(reference.isAuthenticationRequired());
@@ -432,7 +694,8 @@ public class EProxyUI {
 					nonProxyHosts += s + ",";
 				nonProxyHostsText.setText(nonProxyHosts.substring(0,
 						nonProxyHosts.length() - 1));
-			}
+			} else
+				nonProxyHostsText.setText("");
 		}
 	}
 
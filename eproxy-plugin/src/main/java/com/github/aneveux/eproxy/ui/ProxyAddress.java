@@ -0,0 +1,190 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.ui;
+
+import com.github.aneveux.eproxy.api.AddressRangeTree;
+
+/**
+ * <p>
+ * This class checks the syntax of a proxy typed as <i>host:port</i> in the
+ * wizard, IPv6 addresses being written between brackets (<i>[::1]:3128</i>)
+ * </p>
+ * <p>
+ * Checks are done in a single pass on the text and never throw, so they can
+ * be run on each keystroke from the UI thread
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public final class ProxyAddress {
+
+	/**
+	 * Maximum length of a host name
+	 */
+	private static final int MAX_HOST_LENGTH = 253;
+
+	private final String host;
+
+	private final int port;
+
+	private final String error;
+
+	private ProxyAddress(final String host, final int port, final String error) {
+		this.host = host;
+		this.port = port;
+		this.error = error;
+	}
+
+	private static ProxyAddress invalid(final String error) {
+		return new ProxyAddress(null, -1, error);
+	}
+
+	/**
+	 * Allows to parse a proxy typed as <i>host:port</i>
+	 * 
+	 * @param text
+	 *            the text to parse, can be null
+	 * @return the parsed {@link ProxyAddress}, which may be invalid
+	 */
+	public static ProxyAddress parse(final String text) {
+		final String value = text == null ? "" : text.trim();
+		if (value.length() == 0)
+			return invalid("Define proxy following this syntax: host:port");
+		final int colon;
+		final String host;
+		if (value.charAt(0) == '[') {
+			final int end = value.indexOf(']');
+			if (end < 0)
+				return invalid("Missing ] after the IPv6 address");
+			host = value.substring(1, end);
+			if (host.indexOf('/') >= 0 || !AddressRangeTree.isRange(host))
+				return invalid("Invalid IPv6 address: " + host);
+			colon = end + 1;
+			if (colon == value.length() || value.charAt(colon) != ':')
+				return invalid("Missing :port after the address");
+		} else {
+			colon = value.indexOf(':');
+			if (colon < 0)
+				return invalid("Missing :port after the host");
+			if (value.indexOf(':', colon + 1) >= 0)
+				return invalid("IPv6 addresses must be written between brackets");
+			host = value.substring(0, colon);
+			final String problem = checkHostName(host);
+			if (problem != null)
+				return invalid(problem);
+		}
+		final int port = parsePort(value, colon + 1);
+		if (port < 0)
+			return invalid("The port must be a number between 1 and 65535");
+		return new ProxyAddress(host, port, null);
+	}
+
+	private static String checkHostName(final String host) {
+		if (host.length() == 0)
+			return "Missing host before :port";
+		if (host.length() > MAX_HOST_LENGTH)
+			return "The host is longer than " + MAX_HOST_LENGTH
+					+ " characters";
+		char previous = '.';
+		for (int i = 0; i < host.length(); i++) {
+			final char c = host.charAt(i);
+			if (c == '.') {
+				if (previous == '.')
+					return "Empty label in the host name";
+			} else if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z')
+					&& !(c >= '0' && c <= '9') && c != '-' && c != '_')
+				return "Invalid character in the host name: " + c;
+			previous = c;
+		}
+		return null;
+	}
+
+	/**
+	 * Parses the port without going through {@link Integer#parseInt(String)},
+	 * returning -1 if it isn't valid
+	 */
+	private static int parsePort(final String value, final int from) {
+		final int length = value.length() - from;
+		if (length < 1 || length > 5)
+			return -1;
+		int port = 0;
+		for (int i = from; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			port = port * 10 + c - '0';
+		}
+		return port >= 1 && port <= 65535 ? port : -1;
+	}
+
+	/**
+	 * @return true if the text is a valid proxy
+	 */
+	public boolean isValid() {
+		return error == null;
+	}
+
+	/**
+	 * @return the host, without brackets for IPv6 addresses, or null if the
+	 *         text isn't valid
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * @return the port, or -1 if the text isn't valid
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return a description of the problem, or null if the text is valid
+	 */
+	public String getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		if (error != null)
+			return error;
+		return (host.indexOf(':') >= 0 ? "[" + host + "]" : host) + ":" + port;
+	}
+}
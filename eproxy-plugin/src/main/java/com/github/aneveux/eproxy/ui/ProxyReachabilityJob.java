@@ -0,0 +1,186 @@
+/*
+ *   eProxy - An user friendly Eclipse plugin to manage easily your
+ *   proxy inside Eclipse
+ *   Copyright (c) 2012, Antoine Neveux
+ *   All rights reserved.
+ *
+ *   Redistribution and use in source and binary forms, with or without
+ *   modification, are permitted provided that the following conditions
+ *   are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ *   3. Neither the name of the project's author nor the names of its
+ *   contributors may be used to endorse or promote products derived from
+ *   this software without specific prior written permission.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ *   WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.aneveux.eproxy.ui;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * <p>
+ * This {@link Job} checks in the background that the proxy typed in the
+ * wizard can be resolved and accepts connections, so that the user knows
+ * about a typo before saving
+ * </p>
+ * <p>
+ * Checks are debounced: each call to {@link #check(ProxyAddress)} cancels
+ * the pending one and waits {@link #DEBOUNCE_DELAY} milliseconds, so only the
+ * last value typed is checked. The result is given back to the
+ * {@link Annotator} in the UI thread, and only if the value hasn't changed in
+ * the meantime. The UI thread never waits for the network.
+ * </p>
+ * 
+ * @author Antoine Neveux
+ * @version 1.0
+ * @since 1.2
+ * 
+ */
+public class ProxyReachabilityJob extends Job {
+
+	/**
+	 * Delay to wait after the last keystroke before checking, in milliseconds
+	 */
+	public static final long DEBOUNCE_DELAY = 600;
+
+	/**
+	 * Maximum time to wait for the connection, in milliseconds
+	 */
+	public static final int CONNECT_TIMEOUT = 2000;
+
+	/**
+	 * Receives the result of the checks, in the UI thread
+	 */
+	public interface Annotator {
+
+		/**
+		 * Called once the provided address has been checked
+		 * 
+		 * @param address
+		 *            the address which has been checked
+		 * @param problem
+		 *            a description of the problem, or null if the proxy is
+		 *            reachable
+		 * @param latency
+		 *            time needed to connect, in milliseconds, or -1
+		 */
+		void annotate(ProxyAddress address, String problem, long latency);
+	}
+
+	private final Display display;
+
+	private final Annotator annotator;
+
+	/**
+	 * Last address to check, null once the job is disposed
+	 */
+	private volatile ProxyAddress current;
+
+	/**
+	 * Creates a new job
+	 * 
+	 * @param display
+	 *            the {@link Display} in which the {@link Annotator} is called
+	 * @param annotator
+	 *            the {@link Annotator} to notify
+	 */
+	public ProxyReachabilityJob(final Display display,
+			final Annotator annotator) {
+		super("Checking the proxy");
+		this.display = display;
+		this.annotator = annotator;
+		setSystem(true);
+		setPriority(Job.SHORT);
+	}
+
+	/**
+	 * Allows to check the provided address, once the user stops typing
+	 * 
+	 * @param address
+	 *            a valid {@link ProxyAddress}
+	 */
+	public void check(final ProxyAddress address) {
+		current = address;
+		cancel();
+		schedule(DEBOUNCE_DELAY);
+	}
+
+	/**
+	 * Allows to forget about the pending check, for instance when the value
+	 * isn't valid anymore or when the wizard is closed
+	 */
+	public void dispose() {
+		current = null;
+		cancel();
+	}
+
+	@Override
+	protected IStatus run(final IProgressMonitor monitor) {
+		final ProxyAddress address = current;
+		if (address == null || monitor.isCanceled())
+			return Status.CANCEL_STATUS;
+		String problem = null;
+		long latency = -1;
+		try {
+			final InetAddress resolved = InetAddress.getByName(address
+					.getHost());
+			if (monitor.isCanceled() || address != current)
+				return Status.CANCEL_STATUS;
+			final Socket socket = new Socket();
+			try {
+				final long start = System.nanoTime();
+				socket.connect(new InetSocketAddress(resolved, address
+						.getPort()), CONNECT_TIMEOUT);
+				latency = (System.nanoTime() - start) / 1000000;
+			} finally {
+				socket.close();
+			}
+		} catch (final UnknownHostException e) {
+			problem = "Unknown host: " + address.getHost();
+		} catch (final IOException e) {
+			problem = "Proxy unreachable: " + e.getMessage();
+		}
+		if (monitor.isCanceled() || address != current
+				|| display.isDisposed())
+			return Status.CANCEL_STATUS;
+		final String result = problem;
+		final long time = latency;
+		display.asyncExec(new Runnable() {
+			@Override
+			public void run() {
+				if (address == current)
+					annotator.annotate(address, result, time);
+			}
+		});
+		return Status.OK_STATUS;
+	}
+}